@@ -1,16 +1,16 @@
 package controllers;
 
-import java.awt.Color;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
-import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.table.DefaultTableModel;
 
@@ -37,11 +37,13 @@ import net.jini.jeri.BasicJeriExporter;
 import net.jini.jeri.tcp.TcpServerEndpoint;
 import net.jini.space.JavaSpace05;
 import services.MessageService;
+import services.NotificationService;
 import services.SpaceService;
 import services.TopicService;
 import services.UserService;
 import views.ChatroomFrame;
-import views.ColoredTable;
+import views.MessagesTableModel;
+import views.ThrottledMessageRenderer;
 
 /**
  * Controls a given ChatroomFrame for a given user and topic.
@@ -52,16 +54,19 @@ import views.ColoredTable;
 public class ChatroomController implements Serializable {
 	private static final long serialVersionUID = 523026449422229593L;
 	private static final UserService userService = UserService.getUserService();
+	private static final NotificationService notificationService = NotificationService.getNotificationService();
 
 	private ChatroomFrame frame;
-	private DefaultTableModel messagesTableModel;
+	// Read by the message listener's thread
+	private volatile MessagesTableModel messagesTableModel;
+	// Messages waiting to be shown by the frame's ThrottledMessageRenderer
+	private final Queue<JMSMessage> pendingMessages = new ConcurrentLinkedQueue<JMSMessage>();
 	private DefaultTableModel usersTableModel;
 	private MessageService messageService;
 	private TopicService topicService;
 	private JMSTopic topic;
 	private JMSUser user;
 	private String nameSendingMessageTo;
-	private List<Integer> rowsToHighlight = new ArrayList<Integer>();
 	private RemoteEventListener messageReceivedStub;
 	private RemoteEventListener usersAddedStub;
 	private RemoteEventListener usersRemovedStub;
@@ -90,48 +95,17 @@ public class ChatroomController implements Serializable {
 	}
 
 	/**
-	 * Gets all messages for its topic and puts them into a DefaultTableModel.
+	 * Gets all messages for its topic and puts them into a MessagesTableModel.
 	 * 
-	 * @return A DefaultTableModel containing all of a Chatroom's messages.s
+	 * @return A MessagesTableModel containing all of a Chatroom's messages.
 	 */
-	public DefaultTableModel generateMessagesTableModel() {
-		Object[] columns = { "Time Sent", "User", "Message", "Message ID" };
+	public MessagesTableModel generateMessagesTableModel() {
 		List<JMSMessage> messages = messageService.getAllMessagesForUserInTopic(topic, user);
 
-		for (int i = 0; i < messages.size(); i++) {
-			JMSMessage message = messages.get(i);
-
-			// If the message has a non-null "to" field, then it is a private
-			// message and should be highlighted.
-			if (message.getTo() != null) {
-				rowsToHighlight.add(i);
-			}
-		}
-
-		Object[][] data = {};
-
-		if (messages != null && messages.size() > 0) {
-			data = new Object[messages.size()][4];
-			// Put all of the messages for the topic into an array of arrays
-			for (int i = 0; i < messages.size(); i++) {
-				@SuppressWarnings("deprecation")
-				String minutes = "" + messages.get(i).getSentDate().getMinutes();
-				// Ensures 1:03 is not shown as 1:3
-				if (minutes.length() == 1) {
-					minutes = "0" + minutes;
-				}
-				@SuppressWarnings("deprecation")
-				String hours = "" + messages.get(i).getSentDate().getHours();
-				data[i][0] = hours + ":" + minutes;
-				data[i][1] = messages.get(i).getFrom().getName();
-				data[i][2] = messages.get(i).getMessage();
-				data[i][3] = messages.get(i).getId();
-			}
-		}
-
-		// Add the array of data arrays (of message info) to the table model
-		// that's shown to the user.
-		messagesTableModel = new DefaultTableModel(data, columns);
+		// The table model keeps just what it shows of each message
+		messagesTableModel = new MessagesTableModel(user);
+		messagesTableModel.getStore().setMentionMatcher(notificationService.getMentionMatcher(user));
+		messagesTableModel.addMessages(messages);
 
 		return messagesTableModel;
 	}
@@ -181,15 +155,6 @@ public class ChatroomController implements Serializable {
 		handleSubmitPressed(null);
 	}
 
-	/**
-	 * Highlights the bottom-most row in the messages table grey.
-	 */
-	public void highlightBottomMessage() {
-		ColoredTable messagesTable = frame.getMessagesTable();
-		int lastRow = messagesTable.getRowCount() - 1;
-		messagesTable.setRowColor(lastRow, Color.LIGHT_GRAY);
-	}
-
 	/**
 	 * Register the user as in the topic so other clients can see them.
 	 */
@@ -203,6 +168,7 @@ public class ChatroomController implements Serializable {
 	 */
 	public void handleWindowClose() {
 		topicService.removeTopicUser(topic, user);
+
 		try {
 			topicRemovedRegistration.getLease().cancel();
 			messageReceivedRegistration.getLease().cancel();
@@ -212,9 +178,32 @@ public class ChatroomController implements Serializable {
 			System.err.println("Failed to remove ChatroomController listener(s).");
 		}
 
+		closeMessages();
+
 		frame.superDispose();
 	}
 
+	/**
+	 * Stops showing new messages, then frees the ones shown. The store is
+	 * only closed once nothing can add to it.
+	 */
+	private void closeMessages() {
+		ThrottledMessageRenderer renderer = frame.getMessageRenderer();
+
+		// Not made yet if the frame is still being built
+		if (renderer != null) {
+			renderer.stop();
+		}
+
+		MessagesTableModel closingMessages = messagesTableModel;
+		messagesTableModel = null;
+		pendingMessages.clear();
+
+		if (closingMessages != null) {
+			closingMessages.close();
+		}
+	}
+
 	/**
 	 * Handles the "Send Private Message" button being pressed
 	 */
@@ -239,25 +228,62 @@ public class ChatroomController implements Serializable {
 	}
 
 	/**
-	 * Highlights all PMs to/from a given user.
+	 * Handles the "Watch Words" button being pressed. Asks the user for the
+	 * words, besides their name, that should highlight a message, and saves
+	 * them.
 	 */
-	public void highlightAllPMsInInitialTableModel() {
-		ColoredTable messagesTable = frame.getMessagesTable();
+	public void handleWatchWordsPressed() {
+		String current = StringUtils.join(notificationService.getWatchWords(user), ", ");
+		String entered = (String) JOptionPane.showInputDialog(frame,
+				"Highlight messages containing your name or any of these words (comma separated):", "Watch Words",
+				JOptionPane.PLAIN_MESSAGE, null, null, current);
+
+		// Cancelled
+		if (entered == null) {
+			return;
+		}
+
+		notificationService.setWatchWords(user, Arrays.asList(entered.split(",")));
 
-		for (Integer i : rowsToHighlight) {
-			messagesTable.setRowColor(i, Color.LIGHT_GRAY);
+		// Messages already shown keep their highlighting
+		if (messagesTableModel != null) {
+			messagesTableModel.getStore().setMentionMatcher(notificationService.getMentionMatcher(user));
 		}
 	}
 
 	/**
-	 * Getter for this chatroom's messages DefaultTableModel.
+	 * Getter for this chatroom's messages MessagesTableModel.
 	 * 
-	 * @return This chatroom's messages DefaultTableModel.
+	 * @return This chatroom's messages MessagesTableModel.
 	 */
-	public DefaultTableModel getMessagesTableModel() {
+	public MessagesTableModel getMessagesTableModel() {
 		return messagesTableModel;
 	}
 
+	/**
+	 * Queues a message that has just been sent to the topic, to be shown in the
+	 * next frame. Can be called from any thread.
+	 * 
+	 * @param message
+	 *            The message, which must be one the user is allowed to see
+	 */
+	public void showMessage(JMSMessage message) {
+		// Messages sent before the table was filled are already in it, and
+		// once the topic is deleted there's nothing to show them in
+		if (messagesTableModel == null) {
+			return;
+		}
+
+		pendingMessages.add(message);
+	}
+
+	/**
+	 * @return Messages waiting to be shown, oldest first
+	 */
+	public Queue<JMSMessage> getPendingMessages() {
+		return pendingMessages;
+	}
+
 	/**
 	 * Getter for this chatroom's users DefaultTableModel.
 	 * 
@@ -271,7 +297,7 @@ public class ChatroomController implements Serializable {
 	 * If the topic is deleted, notify the user then close the topic's window.
 	 */
 	public void handleTopicDeleted() {
-		messagesTableModel = null;
+		closeMessages();
 
 		JOptionPane.showMessageDialog(frame, "This topic (" + topic.getName()
 				+ ") has been deleted by its owner.  The topic window will now close.");
@@ -329,7 +355,8 @@ public class ChatroomController implements Serializable {
 				// If there is no user in particular to send the message to,
 				// it's a public message.
 				if (StringUtils.isBlank(nameSendingMessageTo)) {
-					messageService.sendMessage(new JMSMessage(topic, new Date(), user, null, UUID.randomUUID(), text));
+					messageService.sendMessage(new JMSMessage(topic, System.currentTimeMillis(), user, null,
+							UUID.randomUUID(), text));
 
 					// If something goes wrong, the next line won't be called
 					// (as we'll be in the catch block). So this is how we
@@ -344,7 +371,8 @@ public class ChatroomController implements Serializable {
 					}
 
 					messageService
-							.sendMessage(new JMSMessage(topic, new Date(), user, userTo, UUID.randomUUID(), text));
+							.sendMessage(new JMSMessage(topic, System.currentTimeMillis(), user, userTo,
+									UUID.randomUUID(), text));
 					successfullyAddedToSpace = true;
 				}
 			} catch (Exception e) {
@@ -397,11 +425,6 @@ public class ChatroomController implements Serializable {
 	 * Sets up listener for messages that are sent in the current topic.
 	 */
 	public void registerMessageListener() {
-		JavaSpace05 space = SpaceService.getSpace();
-		JMSMessage template = new JMSMessage(topic);
-		ArrayList<JMSMessage> templates = new ArrayList<JMSMessage>(1);
-		templates.add(template);
-
 		try {
 			// create the exporter
 			Exporter myDefaultExporter = new BasicJeriExporter(TcpServerEndpoint.getInstance(0), new BasicILFactory(),
@@ -412,8 +435,7 @@ public class ChatroomController implements Serializable {
 			MessageRemoteEventListener eventListener = new MessageRemoteEventListener(this, topic, user);
 			messageReceivedStub = (RemoteEventListener) myDefaultExporter.export(eventListener);
 
-			messageReceivedRegistration = space.registerForAvailabilityEvent(templates, null, true, messageReceivedStub,
-					Lease.FOREVER, null);
+			messageReceivedRegistration = messageService.registerMessageListener(topic, messageReceivedStub);
 		} catch (TransactionException | IOException e) {
 			System.err.println("Failed to setup message listener.");
 			e.printStackTrace();
@@ -424,7 +446,7 @@ public class ChatroomController implements Serializable {
 	 * Sets up listener for users that join the current topic.
 	 */
 	private void registerUserAddedListener() {
-		JavaSpace05 space = SpaceService.getSpace();
+		JavaSpace05 space = SpaceService.getTopicSpace(topic);
 		JMSTopicUser template = new JMSTopicUser(topic);
 		ArrayList<JMSTopicUser> templates = new ArrayList<JMSTopicUser>(1);
 		templates.add(template);
@@ -451,7 +473,7 @@ public class ChatroomController implements Serializable {
 	 * Sets up listener for users that leave the current topic.
 	 */
 	private void registerUserRemovedListener() {
-		JavaSpace05 space = SpaceService.getSpace();
+		JavaSpace05 space = SpaceService.getTopicSpace(topic);
 		JMSTopicUserRemoved template = new JMSTopicUserRemoved(topic);
 		ArrayList<JMSTopicUserRemoved> templates = new ArrayList<JMSTopicUserRemoved>(1);
 		templates.add(template);
@@ -478,7 +500,6 @@ public class ChatroomController implements Serializable {
 	 * Moves the current view down so the most recent message is visible.
 	 */
 	private void scrollToBottomOfMessages() {
-		JTable messagesTable = frame.getMessagesTable();
-		messagesTable.scrollRectToVisible(messagesTable.getCellRect(messagesTable.getRowCount() - 1, 0, true));
+		frame.getMessageRenderer().scrollToBottom();
 	}
 }
@@ -13,6 +13,7 @@ import javax.swing.JPasswordField;
 import org.apache.commons.lang3.StringUtils;
 
 import exceptions.DuplicateEntryException;
+import exceptions.NameContendedException;
 import models.JMSUser;
 import net.jini.core.transaction.TransactionException;
 import services.UserService;
@@ -154,6 +155,11 @@ public class LoginController {
 					// user.
 					JOptionPane.showMessageDialog(loginFrame, "Name already in use.  Please enter a different name.");
 					;
+				} catch (NameContendedException e) {
+					// Someone else is signing up with the same name right now,
+					// so it may still be free
+					JOptionPane.showMessageDialog(loginFrame,
+							"Someone else is signing up with that name right now.  Please try again.");
 				}
 			} else {
 				// If the user enters non-matching passwords, inform them so
@@ -7,13 +7,19 @@ import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.table.DefaultTableModel;
 
 import org.apache.commons.lang3.StringUtils;
 
+import exceptions.DuplicateEntryException;
+import exceptions.NameContendedException;
 import listeners.TopicAddedRemoteEventListener;
 import listeners.TopicRemovedRemoteEventListener;
 import models.JMSTopic;
@@ -30,9 +36,12 @@ import net.jini.jeri.BasicILFactory;
 import net.jini.jeri.BasicJeriExporter;
 import net.jini.jeri.tcp.TcpServerEndpoint;
 import net.jini.space.JavaSpace05;
+import services.PresenceService;
 import services.SpaceService;
+import services.TopicActivityService;
 import services.TopicService;
-import services.helper.EntryLookupHelper;
+import services.search.TopicSearchIndex;
+import services.stats.TopicActivity;
 import views.ChatroomFrame;
 import views.LoginFrame;
 import views.MainMenuFrame;
@@ -46,8 +55,15 @@ import views.MainMenuFrame;
 public class MainMenuController {
 	private static TopicService topicService = TopicService.getTopicService();
 
+	// How many topics the hot topics list shows
+	private static final int HOT_TOPICS_SHOWN = 20;
+
 	private MainMenuFrame frame;
 	private DefaultTableModel topicsTableModel;
+	// Every topic, kept up to date by the topic added/removed listeners
+	private final TopicSearchIndex topicIndex = new TopicSearchIndex();
+	// What the topic list is filtered by
+	private String topicQuery = "";
 	private JMSUser user;
 	private RemoteEventListener topicAddedListenerStub;
 	private RemoteEventListener topicRemovedListenerStub;
@@ -61,6 +77,10 @@ public class MainMenuController {
 		// Listen for topics being created and deleted.
 		registerTopicAddedListener();
 		registerTopicRemovedListener();
+
+		// Find whatever counts topic activity now, in the background, rather
+		// than when the user first asks for hot topics
+		TopicActivityService.getTopicActivityService().start();
 	}
 
 	/**
@@ -94,8 +114,15 @@ public class MainMenuController {
 			// Check if this user already has a chat window open for this topic
 			for (JMSTopicUser topicUser : topicUsers) {
 				if (topicUser.getUser().equals(user)) {
-					JOptionPane.showMessageDialog(frame,
-							"You are already in this topic.  If you are not, try logging out then back in to continue.");
+					if (PresenceService.getPresenceService().isTracked(topic, user)) {
+						JOptionPane.showMessageDialog(frame, "You are already in this topic.");
+					} else {
+						// Left behind by a client that has since closed. It
+						// will expire once its presence lease runs out
+						JOptionPane.showMessageDialog(frame, "You are already in this topic from another window.  "
+								+ "If you are not, please wait " + PresenceService.PRESENCE_LEASE_IN_MILLIS / 1000l
+								+ " seconds and try again.");
+					}
 
 					return;
 				}
@@ -150,19 +177,17 @@ public class MainMenuController {
 	 */
 	public DefaultTableModel generateTopicTableModel() {
 		Object[] columns = { "Topic", "Owner", "Owner ID", "Topic ID" };
-		List<JMSTopic> topics = topicService.getAllTopics();
-
-		Object[][] data = {};
-
-		// Put all of the topics into an array of arrays.
-		if (topics != null && topics.size() > 0) {
-			data = new Object[topics.size()][5];
-			for (int i = 0; i < topics.size(); i++) {
-				data[i][0] = topics.get(i).getName();
-				data[i][1] = topics.get(i).getOwner().getName();
-				data[i][2] = topics.get(i).getOwner().getId();
-				data[i][3] = topics.get(i).getId();
-			}
+
+		// The only full read of the topics. From here on the index is kept up
+		// to date from topic added/removed events
+		topicIndex.reset(topicService.getAllTopics());
+		List<JMSTopic> topics = topicIndex.search(topicQuery, Integer.MAX_VALUE);
+
+		Object[][] data = new Object[topics.size()][];
+
+		// Put all of the matching topics into an array of arrays.
+		for (int i = 0; i < topics.size(); i++) {
+			data[i] = topicRow(topics.get(i));
 		}
 
 		// Generate a table model from the array of arrays.
@@ -171,6 +196,137 @@ public class MainMenuController {
 		return topicsTableModel;
 	}
 
+	/**
+	 * Shows just the topics whose names start with what the user has typed
+	 * into the search box.
+	 * 
+	 * @param query
+	 *            The start of a topic name, or blank to show every topic
+	 */
+	public void handleSearchChanged(String query) {
+		topicQuery = query;
+
+		// Replace the rows rather than the model, so the table keeps its
+		// hidden columns
+		topicsTableModel.setRowCount(0);
+
+		for (JMSTopic topic : topicIndex.search(query, Integer.MAX_VALUE)) {
+			topicsTableModel.addRow(topicRow(topic));
+		}
+	}
+
+	/**
+	 * Shows the busiest topics, by messages sent recently then by users in
+	 * them.
+	 */
+	public void handleHotTopicsPressed() {
+		// Asking goes to the topic relay, or the spaces if there isn't one, so
+		// it's done off the event dispatch thread
+		new SwingWorker<List<TopicActivity>, Void>() {
+			private int windowMinutes;
+
+			@Override
+			protected List<TopicActivity> doInBackground() throws RemoteException {
+				TopicActivityService activityService = TopicActivityService.getTopicActivityService();
+				windowMinutes = activityService.getWindowMinutes();
+
+				return activityService.getHotTopics(HOT_TOPICS_SHOWN);
+			}
+
+			@Override
+			protected void done() {
+				try {
+					showHotTopics(get(), windowMinutes);
+				} catch (InterruptedException | ExecutionException e) {
+					System.err.println("Failed to get hot topics.");
+					e.printStackTrace();
+
+					JOptionPane.showMessageDialog(frame,
+							"Hot topics aren't available right now.  Please try again later.");
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Shows the hot topics in a dialog.
+	 * 
+	 * @param hotTopics
+	 *            The busiest topics, busiest first
+	 * @param windowMinutes
+	 *            How many minutes back messages were counted
+	 */
+	private void showHotTopics(List<TopicActivity> hotTopics, int windowMinutes) {
+		Object[] columns = { "Topic", "Users", "Messages (last " + windowMinutes + " min)" };
+		Object[][] data = new Object[hotTopics.size()][];
+
+		for (int i = 0; i < hotTopics.size(); i++) {
+			TopicActivity activity = hotTopics.get(i);
+			data[i] = new Object[] { activity.getTopic().getName(), activity.getMemberCount(),
+					activity.getRecentMessageCount() };
+		}
+
+		JTable hotTopicsTable = new JTable(new DefaultTableModel(data, columns));
+		hotTopicsTable.setEnabled(false);
+
+		JOptionPane.showMessageDialog(frame, new JScrollPane(hotTopicsTable), "Hot Topics",
+				JOptionPane.PLAIN_MESSAGE);
+	}
+
+	/**
+	 * Adds a newly created topic to the topic list, if it matches the search,
+	 * by running the search again. Adding just its row could list it twice,
+	 * if the search had already run again since it was indexed. Can be called
+	 * from any thread.
+	 * 
+	 * @param topic
+	 *            The topic that was created
+	 */
+	public void handleTopicAdded(final JMSTopic topic) {
+		// Already listed if it was created while the list was being read
+		if (!topicIndex.add(topic)) {
+			return;
+		}
+
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (TopicSearchIndex.matches(topic, topicQuery)) {
+					handleSearchChanged(topicQuery);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Removes a deleted topic from the topic list. Can be called from any
+	 * thread.
+	 * 
+	 * @param topic
+	 *            The topic that was deleted
+	 */
+	public void handleTopicRemoved(final JMSTopic topic) {
+		topicIndex.remove(topic);
+
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				// Loop through all of the topics in the topic list and remove
+				// the one that was deleted
+				for (int i = 0; i < topicsTableModel.getRowCount(); i++) {
+					UUID topicIdInTable = (UUID) topicsTableModel.getValueAt(i,
+							MainMenuFrame.COLUMN_INDEX_OF_TOPIC_ID);
+
+					if (topicIdInTable.equals(topic.getId())) {
+						topicsTableModel.removeRow(i);
+
+						break;
+					}
+				}
+			}
+		});
+	}
+
 	/**
 	 * A simple getter for the DefaultTableModel of topics.
 	 * 
@@ -234,6 +390,8 @@ public class MainMenuController {
 	 * Removes the topic added/deleted listeners from the space.
 	 */
 	private void cancelLeases() {
+		TopicActivityService.stop();
+
 		try {
 			topicAddedRegistration.getLease().cancel();
 			topicRemovedRegistration.getLease().cancel();
@@ -248,13 +406,7 @@ public class MainMenuController {
 	 * in then back out again.
 	 */
 	private void removeUserFromAllTopics() {
-		EntryLookupHelper lookupHelper = new EntryLookupHelper();
-		JMSTopicUser thisUser = new JMSTopicUser();
-		thisUser.setUser(user);
-		List<JMSTopicUser> topicUsers = lookupHelper.findAllMatchingTemplate(SpaceService.getSpace(), thisUser);
-		for (JMSTopicUser topicUser : topicUsers) {
-			TopicService.getTopicService().removeTopicUser(topicUser.getTopic(), topicUser.getUser());
-		}
+		topicService.removeUserFromAllTopics(user);
 	}
 
 	/**
@@ -270,6 +422,13 @@ public class MainMenuController {
 		table.removeColumn(table.getColumnModel().getColumn(MainMenuFrame.COLUMN_INDEX_OF_TOPIC_OWNER_ID));
 	}
 
+	/**
+	 * @return A topic's row in the topic list
+	 */
+	private static Object[] topicRow(JMSTopic topic) {
+		return new Object[] { topic.getName(), topic.getOwner().getName(), topic.getOwner().getId(), topic.getId() };
+	}
+
 	/**
 	 * Sets up listener for topics being added to the space.
 	 */
@@ -332,8 +491,16 @@ public class MainMenuController {
 
 		try {
 			topicService.createTopic(topic);
-		} catch (Exception e) {
+		} catch (DuplicateEntryException e) {
 			JOptionPane.showMessageDialog(frame, "Failed to create topic.  Topic name already exists");
+		} catch (NameContendedException e) {
+			JOptionPane.showMessageDialog(frame,
+					"Someone else is creating a topic with that name right now.  Please try again.");
+		} catch (Exception e) {
+			System.err.println("Failed to create topic.");
+			e.printStackTrace();
+
+			JOptionPane.showMessageDialog(frame, "Failed to create topic.  Please try again later.");
 		}
 	}
 }
@@ -0,0 +1,14 @@
+package exceptions;
+
+/**
+ * An exception for use when a name can't be claimed because other clients
+ * keep claiming it at the same time. Unlike a DuplicateEntryException, the
+ * name may well be free, so the operation can be retried.
+ */
+public class NameContendedException extends Exception {
+	private static final long serialVersionUID = 4619470734282316157L;
+
+	public NameContendedException(String message) {
+		super(message);
+	}
+}
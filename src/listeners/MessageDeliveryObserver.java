@@ -0,0 +1,21 @@
+package listeners;
+
+import models.JMSMessage;
+import models.JMSUser;
+
+/**
+ * Gets told whenever a MessageRemoteEventListener delivers a message to its
+ * user. Used to measure how long messages take to arrive, e.g. by the load
+ * generator.
+ */
+public interface MessageDeliveryObserver {
+	/**
+	 * Called on the listener's event thread, so should return quickly.
+	 * 
+	 * @param message
+	 *            The message that was delivered
+	 * @param recipient
+	 *            The user it was delivered to
+	 */
+	void messageDelivered(JMSMessage message, JMSUser recipient);
+}
@@ -0,0 +1,65 @@
+package listeners;
+
+import java.io.Serializable;
+
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSTopicDeleted;
+import models.JMSTopicUser;
+import models.JMSTopicUserRemoved;
+import net.jini.core.entry.Entry;
+import net.jini.core.event.RemoteEvent;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.space.AvailabilityEvent;
+import services.metrics.EventSequence;
+import services.metrics.MessagingMetrics;
+import services.stats.TopicActivityTracker;
+
+/**
+ * Listens for topics being added and deleted, users joining and leaving
+ * topics, and messages being sent, and counts them in a TopicActivityTracker.
+ */
+public class TopicActivityRemoteEventListener implements RemoteEventListener, Serializable {
+	private static final long serialVersionUID = -4308297723178264851L;
+
+	private final TopicActivityTracker tracker;
+
+	private final EventSequence eventSequence = new EventSequence();
+
+	public TopicActivityRemoteEventListener(TopicActivityTracker tracker) {
+		super();
+
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Counts whatever the entry that triggered the notification records.
+	 */
+	public void notify(RemoteEvent event) {
+		try {
+			MessagingMetrics.getMessagingMetrics().eventReceived(eventSequence.missedBefore(event));
+
+			Entry entry = ((AvailabilityEvent) event).getEntry();
+
+			if (entry instanceof JMSMessage) {
+				// When it arrived rather than the sender's clock, so every
+				// topic is counted against the same clock
+				tracker.messageSent(((JMSMessage) entry).getTopic(), System.currentTimeMillis());
+			} else if (entry instanceof JMSTopicUser) {
+				JMSTopicUser topicUser = (JMSTopicUser) entry;
+				tracker.userJoined(topicUser.getTopic(), topicUser.getUser());
+			} else if (entry instanceof JMSTopicUserRemoved) {
+				JMSTopicUserRemoved topicUserRemoved = (JMSTopicUserRemoved) entry;
+				tracker.userLeft(topicUserRemoved.getTopic(), topicUserRemoved.getUser());
+			} else if (entry instanceof JMSTopic) {
+				tracker.topicAdded((JMSTopic) entry);
+			} else if (entry instanceof JMSTopicDeleted) {
+				tracker.topicRemoved(((JMSTopicDeleted) entry).getTopic());
+			}
+		} catch (Exception e) {
+			MessagingMetrics.getMessagingMetrics().eventFailed();
+			System.err.println("Failed to count topic activity");
+			e.printStackTrace();
+		}
+	}
+}
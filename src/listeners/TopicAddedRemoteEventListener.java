@@ -7,6 +7,8 @@ import models.JMSTopic;
 import net.jini.core.event.RemoteEvent;
 import net.jini.core.event.RemoteEventListener;
 import net.jini.space.AvailabilityEvent;
+import services.metrics.EventSequence;
+import services.metrics.MessagingMetrics;
 
 /**
  * Listens for a topic being added to the space for a given MainMenuController.
@@ -19,6 +21,8 @@ public class TopicAddedRemoteEventListener implements RemoteEventListener, Seria
 
 	private final MainMenuController controller;
 
+	private final EventSequence eventSequence = new EventSequence();
+
 	public TopicAddedRemoteEventListener(MainMenuController controller) {
 		super();
 
@@ -31,15 +35,16 @@ public class TopicAddedRemoteEventListener implements RemoteEventListener, Seria
 	 */
 	public void notify(RemoteEvent event) {
 		try {
+			MessagingMetrics.getMessagingMetrics().eventReceived(eventSequence.missedBefore(event));
+
 			// Get the topic added that triggered the notification
 			AvailabilityEvent availEvent = (AvailabilityEvent) event;
 			JMSTopic topic = (JMSTopic) availEvent.getEntry();
 
-			// Add the topic data to the MainMenuController's topic list.
-			Object[] rowData = { topic.getName(), topic.getOwner().getName(), topic.getOwner().getId(), topic.getId() };
-			
-			controller.getTopicTableModel().addRow(rowData);
+			// Add the topic to the MainMenuController's topic list.
+			controller.handleTopicAdded(topic);
 		} catch (Exception e) {
+			MessagingMetrics.getMessagingMetrics().eventFailed();
 			System.err.println("Failed to run notify method for Topic Creation");
 			e.printStackTrace();
 		}
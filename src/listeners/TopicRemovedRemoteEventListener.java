@@ -1,18 +1,16 @@
 package listeners;
 
 import java.rmi.RemoteException;
-import java.util.UUID;
-
-import javax.swing.table.DefaultTableModel;
 
 import controllers.ChatroomController;
 import controllers.MainMenuController;
-import models.JMSTopic;
 import models.JMSTopicDeleted;
 import net.jini.core.event.RemoteEvent;
 import net.jini.core.event.RemoteEventListener;
 import net.jini.core.event.UnknownEventException;
 import net.jini.space.AvailabilityEvent;
+import services.metrics.EventSequence;
+import services.metrics.MessagingMetrics;
 
 /**
  * Listens for a topic being removed from the space for either a
@@ -26,6 +24,8 @@ public class TopicRemovedRemoteEventListener implements RemoteEventListener {
 	private ChatroomController chatroomController;
 	private boolean isChatroomController;
 
+	private final EventSequence eventSequence = new EventSequence();
+
 	/**
 	 * Constructor to be used for listeners inside of a MainMenuController
 	 * 
@@ -57,6 +57,8 @@ public class TopicRemovedRemoteEventListener implements RemoteEventListener {
 	@Override
 	public void notify(RemoteEvent remoteEvent) throws UnknownEventException, RemoteException {
 		try {
+			MessagingMetrics.getMessagingMetrics().eventReceived(eventSequence.missedBefore(remoteEvent));
+
 			// Get the event that triggered the notification
 			AvailabilityEvent availEvent = (AvailabilityEvent) remoteEvent;
 			JMSTopicDeleted topicDeleted = (JMSTopicDeleted) availEvent.getEntry();
@@ -68,23 +70,10 @@ public class TopicRemovedRemoteEventListener implements RemoteEventListener {
 			} else {
 				// If the listener is for a MainMenuController, remove the given
 				// topic from the MainMenuController's topic list.
-				DefaultTableModel topicTableModel = mainMenuController.getTopicTableModel();
-
-				// Loop through all of the topics in the MainMenuController's
-				// topic list and remove the one that was deleted
-				for (int i = 0; i < topicTableModel.getRowCount(); i++) {
-					UUID topicIdInTable = (UUID) topicTableModel.getValueAt(i, 3);
-					JMSTopic topicRemoved = topicDeleted.getTopic();
-					UUID topicDeletedId = topicRemoved.getId();
-
-					if (topicIdInTable.equals(topicDeletedId)) {
-						topicTableModel.removeRow(i);
-
-						break;
-					}
-				}
+				mainMenuController.handleTopicRemoved(topicDeleted.getTopic());
 			}
 		} catch (Exception e) {
+			MessagingMetrics.getMessagingMetrics().eventFailed();
 			System.err.println("Failed to remove topic from list or send notifications to users.");
 			e.printStackTrace();
 		}
@@ -11,6 +11,8 @@ import models.JMSUser;
 import net.jini.core.event.RemoteEvent;
 import net.jini.core.event.RemoteEventListener;
 import net.jini.space.AvailabilityEvent;
+import services.metrics.EventSequence;
+import services.metrics.MessagingMetrics;
 
 /**
  * Listens for a user being added to a given topic in a given ChatroomController
@@ -23,6 +25,8 @@ public class TopicUserAddedRemoteEventListener implements RemoteEventListener, S
 
 	private final ChatroomController controller;
 
+	private final EventSequence eventSequence = new EventSequence();
+
 	public TopicUserAddedRemoteEventListener(ChatroomController controller) {
 		super();
 
@@ -35,6 +39,8 @@ public class TopicUserAddedRemoteEventListener implements RemoteEventListener, S
 	 */
 	public void notify(RemoteEvent event) {
 		try {
+			MessagingMetrics.getMessagingMetrics().eventReceived(eventSequence.missedBefore(event));
+
 			// Get the user added that triggered the notification
 			AvailabilityEvent availEvent = (AvailabilityEvent) event;
 			JMSTopicUser topicUser = (JMSTopicUser) availEvent.getEntry();
@@ -47,6 +53,7 @@ public class TopicUserAddedRemoteEventListener implements RemoteEventListener, S
 				controller.getUsersTableModel().addRow(rowData);
 			}
 		} catch (Exception e) {
+			MessagingMetrics.getMessagingMetrics().eventFailed();
 			System.err.println("Failed to run notify method for TopicUsers");
 			e.printStackTrace();
 		}
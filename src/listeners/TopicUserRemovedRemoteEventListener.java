@@ -11,6 +11,8 @@ import net.jini.core.event.RemoteEvent;
 import net.jini.core.event.RemoteEventListener;
 import net.jini.core.event.UnknownEventException;
 import net.jini.space.AvailabilityEvent;
+import services.metrics.EventSequence;
+import services.metrics.MessagingMetrics;
 
 /**
  * 
@@ -22,6 +24,8 @@ import net.jini.space.AvailabilityEvent;
 public class TopicUserRemovedRemoteEventListener implements RemoteEventListener {
 	private ChatroomController controller;
 
+	private final EventSequence eventSequence = new EventSequence();
+
 	public TopicUserRemovedRemoteEventListener(ChatroomController controller) {
 		this.controller = controller;
 	}
@@ -32,6 +36,8 @@ public class TopicUserRemovedRemoteEventListener implements RemoteEventListener
 	@Override
 	public void notify(RemoteEvent remoteEvent) throws UnknownEventException, RemoteException {
 		try {
+			MessagingMetrics.getMessagingMetrics().eventReceived(eventSequence.missedBefore(remoteEvent));
+
 			// Get the removed user that triggered the notification
 			AvailabilityEvent availEvent = (AvailabilityEvent) remoteEvent;
 			JMSTopicUserRemoved topicUserRemoved = (JMSTopicUserRemoved) availEvent.getEntry();
@@ -49,6 +55,7 @@ public class TopicUserRemovedRemoteEventListener implements RemoteEventListener
 				}
 			}
 		} catch (Exception e) {
+			MessagingMetrics.getMessagingMetrics().eventFailed();
 			e.printStackTrace();
 		}
 	}
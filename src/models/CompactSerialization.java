@@ -0,0 +1,147 @@
+package models;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Reads and writes the values nested in the models' compact serialized form.
+ * UUIDs are written as two longs, strings as a length
+ * followed by their UTF-8 bytes, and nested models inline without any class
+ * description. Every value may be null.
+ *
+ * A space serializes each of an entry's fields separately, so the models'
+ * compact forms are used wherever one is a field of another entry (the topic
+ * and users of a message, say), and when an entry is sent whole in an event.
+ *
+ * The form has no version, so a model's writeExternal and readExternal must be
+ * changed together, and every client and space updated at the same time.
+ */
+final class CompactSerialization {
+	private CompactSerialization() {
+		// Static helpers only
+	}
+
+	static void writeUUID(ObjectOutput out, UUID value) throws IOException {
+		out.writeBoolean(value != null);
+
+		if (value != null) {
+			out.writeLong(value.getMostSignificantBits());
+			out.writeLong(value.getLeastSignificantBits());
+		}
+	}
+
+	static UUID readUUID(ObjectInput in) throws IOException {
+		return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+	}
+
+	static void writeLong(ObjectOutput out, Long value) throws IOException {
+		out.writeBoolean(value != null);
+
+		if (value != null) {
+			out.writeLong(value.longValue());
+		}
+	}
+
+	static Long readLong(ObjectInput in) throws IOException {
+		return in.readBoolean() ? Long.valueOf(in.readLong()) : null;
+	}
+
+	/**
+	 * Writes a string as its length plus one (zero for null), then its UTF-8
+	 * bytes. Unlike writeUTF, the length takes a single byte for short
+	 * strings, and strings aren't limited to 64KB.
+	 */
+	static void writeString(ObjectOutput out, String value) throws IOException {
+		if (value == null) {
+			writeVarInt(out, 0);
+
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	static String readString(ObjectInput in) throws IOException {
+		int length = readVarInt(in) - 1;
+
+		if (length < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeUser(ObjectOutput out, JMSUser value) throws IOException {
+		out.writeBoolean(value != null);
+
+		if (value != null) {
+			value.writeExternal(out);
+		}
+	}
+
+	static JMSUser readUser(ObjectInput in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+
+		JMSUser user = new JMSUser();
+		user.readExternal(in);
+
+		return user;
+	}
+
+	static void writeTopic(ObjectOutput out, JMSTopic value) throws IOException {
+		out.writeBoolean(value != null);
+
+		if (value != null) {
+			value.writeExternal(out);
+		}
+	}
+
+	static JMSTopic readTopic(ObjectInput in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+
+		JMSTopic topic = new JMSTopic();
+		topic.readExternal(in);
+
+		return topic;
+	}
+
+	/**
+	 * Writes a non-negative int in as few bytes as it needs, seven bits at a
+	 * time
+	 */
+	private static void writeVarInt(ObjectOutput out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(ObjectInput in) throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Malformed length");
+	}
+}
@@ -1,6 +1,9 @@
 package models;
 
-import java.util.Date;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.UUID;
 
 import net.jini.core.entry.Entry;
@@ -12,9 +15,9 @@ import net.jini.core.entry.Entry;
  *
  */
 @SuppressWarnings("serial")
-public class JMSMessage implements Entry {
+public class JMSMessage implements Entry, Externalizable {
 	public JMSTopic topic;				// The topic the message was sent in.
-	public Date sentDate;				// The date/time the message was sent.
+	public Long sentTime;				// When the message was sent, in epoch milliseconds
 	public JMSUser from;				// The user the message was from
 	public JMSUser to;					// The user the message was to
 	public UUID id;						// The message's unique ID
@@ -24,9 +27,9 @@ public class JMSMessage implements Entry {
 		// Empty constructor for JavaSpaces
 	}
 
-	public JMSMessage(JMSTopic topic, Date sentDate, JMSUser from, JMSUser to, UUID id, String message) {
+	public JMSMessage(JMSTopic topic, long sentTime, JMSUser from, JMSUser to, UUID id, String message) {
 		this.topic = topic;
-		this.sentDate = sentDate;
+		this.sentTime = sentTime;
 		this.from = from;
 		this.to = to;
 		this.message = message;
@@ -48,12 +51,12 @@ public class JMSMessage implements Entry {
 		this.topic = topic;
 	}
 
-	public Date getSentDate() {
-		return sentDate;
+	public Long getSentTime() {
+		return sentTime;
 	}
 
-	public void setSentDate(Date sentDate) {
-		this.sentDate = sentDate;
+	public void setSentTime(Long sentTime) {
+		this.sentTime = sentTime;
 	}
 
 	public JMSUser getFrom() {
@@ -87,4 +90,24 @@ public class JMSMessage implements Entry {
 	public void setMessage(String message) {
 		this.message = message;
 	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		CompactSerialization.writeTopic(out, topic);
+		CompactSerialization.writeLong(out, sentTime);
+		CompactSerialization.writeUser(out, from);
+		CompactSerialization.writeUser(out, to);
+		CompactSerialization.writeUUID(out, id);
+		CompactSerialization.writeString(out, message);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		topic = CompactSerialization.readTopic(in);
+		sentTime = CompactSerialization.readLong(in);
+		from = CompactSerialization.readUser(in);
+		to = CompactSerialization.readUser(in);
+		id = CompactSerialization.readUUID(in);
+		message = CompactSerialization.readString(in);
+	}
 }
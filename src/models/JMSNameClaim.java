@@ -0,0 +1,61 @@
+package models;
+
+import java.util.UUID;
+
+import net.jini.core.entry.Entry;
+
+/**
+ * A short-lived reservation of a base name, used to stop two clients creating
+ * users (or topics) with the same base name at the same time.
+ */
+@SuppressWarnings("serial")
+public class JMSNameClaim implements Entry {
+	public static final String USER_NAMESPACE = "USER";
+	public static final String TOPIC_NAMESPACE = "TOPIC";
+
+	public String namespace;	// What kind of name is being claimed (user or topic)
+	public String baseName;		// The base name being claimed
+	public UUID id;				// The unique ID of this particular claim
+
+	public JMSNameClaim() {
+		// Empty constructor for JavaSpaces
+	}
+
+	/**
+	 * Constructor for templates matching every claim on a base name
+	 */
+	public JMSNameClaim(String namespace, String baseName) {
+		this.namespace = namespace;
+		this.baseName = baseName;
+	}
+
+	public JMSNameClaim(String namespace, String baseName, UUID id) {
+		this.namespace = namespace;
+		this.baseName = baseName;
+		this.id = id;
+	}
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	public void setNamespace(String namespace) {
+		this.namespace = namespace;
+	}
+
+	public String getBaseName() {
+		return baseName;
+	}
+
+	public void setBaseName(String baseName) {
+		this.baseName = baseName;
+	}
+
+	public UUID getId() {
+		return id;
+	}
+
+	public void setId(UUID id) {
+		this.id = id;
+	}
+}
@@ -1,5 +1,9 @@
 package models;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.UUID;
 
 import net.jini.core.entry.Entry;
@@ -11,7 +15,7 @@ import net.jini.core.entry.Entry;
  *
  */
 @SuppressWarnings("serial")
-public class JMSTopic implements Entry {
+public class JMSTopic implements Entry, Externalizable {
 	public UUID id; // The unique ID of the topic
 	public String name; // The name of the topic
 	public String baseName; // The name of the topic, in all upper case with all
@@ -66,4 +70,20 @@ public class JMSTopic implements Entry {
 		baseName = baseName.replaceAll("[^A-Za-z0-9]", "");
 		baseName = baseName.toUpperCase();
 	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		CompactSerialization.writeUUID(out, id);
+		CompactSerialization.writeString(out, name);
+		CompactSerialization.writeString(out, baseName);
+		CompactSerialization.writeUser(out, owner);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		id = CompactSerialization.readUUID(in);
+		name = CompactSerialization.readString(in);
+		baseName = CompactSerialization.readString(in);
+		owner = CompactSerialization.readUser(in);
+	}
 }
@@ -1,5 +1,10 @@
 package models;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import net.jini.core.entry.Entry;
 
 /**
@@ -10,7 +15,7 @@ import net.jini.core.entry.Entry;
  *
  */
 @SuppressWarnings("serial")
-public class JMSTopicDeleted implements Entry {
+public class JMSTopicDeleted implements Entry, Externalizable {
 	public JMSTopic topic; // The topic that was deleted
 
 	public JMSTopicDeleted() {
@@ -28,4 +33,14 @@ public class JMSTopicDeleted implements Entry {
 	public void setTopic(JMSTopic topic) {
 		this.topic = topic;
 	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		CompactSerialization.writeTopic(out, topic);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		topic = CompactSerialization.readTopic(in);
+	}
 }
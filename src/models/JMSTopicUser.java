@@ -1,5 +1,10 @@
 package models;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import net.jini.core.entry.Entry;
 
 /**
@@ -9,7 +14,7 @@ import net.jini.core.entry.Entry;
  *
  */
 @SuppressWarnings("serial")
-public class JMSTopicUser implements Entry {
+public class JMSTopicUser implements Entry, Externalizable {
 	public JMSTopic topic;			// The topic the user is in
 	public JMSUser user;			// The user in the topic
 	
@@ -41,4 +46,16 @@ public class JMSTopicUser implements Entry {
 	public void setUser(JMSUser user) {
 		this.user = user;
 	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		CompactSerialization.writeTopic(out, topic);
+		CompactSerialization.writeUser(out, user);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		topic = CompactSerialization.readTopic(in);
+		user = CompactSerialization.readUser(in);
+	}
 }
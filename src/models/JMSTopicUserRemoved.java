@@ -1,5 +1,10 @@
 package models;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import net.jini.core.entry.Entry;
 
 /**
@@ -10,7 +15,7 @@ import net.jini.core.entry.Entry;
  *
  */
 @SuppressWarnings("serial")
-public class JMSTopicUserRemoved implements Entry {
+public class JMSTopicUserRemoved implements Entry, Externalizable {
 	public JMSTopic topic;
 	public JMSUser user;
 
@@ -42,4 +47,16 @@ public class JMSTopicUserRemoved implements Entry {
 	public void setUser(JMSUser user) {
 		this.user = user;
 	}
-}
\ No newline at end of file
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		CompactSerialization.writeTopic(out, topic);
+		CompactSerialization.writeUser(out, user);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		topic = CompactSerialization.readTopic(in);
+		user = CompactSerialization.readUser(in);
+	}
+}
@@ -1,5 +1,9 @@
 package models;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.UUID;
 
 import net.jini.core.entry.Entry;
@@ -11,7 +15,7 @@ import net.jini.core.entry.Entry;
  *
  */
 @SuppressWarnings("serial")
-public class JMSUser implements Entry {
+public class JMSUser implements Entry, Externalizable {
 	public String name;			// The user's name
 	public String baseName;		// The user's name in all uppercase, with non-alphanumeric chars removed
 								// Base names are used to prevent impersonation.
@@ -88,4 +92,20 @@ public class JMSUser implements Entry {
 
 		return false;
 	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		CompactSerialization.writeString(out, name);
+		CompactSerialization.writeString(out, baseName);
+		CompactSerialization.writeString(out, password);
+		CompactSerialization.writeUUID(out, id);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		name = CompactSerialization.readString(in);
+		baseName = CompactSerialization.readString(in);
+		password = CompactSerialization.readString(in);
+		id = CompactSerialization.readUUID(in);
+	}
 }
@@ -15,12 +15,23 @@ import models.JMSTopic;
 import models.JMSTopicUser;
 import models.JMSUser;
 import net.jini.core.entry.UnusableEntryException;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEventListener;
 import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseDeniedException;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.UnknownLeaseException;
 import net.jini.core.transaction.Transaction;
 import net.jini.core.transaction.TransactionException;
+import net.jini.lease.LeaseListener;
+import net.jini.lease.LeaseRenewalEvent;
+import net.jini.lease.LeaseRenewalManager;
 import net.jini.space.JavaSpace05;
 import services.helper.EntryLookupHelper;
+import services.helper.SingleLeaseMap;
 import services.helper.TransactionHelper;
+import services.metrics.MessagingMetrics;
+import services.relay.TopicRelayService;
 
 /**
  * A singleton that handles all interactions between a client and the JavaSpace
@@ -32,10 +43,19 @@ import services.helper.TransactionHelper;
 public class MessageService implements Serializable {
 	private static final long serialVersionUID = -362012410946846034L;
 	private static final TopicService topicService = TopicService.getTopicService();
+	private static final MessagingMetrics metrics = MessagingMetrics.getMessagingMetrics();
+	// Renews relay subscriptions, and says when one can't be
+	private static final LeaseRenewalManager relayLeaseRenewer = new LeaseRenewalManager();
+
+	/**
+	 * Set this system property to how many members a topic needs before its
+	 * messages are listened to through the topic relay. 0 relays every topic
+	 */
+	public static final String HOT_TOPIC_PROPERTY = "chatroom.relay.hotTopicMembers";
+	public static final int DEFAULT_HOT_TOPIC_MEMBERS = 50;
 
 	private static MessageService messageService;
 
-	private JavaSpace05 space = SpaceService.getSpace();
 	private EntryLookupHelper lookupHelper = new EntryLookupHelper();
 
 	private MessageService() {
@@ -68,7 +88,8 @@ public class MessageService implements Serializable {
 	 *         specified user, or from the specified user.
 	 */
 	public List<JMSMessage> getAllMessagesForUserInTopic(JMSTopic topic, JMSUser user) {
-		List<JMSMessage> allMessages = lookupHelper.findAllMatchingTemplate(space, new JMSMessage(topic));
+		List<JMSMessage> allMessages = lookupHelper.findAllMatchingTemplate(SpaceService.getTopicSpace(topic),
+				new JMSMessage(topic));
 
 		Iterator<JMSMessage> it = allMessages.iterator();
 
@@ -95,6 +116,65 @@ public class MessageService implements Serializable {
 		return allMessages;
 	}
 
+	/**
+	 * Starts sending a listener an AvailabilityEvent for every message
+	 * written to a topic.
+	 * 
+	 * Busy topics are listened to through the topic relay if one is running,
+	 * so the space sends each message to the relay once rather than to every
+	 * member. Otherwise, or if the relay fails, the listener is registered
+	 * with the topic's space directly. If the relay later drops the
+	 * subscription, the listener moves to the space then.
+	 * 
+	 * Whether a topic is busy is decided as the listener is registered, so
+	 * members who joined before a topic got busy stay listening to the space.
+	 * 
+	 * @param topic
+	 *            The topic to listen to
+	 * @param listener
+	 *            The listener to send events to
+	 * 
+	 * @return The registration, whose lease should be cancelled when the
+	 *         listener is finished with
+	 */
+	public EventRegistration registerMessageListener(JMSTopic topic, RemoteEventListener listener)
+			throws TransactionException, RemoteException {
+		TopicRelayService relay = SpaceService.getTopicRelay();
+
+		if (relay != null) {
+			try {
+				if (isHotTopic(relay, topic)) {
+					return new RelayedRegistration(topic, listener).subscribe(relay);
+				}
+			} catch (RemoteException e) {
+				System.err.println("Failed to subscribe to topic relay.  Listening to the space directly.");
+				e.printStackTrace();
+
+				SpaceService.discardTopicRelay(relay);
+			}
+		}
+
+		return registerOnSpace(topic, listener);
+	}
+
+	private EventRegistration registerOnSpace(JMSTopic topic, RemoteEventListener listener)
+			throws TransactionException, RemoteException {
+		List<JMSMessage> templates = Collections.singletonList(new JMSMessage(topic));
+
+		return SpaceService.getTopicSpace(topic).registerForAvailabilityEvent(templates, null, true, listener,
+				Lease.FOREVER, null);
+	}
+
+	/**
+	 * @return Whether a topic has enough members to be worth relaying, going
+	 *         by the relay's count of its members. See HOT_TOPIC_PROPERTY
+	 */
+	private boolean isHotTopic(TopicRelayService relay, JMSTopic topic) throws RemoteException {
+		int hotTopicMembers = Integer.getInteger(HOT_TOPIC_PROPERTY, DEFAULT_HOT_TOPIC_MEMBERS);
+
+		return hotTopicMembers <= 0 || relay.getMemberCount(topic.getId()) >= hotTopicMembers;
+	}
+
 	/**
 	 * Writes a given message to the JavaSpace
 	 * 
@@ -109,6 +189,7 @@ public class MessageService implements Serializable {
 	 */
 	public Lease sendMessage(JMSMessage message) throws ResourceNotFoundException, RemoteException {
 		Lease messageLease = null;
+		long start = System.nanoTime();
 		
 		try {
 			if (message.getTopic() == null) {
@@ -116,6 +197,9 @@ public class MessageService implements Serializable {
 			}
 
 			// Get a transaction to run all of this method in.
+			// The topic is checked in the directory space, the rest happens in
+			// the topic's own space
+			JavaSpace05 space = SpaceService.getTopicSpace(message.getTopic());
 			Transaction transaction = TransactionHelper.getTransaction();
 
 			// Check that the topic exists
@@ -158,14 +242,18 @@ public class MessageService implements Serializable {
 			}
 		} catch (ResourceNotFoundException e) {
 			System.err.println("Failed to write message to JavaSpace.  Topic null or does not exist.");
+			metrics.sendFailed();
 
 			throw e;
 		} catch (InvalidAttributeValueException | RemoteException | TransactionException | InterruptedException
 				| UnusableEntryException e) {
 			System.err.println("Failed to write message to JavaSpace.  Server error.");
+			metrics.sendFailed();
 
 			throw new RemoteException("Failed to write message to JavaSpace.  Server error.");
 		}
+
+		metrics.messageSent(System.nanoTime() - start);
 		
 		return messageLease;
 	}
@@ -196,13 +284,120 @@ public class MessageService implements Serializable {
 	 *            The topic whose messages will be deleted
 	 * @param transaction
 	 * 			  The transaction in which the deletion will occur
+	 * @throws RemoteException
+	 *             Thrown if the topic's space can't be reached. The transaction
+	 *             should then be aborted.
+	 * @throws TransactionException
+	 *             Thrown if the transaction isn't usable
 	 */
-	public void deleteAllTopicMessages(JMSTopic topic, Transaction transaction) {
+	public void deleteAllTopicMessages(JMSTopic topic, Transaction transaction)
+			throws RemoteException, TransactionException {
 		JMSMessage template = new JMSMessage(topic);
 
 		// Take all of the topic's messages
 		EntryLookupHelper entryLookupHelper = new EntryLookupHelper();
-		entryLookupHelper.takeAllMatchingTemplate(space, template, transaction);
+		entryLookupHelper.takeAllMatchingTemplate(SpaceService.getTopicSpace(topic), template, transaction);
+	}
+
+	/**
+	 * A subscription to the topic relay, which is kept renewed, and replaced
+	 * by a registration on the topic's space if it fails to renew. Also the
+	 * lease handed back for it, which acts on whichever registration is
+	 * current.
+	 */
+	private final class RelayedRegistration implements Lease, LeaseListener {
+		private final JMSTopic topic;
+		private final RemoteEventListener listener;
+
+		private TopicRelayService relay;
+		private volatile EventRegistration registration;
+		private boolean cancelled;
+
+		public RelayedRegistration(JMSTopic topic, RemoteEventListener listener) {
+			this.topic = topic;
+			this.listener = listener;
+		}
+
+		public EventRegistration subscribe(TopicRelayService relay) throws RemoteException {
+			this.relay = relay;
+			registration = relay.subscribe(topic, listener);
+			relayLeaseRenewer.renewUntil(registration.getLease(), Lease.FOREVER,
+					TopicRelayService.SUBSCRIPTION_LEASE_IN_MILLIS, this);
+
+			return new EventRegistration(registration.getID(), registration.getSource(), this,
+					registration.getSequenceNumber());
+		}
+
+		/**
+		 * Called when the relay subscription can't be renewed, either as the
+		 * relay dropped it or as the relay can't be reached
+		 */
+		@Override
+		public synchronized void notify(LeaseRenewalEvent event) {
+			if (cancelled) {
+				return;
+			}
+
+			System.err.println("Lost topic relay subscription.  Listening to the space directly.");
+
+			if (!(event.getException() instanceof UnknownLeaseException)) {
+				SpaceService.discardTopicRelay(relay);
+			}
+
+			try {
+				registration = registerOnSpace(topic, listener);
+			} catch (TransactionException | RemoteException e) {
+				System.err.println("Failed to listen for messages on the space.");
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public long getExpiration() {
+			return registration.getLease().getExpiration();
+		}
+
+		@Override
+		public synchronized void cancel() throws UnknownLeaseException, RemoteException {
+			cancelled = true;
+
+			try {
+				relayLeaseRenewer.remove(registration.getLease());
+			} catch (UnknownLeaseException e) {
+				// No longer being renewed, as it's the space registration
+			}
+
+			registration.getLease().cancel();
+		}
+
+		@Override
+		public void renew(long duration) throws LeaseDeniedException, UnknownLeaseException, RemoteException {
+			registration.getLease().renew(duration);
+		}
+
+		@Override
+		public void setSerialFormat(int format) {
+			registration.getLease().setSerialFormat(format);
+		}
+
+		@Override
+		public int getSerialFormat() {
+			return registration.getLease().getSerialFormat();
+		}
+
+		/**
+		 * The lease may move from the relay to the space, so the map only
+		 * ever holds this lease
+		 */
+		@Override
+		public LeaseMap createLeaseMap(long duration) {
+			return new SingleLeaseMap(this, duration);
+		}
+
+		@Override
+		public boolean canBatch(Lease lease) {
+			return false;
+		}
 	}
 
 	/**
@@ -215,7 +410,7 @@ public class MessageService implements Serializable {
 	public class MessageComparator implements Comparator<JMSMessage> {
 		@Override
 		public int compare(JMSMessage o1, JMSMessage o2) {
-			return o1.getSentDate().compareTo(o2.getSentDate());
+			return o1.getSentTime().compareTo(o2.getSentTime());
 		}
 	}
 }
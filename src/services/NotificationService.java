@@ -0,0 +1,120 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import models.JMSUser;
+import services.helper.KeywordMatcher;
+
+/**
+ * A singleton that decides which messages mention a user: ones containing
+ * their name or one of their watch-words.
+ *
+ * Watch-words are kept in the user's Java preferences on this machine, so
+ * they survive restarts. Each user's name and watch-words are compiled into a
+ * KeywordMatcher once, and recompiled only when the watch-words change.
+ */
+public class NotificationService {
+	private static final String WATCH_WORDS_KEY = "watchWords";
+	private static final String WATCH_WORD_SEPARATOR = ",";
+
+	private static NotificationService notificationService;
+
+	private final Preferences preferences = Preferences.userNodeForPackage(NotificationService.class)
+			.node("notifications");
+	// Compiled matchers, by user base name
+	private final Map<String, KeywordMatcher> matchers = new ConcurrentHashMap<String, KeywordMatcher>();
+
+	private NotificationService() {
+		// Uninstantiable singleton
+	}
+
+	/**
+	 * Lazily instantiates a NotificationService instance if one does not
+	 * exist.
+	 *
+	 * @return The NotificationService singleton.
+	 */
+	public static synchronized NotificationService getNotificationService() {
+		if (notificationService == null) {
+			notificationService = new NotificationService();
+		}
+
+		return notificationService;
+	}
+
+	/**
+	 * @return The words a user wants to be notified of, besides their name
+	 */
+	public List<String> getWatchWords(JMSUser user) {
+		List<String> watchWords = new ArrayList<String>();
+
+		for (String word : preferences.get(preferenceKey(user), "").split(WATCH_WORD_SEPARATOR)) {
+			if (!word.trim().isEmpty()) {
+				watchWords.add(word.trim());
+			}
+		}
+
+		return watchWords;
+	}
+
+	/**
+	 * Replaces the words a user wants to be notified of. Commas can't be part
+	 * of a watch-word, so are dropped.
+	 */
+	public void setWatchWords(JMSUser user, Collection<String> watchWords) {
+		StringBuilder joined = new StringBuilder();
+
+		for (String word : watchWords) {
+			String cleaned = word.replace(WATCH_WORD_SEPARATOR, " ").trim();
+
+			if (!cleaned.isEmpty()) {
+				if (joined.length() > 0) {
+					joined.append(WATCH_WORD_SEPARATOR);
+				}
+
+				joined.append(cleaned);
+			}
+		}
+
+		preferences.put(preferenceKey(user), joined.toString());
+
+		try {
+			preferences.flush();
+		} catch (BackingStoreException e) {
+			System.err.println("Failed to save watch-words for " + user.getName());
+			e.printStackTrace();
+		}
+
+		matchers.remove(user.getBaseName());
+	}
+
+	/**
+	 * @return A matcher for messages mentioning the user's name or one of
+	 *         their watch-words
+	 */
+	public KeywordMatcher getMentionMatcher(JMSUser user) {
+		KeywordMatcher matcher = matchers.get(user.getBaseName());
+
+		if (matcher == null) {
+			List<String> keywords = getWatchWords(user);
+			keywords.add(user.getName());
+			matcher = new KeywordMatcher(keywords);
+			matchers.put(user.getBaseName(), matcher);
+		}
+
+		return matcher;
+	}
+
+	/**
+	 * Base names only have letters and digits, so make safe preference keys
+	 */
+	private static String preferenceKey(JMSUser user) {
+		return WATCH_WORDS_KEY + "." + user.getBaseName();
+	}
+}
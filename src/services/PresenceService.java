@@ -0,0 +1,139 @@
+package services;
+
+import java.util.UUID;
+
+import models.JMSTopic;
+import models.JMSUser;
+import net.jini.core.lease.Lease;
+import services.helper.BatchLeaseRenewer;
+
+/**
+ * A singleton that keeps a client's JMSTopicUser entries alive.
+ *
+ * JMSTopicUsers are written with a short lease rather than forever, so if a
+ * client dies without leaving its topics, its users drop out of those topics
+ * on their own once the lease runs out. While the client is alive, a single
+ * heartbeat renews the leases for every topic it is in, batched into one
+ * LeaseMap renewal per space rather than one call (or timer) per topic.
+ */
+public class PresenceService {
+	/**
+	 * How long a JMSTopicUser survives without a heartbeat
+	 */
+	public static final long PRESENCE_LEASE_IN_MILLIS = 1000l * 30l;
+
+	/**
+	 * How often leases are renewed. A third of the lease, so a couple of
+	 * missed heartbeats don't drop a live user from their topics.
+	 */
+	private static final long HEARTBEAT_INTERVAL_IN_MILLIS = PRESENCE_LEASE_IN_MILLIS / 3l;
+
+	private static PresenceService presenceService;
+
+	private final BatchLeaseRenewer<Membership> renewer = new BatchLeaseRenewer<Membership>("presence-heartbeat",
+			PRESENCE_LEASE_IN_MILLIS, HEARTBEAT_INTERVAL_IN_MILLIS);
+
+	private PresenceService() {
+		// Uninstantiable singleton
+	}
+
+	/**
+	 * Lazily instantiates a PresenceService instance if one does not exist.
+	 *
+	 * @return The PresenceService singleton.
+	 */
+	public static synchronized PresenceService getPresenceService() {
+		if (presenceService == null) {
+			presenceService = new PresenceService();
+		}
+
+		return presenceService;
+	}
+
+	/**
+	 * Starts renewing the lease of a user's JMSTopicUser entry in a given
+	 * topic. Replaces any lease already being renewed for that user and topic.
+	 *
+	 * @param topic
+	 *            The topic the user is in
+	 * @param user
+	 *            The user in the topic
+	 * @param lease
+	 *            The lease of the user's JMSTopicUser entry
+	 */
+	public void track(JMSTopic topic, JMSUser user, Lease lease) {
+		renewer.track(new Membership(topic, user), lease);
+	}
+
+	/**
+	 * Stops renewing the lease of a user's JMSTopicUser entry in a given
+	 * topic. Does not cancel the lease.
+	 *
+	 * @param topic
+	 *            The topic the user is in
+	 * @param user
+	 *            The user in the topic
+	 */
+	public void untrack(JMSTopic topic, JMSUser user) {
+		renewer.untrack(new Membership(topic, user));
+	}
+
+	/**
+	 * Stops renewing the leases of all of a user's JMSTopicUser entries. Does
+	 * not cancel the leases.
+	 *
+	 * @param user
+	 *            The user to stop renewing presence for
+	 */
+	public void untrackAll(JMSUser user) {
+		for (Membership membership : renewer.keys()) {
+			if (membership.userId.equals(user.getId())) {
+				renewer.untrack(membership);
+			}
+		}
+	}
+
+	/**
+	 * Whether or not a user's presence in a given topic is being kept alive by
+	 * this client.
+	 *
+	 * @param topic
+	 *            The topic the user is in
+	 * @param user
+	 *            The user in the topic
+	 * @return <code>true</code> if the membership is being renewed, otherwise
+	 *         <code>false</code>
+	 */
+	public boolean isTracked(JMSTopic topic, JMSUser user) {
+		return renewer.get(new Membership(topic, user)) != null;
+	}
+
+	/**
+	 * A user's membership of a topic
+	 */
+	private static final class Membership {
+		private final UUID topicId;
+		private final UUID userId;
+
+		public Membership(JMSTopic topic, JMSUser user) {
+			this.topicId = topic.getId();
+			this.userId = user.getId();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Membership) {
+				Membership other = (Membership) o;
+
+				return topicId.equals(other.topicId) && userId.equals(other.userId);
+			}
+
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * topicId.hashCode() + userId.hashCode();
+		}
+	}
+}
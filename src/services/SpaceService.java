@@ -1,12 +1,28 @@
 package services;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.commons.lang3.StringUtils;
 
+import models.JMSTopic;
 import net.jini.core.discovery.LookupLocator;
 import net.jini.core.lookup.ServiceRegistrar;
 import net.jini.core.lookup.ServiceTemplate;
 import net.jini.core.transaction.server.TransactionManager;
 import net.jini.space.JavaSpace05;
+import services.metrics.MeteredJavaSpace;
+import services.relay.TopicRelayService;
+import services.resilience.FailoverSpaceLookup;
+import services.resilience.ResilientJavaSpace;
+import services.resilience.ServiceLookup;
+import services.resilience.SpaceHost;
+import services.sharding.TopicSpaceRouter;
+import services.space.InMemoryJavaSpace;
 
 /**
  * This is Dr. Gary Allen's SpaceUtils class, which I've renamed and made a few
@@ -18,51 +34,321 @@ import net.jini.space.JavaSpace05;
 public class SpaceService {
 	private static final String proxyHost = System.getProperties().getProperty("http.proxyHost");
 
+	/**
+	 * Set this system property to "memory" to run against an in-memory space
+	 * rather than looking one up
+	 */
+	public static final String SPACE_PROPERTY = "chatroom.space";
+
+	/**
+	 * Set this system property to a comma separated list of hostnames to
+	 * choose a space from, failing over between them
+	 */
+	public static final String HOSTS_PROPERTY = "chatroom.space.hosts";
+
+	/**
+	 * How long to wait for a host's registrar, so a dead host doesn't hold up
+	 * failing over to the others
+	 */
+	private static final int REGISTRAR_TIMEOUT_IN_MILLIS = 5000;
+
+	/**
+	 * How long to wait before looking for a topic relay again, after not
+	 * finding one
+	 */
+	private static final long RELAY_LOOKUP_INTERVAL_IN_MILLIS = 60000l;
+
+	/**
+	 * Set this system property to spread topics across several spaces: a
+	 * semicolon separated list of shards, each a comma separated list of
+	 * hostnames to fail over between. With chatroom.space=memory, set it to
+	 * the number of in-memory shards instead
+	 */
+	public static final String SHARDS_PROPERTY = "chatroom.space.shards";
+
 	private static JavaSpace05 space;
+	private static TransactionManager manager;
+	private static TransactionManager lookedUpManager;
+	private static FailoverSpaceLookup spaceLookup;
+	private static volatile TopicSpaceRouter router;
+	private static TopicRelayService topicRelay;
+	private static boolean relayPlugged;
+	private static long nextRelayLookup;
+
+	/**
+	 * Plugs in a space (and the transaction manager its transactions come
+	 * from) to be used instead of one looked up from a registrar. Services
+	 * hold on to the space they are created with, so call this before any
+	 * service is first used.
+	 * 
+	 * @param pluggedSpace
+	 *            The space to use
+	 * @param pluggedManager
+	 *            The transaction manager to use
+	 */
+	public static synchronized void useSpace(JavaSpace05 pluggedSpace, TransactionManager pluggedManager) {
+		space = meter(pluggedSpace);
+		manager = pluggedManager;
+		router = null;
+	}
+
+	/**
+	 * Plugs in spaces to spread topics' messages and members across, with the
+	 * current space as the directory. Pass an empty list to keep everything in
+	 * the directory.
+	 * 
+	 * @param shardSpaces
+	 *            The shards, named by their position in the list
+	 */
+	public static synchronized void useShards(List<? extends JavaSpace05> shardSpaces) {
+		Map<String, JavaSpace05> shards = new LinkedHashMap<String, JavaSpace05>();
+		for (int i = 0; i < shardSpaces.size(); i++) {
+			shards.put("shard-" + i, meter(shardSpaces.get(i)));
+		}
+
+		router = new TopicSpaceRouter(getSpace(), shards);
+	}
+
+	/**
+	 * Gets the space holding a topic's messages and members. This is the
+	 * space from getSpace() unless topics are sharded.
+	 * 
+	 * @param topic
+	 *            The topic
+	 * @return The topic's space
+	 */
+	public static JavaSpace05 getTopicSpace(JMSTopic topic) {
+		return getRouter().getSpaceFor(topic);
+	}
+
+	/**
+	 * @return Every space holding topics' messages and members
+	 */
+	public static List<JavaSpace05> getTopicSpaces() {
+		return getRouter().getTopicSpaces();
+	}
 
 	/**
-	 * Gets the JavaSpace for a given hostname
+	 * Gets the router deciding which space each topic is in, setting it up
+	 * from the chatroom.space.shards property the first time.
+	 * 
+	 * @return The TopicSpaceRouter
+	 */
+	public static TopicSpaceRouter getRouter() {
+		TopicSpaceRouter current = router;
+		if (current != null) {
+			return current;
+		}
+
+		synchronized (SpaceService.class) {
+			if (router == null) {
+				router = new TopicSpaceRouter(getSpace(), configuredShards());
+			}
+
+			return router;
+		}
+	}
+
+	/**
+	 * Sets up the shards listed in the chatroom.space.shards property, each
+	 * named after its hosts.
+	 */
+	private static Map<String, JavaSpace05> configuredShards() {
+		Map<String, JavaSpace05> shards = new LinkedHashMap<String, JavaSpace05>();
+		String property = StringUtils.deleteWhitespace(System.getProperty(SHARDS_PROPERTY));
+
+		if (StringUtils.isBlank(property)) {
+			return shards;
+		}
+
+		if (StringUtils.equals("memory", System.getProperty(SPACE_PROPERTY))) {
+			int count = Integer.parseInt(property);
+			for (int i = 0; i < count; i++) {
+				shards.put("shard-" + i, meter(new InMemoryJavaSpace()));
+			}
+		} else {
+			for (String shard : StringUtils.split(property, ';')) {
+				FailoverSpaceLookup shardLookup = failoverLookup(Arrays.asList(StringUtils.split(shard, ',')));
+				shards.put(shard, meter(new ResilientJavaSpace("JavaSpace on " + shard, shardLookup)));
+			}
+		}
+
+		return shards;
+	}
+
+	/**
+	 * Plugs in a new, empty in-memory space.
+	 * 
+	 * @return The in-memory space
+	 */
+	public static synchronized InMemoryJavaSpace useInMemorySpace() {
+		InMemoryJavaSpace inMemorySpace = new InMemoryJavaSpace();
+		useSpace(inMemorySpace, inMemorySpace.getTransactionManager());
+
+		return inMemorySpace;
+	}
+
+	/**
+	 * Gets the JavaSpace for a given hostname. The space is looked up when it
+	 * is first used rather than now, and again whenever its proxy stops
+	 * working, so a space that isn't running yet (or restarts) doesn't leave
+	 * services holding a dead or null space.
 	 * 
 	 * @param hostname
 	 *            The hostname to look for a JavaSpace on
 	 * 
 	 * @return A JavaSpace for a given hostname
 	 */
-	@SuppressWarnings("rawtypes")
-	public static JavaSpace05 getSpace(String hostname) {
-		// Only get the space once...
+	public static synchronized JavaSpace05 getSpace(String hostname) {
+		return getSpace(Collections.singletonList(hostname));
+	}
+
+	/**
+	 * Gets a JavaSpace on whichever of several hosts is healthy and quickest
+	 * to respond, failing over to the next best host if it stops responding.
+	 * Event listeners registered through the space are registered again on
+	 * the new host's space when it does.
+	 * 
+	 * @param hostnames
+	 *            The hostnames to look for a JavaSpace on
+	 * 
+	 * @return A JavaSpace on one of the hosts
+	 */
+	public static synchronized JavaSpace05 getSpace(List<String> hostnames) {
+		// Only create the space once...
 		if (space == null) {
-			try {
-				LookupLocator l = new LookupLocator("jini://" + hostname);
+			spaceLookup = failoverLookup(hostnames);
+			space = meter(new ResilientJavaSpace("JavaSpace on " + StringUtils.join(hostnames, ", "), spaceLookup));
+		}
+
+		return space;
+	}
 
-				ServiceRegistrar sr = l.getRegistrar();
+	/**
+	 * Looks a space up on whichever of several hosts is healthiest
+	 */
+	private static FailoverSpaceLookup failoverLookup(List<String> hostnames) {
+		List<SpaceHost> hosts = new ArrayList<SpaceHost>(hostnames.size());
+		for (String hostname : hostnames) {
+			hosts.add(spaceHost(hostname));
+		}
 
-				Class c = Class.forName("net.jini.space.JavaSpace");
-				Class[] classTemplate = { c };
+		return new FailoverSpaceLookup(hosts);
+	}
 
-				space = (JavaSpace05) sr.lookup(new ServiceTemplate(null, classTemplate, null));
+	/**
+	 * Gets the space on the hosts listed in the chatroom.space.hosts property,
+	 * if set. Otherwise determines if the application is being run at
+	 * university of locally, then gets the space accordingly
+	 * 
+	 * @return A JavaSpace
+	 */
+	public static synchronized JavaSpace05 getSpace() {
+		if (space == null && StringUtils.equals("memory", System.getProperty(SPACE_PROPERTY))) {
+			useInMemorySpace();
+		}
+
+		return getSpace(configuredHosts());
+	}
 
-			} catch (Exception e) {
-				System.err.println("Failed to get space");
-				e.printStackTrace();
+	/**
+	 * @return The hosts listed in the chatroom.space.hosts property, or
+	 *         waterloo at university and localhost otherwise
+	 */
+	private static List<String> configuredHosts() {
+		String hosts = System.getProperty(HOSTS_PROPERTY);
+
+		if (StringUtils.isNotBlank(hosts)) {
+			return Arrays.asList(StringUtils.split(StringUtils.deleteWhitespace(hosts), ','));
+		} else if (StringUtils.equals("wwwproxy.hud.ac.uk", proxyHost)) {
+			return Collections.singletonList("waterloo");
+		} else {
+			return Collections.singletonList("localhost");
+		}
+	}
+
+	/**
+	 * Plugs in a topic relay to be used instead of looking one up. Pass null
+	 * to stop using one.
+	 * 
+	 * @param pluggedRelay
+	 *            The relay to use
+	 */
+	public static synchronized void useTopicRelay(TopicRelayService pluggedRelay) {
+		topicRelay = pluggedRelay;
+		relayPlugged = true;
+	}
+
+	/**
+	 * Gets the topic relay registered with the lookup service on the space's
+	 * hosts, if one is running. Not finding one is remembered for a minute,
+	 * so callers don't look it up every time.
+	 * 
+	 * @return A TopicRelayService, or null if there isn't one
+	 */
+	public static synchronized TopicRelayService getTopicRelay() {
+		if (relayPlugged || StringUtils.equals("memory", System.getProperty(SPACE_PROPERTY))) {
+			return topicRelay;
+		}
+
+		if (topicRelay == null && System.currentTimeMillis() >= nextRelayLookup) {
+			nextRelayLookup = System.currentTimeMillis() + RELAY_LOOKUP_INTERVAL_IN_MILLIS;
+
+			for (String hostname : configuredHosts()) {
+				try {
+					topicRelay = (TopicRelayService) lookupService(hostname, TopicRelayService.class.getName());
+				} catch (Exception e) {
+					System.err.println("Failed to look for a topic relay on " + hostname + ": " + e);
+				}
+
+				if (topicRelay != null) {
+					break;
+				}
 			}
 		}
 
-		return space;
+		return topicRelay;
 	}
 
 	/**
-	 * Determines if the application is being run at university of locally, then
-	 * gets the space accordingly
+	 * Forgets a looked up topic relay that has stopped working.
 	 * 
-	 * @return A JavaSpace
+	 * @param failedRelay
+	 *            The relay that failed
 	 */
-	public static JavaSpace05 getSpace() {
-		if (StringUtils.equals("wwwproxy.hud.ac.uk", proxyHost)) {
-			return getSpace("waterloo");
-		} else {
-			return getSpace("localhost");
+	public static synchronized void discardTopicRelay(TopicRelayService failedRelay) {
+		if (!relayPlugged && failedRelay == topicRelay) {
+			topicRelay = null;
+			nextRelayLookup = System.currentTimeMillis() + RELAY_LOOKUP_INTERVAL_IN_MILLIS;
+		}
+	}
+
+	/**
+	 * Finds the space and transaction manager on a host through its registrar
+	 */
+	private static SpaceHost spaceHost(final String hostname) {
+		return new SpaceHost(hostname, new ServiceLookup<JavaSpace05>() {
+			@Override
+			public JavaSpace05 lookup() throws Exception {
+				return (JavaSpace05) lookupService(hostname, "net.jini.space.JavaSpace");
+			}
+		}, new ServiceLookup<TransactionManager>() {
+			@Override
+			public TransactionManager lookup() throws Exception {
+				return getManager(hostname);
+			}
+		});
+	}
+
+	/**
+	 * Wraps a space so that every call made to it is recorded in SpaceMetrics.
+	 */
+	private static JavaSpace05 meter(JavaSpace05 unmeteredSpace) {
+		if (unmeteredSpace == null || unmeteredSpace instanceof MeteredJavaSpace) {
+			return unmeteredSpace;
 		}
+
+		return new MeteredJavaSpace(unmeteredSpace);
 	}
 
 	/**
@@ -73,7 +359,6 @@ public class SpaceService {
 	 * 
 	 * @return A TransactionManager for a given hostname.
 	 */
-	@SuppressWarnings("rawtypes")
 	public static TransactionManager getManager(String hostname) {
 		if (System.getSecurityManager() == null) {
 			System.setSecurityManager(new SecurityManager());
@@ -81,15 +366,7 @@ public class SpaceService {
 
 		TransactionManager tm = null;
 		try {
-			LookupLocator l = new LookupLocator("jini://" + hostname);
-
-			ServiceRegistrar sr = l.getRegistrar();
-
-			Class c = Class.forName("net.jini.core.transaction.server.TransactionManager");
-			Class[] classTemplate = { c };
-
-			tm = (TransactionManager) sr.lookup(new ServiceTemplate(null, classTemplate, null));
-
+			tm = (TransactionManager) lookupService(hostname, "net.jini.core.transaction.server.TransactionManager");
 		} catch (Exception e) {
 			System.err.println("Error: " + e);
 		}
@@ -98,15 +375,58 @@ public class SpaceService {
 
 	/**
 	 * Dynamically determines if the application is being run at university of
-	 * locally, and gets the TransactionManager accordingly
+	 * locally, and gets the TransactionManager accordingly. Prefers the manager
+	 * on the host the space is currently on. A manager that has been looked up
+	 * is kept until discardManager is called with it.
 	 * 
-	 * @return A TransactionManager
+	 * @return A TransactionManager, or null if none could be found
 	 */
-	public static TransactionManager getManager() {
-		if (StringUtils.equals("wwwproxy.hud.ac.uk", proxyHost)) {
-			return getManager("waterloo");
-		} else {
-			return getManager("localhost");
+	public static synchronized TransactionManager getManager() {
+		if (manager == null && space == null && StringUtils.equals("memory", System.getProperty(SPACE_PROPERTY))) {
+			useInMemorySpace();
+		}
+
+		if (manager != null) {
+			return manager;
 		}
+
+		// The manager is found on the same hosts as the space
+		getSpace();
+
+		if (lookedUpManager == null && spaceLookup != null) {
+			lookedUpManager = spaceLookup.findManager();
+		}
+
+		return lookedUpManager;
+	}
+
+	/**
+	 * Forgets a looked up TransactionManager that has stopped working, so that
+	 * the next call to getManager() looks it up again.
+	 * 
+	 * @param failedManager
+	 *            The manager that failed
+	 */
+	public static synchronized void discardManager(TransactionManager failedManager) {
+		if (failedManager != null && failedManager == lookedUpManager) {
+			lookedUpManager = null;
+		}
+	}
+
+	/**
+	 * Looks up a service by type from the registrar on a given host
+	 * 
+	 * @return The service, or null if none is registered
+	 */
+	@SuppressWarnings("rawtypes")
+	private static Object lookupService(String hostname, String className) throws Exception {
+		LookupLocator l = new LookupLocator("jini://" + hostname);
+
+		ServiceRegistrar sr = l.getRegistrar(REGISTRAR_TIMEOUT_IN_MILLIS);
+
+		Class c = Class.forName(className);
+		Class[] classTemplate = { c };
+
+		return sr.lookup(new ServiceTemplate(null, classTemplate, null));
 	}
 }
@@ -0,0 +1,166 @@
+package services;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.List;
+
+import net.jini.jeri.BasicILFactory;
+import net.jini.jeri.BasicJeriExporter;
+import net.jini.jeri.tcp.TcpServerEndpoint;
+import services.relay.TopicRelayService;
+import services.stats.TopicActivity;
+import services.stats.TopicActivityCounter;
+
+/**
+ * A singleton that asks how many users are in each topic and how many
+ * messages have recently been sent in it.
+ *
+ * The counts are kept by the topic relay, which is the only one listening for
+ * every topic, user and message, so a client asking costs one call however
+ * many topics there are. Without a relay to ask, the client counts them
+ * itself, with its own TopicActivityCounter, until it logs out. Asking goes
+ * back to the relay once one can be found again.
+ *
+ * Every method may call the relay or the spaces, so none should be called on
+ * the event dispatch thread.
+ */
+public class TopicActivityService {
+	private static TopicActivityService topicActivityService;
+
+	// Counts topic activity when there's no relay. Null until needed.
+	private TopicActivityCounter localCounter;
+	// Set on logout, so a counter isn't started after it's been stopped
+	private boolean stopped;
+
+	private TopicActivityService() {
+		// Uninstantiable singleton
+	}
+
+	/**
+	 * Lazily instantiates a TopicActivityService instance if one does not
+	 * exist.
+	 *
+	 * @return The TopicActivityService singleton.
+	 */
+	public static synchronized TopicActivityService getTopicActivityService() {
+		if (topicActivityService == null) {
+			topicActivityService = new TopicActivityService();
+		}
+
+		return topicActivityService;
+	}
+
+	/**
+	 * Looks up the topic relay in the background, so it's found by the time
+	 * the user asks for hot topics, or starts counting locally if there isn't
+	 * one. Call once the user has logged in.
+	 */
+	public void start() {
+		Thread lookup = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (SpaceService.getTopicRelay() == null) {
+					try {
+						localCounter();
+					} catch (RemoteException e) {
+						System.err.println("Failed to count topic activity.");
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "topic-relay-lookup");
+		lookup.setDaemon(true);
+		lookup.start();
+	}
+
+	/**
+	 * Stops counting locally, if the client had to. Call when the user logs
+	 * out.
+	 */
+	public static synchronized void stop() {
+		if (topicActivityService == null) {
+			return;
+		}
+
+		synchronized (topicActivityService) {
+			topicActivityService.stopped = true;
+
+			if (topicActivityService.localCounter != null) {
+				topicActivityService.localCounter.stop();
+			}
+		}
+
+		topicActivityService = null;
+	}
+
+	/**
+	 * @param limit
+	 *            The most topics to return
+	 * @return The busiest topics, by recent messages then users, busiest first
+	 * @throws RemoteException
+	 *             Thrown if there's no topic relay and the spaces can't be
+	 *             listened to either
+	 */
+	public List<TopicActivity> getHotTopics(int limit) throws RemoteException {
+		TopicRelayService relay = SpaceService.getTopicRelay();
+
+		if (relay != null) {
+			try {
+				return relay.getHotTopics(limit);
+			} catch (RemoteException e) {
+				System.err.println("Failed to ask the topic relay for hot topics.  Counting them locally.");
+				SpaceService.discardTopicRelay(relay);
+			}
+		}
+
+		return localCounter().getHotTopics(limit);
+	}
+
+	/**
+	 * @return How many minutes back messages count as recent
+	 * @throws RemoteException
+	 *             Thrown if there's no topic relay and the spaces can't be
+	 *             listened to either
+	 */
+	public int getWindowMinutes() throws RemoteException {
+		TopicRelayService relay = SpaceService.getTopicRelay();
+
+		if (relay != null) {
+			try {
+				return relay.getActivityWindowMinutes();
+			} catch (RemoteException e) {
+				System.err.println("Failed to ask the topic relay for its window.  Counting locally.");
+				SpaceService.discardTopicRelay(relay);
+			}
+		}
+
+		return localCounter().getWindowMinutes();
+	}
+
+	/**
+	 * Gets the local counter, starting it the first time it's needed. It
+	 * keeps counting from then on, so the counts are ready if the relay goes
+	 * missing again.
+	 */
+	private synchronized TopicActivityCounter localCounter() throws RemoteException {
+		if (stopped) {
+			throw new RemoteException("Topic activity is no longer being counted");
+		}
+
+		if (localCounter == null) {
+			TopicActivityCounter counter = new TopicActivityCounter(SpaceService.getRouter());
+
+			try {
+				counter.export(new BasicJeriExporter(TcpServerEndpoint.getInstance(0), new BasicILFactory(), false,
+						true));
+			} catch (IOException e) {
+				throw new RemoteException("Failed to export topic activity listener", e);
+			}
+
+			counter.start();
+			localCounter = counter;
+		}
+
+		return localCounter;
+	}
+}
@@ -3,7 +3,10 @@ package services;
 import java.io.Serializable;
 import java.nio.file.AccessDeniedException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.naming.directory.InvalidAttributeValueException;
@@ -11,17 +14,21 @@ import javax.naming.directory.InvalidAttributeValueException;
 import org.apache.commons.lang3.StringUtils;
 
 import exceptions.DuplicateEntryException;
+import exceptions.NameContendedException;
+import models.JMSNameClaim;
 import models.JMSTopic;
 import models.JMSTopicDeleted;
 import models.JMSTopicUser;
 import models.JMSTopicUserRemoved;
 import models.JMSUser;
+import net.jini.core.entry.Entry;
 import net.jini.core.entry.UnusableEntryException;
 import net.jini.core.lease.Lease;
 import net.jini.core.transaction.Transaction;
 import net.jini.core.transaction.TransactionException;
 import net.jini.space.JavaSpace05;
 import services.helper.EntryLookupHelper;
+import services.helper.NameClaimHelper;
 import services.helper.TransactionHelper;
 
 /**
@@ -34,6 +41,10 @@ import services.helper.TransactionHelper;
 public class TopicService implements Serializable {
 	private static final long serialVersionUID = 4384471014207319215L;
 
+	// A user should only be in a topic once, so a small batch is plenty to
+	// sweep up any duplicates left behind by a bad state in one call
+	private static final long TOPIC_USER_TAKE_BATCH_SIZE = 16l;
+
 	private static TopicService topicService;
 
 	private JavaSpace05 space = SpaceService.getSpace();
@@ -58,49 +69,47 @@ public class TopicService implements Serializable {
 	}
 
 	/**
-	 * Writes a topic to the JavaSpace
+	 * Writes a topic to the JavaSpace, provided no topic with the same base
+	 * name exists.
+	 * 
+	 * The base name is claimed first, so two clients creating topics with the
+	 * same name at the same time can't both succeed. See NameClaimHelper.
 	 * 
 	 * @param topic
-	 * @throws Exception
+	 *            The topic to create
+	 * @return The topic's lease
+	 * @throws DuplicateEntryException
+	 *             Thrown if the name is taken
+	 * @throws NameContendedException
+	 *             Thrown if the name is still being claimed by someone else
+	 *             after retrying, so creating the topic can be tried again
 	 */
-	public Lease createTopic(JMSTopic topic)
-			throws DuplicateEntryException, InvalidAttributeValueException, RemoteException, TransactionException {
-		Transaction transaction = TransactionHelper.getTransaction(3000);
-		Lease lease = null;
+	public Lease createTopic(JMSTopic topic) throws DuplicateEntryException, NameContendedException,
+			InvalidAttributeValueException, RemoteException, TransactionException {
+		// If the Topic object is invalid, throw an exception
+		if (!isValidTopic(topic)) {
+			throw new InvalidAttributeValueException("Topic being creates is invalid (one or more fields null)");
+		}
 
-		try {
-			// If the topic is valid (non-null name, base name, and ID)
-			if (isValidTopic(topic)) {
-				// If the topic does not already exist in the space
-				if (!topicExistsInSpace(topic, transaction)) {
-					// Write it to the space and commit the transaction
-					lease = space.write(topic, transaction, Lease.FOREVER);
-					transaction.commit();
-				} else {
-					// Otherwise it's a duplicate, so throw an exception
-					throw new DuplicateEntryException(
-							"Failed to create topic.  Topic baseName or id matches with an existing topic.");
-				}
-			} else {
-				// Otherwise the Topic object is invalid, so throw an exception
-				throw new InvalidAttributeValueException("Topic being creates is invalid (one or more fields null)");
-			}
-		} catch (DuplicateEntryException | InvalidAttributeValueException | RemoteException | TransactionException e) {
-			// If anything in the try block throws an error, abort the
-			// transaction before rethrowing the error
-			if (transaction != null) {
-				try {
-					transaction.abort();
-				} catch (Exception e1) {
-					System.err.println("Failed to abort transaction");
-					e1.printStackTrace();
-				}
-			}
+		JMSTopic existingTemplate = new JMSTopic();
+		existingTemplate.setBaseName(topic.getBaseName());
 
-			throw e;
+		// If a topic with the same base name already exists, it's a
+		// duplicate, so the claim throws an exception
+		Lease claimLease;
+		try {
+			claimLease = NameClaimHelper.claim(space, JMSNameClaim.TOPIC_NAMESPACE, topic.getBaseName(),
+					existingTemplate);
+		} catch (DuplicateEntryException e) {
+			throw new DuplicateEntryException(
+					"Failed to create topic.  Topic baseName matches with an existing topic.");
 		}
 
-		return lease;
+		try {
+			return space.write(topic, null, Lease.FOREVER);
+		} finally {
+			NameClaimHelper.release(claimLease);
+		}
 	}
 
 	/**
@@ -185,20 +194,24 @@ public class TopicService implements Serializable {
 	 *            The topic to check for existence of
 	 * 
 	 * @return Whether or not a topic exists in the space with all fields the
-	 *         same as specified in the parameter passed in. Also returns false
-	 *         if exception occurs
+	 *         same as specified in the parameter passed in
+	 * 
+	 * @throws RemoteException
+	 *             If the space couldn't be checked, in which case the topic
+	 *             may well still exist
 	 */
-	public boolean doesTopicExistInSpace(JMSTopic topic, Transaction transaction) {
+	public boolean doesTopicExistInSpace(JMSTopic topic, Transaction transaction) throws RemoteException {
 		try {
 			if (space.readIfExists(topic, transaction, 500) != null) {
 				return true;
 			} else {
 				return false;
 			}
-		} catch (RemoteException | UnusableEntryException | TransactionException | InterruptedException e) {
+		} catch (UnusableEntryException | TransactionException | InterruptedException e) {
 			System.err.println("Failed to get topic from space");
 			e.printStackTrace();
-			return false;
+
+			throw new RemoteException("Failed to get topic from space", e);
 		}
 	}
 
@@ -215,9 +228,13 @@ public class TopicService implements Serializable {
 		if (userRequestingDeletion.equals(topic.getOwner())) {
 			// If the topic does not contain null fields
 			if (isValidTopic(topic)) {
+				Transaction transaction = null;
+
 				try {
-					Transaction transaction = TransactionHelper.getTransaction(10000l);
+					transaction = TransactionHelper.getTransaction(10000l);
 
+					// The topic is in the directory space, its users and
+					// messages in the topic's own space
 					space.takeIfExists(topic, transaction, 3000l);
 
 					deleteAllTopicUsers(topic, transaction);
@@ -231,6 +248,7 @@ public class TopicService implements Serializable {
 					transaction.commit();
 				} catch (Exception e) {
 					e.printStackTrace();
+					TransactionHelper.abort(transaction);
 				}
 			} else {
 				System.err.println("Attempted to delete topic with on or more null fields.  "
@@ -250,12 +268,16 @@ public class TopicService implements Serializable {
 	 * @return All of the users in a given topic.
 	 */
 	public List<JMSTopicUser> getAllTopicUsers(JMSTopic topic) {
-		return lookupHelper.findAllMatchingTemplate(space, new JMSTopicUser(topic));
+		return lookupHelper.findAllMatchingTemplate(SpaceService.getTopicSpace(topic), new JMSTopicUser(topic));
 	}
 
 	/**
 	 * Adds a given user to a given topic.
 	 * 
+	 * The JMSTopicUser is written with a short lease that the PresenceService
+	 * keeps renewing until the user leaves the topic, so a client that dies
+	 * without leaving drops out of the topic on its own.
+	 * 
 	 * @param topic
 	 *            The topic to add the user to
 	 * @param user
@@ -263,20 +285,27 @@ public class TopicService implements Serializable {
 	 */
 	public Lease addTopicUser(JMSTopic topic, JMSUser user) {
 		JMSTopicUser topicUser = new JMSTopicUser(topic, user);
+		JavaSpace05 topicSpace = SpaceService.getTopicSpace(topic);
 		Lease lease = null;
+		Transaction transaction = null;
 		
 		try {
-			Transaction transaction = TransactionHelper.getTransaction();
+			transaction = TransactionHelper.getTransaction();
 
-			// Only add the TopicUser if it isn't already in there...
-			if (space.readIfExists(topicUser, transaction, 1000) == null) {
-				lease = space.write(topicUser, transaction, Lease.FOREVER);
-			}
+			// If the user is already in there (e.g. left behind by a client
+			// that has since died), replace them so this client holds a lease
+			// it can keep renewing
+			lookupHelper.takeAllMatchingTemplate(topicSpace, topicUser, transaction, TOPIC_USER_TAKE_BATCH_SIZE);
+			lease = topicSpace.write(topicUser, transaction, PresenceService.PRESENCE_LEASE_IN_MILLIS);
 
 			transaction.commit();
-		} catch (RemoteException | UnusableEntryException | TransactionException | InterruptedException e) {
+
+			PresenceService.getPresenceService().track(topic, user, lease);
+		} catch (RemoteException | TransactionException e) {
 			System.err.println("Failed to add user to topic");
 			e.printStackTrace();
+			TransactionHelper.abort(transaction);
+			lease = null;
 		}
 		
 		return lease;
@@ -293,7 +322,7 @@ public class TopicService implements Serializable {
 	 * @return The JMSTopicUser's lease
 	 */
 	public Lease addDebugTopicUser(JMSTopic topic, JMSUser user) throws RemoteException, TransactionException {
-		return space.write(new JMSTopicUser(topic, user), null, 60l * 1000l);
+		return SpaceService.getTopicSpace(topic).write(new JMSTopicUser(topic, user), null, 60l * 1000l);
 	}
 
 	/**
@@ -305,65 +334,110 @@ public class TopicService implements Serializable {
 	 *            The user to remove from the topic
 	 */
 	public void removeTopicUser(JMSTopic topic, JMSUser user) {
+		PresenceService.getPresenceService().untrack(topic, user);
+		JavaSpace05 topicSpace = SpaceService.getTopicSpace(topic);
+		Transaction transaction = null;
+
 		try {
-			Transaction transaction = TransactionHelper.getTransaction();
+			transaction = TransactionHelper.getTransaction();
 
-			boolean removed = false;
 			JMSTopicUser template = new JMSTopicUser(topic, user);
 
 			// If the space is in a bad state and has duplicate users in a
-			// topic, this while loop ensures they are all removed
-			while (space.takeIfExists(template, transaction, 1000) != null) {
-				removed = true;
-			}
+			// topic, taking them as a batch ensures they are all removed in a
+			// single call to the space
+			List<JMSTopicUser> removed = lookupHelper.takeAllMatchingTemplate(topicSpace, template, transaction,
+					TOPIC_USER_TAKE_BATCH_SIZE);
 
 			// Put a JMSTopicUserRemoved object in the space so listeners can
 			// pick them up and remove them from other user's lists
-			if (removed) {
+			if (!removed.isEmpty()) {
 				JMSTopicUserRemoved removedTopicUser = new JMSTopicUserRemoved(template.getTopic(), template.getUser());
 
 				// Writes the JMSTopicUserRemoved with a 60 second lease, so
 				// listeners have 60 seconds to act on it
-				space.write(removedTopicUser, transaction, 1000l * 60l);
+				topicSpace.write(removedTopicUser, transaction, 1000l * 60l);
 			}
 
 			transaction.commit();
-		} catch (RemoteException | UnusableEntryException | TransactionException | InterruptedException e) {
+		} catch (RemoteException | TransactionException e) {
 			System.err.println("Failed to remove user from topic.  " + "User ID: '" + user.getId().toString()
 					+ "' && Topic ID: '" + topic.getId().toString() + "'");
 			e.printStackTrace();
+			TransactionHelper.abort(transaction);
 		}
 	}
 
 	/**
-	 * Whether or not a topic already exists in the space with the same base
-	 * name or UUID.
+	 * Removes a given user from every topic they are in, as a single batch.
 	 * 
-	 * @param topic
-	 *            The topic to check if exists
-	 * @param transaction
-	 *            The transaction in which the check will take place
-	 * @return <code>true</code> if a match by either base name or UUID,
-	 *         otherwise <code>false</code>
+	 * All of the user's JMSTopicUsers are taken, and a JMSTopicUserRemoved is
+	 * written for each topic they were in, in one transaction using
+	 * JavaSpace05's multi-entry take and write. If topics are sharded, that's
+	 * one take and one write per shard.
+	 * 
+	 * @param user
+	 *            The user to remove from all topics
+	 * @return The number of topics the user was removed from
 	 */
-	private boolean topicExistsInSpace(JMSTopic topic, Transaction transaction) {
-		try {
-			JMSTopic template = new JMSTopic();
-			template.setBaseName(topic.getBaseName());
-			JMSTopic topicBaseNameMatch = (JMSTopic) space.readIfExists(template, transaction, 2000);
+	public int removeUserFromAllTopics(JMSUser user) {
+		PresenceService.getPresenceService().untrackAll(user);
 
-			template = new JMSTopic();
-			template.setId(topic.getId());
-			JMSTopic topicIdMatch = (JMSTopic) space.readIfExists(template, transaction, 2000);
+		JMSTopicUser template = new JMSTopicUser();
+		template.setUser(user);
+		Transaction transaction = null;
 
-			if (topicBaseNameMatch != null || topicIdMatch != null) {
-				return true;
+		try {
+			transaction = TransactionHelper.getTransaction();
+			int topicsLeft = 0;
+
+			for (JavaSpace05 topicSpace : SpaceService.getTopicSpaces()) {
+				topicsLeft += removeUserFromAllTopics(topicSpace, template, transaction);
 			}
-		} catch (Exception e) {
+
+			transaction.commit();
+
+			return topicsLeft;
+		} catch (RemoteException | TransactionException e) {
+			System.err.println("Failed to remove user from all topics.  User ID: '" + user.getId().toString() + "'");
 			e.printStackTrace();
+			TransactionHelper.abort(transaction);
+
+			return 0;
 		}
+	}
 
-		return false;
+	/**
+	 * Removes a user from every topic they are in in one space
+	 * 
+	 * @return The number of topics the user was removed from
+	 */
+	private int removeUserFromAllTopics(JavaSpace05 topicSpace, JMSTopicUser template, Transaction transaction)
+			throws RemoteException, TransactionException {
+		List<JMSTopicUser> removed = lookupHelper.takeAllMatchingTemplate(topicSpace, template, transaction);
+
+		// Only one removal notice per topic, even if the space held
+		// duplicate users for it
+		Map<UUID, JMSTopic> topicsLeft = new LinkedHashMap<UUID, JMSTopic>();
+		for (JMSTopicUser topicUser : removed) {
+			topicsLeft.put(topicUser.getTopic().getId(), topicUser.getTopic());
+		}
+
+		if (!topicsLeft.isEmpty()) {
+			List<Entry> removedTopicUsers = new ArrayList<Entry>(topicsLeft.size());
+			List<Long> leaseDurations = new ArrayList<Long>(topicsLeft.size());
+
+			// Written with a 60 second lease, so listeners have 60 seconds
+			// to act on them
+			for (JMSTopic topic : topicsLeft.values()) {
+				removedTopicUsers.add(new JMSTopicUserRemoved(topic, template.getUser()));
+				leaseDurations.add(1000l * 60l);
+			}
+
+			topicSpace.write(removedTopicUsers, transaction, leaseDurations);
+		}
+
+		return topicsLeft.size();
 	}
 
 	/**
@@ -373,19 +447,18 @@ public class TopicService implements Serializable {
 	 *            A topic to remove all of the users from.
 	 * @param transaction
 	 *            The transaction in which to run the delete
+	 * @throws RemoteException
+	 *             Thrown if the topic's space can't be reached. The transaction
+	 *             should then be aborted.
+	 * @throws TransactionException
+	 *             Thrown if the transaction isn't usable
 	 */
-	private void deleteAllTopicUsers(JMSTopic topic, Transaction transaction) {
+	private void deleteAllTopicUsers(JMSTopic topic, Transaction transaction)
+			throws RemoteException, TransactionException {
 		JMSTopicUser template = new JMSTopicUser(topic);
 
-		try {
-			while (space.readIfExists(template, transaction, 1000) != null) {
-				space.takeIfExists(template, transaction, 1000);
-			}
-		} catch (RemoteException | UnusableEntryException | TransactionException | InterruptedException e) {
-			System.err.println("Failed to delete all users from Topic entitled: '" + topic.getName() + "' with ID: '"
-					+ topic.getId().toString() + "'");
-			e.printStackTrace();
-		}
+		lookupHelper.takeAllMatchingTemplate(SpaceService.getTopicSpace(topic), template, transaction,
+				EntryLookupHelper.DEFAULT_TAKE_BATCH_SIZE);
 	}
 
 	/**
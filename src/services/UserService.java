@@ -1,19 +1,26 @@
 package services;
 
 import java.rmi.RemoteException;
+import java.util.UUID;
 
 import javax.naming.directory.InvalidAttributeValueException;
 
 import org.apache.commons.lang3.StringUtils;
 
 import exceptions.DuplicateEntryException;
+import exceptions.NameContendedException;
 import exceptions.ResourceNotFoundException;
+import models.JMSNameClaim;
 import models.JMSUser;
 import net.jini.core.entry.UnusableEntryException;
 import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseDeniedException;
+import net.jini.core.lease.UnknownLeaseException;
 import net.jini.core.transaction.Transaction;
 import net.jini.core.transaction.TransactionException;
 import net.jini.space.JavaSpace05;
+import services.helper.BatchLeaseRenewer;
+import services.helper.NameClaimHelper;
 import services.helper.TransactionHelper;
 
 /**
@@ -28,8 +35,14 @@ public class UserService {
 
 	private static final JavaSpace05 space = SpaceService.getSpace();
 
+	private static final long ONE_DAY_IN_MILLIS = 1000l * 60l * 60l * 24l;
+
 	private static UserService userService;
 
+	// Renews every user lease this client holds back up to 90 days, once a day
+	private final BatchLeaseRenewer<UUID> userLeaseRenewer = new BatchLeaseRenewer<UUID>("user-lease-renewal",
+			NINETY_DAYS_IN_MILLIS, ONE_DAY_IN_MILLIS);
+
 	private UserService() {
 		// Uninstantiable singleton
 	}
@@ -49,31 +62,51 @@ public class UserService {
 	}
 
 	/**
+	 * Writes a user to the space, provided no user with the same base name
+	 * exists.
+	 * 
+	 * The base name is claimed first, so two clients signing up with the same
+	 * name at the same time can't both succeed. See NameClaimHelper.
 	 * 
 	 * @param user
 	 *            The JMSUser to add to the space.
 	 * 
-	 * @return <code>true</code> if successfully created. <code>false</code> if
-	 *         not.
+	 * @return The user's lease
 	 * 
 	 * @throws RemoteException
 	 * @throws TransactionException
 	 * @throws DuplicateEntryException
+	 *             Thrown if the name is taken, so the user should pick another
+	 * @throws NameContendedException
+	 *             Thrown if the name is still being claimed by someone else
+	 *             after retrying, so the user can try again
 	 */
-	public Lease createUser(JMSUser user) throws RemoteException, TransactionException, DuplicateEntryException {
+	public Lease createUser(JMSUser user)
+			throws RemoteException, TransactionException, DuplicateEntryException, NameContendedException {
 		Lease lease = null;
 		
 		isValidUser(user);
 
-		Transaction transaction = TransactionHelper.getTransaction();
+		JMSUser existingTemplate = new JMSUser();
+		existingTemplate.setBaseName(user.getBaseName());
 
-		if (getUserByBaseName(user.getBaseName(), transaction) == null) {
-			lease = space.write(user, transaction, NINETY_DAYS_IN_MILLIS);
-			transaction.commit();
-		} else {
+		// Also checks no user already has the name
+		Lease claimLease;
+		try {
+			claimLease = NameClaimHelper.claim(space, JMSNameClaim.USER_NAMESPACE, user.getBaseName(),
+					existingTemplate);
+		} catch (DuplicateEntryException e) {
 			throw new DuplicateEntryException("User with name: '" + user.getName() + "' already exists.");
 		}
 
+		try {
+			lease = space.write(user, null, NINETY_DAYS_IN_MILLIS);
+
+			userLeaseRenewer.track(user.getId(), lease);
+		} finally {
+			NameClaimHelper.release(claimLease);
+		}
+
 		return lease;
 	}
 	
@@ -93,6 +126,12 @@ public class UserService {
 	 * Each time a user logs in, this method is called to renew their lease for
 	 * 90 days
 	 * 
+	 * If this client wrote (or already renewed) the user, it holds their
+	 * lease, so the lease is renewed in place with a single call. Otherwise the
+	 * user is taken and re-written to get hold of a fresh lease. Either way,
+	 * the lease is then kept alive in the background, batched with any other
+	 * user leases this client holds.
+	 * 
 	 * @param user
 	 *            The user to renew the lease of
 	 * @throws ResourceNotFoundException
@@ -104,21 +143,47 @@ public class UserService {
 		Lease lease = null;
 		
 		if (isValidUser(user)) {
-			Transaction transaction = TransactionHelper.getTransaction();
-
-			JMSUser userFromSpace = getUserByBaseName(user.getBaseName(), transaction);
+			lease = userLeaseRenewer.get(user.getId());
 
-			if (userFromSpace != null) {
+			if (lease != null) {
 				try {
-					space.takeIfExists(userFromSpace, transaction, 1000);
-					lease = space.write(user, transaction, NINETY_DAYS_IN_MILLIS);
-					transaction.commit();
-				} catch (RemoteException | TransactionException | InterruptedException | UnusableEntryException e) {
-					System.err.println("Failed to renew user's lease");
+					lease.renew(NINETY_DAYS_IN_MILLIS);
+
+					return lease;
+				} catch (UnknownLeaseException e) {
+					// The entry has been removed or re-written elsewhere, so
+					// fall back to re-writing it
+					userLeaseRenewer.untrack(user.getId());
+				} catch (LeaseDeniedException | RemoteException e) {
+					System.err.println("Failed to renew user's lease in place.  Re-writing user instead.");
 					e.printStackTrace();
 				}
-			} else {
-				throw new ResourceNotFoundException("Failed to renew lease.  User does not exist in space.");
+			}
+
+			lease = null;
+			Transaction transaction = null;
+
+			try {
+				transaction = TransactionHelper.getTransaction();
+
+				JMSUser userFromSpace = getUserByBaseName(user.getBaseName(), transaction);
+
+				if (userFromSpace == null) {
+					TransactionHelper.abort(transaction);
+
+					throw new ResourceNotFoundException("Failed to renew lease.  User does not exist in space.");
+				}
+
+				space.takeIfExists(userFromSpace, transaction, 1000);
+				lease = space.write(user, transaction, NINETY_DAYS_IN_MILLIS);
+				transaction.commit();
+
+				userLeaseRenewer.track(user.getId(), lease);
+			} catch (RemoteException | TransactionException | InterruptedException | UnusableEntryException e) {
+				System.err.println("Failed to renew user's lease");
+				e.printStackTrace();
+				TransactionHelper.abort(transaction);
+				lease = null;
 			}
 		} else {
 			throw new InvalidAttributeValueException("JMSUser object contains one or more null fields");
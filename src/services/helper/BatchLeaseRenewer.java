@@ -0,0 +1,248 @@
+package services.helper;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.LeaseMapException;
+
+/**
+ * Keeps a set of leases alive in the background.
+ *
+ * Leases are grouped into LeaseMaps (one per space, in practice), so every
+ * lease in a group is renewed by a single LeaseMap.renewAll() call rather
+ * than one remote call per lease. Each lease is tracked under a key, so
+ * callers can stop renewing a lease without holding on to it.
+ *
+ * @param <K>
+ *            The type of key leases are tracked under
+ */
+public class BatchLeaseRenewer<K> {
+	private final String name;
+	private final long duration;
+	private final long interval;
+
+	private final Map<K, Lease> leases = new HashMap<K, Lease>();
+	private final List<LeaseMap> leaseMaps = new ArrayList<LeaseMap>();
+	private ScheduledExecutorService renewer;
+
+	/**
+	 * @param name
+	 *            The name of the background renewal thread
+	 * @param duration
+	 *            How long each renewal extends a lease by, in milliseconds
+	 * @param interval
+	 *            How often to renew, in milliseconds
+	 */
+	public BatchLeaseRenewer(String name, long duration, long interval) {
+		this.name = name;
+		this.duration = duration;
+		this.interval = interval;
+	}
+
+	/**
+	 * Starts renewing a lease. Replaces any lease already tracked under the
+	 * same key.
+	 *
+	 * @param key
+	 *            The key to track the lease under
+	 * @param lease
+	 *            The lease to renew
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void track(K key, Lease lease) {
+		if (lease == null) {
+			return;
+		}
+
+		untrack(key);
+
+		leases.put(key, lease);
+
+		// Put the lease in with leases it can be renewed alongside, if there
+		// are any
+		LeaseMap group = null;
+		for (LeaseMap leaseMap : leaseMaps) {
+			if (leaseMap.canContainKey(lease)) {
+				group = leaseMap;
+
+				break;
+			}
+		}
+
+		if (group == null) {
+			leaseMaps.add(lease.createLeaseMap(duration));
+		} else {
+			group.put(lease, Long.valueOf(duration));
+		}
+
+		start();
+	}
+
+	/**
+	 * Stops renewing the lease tracked under a given key. Does not cancel the
+	 * lease.
+	 *
+	 * @param key
+	 *            The key the lease is tracked under
+	 * @return The lease that was being renewed, or <code>null</code> if there
+	 *         wasn't one
+	 */
+	public synchronized Lease untrack(K key) {
+		Lease lease = leases.remove(key);
+
+		if (lease != null) {
+			removeFromLeaseMaps(lease);
+		}
+
+		return lease;
+	}
+
+	/**
+	 * Gets the lease tracked under a given key.
+	 *
+	 * @param key
+	 *            The key the lease is tracked under
+	 * @return The lease, or <code>null</code> if there isn't one
+	 */
+	public synchronized Lease get(K key) {
+		return leases.get(key);
+	}
+
+	/**
+	 * @return A copy of every key with a lease being renewed
+	 */
+	public synchronized Set<K> keys() {
+		return new HashSet<K>(leases.keySet());
+	}
+
+	/**
+	 * Renews every tracked lease, one call per group of leases. Any lease that
+	 * fails to renew (e.g. its entry was taken elsewhere) is dropped.
+	 *
+	 * The renewals are remote calls, so are made on a copy of the groups
+	 * without holding the lock. A slow space then doesn't hold up tracking
+	 * and untracking leases, which happens as users join and leave topics.
+	 */
+	public void renewAll() {
+		List<LeaseMap> batches = copyLeaseMaps();
+		Set<Lease> failed = new HashSet<Lease>();
+
+		for (LeaseMap batch : batches) {
+			try {
+				batch.renewAll();
+			} catch (LeaseMapException e) {
+				for (Object lease : e.exceptionMap.keySet()) {
+					failed.add((Lease) lease);
+				}
+			} catch (RemoteException e) {
+				System.err.println("Failed to renew leases for " + name + ". Will retry on next renewal.");
+				e.printStackTrace();
+			}
+		}
+
+		synchronized (this) {
+			// Stop tracking leases that failed to renew, unless they've been
+			// untracked or replaced meanwhile
+			Iterator<Lease> it = leases.values().iterator();
+			while (it.hasNext()) {
+				Lease lease = it.next();
+
+				if (failed.contains(lease)) {
+					it.remove();
+					removeFromLeaseMaps(lease);
+				}
+			}
+
+			if (leaseMaps.isEmpty()) {
+				stop();
+			}
+		}
+	}
+
+	/**
+	 * @return A copy of each group of leases, to be renewed without holding
+	 *         the lock
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized List<LeaseMap> copyLeaseMaps() {
+		List<LeaseMap> copies = new ArrayList<LeaseMap>(leaseMaps.size());
+
+		for (LeaseMap leaseMap : leaseMaps) {
+			if (!leaseMap.isEmpty()) {
+				Lease first = (Lease) leaseMap.keySet().iterator().next();
+				LeaseMap copy = first.createLeaseMap(duration);
+				copy.putAll(leaseMap);
+				copies.add(copy);
+			}
+		}
+
+		return copies;
+	}
+
+	/**
+	 * Removes a lease from whichever LeaseMap is holding it.
+	 */
+	private void removeFromLeaseMaps(Lease lease) {
+		Iterator<LeaseMap> it = leaseMaps.iterator();
+
+		while (it.hasNext()) {
+			LeaseMap leaseMap = it.next();
+
+			if (leaseMap.remove(lease) != null) {
+				if (leaseMap.isEmpty()) {
+					it.remove();
+				}
+
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Starts the background renewal if it isn't already running.
+	 */
+	private void start() {
+		if (renewer != null) {
+			return;
+		}
+
+		renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		renewer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				renewAll();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the background renewal, if it is running.
+	 */
+	private void stop() {
+		if (renewer != null) {
+			renewer.shutdown();
+			renewer = null;
+		}
+	}
+}
@@ -3,12 +3,16 @@ package services.helper;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import net.jini.core.entry.Entry;
 import net.jini.core.transaction.CannotCommitException;
 import net.jini.core.transaction.Transaction;
+import net.jini.core.transaction.TransactionException;
 import net.jini.core.transaction.UnknownTransactionException;
+import net.jini.entry.UnusableEntriesException;
+import net.jini.space.JavaSpace;
 import net.jini.space.JavaSpace05;
 import net.jini.space.MatchSet;
 
@@ -21,6 +25,14 @@ import net.jini.space.MatchSet;
 public class EntryLookupHelper implements Serializable {
 	private static final long serialVersionUID = -6457049864685809692L;
 
+	/**
+	 * Matches Outrigger's default per-call take limit, so a full batch means
+	 * there may be more entries left to take.
+	 */
+	public static final long DEFAULT_TAKE_BATCH_SIZE = 100l;
+
+	private static final long TAKE_TIMEOUT_IN_MILLIS = 500l;
+
 	public EntryLookupHelper() {
 	}
 
@@ -40,7 +52,16 @@ public class EntryLookupHelper implements Serializable {
 	 * @return All entries that match the given template in the given space.
 	 */
 	public <T extends Entry> List<T> findAllMatchingTemplate(JavaSpace05 space, T template) {
-		Transaction transaction = TransactionHelper.getTransaction();
+		Transaction transaction;
+
+		try {
+			transaction = TransactionHelper.getTransaction();
+		} catch (RemoteException | TransactionException e) {
+			System.err.println("Failed to read all entries of type " + template.getClass().getSimpleName());
+			e.printStackTrace();
+
+			return new ArrayList<T>();
+		}
 
 		List<T> entries = findAllMatchingTemplate(space, template, transaction);
 
@@ -122,24 +143,58 @@ public class EntryLookupHelper implements Serializable {
 	 * @return All entries that match the given template from the given space
 	 */
 	public <T extends Entry> List<T> takeAllMatchingTemplate(JavaSpace05 space, T template) {
+		Transaction transaction = null;
+
 		try {
-			Transaction transaction = TransactionHelper.getTransaction();
+			transaction = TransactionHelper.getTransaction();
 			List<T> entries = takeAllMatchingTemplate(space, template, transaction);
 			transaction.commit();
 
 			return entries;
-		} catch (UnknownTransactionException | CannotCommitException | RemoteException e) {
-			System.err.println("Failed to commit transaction.");
+		} catch (TransactionException | RemoteException e) {
+			System.err.println("Failed to take all entries of type " + template.getClass().getSimpleName());
 			e.printStackTrace();
+			TransactionHelper.abort(transaction);
 
 			return new ArrayList<T>();
 		}
+	}
 
+	/**
+	 * Takes all Entries matching a given template from a given space, inside of
+	 * a given transaction. Uses the default batch size.
+	 * 
+	 * <b>Does not commit the passed-in transaction</b>
+	 * 
+	 * @param space
+	 *            The space to take Entries from
+	 * @param template
+	 *            The template to match Entries against
+	 * @param transaction
+	 *            The transaction to run the takeAll inside of
+	 * 
+	 * @return All entries that match the given template from the given space
+	 * @throws RemoteException
+	 *             Thrown if the space can't be reached. Some entries may have
+	 *             been taken, so the transaction should be aborted.
+	 * @throws TransactionException
+	 *             Thrown if the transaction isn't usable
+	 */
+	public <T extends Entry> List<T> takeAllMatchingTemplate(JavaSpace05 space, T template, Transaction transaction)
+			throws RemoteException, TransactionException {
+		return takeAllMatchingTemplate(space, template, transaction, DEFAULT_TAKE_BATCH_SIZE);
 	}
 
 	/**
 	 * Takes all Entries matching a given template from a given space, inside of
-	 * a given transaction.
+	 * a given transaction, using JavaSpace05's multi-entry take.
+	 * 
+	 * Each call to the space removes up to <code>batchSize</code> entries, so
+	 * removing n entries costs roughly n / batchSize round-trips rather than
+	 * one (or two) per entry. Only the first batch waits for a match; later
+	 * batches only take what is already there. Taking stops once a batch comes
+	 * back short, so <code>batchSize</code> should not exceed the space's own
+	 * per-call take limit.
 	 * 
 	 * <b>Does not commit the passed-in transaction</b>
 	 * 
@@ -149,22 +204,45 @@ public class EntryLookupHelper implements Serializable {
 	 *            The template to match Entries against
 	 * @param transaction
 	 *            The transaction to run the takeAll inside of
+	 * @param batchSize
+	 *            The maximum number of entries to take per call to the space
 	 * 
 	 * @return All entries that match the given template from the given space
+	 * @throws RemoteException
+	 *             Thrown if the space can't be reached. Earlier batches may
+	 *             have been taken, so the transaction should be aborted rather
+	 *             than committed.
+	 * @throws TransactionException
+	 *             Thrown if the transaction isn't usable
 	 */
 	@SuppressWarnings("unchecked")
-	public <T extends Entry> List<T> takeAllMatchingTemplate(JavaSpace05 space, T template, Transaction transaction) {
+	public <T extends Entry> List<T> takeAllMatchingTemplate(JavaSpace05 space, T template, Transaction transaction,
+			long batchSize) throws RemoteException, TransactionException {
 		List<T> entries = new ArrayList<T>();
+		List<T> templateList = new ArrayList<T>(1);
+		templateList.add(template);
+
+		long timeout = TAKE_TIMEOUT_IN_MILLIS;
+		int batchCount;
+
+		do {
+			try {
+				Collection<T> batch = space.take(templateList, transaction, timeout, batchSize);
+				entries.addAll(batch);
+				batchCount = batch.size();
+			} catch (UnusableEntriesException e) {
+				// Entries that can't be deserialised have still been taken,
+				// which is what's wanted, so carry on with the rest
+				System.err.println("Took " + e.getUnusableEntryExceptions().size() + " unusable entries of type "
+						+ template.getClass().getSimpleName());
+				entries.addAll(e.getEntries());
+				batchCount = e.getEntries().size() + e.getUnusableEntryExceptions().size();
+			}
 
-		try {
-			List<T> templateList = new ArrayList<T>(1);
-			templateList.add(template);
-
-			entries.addAll(space.take(templateList, transaction, 500, Long.MAX_VALUE));
-		} catch (Exception e) {
-			System.err.println("Failed to take all entries of type");
-			e.printStackTrace();
-		}
+			// Anything still matching is already in the space, so there is
+			// no need to wait on subsequent batches
+			timeout = JavaSpace.NO_WAIT;
+		} while (batchCount >= batchSize);
 
 		return entries;
 	}
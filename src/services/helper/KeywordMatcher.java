@@ -0,0 +1,196 @@
+package services.helper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds whether a text mentions any of a set of keywords, ignoring case.
+ *
+ * The keywords are compiled once into an Aho-Corasick automaton, so checking
+ * a text takes one pass over it however many keywords there are. A keyword
+ * only counts as a whole word, so "Ann" is found in "thanks, ann!" but not in
+ * "planning".
+ *
+ * Immutable, so can be shared between threads.
+ */
+public final class KeywordMatcher {
+	/**
+	 * Matches nothing
+	 */
+	public static final KeywordMatcher NONE = new KeywordMatcher(Collections.<String> emptyList());
+
+	private static final int ROOT = 0;
+	private static final int NO_NODE = -1;
+
+	// Each node's outgoing edges, sorted by label
+	private final char[][] labels;
+	private final int[][] targets;
+	// The node for the longest proper suffix of each node's path that is also
+	// in the trie
+	private final int[] failures;
+	// The length of the keyword ending at each node, or 0
+	private final int[] keywordLengths;
+	// The nearest node down each node's failure chain that ends a keyword
+	private final int[] nextKeywordNodes;
+
+	/**
+	 * @param keywords
+	 *            The keywords to look for. Blank ones are ignored.
+	 */
+	public KeywordMatcher(Collection<String> keywords) {
+		List<Map<Character, Integer>> children = new ArrayList<Map<Character, Integer>>();
+		List<Integer> lengths = new ArrayList<Integer>();
+		children.add(new TreeMap<Character, Integer>());
+		lengths.add(0);
+
+		for (String keyword : keywords) {
+			if (keyword == null || keyword.trim().isEmpty()) {
+				continue;
+			}
+
+			String word = keyword.trim();
+			int node = ROOT;
+
+			for (int i = 0; i < word.length(); i++) {
+				Character label = Character.toLowerCase(word.charAt(i));
+				Integer child = children.get(node).get(label);
+
+				if (child == null) {
+					child = children.size();
+					children.get(node).put(label, child);
+					children.add(new TreeMap<Character, Integer>());
+					lengths.add(0);
+				}
+
+				node = child;
+			}
+
+			lengths.set(node, word.length());
+		}
+
+		int nodes = children.size();
+		labels = new char[nodes][];
+		targets = new int[nodes][];
+		keywordLengths = new int[nodes];
+
+		for (int node = 0; node < nodes; node++) {
+			Map<Character, Integer> edges = children.get(node);
+			labels[node] = new char[edges.size()];
+			targets[node] = new int[edges.size()];
+			keywordLengths[node] = lengths.get(node);
+
+			int edge = 0;
+			for (Map.Entry<Character, Integer> entry : edges.entrySet()) {
+				labels[node][edge] = entry.getKey();
+				targets[node][edge] = entry.getValue();
+				edge++;
+			}
+		}
+
+		failures = new int[nodes];
+		nextKeywordNodes = new int[nodes];
+		linkFailures();
+	}
+
+	/**
+	 * @return Whether the text contains any of the keywords as a whole word
+	 */
+	public boolean matches(String text) {
+		if (text == null || labels[ROOT].length == 0) {
+			return false;
+		}
+
+		int node = ROOT;
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = Character.toLowerCase(text.charAt(i));
+			int next = step(node, c);
+
+			while (next == NO_NODE && node != ROOT) {
+				node = failures[node];
+				next = step(node, c);
+			}
+
+			node = next == NO_NODE ? ROOT : next;
+
+			int found = keywordLengths[node] > 0 ? node : nextKeywordNodes[node];
+			for (; found != NO_NODE; found = nextKeywordNodes[found]) {
+				if (isWholeWord(text, i + 1 - keywordLengths[found], i + 1)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Links each node to its failure node, breadth first so a node's failure
+	 * is always linked before it's needed.
+	 */
+	private void linkFailures() {
+		Queue<Integer> queue = new LinkedList<Integer>();
+		failures[ROOT] = ROOT;
+		nextKeywordNodes[ROOT] = NO_NODE;
+
+		for (int child : targets[ROOT]) {
+			failures[child] = ROOT;
+			nextKeywordNodes[child] = NO_NODE;
+			queue.add(child);
+		}
+
+		while (!queue.isEmpty()) {
+			int node = queue.remove();
+
+			for (int edge = 0; edge < labels[node].length; edge++) {
+				int child = targets[node][edge];
+				int failure = failures[node];
+				int next = step(failure, labels[node][edge]);
+
+				while (next == NO_NODE && failure != ROOT) {
+					failure = failures[failure];
+					next = step(failure, labels[node][edge]);
+				}
+
+				failures[child] = next == NO_NODE ? ROOT : next;
+				nextKeywordNodes[child] = keywordLengths[failures[child]] > 0 ? failures[child]
+						: nextKeywordNodes[failures[child]];
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * @return The node reached from a node along an edge, or NO_NODE
+	 */
+	private int step(int node, char label) {
+		char[] nodeLabels = labels[node];
+		int low = 0;
+		int high = nodeLabels.length - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+
+			if (nodeLabels[middle] < label) {
+				low = middle + 1;
+			} else if (nodeLabels[middle] > label) {
+				high = middle - 1;
+			} else {
+				return targets[node][middle];
+			}
+		}
+
+		return NO_NODE;
+	}
+
+	private static boolean isWholeWord(String text, int start, int end) {
+		return (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+				&& (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)));
+	}
+}
@@ -0,0 +1,198 @@
+package services.helper;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import exceptions.DuplicateEntryException;
+import exceptions.NameContendedException;
+import models.JMSNameClaim;
+import net.jini.core.entry.Entry;
+import net.jini.core.entry.UnusableEntryException;
+import net.jini.core.lease.Lease;
+import net.jini.core.transaction.TransactionException;
+import net.jini.space.JavaSpace05;
+import net.jini.space.MatchSet;
+
+/**
+ * Reserves base names so that users and topics can be created without
+ * holding transaction locks while checking for duplicates.
+ * 
+ * A client writes a JMSNameClaim for the base name, then reads back every
+ * claim on that base name, along with any entry already using the name, in a
+ * single contents() call. It only holds the name once its claim is the only
+ * one it can see and no entry uses the name. Writes happen before reads, so of
+ * two clients racing for a name at most one can ever see only its own claim.
+ * 
+ * When claims collide, the claim with the lowest ID stays put and keeps
+ * checking, while the others withdraw, back off and try again. This means
+ * someone always gets the name rather than everyone backing off forever.
+ * 
+ * A claim only guards the window between checking for an existing entry and
+ * writing the new one, so the winner must write its entry, then release the
+ * claim.
+ *
+ * Uncontended, creating a named entry takes four round trips: writing the
+ * claim, the contents() call, writing the entry and cancelling the claim,
+ * plus cancelling the contents() call's match set where the space leases it.
+ * Each collision adds a contents() call, and a withdrawn claim adds a cancel
+ * and a write.
+ */
+public class NameClaimHelper {
+	// Long enough to cover a check and a write, short enough that a crashed
+	// client doesn't hold a name for long
+	private static final long CLAIM_LEASE_IN_MILLIS = 1000l * 10l;
+
+	private static final int MAX_ATTEMPTS = 10;
+	private static final long BASE_BACKOFF_IN_MILLIS = 50l;
+
+	private static final Random random = new Random();
+
+	private enum ClaimStatus {
+		SOLE, // Ours is the only claim
+		LEADING, // There are rival claims, but ours has the lowest ID
+		TRAILING, // A rival claim has a lower ID, so we should withdraw
+		TAKEN // An entry already uses the name
+	}
+
+	private NameClaimHelper() {
+		// Uninstantiable
+	}
+
+	/**
+	 * Claims a base name in a given namespace.
+	 * 
+	 * @param space
+	 *            The space to claim the name in
+	 * @param namespace
+	 *            The kind of name being claimed. One of
+	 *            <code>JMSNameClaim.USER_NAMESPACE</code> or
+	 *            <code>JMSNameClaim.TOPIC_NAMESPACE</code>
+	 * @param baseName
+	 *            The base name to claim
+	 * @param existingTemplate
+	 *            A template matching any entry already using the name
+	 * @return The lease of the claim, to be passed to release() once the
+	 *         named entry has been written
+	 * @throws DuplicateEntryException
+	 *             Thrown if an entry already uses the name
+	 * @throws NameContendedException
+	 *             Thrown if someone else still holds a claim on the name after
+	 *             every retry. The name may be free, so the caller can try
+	 *             again.
+	 * @throws RemoteException
+	 * @throws TransactionException
+	 */
+	public static Lease claim(JavaSpace05 space, String namespace, String baseName, Entry existingTemplate)
+			throws DuplicateEntryException, NameContendedException, RemoteException, TransactionException {
+		List<Entry> templates = new ArrayList<Entry>(2);
+		templates.add(new JMSNameClaim(namespace, baseName));
+		templates.add(existingTemplate);
+
+		UUID claimId = null;
+		Lease lease = null;
+
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			if (lease == null) {
+				claimId = UUID.randomUUID();
+				lease = space.write(new JMSNameClaim(namespace, baseName, claimId), null, CLAIM_LEASE_IN_MILLIS);
+			}
+
+			ClaimStatus status;
+			try {
+				status = getClaimStatus(space, templates, claimId);
+			} catch (RemoteException | TransactionException e) {
+				release(lease);
+
+				throw e;
+			}
+
+			if (status == ClaimStatus.SOLE) {
+				return lease;
+			} else if (status == ClaimStatus.TAKEN) {
+				release(lease);
+
+				throw new DuplicateEntryException("Name '" + baseName + "' is already taken.");
+			} else if (status == ClaimStatus.TRAILING) {
+				// Someone else has the better claim, so withdraw ours
+				release(lease);
+				lease = null;
+			}
+
+			try {
+				Thread.sleep(BASE_BACKOFF_IN_MILLIS * (attempt + 1) + random.nextInt((int) BASE_BACKOFF_IN_MILLIS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+
+				break;
+			}
+		}
+
+		release(lease);
+
+		throw new NameContendedException("Name '" + baseName + "' is being registered by someone else.");
+	}
+
+	/**
+	 * Releases a claim on a name. Failing to release isn't fatal, as the claim
+	 * will expire by itself.
+	 * 
+	 * @param lease
+	 *            The lease of the claim to release
+	 */
+	public static void release(Lease lease) {
+		if (lease == null) {
+			return;
+		}
+
+		try {
+			lease.cancel();
+		} catch (Exception e) {
+			System.err.println("Failed to release name claim.  It will expire by itself.");
+		}
+	}
+
+	/**
+	 * Compares our claim against every other claim on the same name, and
+	 * checks no entry uses the name. Errors are passed up rather than treated
+	 * as "no rivals", as that could let two clients hold the same name.
+	 */
+	private static ClaimStatus getClaimStatus(JavaSpace05 space, List<Entry> templates, UUID claimId)
+			throws RemoteException, TransactionException {
+		MatchSet matchSet = space.contents(templates, null, CLAIM_LEASE_IN_MILLIS, Long.MAX_VALUE);
+		ClaimStatus status = ClaimStatus.SOLE;
+
+		try {
+			Entry entry = matchSet.next();
+
+			while (entry != null) {
+				if (!(entry instanceof JMSNameClaim)) {
+					return ClaimStatus.TAKEN;
+				}
+
+				JMSNameClaim claim = (JMSNameClaim) entry;
+
+				if (!claimId.equals(claim.getId())) {
+					if (claim.getId() == null || claim.getId().compareTo(claimId) < 0) {
+						status = ClaimStatus.TRAILING;
+					} else if (status == ClaimStatus.SOLE) {
+						status = ClaimStatus.LEADING;
+					}
+				}
+
+				entry = matchSet.next();
+			}
+		} catch (UnusableEntryException e) {
+			// A claim we can't read is still a claim
+			return ClaimStatus.TRAILING;
+		} finally {
+			if (matchSet.getLease() != null) {
+				release(matchSet.getLease());
+			}
+		}
+
+		return status;
+	}
+}
@@ -0,0 +1,94 @@
+package services.helper;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseException;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.LeaseMapException;
+
+/**
+ * A LeaseMap for a lease that can't be batched with any other, which renews
+ * and cancels it with its own calls. Lets such leases be handed to anything
+ * that renews leases through LeaseMaps, such as BatchLeaseRenewer.
+ */
+@SuppressWarnings({ "serial", "rawtypes", "unchecked" })
+public class SingleLeaseMap extends HashMap implements LeaseMap {
+	private final Lease lease;
+
+	/**
+	 * @param lease
+	 *            The only lease the map can hold
+	 * @param duration
+	 *            How long to renew it for, in milliseconds
+	 */
+	public SingleLeaseMap(Lease lease, long duration) {
+		this.lease = lease;
+		put(lease, Long.valueOf(duration));
+	}
+
+	@Override
+	public boolean canContainKey(Object key) {
+		return key == lease;
+	}
+
+	@Override
+	public Object put(Object key, Object value) {
+		if (!canContainKey(key)) {
+			throw new IllegalArgumentException("Lease can't be batched with the lease in this map");
+		}
+
+		if (!(value instanceof Long)) {
+			throw new IllegalArgumentException("Lease durations must be Longs");
+		}
+
+		return super.put(key, value);
+	}
+
+	@Override
+	public void putAll(Map map) {
+		for (Object entry : map.entrySet()) {
+			Map.Entry mapEntry = (Map.Entry) entry;
+			put(mapEntry.getKey(), mapEntry.getValue());
+		}
+	}
+
+	@Override
+	public void renewAll() throws LeaseMapException, RemoteException {
+		if (isEmpty()) {
+			return;
+		}
+
+		try {
+			lease.renew(((Long) get(lease)).longValue());
+		} catch (LeaseException e) {
+			remove(lease);
+
+			throw failure("Failed to renew lease", e);
+		}
+	}
+
+	@Override
+	public void cancelAll() throws LeaseMapException, RemoteException {
+		if (isEmpty()) {
+			return;
+		}
+
+		remove(lease);
+
+		try {
+			lease.cancel();
+		} catch (LeaseException e) {
+			throw failure("Failed to cancel lease", e);
+		}
+	}
+
+	private LeaseMapException failure(String message, LeaseException e) {
+		Map failures = new HashMap();
+		failures.put(lease, e);
+
+		return new LeaseMapException(message, failures);
+	}
+}
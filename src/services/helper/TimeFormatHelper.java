@@ -0,0 +1,88 @@
+package services.helper;
+
+import java.util.TimeZone;
+
+/**
+ * Formats message timestamps as the local time of day they were sent, e.g.
+ * 9:05 or 17:30.
+ *
+ * Every message sent in the same minute shows the same string, so formatted
+ * minutes are cached. Formatting a long history, most of which was sent within
+ * a few minutes of other messages, then creates a handful of strings rather
+ * than one (plus temporaries) per row.
+ */
+public class TimeFormatHelper {
+	private static final long MILLIS_PER_MINUTE = 60000l;
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	// Must be a power of two. Enough for nearly three days of busy history
+	private static final int CACHE_SIZE = 4096;
+
+	private static final TimeZone timeZone = TimeZone.getDefault();
+
+	// Slots are replaced whole, so unsynchronized reads see either the old or
+	// the new minute, never a mix
+	private static final FormattedMinute[] cache = new FormattedMinute[CACHE_SIZE];
+
+	private TimeFormatHelper() {
+		// Uninstantiable...
+	}
+
+	/**
+	 * Formats a time as hours and minutes in the local time zone.
+	 *
+	 * @param epochMillis
+	 *            The time, in milliseconds since the epoch
+	 * @return The time of day, e.g. 9:05
+	 */
+	public static String format(long epochMillis) {
+		long minute = Math.floorDiv(epochMillis, MILLIS_PER_MINUTE);
+		int slot = (int) (minute & (CACHE_SIZE - 1));
+
+		FormattedMinute cached = cache[slot];
+		if (cached != null && cached.minute == minute) {
+			return cached.formatted;
+		}
+
+		String formatted = formatMinute(epochMillis);
+		cache[slot] = new FormattedMinute(minute, formatted);
+
+		return formatted;
+	}
+
+	private static String formatMinute(long epochMillis) {
+		long localMinute = Math.floorDiv(epochMillis + timeZone.getOffset(epochMillis), MILLIS_PER_MINUTE);
+		int minuteOfDay = (int) Math.floorMod(localMinute, (long) MINUTES_PER_DAY);
+		int hours = minuteOfDay / 60;
+		int minutes = minuteOfDay % 60;
+
+		char[] chars = new char[hours < 10 ? 4 : 5];
+		int i = 0;
+
+		if (hours >= 10) {
+			chars[i++] = (char) ('0' + hours / 10);
+		}
+
+		chars[i++] = (char) ('0' + hours % 10);
+		chars[i++] = ':';
+
+		// 1:03, not 1:3
+		chars[i++] = (char) ('0' + minutes / 10);
+		chars[i] = (char) ('0' + minutes % 10);
+
+		return new String(chars);
+	}
+
+	/**
+	 * A minute since the epoch, and how it is shown
+	 */
+	private static final class FormattedMinute {
+		private final long minute;
+		private final String formatted;
+
+		public FormattedMinute(long minute, String formatted) {
+			this.minute = minute;
+			this.formatted = formatted;
+		}
+	}
+}
@@ -1,13 +1,20 @@
 package services.helper;
 
+import java.rmi.ConnectException;
 import java.rmi.RemoteException;
 
 import net.jini.core.lease.LeaseDeniedException;
+import net.jini.core.transaction.CannotAbortException;
 import net.jini.core.transaction.Transaction;
 import net.jini.core.transaction.Transaction.Created;
+import net.jini.core.transaction.TransactionException;
 import net.jini.core.transaction.TransactionFactory;
+import net.jini.core.transaction.UnknownTransactionException;
 import net.jini.core.transaction.server.TransactionManager;
 import services.SpaceService;
+import services.resilience.CircuitBreaker;
+import services.resilience.CircuitOpenException;
+import services.resilience.RetryPolicy;
 
 /**
  * A simple helper class for getting a transaction.
@@ -18,32 +25,96 @@ import services.SpaceService;
 public class TransactionHelper {
 	public static final long DEFAULT_TIMEOUT_IN_MILLIS = 3000l;
 
+	private static final CircuitBreaker managerBreaker = new CircuitBreaker("Transaction manager");
+
 	private TransactionHelper() {
 		// Uninstantiable
 	}
 
 	/**
-	 * Gets a transaction with a given timeout
+	 * Gets a transaction with a given timeout. Creating it is retried under
+	 * the default RetryPolicy, looking the transaction manager up again if it
+	 * can't be reached, and fails immediately while the manager is down.
 	 * 
 	 * @param timeout
 	 *            The timeout of the transaction that will be created
 	 * 
 	 * @return A transaction with a given timeout
+	 * @throws RemoteException
+	 *             Thrown if the transaction manager can't be reached. A
+	 *             CircuitOpenException if it has recently been down.
+	 * @throws TransactionException
+	 *             Thrown if the transaction manager refused the transaction
+	 */
+	public static Transaction getTransaction(long timeout) throws RemoteException, TransactionException {
+		RetryPolicy.Attempts attempts = RetryPolicy.DEFAULT.begin(0l);
+
+		while (true) {
+			TransactionManager transactionManager = null;
+
+			try {
+				managerBreaker.acquire();
+
+				transactionManager = SpaceService.getManager();
+				if (transactionManager == null) {
+					throw new ConnectException("No transaction manager is registered");
+				}
+
+				Created transactionCreated = TransactionFactory.create(transactionManager, timeout);
+				managerBreaker.succeeded();
+
+				return transactionCreated.transaction;
+			} catch (RemoteException e) {
+				failed(e, transactionManager, attempts);
+			} catch (LeaseDeniedException e) {
+				TransactionException failure = new TransactionException("Transaction manager refused a transaction");
+				failure.initCause(e);
+
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Handles a failed attempt to create a transaction, waiting to retry it if
+	 * it can be. Creating a transaction is always safe to retry, as one that
+	 * was created but never returned just expires.
 	 */
-	public static Transaction getTransaction(long timeout) {
-		Transaction transaction = null;
+	private static void failed(RemoteException e, TransactionManager transactionManager,
+			RetryPolicy.Attempts attempts) throws RemoteException {
+		if (e instanceof CircuitOpenException) {
+			throw e;
+		}
+
+		managerBreaker.failed();
+		SpaceService.discardManager(transactionManager);
+
+		if (managerBreaker.isOpen()) {
+			throw e;
+		}
+
+		attempts.retryOrThrow(e, true);
+	}
+
+	/**
+	 * Aborts a transaction that failed part way through, so none of it takes
+	 * effect. Failing to abort is only reported, as the transaction will still
+	 * expire on its own.
+	 * 
+	 * @param transaction
+	 *            The transaction to abort. Can be null.
+	 */
+	public static void abort(Transaction transaction) {
+		if (transaction == null) {
+			return;
+		}
 
 		try {
-			TransactionManager transactionManager = SpaceService.getManager();
-			Created transactionCreated;
-			transactionCreated = TransactionFactory.create(transactionManager, timeout);
-			transaction = transactionCreated.transaction;
-		} catch (LeaseDeniedException | RemoteException e) {
-			System.err.println("Failed to create transaction.");
+			transaction.abort();
+		} catch (UnknownTransactionException | CannotAbortException | RemoteException e) {
+			System.err.println("Failed to abort transaction");
 			e.printStackTrace();
 		}
-
-		return transaction;
 	}
 
 	/**
@@ -51,8 +122,12 @@ public class TransactionHelper {
 	 * milliseconds
 	 * 
 	 * @return A Transaction with a 3000 ms timeout
+	 * @throws RemoteException
+	 *             Thrown if the transaction manager can't be reached
+	 * @throws TransactionException
+	 *             Thrown if the transaction manager refused the transaction
 	 */
-	public static Transaction getTransaction() {
+	public static Transaction getTransaction() throws RemoteException, TransactionException {
 		return getTransaction(DEFAULT_TIMEOUT_IN_MILLIS);
 	}
 }
@@ -0,0 +1,44 @@
+package services.metrics;
+
+import java.io.Serializable;
+
+import net.jini.core.event.RemoteEvent;
+
+/**
+ * Follows the sequence numbers of the events a listener receives from one
+ * registration, to spot events that never arrived. Starts again if the events
+ * start coming from a new registration, as when a space fails over.
+ */
+public class EventSequence implements Serializable {
+	private static final long serialVersionUID = -1893706440218855613L;
+
+	private long eventId;
+	private long lastSequenceNumber = -1;
+
+	/**
+	 * Notes that an event has arrived.
+	 * 
+	 * @param event
+	 *            The event
+	 * @return How many events were skipped between the previous event and this
+	 *         one, going by their sequence numbers
+	 */
+	public synchronized long missedBefore(RemoteEvent event) {
+		long sequenceNumber = event.getSequenceNumber();
+		long missed = 0;
+
+		if (event.getID() != eventId) {
+			eventId = event.getID();
+			lastSequenceNumber = -1;
+		}
+
+		// Nothing can be said about the first event, or ones arriving late
+		if (lastSequenceNumber >= 0 && sequenceNumber > lastSequenceNumber + 1) {
+			missed = sequenceNumber - lastSequenceNumber - 1;
+		}
+
+		lastSequenceNumber = Math.max(lastSequenceNumber, sequenceNumber);
+
+		return missed;
+	}
+}
@@ -0,0 +1,139 @@
+package services.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free histogram of latencies, in the style of
+ * HdrHistogram.
+ * 
+ * Values below 64ns get a bucket each; above that, every power of two is split
+ * into 32 equal buckets, so any recorded value is reported to within about 3%.
+ * Recording is a couple of atomic increments, with no allocation, so it is
+ * safe to use on hot paths.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	// Enough buckets for any positive long
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos
+	 *            The latency in nanoseconds. Negative values (e.g. from clock
+	 *            skew between machines) are recorded as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		counts.incrementAndGet(indexOf(nanos));
+		totalCount.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * @return The number of latencies recorded
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return The largest latency recorded, in nanoseconds
+	 */
+	public long getMax() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * @return The mean latency, in nanoseconds, or 0 if none were recorded
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+
+		return count == 0 ? 0d : (double) totalNanos.get() / count;
+	}
+
+	/**
+	 * Gets the latency that a given percentage of recorded latencies are at or
+	 * below.
+	 * 
+	 * @param percentile
+	 *            The percentile, from 0 to 100
+	 * @return The latency in nanoseconds, or 0 if none were recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+
+		if (count == 0) {
+			return 0l;
+		}
+
+		long target = Math.max(1l, (long) Math.ceil(percentile / 100d * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+
+			if (seen >= target) {
+				return Math.min(highestValueIn(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Forgets every recorded latency.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0l);
+		}
+
+		totalCount.set(0l);
+		totalNanos.set(0l);
+		maxNanos.set(0l);
+	}
+
+	private static int indexOf(long value) {
+		if (value < 2 * SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+
+		// value >>> shift is always in [SUB_BUCKET_COUNT, 2 * SUB_BUCKET_COUNT)
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	private static long highestValueIn(int index) {
+		if (index < 2 * SUB_BUCKET_COUNT) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index - shift * SUB_BUCKET_COUNT;
+
+		long highest = ((subBucket + 1) << shift) - 1;
+
+		// The very top bucket overflows
+		return highest < 0 ? Long.MAX_VALUE : highest;
+	}
+}
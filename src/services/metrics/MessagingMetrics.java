@@ -0,0 +1,206 @@
+package services.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A singleton that counts and times messages on their way through this
+ * client: how long MessageService takes to send them, and how long after
+ * being sent they are shown by a MessageRemoteEventListener. Also counts the
+ * events every listener receives, and any that look to have been dropped.
+ *
+ * Published over JMX as chatroom:type=MessagingMetrics, and logged
+ * periodically by MetricsLog.
+ */
+public class MessagingMetrics implements MessagingMetricsMBean {
+	public static final String OBJECT_NAME = "chatroom:type=MessagingMetrics";
+
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	private static MessagingMetrics messagingMetrics;
+
+	private final LatencyHistogram sendLatency = new LatencyHistogram();
+	private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+	private final AtomicLong sendFailures = new AtomicLong();
+	private final AtomicLong eventsReceived = new AtomicLong();
+	private final AtomicLong eventsDropped = new AtomicLong();
+
+	private MessagingMetrics() {
+		// Uninstantiable singleton
+	}
+
+	/**
+	 * Lazily instantiates a MessagingMetrics instance if one does not exist,
+	 * publishing it over JMX and starting the periodic log.
+	 *
+	 * @return The MessagingMetrics singleton.
+	 */
+	public static synchronized MessagingMetrics getMessagingMetrics() {
+		if (messagingMetrics == null) {
+			messagingMetrics = new MessagingMetrics();
+			messagingMetrics.register();
+			MetricsLog.schedule("messaging", messagingMetrics);
+		}
+
+		return messagingMetrics;
+	}
+
+	/**
+	 * Records a message that was sent successfully.
+	 *
+	 * @param nanos
+	 *            How long sending took
+	 */
+	public void messageSent(long nanos) {
+		sendLatency.record(nanos);
+	}
+
+	/**
+	 * Records a message that failed to send.
+	 */
+	public void sendFailed() {
+		sendFailures.incrementAndGet();
+	}
+
+	/**
+	 * Records a message being shown to its recipient.
+	 *
+	 * @param sentMillis
+	 *            When the message was sent, in absolute milliseconds on the
+	 *            sender's clock
+	 */
+	public void messageDelivered(long sentMillis) {
+		deliveryLatency.record((System.currentTimeMillis() - sentMillis) * 1000000l);
+	}
+
+	/**
+	 * Records an event reaching a listener.
+	 *
+	 * @param missedBefore
+	 *            How many events from the same registration appear to have
+	 *            been skipped before this one
+	 */
+	public void eventReceived(long missedBefore) {
+		eventsReceived.incrementAndGet();
+
+		if (missedBefore > 0) {
+			eventsDropped.addAndGet(missedBefore);
+		}
+	}
+
+	/**
+	 * Records an event that reached a listener but could not be handled.
+	 */
+	public void eventFailed() {
+		eventsDropped.incrementAndGet();
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return sendLatency.getCount();
+	}
+
+	@Override
+	public long getSendFailures() {
+		return sendFailures.get();
+	}
+
+	@Override
+	public double getSendLatencyMeanMillis() {
+		return sendLatency.getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getSendLatencyP50Millis() {
+		return sendLatency.getValueAtPercentile(50) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getSendLatencyP99Millis() {
+		return sendLatency.getValueAtPercentile(99) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getSendLatencyP999Millis() {
+		return sendLatency.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getSendLatencyMaxMillis() {
+		return sendLatency.getMax() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getMessagesDelivered() {
+		return deliveryLatency.getCount();
+	}
+
+	@Override
+	public double getDeliveryLatencyMeanMillis() {
+		return deliveryLatency.getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getDeliveryLatencyP50Millis() {
+		return deliveryLatency.getValueAtPercentile(50) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getDeliveryLatencyP99Millis() {
+		return deliveryLatency.getValueAtPercentile(99) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getDeliveryLatencyP999Millis() {
+		return deliveryLatency.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getDeliveryLatencyMaxMillis() {
+		return deliveryLatency.getMax() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getEventsReceived() {
+		return eventsReceived.get();
+	}
+
+	@Override
+	public long getEventsDropped() {
+		return eventsDropped.get();
+	}
+
+	@Override
+	public void reset() {
+		sendLatency.reset();
+		deliveryLatency.reset();
+		sendFailures.set(0l);
+		eventsReceived.set(0l);
+		eventsDropped.set(0l);
+	}
+
+	/**
+	 * @return A one-line summary of every metric
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+				"sent=%d failed=%d send p50/p99/max=%.1f/%.1f/%.1fms delivered=%d delivery p50/p99/max=%.1f/%.1f/%.1fms events=%d dropped=%d",
+				getMessagesSent(), getSendFailures(), getSendLatencyP50Millis(), getSendLatencyP99Millis(),
+				getSendLatencyMaxMillis(), getMessagesDelivered(), getDeliveryLatencyP50Millis(),
+				getDeliveryLatencyP99Millis(), getDeliveryLatencyMaxMillis(), getEventsReceived(),
+				getEventsDropped());
+	}
+
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			System.err.println("Failed to publish messaging metrics over JMX");
+			e.printStackTrace();
+		}
+	}
+}
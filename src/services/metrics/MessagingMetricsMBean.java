@@ -0,0 +1,41 @@
+package services.metrics;
+
+/**
+ * The JMX view of MessagingMetrics. Latencies are in milliseconds.
+ */
+public interface MessagingMetricsMBean {
+	long getMessagesSent();
+
+	long getSendFailures();
+
+	double getSendLatencyMeanMillis();
+
+	double getSendLatencyP50Millis();
+
+	double getSendLatencyP99Millis();
+
+	double getSendLatencyP999Millis();
+
+	double getSendLatencyMaxMillis();
+
+	long getMessagesDelivered();
+
+	double getDeliveryLatencyMeanMillis();
+
+	double getDeliveryLatencyP50Millis();
+
+	double getDeliveryLatencyP99Millis();
+
+	double getDeliveryLatencyP999Millis();
+
+	double getDeliveryLatencyMaxMillis();
+
+	long getEventsReceived();
+
+	long getEventsDropped();
+
+	/**
+	 * Zeroes every counter and latency
+	 */
+	void reset();
+}
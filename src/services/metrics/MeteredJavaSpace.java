@@ -0,0 +1,283 @@
+package services.metrics;
+
+import java.io.Serializable;
+import java.rmi.MarshalledObject;
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.entry.UnusableEntryException;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.Lease;
+import net.jini.core.transaction.Transaction;
+import net.jini.core.transaction.TransactionException;
+import net.jini.entry.UnusableEntriesException;
+import net.jini.space.JavaSpace05;
+import net.jini.space.MatchSet;
+
+/**
+ * Wraps a JavaSpace05, recording the time taken, errors, timeouts and number
+ * of entries for every call in SpaceMetrics, by operation and entry class.
+ *
+ * Multi-entry calls are recorded against the class of their first entry or
+ * template.
+ */
+public class MeteredJavaSpace implements JavaSpace05, Serializable {
+	private static final long serialVersionUID = 4906185604930467720L;
+
+	private final JavaSpace05 space;
+
+	/**
+	 * @param space
+	 *            The space to wrap
+	 */
+	public MeteredJavaSpace(JavaSpace05 space) {
+		this.space = space;
+	}
+
+	/**
+	 * @return The space being metered
+	 */
+	public JavaSpace05 getSpace() {
+		return space;
+	}
+
+	@Override
+	public Lease write(Entry entry, Transaction txn, long lease) throws TransactionException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.WRITE, entry);
+		long start = System.nanoTime();
+
+		try {
+			Lease result = space.write(entry, txn, lease);
+			metrics.completed(start, 1, false);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List write(List entries, Transaction txn, List leaseDurations)
+			throws TransactionException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.WRITE, entries);
+		long start = System.nanoTime();
+
+		try {
+			List result = space.write(entries, txn, leaseDurations);
+			metrics.completed(start, entries.size(), false);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@Override
+	public Entry read(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.READ, tmpl);
+		long start = System.nanoTime();
+
+		try {
+			Entry result = space.read(tmpl, txn, timeout);
+			metrics.completed(start, result == null ? 0 : 1, result == null);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@Override
+	public Entry readIfExists(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.READ_IF_EXISTS, tmpl);
+		long start = System.nanoTime();
+
+		try {
+			Entry result = space.readIfExists(tmpl, txn, timeout);
+			metrics.completed(start, result == null ? 0 : 1, false);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@Override
+	public Entry take(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.TAKE, tmpl);
+		long start = System.nanoTime();
+
+		try {
+			Entry result = space.take(tmpl, txn, timeout);
+			metrics.completed(start, result == null ? 0 : 1, result == null);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@Override
+	public Entry takeIfExists(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.TAKE_IF_EXISTS, tmpl);
+		long start = System.nanoTime();
+
+		try {
+			Entry result = space.takeIfExists(tmpl, txn, timeout);
+			metrics.completed(start, result == null ? 0 : 1, false);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Collection take(Collection tmpls, Transaction txn, long timeout, long maxEntries)
+			throws UnusableEntriesException, TransactionException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.TAKE_MULTIPLE, tmpls);
+		long start = System.nanoTime();
+
+		try {
+			Collection result = space.take(tmpls, txn, timeout, maxEntries);
+			metrics.completed(start, result.size(), result.isEmpty() && timeout > 0);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public MatchSet contents(Collection tmpls, Transaction txn, long leaseDuration, long maxEntries)
+			throws TransactionException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.CONTENTS, tmpls);
+		long start = System.nanoTime();
+
+		try {
+			MatchSet result = space.contents(tmpls, txn, leaseDuration, maxEntries);
+			metrics.completed(start, 0, false);
+
+			// Entries are only known as they are read from the MatchSet
+			return new MeteredMatchSet(result, metrics);
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public EventRegistration registerForAvailabilityEvent(Collection tmpls, Transaction txn, boolean visibilityOnly,
+			RemoteEventListener listener, long leaseDuration, MarshalledObject handback)
+			throws TransactionException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.REGISTER_FOR_AVAILABILITY_EVENT, tmpls);
+		long start = System.nanoTime();
+
+		try {
+			EventRegistration result = space.registerForAvailabilityEvent(tmpls, txn, visibilityOnly, listener,
+					leaseDuration, handback);
+			metrics.completed(start, 0, false);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public EventRegistration notify(Entry tmpl, Transaction txn, RemoteEventListener listener, long lease,
+			MarshalledObject handback) throws TransactionException, RemoteException {
+		SpaceOperationMetrics metrics = metricsFor(SpaceOperation.NOTIFY, tmpl);
+		long start = System.nanoTime();
+
+		try {
+			EventRegistration result = space.notify(tmpl, txn, listener, lease, handback);
+			metrics.completed(start, 0, false);
+
+			return result;
+		} catch (Throwable t) {
+			metrics.failed(start);
+
+			throw t;
+		}
+	}
+
+	@Override
+	public Entry snapshot(Entry e) throws RemoteException {
+		return space.snapshot(e);
+	}
+
+	private static SpaceOperationMetrics metricsFor(SpaceOperation operation, Entry entry) {
+		return SpaceMetrics.getSpaceMetrics().get(operation, entry);
+	}
+
+	private static SpaceOperationMetrics metricsFor(SpaceOperation operation, Collection<?> entries) {
+		Iterator<?> it = entries.iterator();
+
+		return metricsFor(operation, it.hasNext() ? (Entry) it.next() : null);
+	}
+
+	/**
+	 * Counts the entries read from a MatchSet
+	 */
+	private static final class MeteredMatchSet implements MatchSet {
+		private final MatchSet matchSet;
+		private final SpaceOperationMetrics metrics;
+
+		public MeteredMatchSet(MatchSet matchSet, SpaceOperationMetrics metrics) {
+			this.matchSet = matchSet;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public Entry next() throws RemoteException, UnusableEntryException {
+			Entry entry = matchSet.next();
+
+			if (entry != null) {
+				metrics.entriesReturned(1);
+			}
+
+			return entry;
+		}
+
+		@Override
+		public Lease getLease() {
+			return matchSet.getLease();
+		}
+
+		@Override
+		public Entry getSnapshot() {
+			return matchSet.getSnapshot();
+		}
+	}
+}
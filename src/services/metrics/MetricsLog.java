@@ -0,0 +1,55 @@
+package services.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically prints a set of metrics to standard out.
+ * 
+ * Metrics are logged every minute. Set the chatroom.metrics.logInterval
+ * system property to change how often (in seconds), or to 0 to stop logging.
+ */
+final class MetricsLog {
+	public static final String LOG_INTERVAL_PROPERTY = "chatroom.metrics.logInterval";
+
+	private static final long DEFAULT_LOG_INTERVAL_IN_SECONDS = 60l;
+
+	private MetricsLog() {
+		// Uninstantiable
+	}
+
+	/**
+	 * Starts logging a set of metrics in the background.
+	 * 
+	 * @param name
+	 *            The name to log the metrics under
+	 * @param metrics
+	 *            The metrics, whose toString() is what gets logged
+	 */
+	static void schedule(final String name, final Object metrics) {
+		long interval = Long.getLong(LOG_INTERVAL_PROPERTY, DEFAULT_LOG_INTERVAL_IN_SECONDS);
+
+		if (interval <= 0) {
+			return;
+		}
+
+		ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-metrics-log");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		logger.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				System.out.println("[" + name + " metrics] " + metrics);
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+}
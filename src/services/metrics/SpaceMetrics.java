@@ -0,0 +1,140 @@
+package services.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import net.jini.core.entry.Entry;
+
+/**
+ * A singleton registry of metrics for every call made to the space, split by
+ * operation and by the class of entry (or template) involved.
+ * 
+ * Looking up an operation's metrics allocates nothing once it has been seen,
+ * so MeteredJavaSpace can do it on every call. Each operation's metrics are
+ * published over JMX as chatroom:type=SpaceOperation,entry=...,operation=...
+ * when first used, and logged periodically by MetricsLog.
+ */
+public class SpaceMetrics {
+	private static SpaceMetrics spaceMetrics;
+
+	private final ConcurrentMap<Class<?>, SpaceOperationMetrics[]> metricsByEntryClass = new ConcurrentHashMap<Class<?>, SpaceOperationMetrics[]>();
+
+	private SpaceMetrics() {
+		// Uninstantiable singleton
+	}
+
+	/**
+	 * Lazily instantiates a SpaceMetrics instance if one does not exist, and
+	 * starts the periodic log.
+	 * 
+	 * @return The SpaceMetrics singleton.
+	 */
+	public static synchronized SpaceMetrics getSpaceMetrics() {
+		if (spaceMetrics == null) {
+			spaceMetrics = new SpaceMetrics();
+			MetricsLog.schedule("space", spaceMetrics);
+		}
+
+		return spaceMetrics;
+	}
+
+	/**
+	 * Gets the metrics for an operation on a given class of entry, creating
+	 * them if this is the first such call.
+	 * 
+	 * @param operation
+	 *            The operation
+	 * @param entryClass
+	 *            The class of the entry or template. Use Entry for null
+	 *            templates.
+	 * @return The operation's metrics
+	 */
+	public SpaceOperationMetrics get(SpaceOperation operation, Class<?> entryClass) {
+		SpaceOperationMetrics[] operations = metricsByEntryClass.get(entryClass);
+
+		if (operations == null) {
+			operations = new SpaceOperationMetrics[SpaceOperation.COUNT];
+			SpaceOperationMetrics[] existing = metricsByEntryClass.putIfAbsent(entryClass, operations);
+
+			if (existing != null) {
+				operations = existing;
+			}
+		}
+
+		// SpaceOperationMetrics only has final fields, so it is safe to read
+		// without locking once it has been set
+		SpaceOperationMetrics metrics = operations[operation.ordinal()];
+
+		if (metrics == null) {
+			synchronized (operations) {
+				metrics = operations[operation.ordinal()];
+
+				if (metrics == null) {
+					metrics = new SpaceOperationMetrics(operation, entryClass);
+					register(metrics, entryClass);
+					operations[operation.ordinal()] = metrics;
+				}
+			}
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * Gets the metrics for an operation on a given entry or template.
+	 */
+	public SpaceOperationMetrics get(SpaceOperation operation, Entry entry) {
+		return get(operation, entry == null ? Entry.class : entry.getClass());
+	}
+
+	/**
+	 * @return The metrics of every operation that has been called
+	 */
+	public List<SpaceOperationMetrics> getAll() {
+		List<SpaceOperationMetrics> all = new ArrayList<SpaceOperationMetrics>();
+
+		for (SpaceOperationMetrics[] operations : metricsByEntryClass.values()) {
+			synchronized (operations) {
+				for (SpaceOperationMetrics metrics : operations) {
+					if (metrics != null) {
+						all.add(metrics);
+					}
+				}
+			}
+		}
+
+		return all;
+	}
+
+	/**
+	 * @return One line per operation that has been called
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+
+		for (SpaceOperationMetrics metrics : getAll()) {
+			builder.append(System.lineSeparator()).append("  ").append(metrics);
+		}
+
+		return builder.toString();
+	}
+
+	private void register(SpaceOperationMetrics metrics, Class<?> entryClass) {
+		try {
+			ObjectName name = new ObjectName("chatroom:type=SpaceOperation,entry=" + entryClass.getName()
+					+ ",operation=" + metrics.getOperation());
+
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+		} catch (JMException e) {
+			System.err.println("Failed to publish space metrics over JMX");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package services.metrics;
+
+/**
+ * The JavaSpace05 calls that MeteredJavaSpace keeps metrics for.
+ */
+public enum SpaceOperation {
+	WRITE("write"),
+	READ("read"),
+	READ_IF_EXISTS("readIfExists"),
+	TAKE("take"),
+	TAKE_IF_EXISTS("takeIfExists"),
+	TAKE_MULTIPLE("takeMultiple"),
+	CONTENTS("contents"),
+	NOTIFY("notify"),
+	REGISTER_FOR_AVAILABILITY_EVENT("registerForAvailabilityEvent");
+
+	/**
+	 * The number of operations. Saves values() copying its array.
+	 */
+	static final int COUNT = values().length;
+
+	private final String methodName;
+
+	private SpaceOperation(String methodName) {
+		this.methodName = methodName;
+	}
+
+	/**
+	 * @return The name of the JavaSpace05 method
+	 */
+	public String getMethodName() {
+		return methodName;
+	}
+}
@@ -0,0 +1,127 @@
+package services.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics for one JavaSpace05 operation on one class of entry.
+ */
+public class SpaceOperationMetrics implements SpaceOperationMetricsMBean {
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	private final SpaceOperation operation;
+	private final Class<?> entryClass;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong entries = new AtomicLong();
+
+	SpaceOperationMetrics(SpaceOperation operation, Class<?> entryClass) {
+		this.operation = operation;
+		this.entryClass = entryClass;
+	}
+
+	/**
+	 * Records a call that returned normally.
+	 * 
+	 * @param startNanos
+	 *            When the call started, from System.nanoTime()
+	 * @param entryCount
+	 *            How many entries were written or returned
+	 * @param timedOut
+	 *            Whether the call gave up waiting for a matching entry
+	 */
+	public void completed(long startNanos, int entryCount, boolean timedOut) {
+		latency.record(System.nanoTime() - startNanos);
+
+		if (entryCount > 0) {
+			entries.addAndGet(entryCount);
+		}
+
+		if (timedOut) {
+			timeouts.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a call that threw an exception.
+	 * 
+	 * @param startNanos
+	 *            When the call started, from System.nanoTime()
+	 */
+	public void failed(long startNanos) {
+		latency.record(System.nanoTime() - startNanos);
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * Records entries returned after the call itself, e.g. from a MatchSet.
+	 */
+	public void entriesReturned(int entryCount) {
+		entries.addAndGet(entryCount);
+	}
+
+	@Override
+	public String getOperation() {
+		return operation.getMethodName();
+	}
+
+	@Override
+	public String getEntryClass() {
+		return entryClass.getSimpleName();
+	}
+
+	@Override
+	public long getCalls() {
+		return latency.getCount();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public long getEntries() {
+		return entries.get();
+	}
+
+	@Override
+	public double getLatencyMeanMillis() {
+		return latency.getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getLatencyP50Millis() {
+		return latency.getValueAtPercentile(50) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getLatencyP99Millis() {
+		return latency.getValueAtPercentile(99) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getLatencyP999Millis() {
+		return latency.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getLatencyMaxMillis() {
+		return latency.getMax() / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return A one-line summary of every metric
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s(%s) calls=%d errors=%d timeouts=%d entries=%d p50/p99/max=%.2f/%.2f/%.2fms",
+				getOperation(), getEntryClass(), getCalls(), getErrors(), getTimeouts(), getEntries(),
+				getLatencyP50Millis(), getLatencyP99Millis(), getLatencyMaxMillis());
+	}
+}
@@ -0,0 +1,28 @@
+package services.metrics;
+
+/**
+ * The JMX view of SpaceOperationMetrics. Latencies are in milliseconds.
+ */
+public interface SpaceOperationMetricsMBean {
+	String getOperation();
+
+	String getEntryClass();
+
+	long getCalls();
+
+	long getErrors();
+
+	long getTimeouts();
+
+	long getEntries();
+
+	double getLatencyMeanMillis();
+
+	double getLatencyP50Millis();
+
+	double getLatencyP99Millis();
+
+	double getLatencyP999Millis();
+
+	double getLatencyMaxMillis();
+}
@@ -0,0 +1,76 @@
+package services.relay;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.UUID;
+
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.UnknownLeaseException;
+import services.helper.SingleLeaseMap;
+
+/**
+ * The lease on a subscription to a TopicRelayService. Subscriptions last
+ * until cancelled or left to expire. The relay also drops subscribers it fails
+ * to deliver to, or that fall too far behind, after which renewing fails, so
+ * the subscriber knows to stop waiting for events from it.
+ */
+public class RelaySubscriptionLease implements Lease, Serializable {
+	private static final long serialVersionUID = -5174163937370516457L;
+
+	private final TopicRelayService relay;
+	private final UUID topicId;
+	private final long subscriptionId;
+	private volatile long expiration;
+	private int serialFormat = Lease.DURATION;
+
+	/**
+	 * @param expiration
+	 *            When the subscription expires, in absolute milliseconds
+	 */
+	public RelaySubscriptionLease(TopicRelayService relay, UUID topicId, long subscriptionId, long expiration) {
+		this.relay = relay;
+		this.topicId = topicId;
+		this.subscriptionId = subscriptionId;
+		this.expiration = expiration;
+	}
+
+	@Override
+	public long getExpiration() {
+		return expiration;
+	}
+
+	@Override
+	public void cancel() throws RemoteException {
+		relay.unsubscribe(topicId, subscriptionId);
+	}
+
+	@Override
+	public void renew(long duration) throws UnknownLeaseException, RemoteException {
+		expiration = relay.renew(topicId, subscriptionId, duration);
+	}
+
+	@Override
+	public void setSerialFormat(int format) {
+		serialFormat = format;
+	}
+
+	@Override
+	public int getSerialFormat() {
+		return serialFormat;
+	}
+
+	/**
+	 * Each subscription is renewed on its own, so the map only ever holds
+	 * this lease
+	 */
+	@Override
+	public LeaseMap createLeaseMap(long duration) {
+		return new SingleLeaseMap(this, duration);
+	}
+
+	@Override
+	public boolean canBatch(Lease lease) {
+		return false;
+	}
+}
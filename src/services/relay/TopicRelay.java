@@ -0,0 +1,446 @@
+package services.relay;
+
+import java.io.IOException;
+import java.rmi.MarshalledObject;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import models.JMSMessage;
+import models.JMSTopic;
+import net.jini.core.discovery.LookupLocator;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEvent;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.event.UnknownEventException;
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.UnknownLeaseException;
+import net.jini.core.lookup.ServiceItem;
+import net.jini.core.lookup.ServiceRegistrar;
+import net.jini.core.lookup.ServiceRegistration;
+import net.jini.core.transaction.TransactionException;
+import net.jini.export.Exporter;
+import net.jini.jeri.BasicILFactory;
+import net.jini.jeri.BasicJeriExporter;
+import net.jini.jeri.tcp.TcpServerEndpoint;
+import net.jini.lease.LeaseRenewalManager;
+import services.SpaceService;
+import services.sharding.TopicSpaceRouter;
+import services.stats.TopicActivity;
+import services.stats.TopicActivityCounter;
+
+/**
+ * Relays topics' message events from the space to any number of subscribers.
+ * Holds one registration on the space per topic with subscribers, however
+ * many there are, and delivers each event to every subscriber itself.
+ *
+ * Each subscriber gets its events in order, from its own queue, so a slow or
+ * dead subscriber doesn't hold up the rest. One that can't be delivered to,
+ * or falls too far behind, is dropped, and its lease then fails to renew.
+ *
+ * Once started, the relay also counts the users in every topic and the
+ * messages recently sent in it, from topics, users and messages being written
+ * to the spaces. It's the only one listening for them, however many clients
+ * ask how busy topics are.
+ *
+ * Run on its own (see main) it registers with the lookup service, where
+ * SpaceService.getTopicRelay() finds it.
+ */
+public class TopicRelay implements TopicRelayService {
+	/**
+	 * How many events a subscriber may have waiting before it's dropped
+	 */
+	public static final int MAX_QUEUED_EVENTS = 1000;
+
+	private static final int DELIVERY_THREADS = 8;
+
+	private final TopicSpaceRouter router;
+	private final Map<UUID, Channel> channels = new HashMap<UUID, Channel>();
+	private final AtomicLong subscriptionIds = new AtomicLong();
+	private final TopicActivityCounter activityCounter;
+	private final ExecutorService deliveryExecutor = Executors.newFixedThreadPool(DELIVERY_THREADS,
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "topic-relay-" + count.incrementAndGet());
+					thread.setDaemon(true);
+
+					return thread;
+				}
+			});
+
+	// What subscribers and the space call, which are this relay and its
+	// listener unless they have been exported
+	private TopicRelayService proxy = this;
+	private RemoteEventListener spaceListener = new SpaceListener();
+
+	/**
+	 * @param router
+	 *            Finds the space each topic's messages are in
+	 */
+	public TopicRelay(TopicSpaceRouter router) {
+		this.router = router;
+		this.activityCounter = new TopicActivityCounter(router);
+	}
+
+	/**
+	 * Runs a relay that registers with the lookup service on each of the given
+	 * hosts (localhost by default), until killed.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (System.getSecurityManager() == null) {
+			System.setSecurityManager(new SecurityManager());
+		}
+
+		TopicRelay relay = new TopicRelay(SpaceService.getRouter());
+		TopicRelayService proxy = relay.export(
+				new BasicJeriExporter(TcpServerEndpoint.getInstance(0), new BasicILFactory(), false, true),
+				new BasicJeriExporter(TcpServerEndpoint.getInstance(0), new BasicILFactory(), false, true),
+				new BasicJeriExporter(TcpServerEndpoint.getInstance(0), new BasicILFactory(), false, true));
+		relay.start();
+
+		String[] hosts = args.length > 0 ? args : new String[] { "localhost" };
+		LeaseRenewalManager leaseRenewalManager = new LeaseRenewalManager();
+
+		for (String host : hosts) {
+			ServiceRegistrar registrar = new LookupLocator("jini://" + host).getRegistrar();
+			ServiceRegistration registration = registrar.register(new ServiceItem(null, proxy, null),
+					Lease.FOREVER);
+			leaseRenewalManager.renewUntil(registration.getLease(), Lease.FOREVER, null);
+
+			System.out.println("Topic relay registered on " + host);
+		}
+
+		// Exported objects keep the JVM alive
+	}
+
+	/**
+	 * Exports the relay so remote subscribers can call it, and its listeners
+	 * so a remote space can.
+	 * 
+	 * @return The relay's proxy
+	 */
+	public synchronized TopicRelayService export(Exporter relayExporter, Exporter listenerExporter,
+			Exporter activityListenerExporter) throws IOException {
+		spaceListener = (RemoteEventListener) listenerExporter.export(new SpaceListener());
+		activityCounter.export(activityListenerExporter);
+		proxy = (TopicRelayService) relayExporter.export(this);
+
+		return proxy;
+	}
+
+	/**
+	 * Starts counting topics' users and recent messages (see
+	 * TopicActivityCounter.start()). Until this is called, there are no
+	 * topics to report.
+	 */
+	public void start() throws RemoteException {
+		activityCounter.start();
+	}
+
+	/**
+	 * Subscribes to a topic. The relay's lock is only held to add the
+	 * subscriber. Registering on the space, for a topic's first subscriber,
+	 * only locks the topic's channel, so a slow space doesn't hold up other
+	 * topics.
+	 */
+	@Override
+	public EventRegistration subscribe(JMSTopic topic, RemoteEventListener listener) throws RemoteException {
+		Channel channel;
+		Subscriber subscriber;
+
+		synchronized (this) {
+			channel = channels.get(topic.getId());
+
+			if (channel == null) {
+				channel = new Channel(topic.getId());
+				channels.put(topic.getId(), channel);
+			}
+
+			// Added before registering, so the channel isn't closed meanwhile
+			subscriber = new Subscriber(channel, subscriptionIds.incrementAndGet(), listener);
+			subscriber.expiration = expirationFor(SUBSCRIPTION_LEASE_IN_MILLIS);
+			channel.subscribers.put(subscriber.id, subscriber);
+		}
+
+		long subscriptionId = subscriber.id;
+		EventRegistration registration;
+
+		try {
+			registration = registrationFor(channel, topic);
+		} catch (RemoteException e) {
+			unsubscribe(topic.getId(), subscriptionId);
+
+			throw e;
+		}
+
+		return new EventRegistration(registration.getID(), registration.getSource(),
+				new RelaySubscriptionLease(proxy, topic.getId(), subscriptionId, subscriber.expiration),
+				registration.getSequenceNumber());
+	}
+
+	@Override
+	public synchronized long renew(UUID topicId, long subscriptionId, long duration) throws UnknownLeaseException {
+		Channel channel = channels.get(topicId);
+		Subscriber subscriber = channel == null ? null : channel.subscribers.get(subscriptionId);
+
+		if (subscriber == null || subscriber.isExpired(System.currentTimeMillis())) {
+			throw new UnknownLeaseException("Subscription has expired or been dropped");
+		}
+
+		subscriber.expiration = expirationFor(duration);
+
+		return subscriber.expiration;
+	}
+
+	@Override
+	public int getMemberCount(UUID topicId) {
+		return activityCounter.getMemberCount(topicId);
+	}
+
+	@Override
+	public List<TopicActivity> getHotTopics(int limit) {
+		return activityCounter.getHotTopics(limit);
+	}
+
+	@Override
+	public int getActivityWindowMinutes() {
+		return activityCounter.getWindowMinutes();
+	}
+
+	/**
+	 * Unsubscribes from a topic. Also called from delivery threads to drop
+	 * subscribers, so the space is only called once the relay's lock is
+	 * released.
+	 */
+	@Override
+	public void unsubscribe(UUID topicId, long subscriptionId) {
+		Channel channel;
+
+		synchronized (this) {
+			channel = channels.get(topicId);
+
+			if (channel == null || channel.subscribers.remove(subscriptionId) == null) {
+				return;
+			}
+
+			if (!channel.subscribers.isEmpty()) {
+				return;
+			}
+
+			channels.remove(topicId);
+		}
+
+		// Stop listening to a topic nobody is subscribed to
+		EventRegistration registration;
+		synchronized (channel) {
+			registration = channel.registration;
+		}
+
+		if (registration != null) {
+			try {
+				registration.getLease().cancel();
+			} catch (Exception e) {
+				System.err.println("Failed to cancel relay registration for topic " + topicId);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return How many topics the relay is listening to
+	 */
+	public synchronized int getChannelCount() {
+		return channels.size();
+	}
+
+	/**
+	 * @return How many subscribers a topic has on this relay
+	 */
+	public synchronized int getSubscriberCount(UUID topicId) {
+		Channel channel = channels.get(topicId);
+
+		return channel == null ? 0 : channel.subscribers.size();
+	}
+
+	/**
+	 * Grants a subscription no more than SUBSCRIPTION_LEASE_IN_MILLIS, so
+	 * subscribers that stop renewing are dropped
+	 */
+	private static long expirationFor(long duration) {
+		if (duration == Lease.ANY || duration == Lease.FOREVER || duration > SUBSCRIPTION_LEASE_IN_MILLIS
+				|| duration < 0) {
+			duration = SUBSCRIPTION_LEASE_IN_MILLIS;
+		}
+
+		return System.currentTimeMillis() + duration;
+	}
+
+	/**
+	 * Gets a channel's registration on the space, registering if it's the
+	 * channel's first subscriber or an earlier attempt failed. Only the
+	 * channel is locked while the space is called.
+	 */
+	private EventRegistration registrationFor(Channel channel, JMSTopic topic) throws RemoteException {
+		synchronized (channel) {
+			if (channel.registration == null) {
+				channel.registration = register(topic);
+			}
+
+			return channel.registration;
+		}
+	}
+
+	/**
+	 * Registers for a topic's messages on the space. The topic's ID is the
+	 * handback, so events still find their topic if the registration is made
+	 * again on another space.
+	 */
+	private EventRegistration register(JMSTopic topic) throws RemoteException {
+		List<JMSMessage> templates = Collections.singletonList(new JMSMessage(topic));
+
+		try {
+			return router.getSpaceFor(topic).registerForAvailabilityEvent(templates, null, true, spaceListener,
+					Lease.FOREVER, new MarshalledObject<UUID>(topic.getId()));
+		} catch (TransactionException | IOException e) {
+			throw new RemoteException("Failed to register for topic's messages", e);
+		}
+	}
+
+	/**
+	 * Passes an event from the space on to the subscribers of its topic.
+	 */
+	private void relay(RemoteEvent event) throws UnknownEventException {
+		Channel channel;
+
+		try {
+			UUID topicId = (UUID) event.getRegistrationObject().get();
+
+			synchronized (this) {
+				channel = channels.get(topicId);
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			throw new UnknownEventException("Event has no topic: " + e);
+		}
+
+		// Tells the space to stop sending events for a topic nobody wants
+		if (channel == null) {
+			throw new UnknownEventException("No subscribers for topic");
+		}
+
+		long now = System.currentTimeMillis();
+
+		for (Subscriber subscriber : channel.subscribers.values()) {
+			if (subscriber.isExpired(now)) {
+				unsubscribe(channel.topicId, subscriber.id);
+			} else {
+				subscriber.enqueue(event);
+			}
+		}
+	}
+
+	/**
+	 * Receives events from the space
+	 */
+	private class SpaceListener implements RemoteEventListener {
+		@Override
+		public void notify(RemoteEvent event) throws UnknownEventException {
+			relay(event);
+		}
+	}
+
+	/**
+	 * A topic being relayed, and its subscribers
+	 */
+	private static class Channel {
+		private final UUID topicId;
+		private final Map<Long, Subscriber> subscribers = new ConcurrentHashMap<Long, Subscriber>();
+		// Null until registered on the space. Guarded by the channel.
+		private EventRegistration registration;
+
+		public Channel(UUID topicId) {
+			this.topicId = topicId;
+		}
+	}
+
+	/**
+	 * A subscriber to a topic, with the events waiting to be delivered to it
+	 */
+	private class Subscriber implements Runnable {
+		private final Channel channel;
+		private final long id;
+		private final RemoteEventListener listener;
+		private final Queue<RemoteEvent> queue = new ConcurrentLinkedQueue<RemoteEvent>();
+		private final AtomicInteger queued = new AtomicInteger();
+		private final AtomicBoolean delivering = new AtomicBoolean();
+		private volatile long expiration;
+
+		public Subscriber(Channel channel, long id, RemoteEventListener listener) {
+			this.channel = channel;
+			this.id = id;
+			this.listener = listener;
+		}
+
+		public boolean isExpired(long now) {
+			return expiration < now;
+		}
+
+		public void enqueue(RemoteEvent event) {
+			if (queued.incrementAndGet() > MAX_QUEUED_EVENTS) {
+				System.err.println("Dropping topic relay subscriber that has fallen behind");
+				unsubscribe(channel.topicId, id);
+
+				return;
+			}
+
+			queue.add(event);
+			scheduleDelivery();
+		}
+
+		/**
+		 * Delivers everything queued, one event at a time so they arrive in
+		 * order
+		 */
+		@Override
+		public void run() {
+			try {
+				RemoteEvent event;
+				while ((event = queue.poll()) != null) {
+					queued.decrementAndGet();
+					listener.notify(event);
+				}
+			} catch (RemoteException | UnknownEventException | RuntimeException e) {
+				System.err.println("Dropping topic relay subscriber that failed to take an event: " + e);
+				unsubscribe(channel.topicId, id);
+				queue.clear();
+			} finally {
+				delivering.set(false);
+			}
+
+			// Catch events queued after the last poll
+			if (!queue.isEmpty()) {
+				scheduleDelivery();
+			}
+		}
+
+		private void scheduleDelivery() {
+			if (delivering.compareAndSet(false, true)) {
+				deliveryExecutor.execute(this);
+			}
+		}
+	}
+}
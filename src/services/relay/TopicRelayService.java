@@ -0,0 +1,90 @@
+package services.relay;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.UUID;
+
+import models.JMSTopic;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.UnknownLeaseException;
+import services.stats.TopicActivity;
+
+/**
+ * A relay that listens to a topic's messages on the space once, and passes
+ * every message event on to each of its own subscribers. Takes the work of
+ * notifying every member of a busy topic off the space.
+ *
+ * The relay also counts every topic's users and recent messages, once for
+ * all clients.
+ */
+public interface TopicRelayService extends Remote {
+	/**
+	 * How long a subscription lasts unless it is renewed
+	 */
+	long SUBSCRIPTION_LEASE_IN_MILLIS = 1000l * 60l;
+
+	/**
+	 * Starts passing a topic's message events on to a listener. The events
+	 * are the space's own AvailabilityEvents, so a listener can't tell them
+	 * from ones sent by the space.
+	 * 
+	 * @param topic
+	 *            The topic to listen to
+	 * @param listener
+	 *            The listener to pass events to
+	 * 
+	 * @return A registration whose lease cancels the subscription. The
+	 *         lease must be renewed to keep the subscription, and fails to
+	 *         renew once the relay has dropped it.
+	 */
+	EventRegistration subscribe(JMSTopic topic, RemoteEventListener listener) throws RemoteException;
+
+	/**
+	 * Stops passing a topic's events on to a subscriber.
+	 * 
+	 * @param topicId
+	 *            The ID of the topic subscribed to
+	 * @param subscriptionId
+	 *            The subscription's ID
+	 */
+	void unsubscribe(UUID topicId, long subscriptionId) throws RemoteException;
+
+	/**
+	 * Keeps a subscription going.
+	 * 
+	 * @param topicId
+	 *            The ID of the topic subscribed to
+	 * @param subscriptionId
+	 *            The subscription's ID
+	 * @param duration
+	 *            How long the subscription should last from now, which the
+	 *            relay may shorten
+	 * @return When the subscription now expires, in absolute milliseconds
+	 * @throws UnknownLeaseException
+	 *             Thrown if the subscription has expired or been dropped, as
+	 *             the subscriber fell behind or couldn't be delivered to
+	 */
+	long renew(UUID topicId, long subscriptionId, long duration) throws UnknownLeaseException, RemoteException;
+
+	/**
+	 * @param topicId
+	 *            The ID of a topic
+	 * @return How many users are in the topic, as counted from them joining
+	 *         and leaving
+	 */
+	int getMemberCount(UUID topicId) throws RemoteException;
+
+	/**
+	 * @param limit
+	 *            The most topics to return
+	 * @return The busiest topics, by recent messages then users, busiest first
+	 */
+	List<TopicActivity> getHotTopics(int limit) throws RemoteException;
+
+	/**
+	 * @return How many minutes back messages count as recent
+	 */
+	int getActivityWindowMinutes() throws RemoteException;
+}
@@ -0,0 +1,135 @@
+package services.resilience;
+
+/**
+ * Stops calls to a remote service once it has failed several times in a row,
+ * so that every caller doesn't keep waiting on (and reconnecting to) a service
+ * that is down. After a while a single trial call is let through: if it
+ * succeeds calls resume, otherwise the breaker stays open for another while.
+ *
+ * Only failures to reach the service count. A call that reaches it and fails
+ * for some other reason (a transaction that has expired, say) is a success as
+ * far as the breaker is concerned.
+ */
+public class CircuitBreaker {
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_OPEN_TIME_IN_MILLIS = 5000l;
+
+	public enum State {
+		/**
+		 * Calls go through as normal
+		 */
+		CLOSED,
+
+		/**
+		 * Calls fail immediately
+		 */
+		OPEN,
+
+		/**
+		 * A trial call has been let through to see if the service is back
+		 */
+		HALF_OPEN
+	}
+
+	private final String name;
+	private final int failureThreshold;
+	private final long openTimeInMillis;
+
+	private volatile State state = State.CLOSED;
+	private volatile int consecutiveFailures;
+	private long openedAt;
+
+	/**
+	 * @param name
+	 *            What the breaker protects, for error messages
+	 * @param failureThreshold
+	 *            How many failures in a row open the breaker
+	 * @param openTimeInMillis
+	 *            How long the breaker stays open before a trial call
+	 */
+	public CircuitBreaker(String name, int failureThreshold, long openTimeInMillis) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openTimeInMillis = openTimeInMillis;
+	}
+
+	/**
+	 * Creates a breaker that opens after 5 failures in a row, for 5 seconds.
+	 */
+	public CircuitBreaker(String name) {
+		this(name, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME_IN_MILLIS);
+	}
+
+	/**
+	 * Checks that a call may be made, to be called before each one.
+	 * 
+	 * @throws CircuitOpenException
+	 *             If the breaker is open, or another caller is already making
+	 *             the trial call
+	 */
+	public void acquire() throws CircuitOpenException {
+		if (state == State.CLOSED) {
+			return;
+		}
+
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+
+			// A trial call that never reported back doesn't hold the breaker
+			// half open forever
+			if (state != State.CLOSED && now - openedAt >= openTimeInMillis) {
+				state = State.HALF_OPEN;
+				openedAt = now;
+
+				return;
+			}
+
+			if (state != State.CLOSED) {
+				throw new CircuitOpenException(name + " is unavailable after " + consecutiveFailures
+						+ " failures.  Retrying in " + (openedAt + openTimeInMillis - now) + "ms");
+			}
+		}
+	}
+
+	/**
+	 * Records a call that reached the service, closing the breaker.
+	 */
+	public void succeeded() {
+		if (state == State.CLOSED && consecutiveFailures == 0) {
+			return;
+		}
+
+		synchronized (this) {
+			state = State.CLOSED;
+			consecutiveFailures = 0;
+		}
+	}
+
+	/**
+	 * Records a call that failed to reach the service, opening the breaker if
+	 * it has failed too often in a row or this was the trial call.
+	 */
+	public synchronized void failed() {
+		consecutiveFailures++;
+
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			if (state == State.CLOSED) {
+				System.err.println(name + " failed " + consecutiveFailures + " times in a row.  Pausing calls to it.");
+			}
+
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return Whether calls are currently failing immediately
+	 */
+	public boolean isOpen() {
+		return state == State.OPEN;
+	}
+}
@@ -0,0 +1,16 @@
+package services.resilience;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown instead of calling a service whose CircuitBreaker is open, because
+ * it has failed too often recently. A RemoteException, so that callers treat
+ * it like any other failure to reach the service.
+ */
+public class CircuitOpenException extends RemoteException {
+	private static final long serialVersionUID = -3361727446418364583L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+}
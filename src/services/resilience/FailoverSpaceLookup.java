@@ -0,0 +1,116 @@
+package services.resilience;
+
+import java.rmi.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.jini.core.transaction.server.TransactionManager;
+import net.jini.space.JavaSpace05;
+
+/**
+ * Finds a JavaSpace on whichever of several hosts is healthy and quickest to
+ * respond. Used by a ResilientJavaSpace, which looks the space up again when
+ * its host stops responding, so calls fail over to the next best host.
+ *
+ * The chosen host is kept until it fails, rather than switching whenever
+ * another becomes quicker, as each space holds different topics and messages.
+ */
+public class FailoverSpaceLookup implements ServiceLookup<JavaSpace05> {
+	private final List<SpaceHost> hosts;
+	private volatile SpaceHost currentHost;
+
+	/**
+	 * @param hosts
+	 *            The hosts to choose between
+	 */
+	public FailoverSpaceLookup(List<SpaceHost> hosts) {
+		this.hosts = Collections.unmodifiableList(new ArrayList<SpaceHost>(hosts));
+	}
+
+	/**
+	 * Probes every host, and picks the healthy one with the lowest latency.
+	 * 
+	 * @throws Exception
+	 *             Why the last host failed, if none are healthy
+	 */
+	@Override
+	public JavaSpace05 lookup() throws Exception {
+		SpaceHost bestHost = null;
+		JavaSpace05 bestSpace = null;
+		Exception lastFailure = new ConnectException("No JavaSpace hosts are configured");
+
+		for (SpaceHost host : hosts) {
+			try {
+				JavaSpace05 space = host.probe();
+
+				if (bestHost == null || host.getLatencyInMillis() < bestHost.getLatencyInMillis()) {
+					bestHost = host;
+					bestSpace = space;
+				}
+			} catch (Exception e) {
+				System.err.println("JavaSpace on " + host.getName() + " is unavailable: " + e);
+				lastFailure = e;
+			}
+		}
+
+		if (bestHost == null) {
+			throw lastFailure;
+		}
+
+		if (currentHost != null && currentHost != bestHost) {
+			System.err.println("Failing over from JavaSpace on " + currentHost.getName() + " to " + bestHost);
+		}
+
+		currentHost = bestHost;
+
+		return bestSpace;
+	}
+
+	/**
+	 * Finds a transaction manager, preferring the one on the current space's
+	 * host, then any other healthy host's.
+	 * 
+	 * @return A transaction manager, or null if none could be found
+	 */
+	public TransactionManager findManager() {
+		List<SpaceHost> candidates = new ArrayList<SpaceHost>(hosts.size());
+		SpaceHost current = currentHost;
+
+		if (current != null) {
+			candidates.add(current);
+		}
+
+		for (SpaceHost host : hosts) {
+			if (host != current && host.isHealthy()) {
+				candidates.add(host);
+			}
+		}
+
+		for (SpaceHost host : candidates) {
+			try {
+				TransactionManager manager = host.findManager();
+
+				if (manager != null) {
+					return manager;
+				}
+			} catch (Exception e) {
+				System.err.println("Transaction manager on " + host.getName() + " is unavailable: " + e);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return The host of the space last looked up, or null if there isn't
+	 *         one yet
+	 */
+	public SpaceHost getCurrentHost() {
+		return currentHost;
+	}
+
+	public List<SpaceHost> getHosts() {
+		return hosts;
+	}
+}
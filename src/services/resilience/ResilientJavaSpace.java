@@ -0,0 +1,458 @@
+package services.resilience;
+
+import java.rmi.ConnectException;
+import java.rmi.MarshalledObject;
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.entry.UnusableEntryException;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseDeniedException;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.UnknownLeaseException;
+import net.jini.core.transaction.Transaction;
+import net.jini.core.transaction.TransactionException;
+import net.jini.entry.UnusableEntriesException;
+import net.jini.space.JavaSpace05;
+import net.jini.space.MatchSet;
+
+/**
+ * Wraps a remote JavaSpace05, looking it up when first used and again if the
+ * proxy stops working, retrying failed calls under a RetryPolicy and failing
+ * fast through a CircuitBreaker while the space is down.
+ *
+ * Reads are retried after any RemoteException. Calls that change the space
+ * (writes, takes and event registrations) are only retried if they can't have
+ * reached it, so that they never happen twice.
+ *
+ * If the lookup finds a different space (after a restart, or failing over to
+ * another host), event registrations made outside a transaction are made again
+ * on it. The registrations returned have leases that follow them across
+ * spaces, so cancelling one stops its events from whichever space it is on.
+ */
+public class ResilientJavaSpace implements JavaSpace05 {
+	private static final boolean IDEMPOTENT = true;
+	private static final boolean CHANGES_SPACE = false;
+
+	private final String name;
+	private final ServiceLookup<JavaSpace05> lookup;
+	private final RetryPolicy policy;
+	private final CircuitBreaker breaker;
+
+	private volatile JavaSpace05 space;
+	private JavaSpace05 previousSpace;
+	private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+
+	/**
+	 * @param name
+	 *            What the space is, for error messages
+	 * @param lookup
+	 *            Finds the space
+	 * @param policy
+	 *            How to retry failed calls
+	 * @param breaker
+	 *            Stops calls while the space is down
+	 */
+	public ResilientJavaSpace(String name, ServiceLookup<JavaSpace05> lookup, RetryPolicy policy,
+			CircuitBreaker breaker) {
+		this.name = name;
+		this.lookup = lookup;
+		this.policy = policy;
+		this.breaker = breaker;
+	}
+
+	/**
+	 * Creates a ResilientJavaSpace with the default retry policy and circuit
+	 * breaker.
+	 */
+	public ResilientJavaSpace(String name, ServiceLookup<JavaSpace05> lookup) {
+		this(name, lookup, RetryPolicy.DEFAULT, new CircuitBreaker(name));
+	}
+
+	/**
+	 * @return The space currently being called, or null if it hasn't been
+	 *         found yet
+	 */
+	public JavaSpace05 getSpace() {
+		return space;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
+	@Override
+	public Lease write(Entry entry, Transaction txn, long lease) throws TransactionException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(0l);
+
+		while (true) {
+			try {
+				return succeeded(acquire().write(entry, txn, lease));
+			} catch (RemoteException e) {
+				failed(e, attempts, CHANGES_SPACE);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List write(List entries, Transaction txn, List leaseDurations)
+			throws TransactionException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(0l);
+
+		while (true) {
+			try {
+				return succeeded(acquire().write(entries, txn, leaseDurations));
+			} catch (RemoteException e) {
+				failed(e, attempts, CHANGES_SPACE);
+			}
+		}
+	}
+
+	@Override
+	public Entry read(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(timeout);
+
+		while (true) {
+			try {
+				return succeeded(acquire().read(tmpl, txn, timeout));
+			} catch (RemoteException e) {
+				failed(e, attempts, IDEMPOTENT);
+			}
+		}
+	}
+
+	@Override
+	public Entry readIfExists(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(timeout);
+
+		while (true) {
+			try {
+				return succeeded(acquire().readIfExists(tmpl, txn, timeout));
+			} catch (RemoteException e) {
+				failed(e, attempts, IDEMPOTENT);
+			}
+		}
+	}
+
+	@Override
+	public Entry take(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(timeout);
+
+		while (true) {
+			try {
+				return succeeded(acquire().take(tmpl, txn, timeout));
+			} catch (RemoteException e) {
+				failed(e, attempts, CHANGES_SPACE);
+			}
+		}
+	}
+
+	@Override
+	public Entry takeIfExists(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(timeout);
+
+		while (true) {
+			try {
+				return succeeded(acquire().takeIfExists(tmpl, txn, timeout));
+			} catch (RemoteException e) {
+				failed(e, attempts, CHANGES_SPACE);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Collection take(Collection tmpls, Transaction txn, long timeout, long maxEntries)
+			throws UnusableEntriesException, TransactionException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(timeout);
+
+		while (true) {
+			try {
+				return succeeded(acquire().take(tmpls, txn, timeout, maxEntries));
+			} catch (RemoteException e) {
+				failed(e, attempts, CHANGES_SPACE);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public MatchSet contents(Collection tmpls, Transaction txn, long leaseDuration, long maxEntries)
+			throws TransactionException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(0l);
+
+		while (true) {
+			try {
+				return succeeded(acquire().contents(tmpls, txn, leaseDuration, maxEntries));
+			} catch (RemoteException e) {
+				failed(e, attempts, IDEMPOTENT);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public EventRegistration registerForAvailabilityEvent(Collection tmpls, Transaction txn, boolean visibilityOnly,
+			RemoteEventListener listener, long leaseDuration, MarshalledObject handback)
+			throws TransactionException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(0l);
+
+		while (true) {
+			try {
+				JavaSpace05 current = acquire();
+				EventRegistration registration = succeeded(current.registerForAvailabilityEvent(tmpls, txn,
+						visibilityOnly, listener, leaseDuration, handback));
+
+				if (txn != null) {
+					return registration;
+				}
+
+				return track(new Registration(tmpls, null, visibilityOnly, listener, leaseDuration, handback),
+						current, registration);
+			} catch (RemoteException e) {
+				failed(e, attempts, CHANGES_SPACE);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public EventRegistration notify(Entry tmpl, Transaction txn, RemoteEventListener listener, long lease,
+			MarshalledObject handback) throws TransactionException, RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(0l);
+
+		while (true) {
+			try {
+				JavaSpace05 current = acquire();
+				EventRegistration registration = succeeded(current.notify(tmpl, txn, listener, lease, handback));
+
+				if (txn != null) {
+					return registration;
+				}
+
+				return track(new Registration(null, tmpl, false, listener, lease, handback), current, registration);
+			} catch (RemoteException e) {
+				failed(e, attempts, CHANGES_SPACE);
+			}
+		}
+	}
+
+	@Override
+	public Entry snapshot(Entry e) throws RemoteException {
+		RetryPolicy.Attempts attempts = policy.begin(0l);
+
+		while (true) {
+			try {
+				return succeeded(acquire().snapshot(e));
+			} catch (RemoteException failure) {
+				failed(failure, attempts, IDEMPOTENT);
+			}
+		}
+	}
+
+	/**
+	 * Gets the space to make a call on, looking it up if need be.
+	 * 
+	 * @throws CircuitOpenException
+	 *             If the space has been failing
+	 * @throws ConnectException
+	 *             If the space couldn't be found
+	 */
+	private JavaSpace05 acquire() throws RemoteException {
+		breaker.acquire();
+
+		JavaSpace05 current = space;
+		if (current != null) {
+			return current;
+		}
+
+		synchronized (this) {
+			if (space == null) {
+				JavaSpace05 found;
+
+				try {
+					found = lookup.lookup();
+				} catch (Exception e) {
+					throw new ConnectException("Failed to find " + name, e);
+				}
+
+				if (found == null) {
+					throw new ConnectException("No " + name + " is registered");
+				}
+
+				if (previousSpace != null && !found.equals(previousSpace)) {
+					reRegister(found);
+				}
+
+				previousSpace = found;
+				space = found;
+			}
+
+			return space;
+		}
+	}
+
+	/**
+	 * Starts following a registration, so it is made again if the space
+	 * changes.
+	 * 
+	 * @return A registration whose lease cancels the registration on whichever
+	 *         space it is on
+	 */
+	private EventRegistration track(Registration tracked, JavaSpace05 current, EventRegistration registration) {
+		synchronized (this) {
+			tracked.registration = registration;
+			registrations.add(tracked);
+
+			// The space may have changed while registering
+			if (current != space && space != null) {
+				reRegister(tracked, space);
+			}
+		}
+
+		return new EventRegistration(registration.getID(), registration.getSource(), tracked,
+				registration.getSequenceNumber());
+	}
+
+	/**
+	 * Makes every tracked registration again on a newly found space.
+	 */
+	private void reRegister(JavaSpace05 newSpace) {
+		for (Registration tracked : registrations) {
+			reRegister(tracked, newSpace);
+		}
+	}
+
+	private void reRegister(Registration tracked, JavaSpace05 newSpace) {
+		try {
+			tracked.registration = tracked.registerOn(newSpace);
+		} catch (TransactionException | RemoteException e) {
+			System.err.println("Failed to re-register event listener on new " + name);
+			e.printStackTrace();
+		}
+	}
+
+	private <T> T succeeded(T result) {
+		breaker.succeeded();
+
+		return result;
+	}
+
+	/**
+	 * Handles a failed attempt at a call, waiting to retry it if it can be.
+	 * 
+	 * @throws RemoteException
+	 *             The failure passed in, if the call can't be retried
+	 */
+	private void failed(RemoteException e, RetryPolicy.Attempts attempts, boolean idempotent)
+			throws RemoteException {
+		if (e instanceof CircuitOpenException) {
+			throw e;
+		}
+
+		breaker.failed();
+
+		boolean neverDelivered = RetryPolicy.isNeverDelivered(e);
+		if (neverDelivered) {
+			// The proxy may be stale, e.g. if the space has restarted, so
+			// look it up again
+			space = null;
+		}
+
+		if (breaker.isOpen()) {
+			throw e;
+		}
+
+		attempts.retryOrThrow(e, idempotent || neverDelivered);
+	}
+
+	/**
+	 * An event registration made outside a transaction, which can be made
+	 * again on another space. Also the lease handed back for it, which acts on
+	 * the registration's current lease.
+	 */
+	private final class Registration implements Lease {
+		private final Collection<?> tmpls;
+		private final Entry tmpl;
+		private final boolean visibilityOnly;
+		private final RemoteEventListener listener;
+		private final long leaseDuration;
+		private final MarshalledObject<?> handback;
+
+		private volatile EventRegistration registration;
+
+		/**
+		 * Either tmpls (for registerForAvailabilityEvent) or tmpl (for notify)
+		 * is given
+		 */
+		public Registration(Collection<?> tmpls, Entry tmpl, boolean visibilityOnly, RemoteEventListener listener,
+				long leaseDuration, MarshalledObject<?> handback) {
+			this.tmpls = tmpls;
+			this.tmpl = tmpl;
+			this.visibilityOnly = visibilityOnly;
+			this.listener = listener;
+			this.leaseDuration = leaseDuration;
+			this.handback = handback;
+		}
+
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public EventRegistration registerOn(JavaSpace05 newSpace) throws TransactionException, RemoteException {
+			if (tmpls != null) {
+				return newSpace.registerForAvailabilityEvent((Collection) tmpls, null, visibilityOnly, listener,
+						leaseDuration, (MarshalledObject) handback);
+			}
+
+			return newSpace.notify(tmpl, null, listener, leaseDuration, (MarshalledObject) handback);
+		}
+
+		@Override
+		public long getExpiration() {
+			return registration.getLease().getExpiration();
+		}
+
+		@Override
+		public void cancel() throws UnknownLeaseException, RemoteException {
+			registrations.remove(this);
+			registration.getLease().cancel();
+		}
+
+		@Override
+		public void renew(long duration) throws LeaseDeniedException, UnknownLeaseException, RemoteException {
+			registration.getLease().renew(duration);
+		}
+
+		@Override
+		public void setSerialFormat(int format) {
+			registration.getLease().setSerialFormat(format);
+		}
+
+		@Override
+		public int getSerialFormat() {
+			return registration.getLease().getSerialFormat();
+		}
+
+		/**
+		 * Not supported, as the lease may move between spaces
+		 */
+		@SuppressWarnings("rawtypes")
+		@Override
+		public LeaseMap createLeaseMap(long duration) {
+			throw new UnsupportedOperationException("Event registration leases can't be batched");
+		}
+
+		@Override
+		public boolean canBatch(Lease lease) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package services.resilience;
+
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often, and how far apart, to retry a remote call that failed.
+ * 
+ * Retries back off exponentially with jitter, so that many clients that lost
+ * the same service don't all come back to it at the same moment. Every
+ * operation also has a deadline, after which it isn't retried however many
+ * attempts it has left.
+ *
+ * Whether a failure can be retried at all depends on the operation: an
+ * operation that changes the space (a write or take) is only retried if the
+ * call can't have reached the service, as otherwise it might happen twice.
+ */
+public class RetryPolicy {
+	/**
+	 * Up to 4 attempts, 50ms to 2s apart, within 10s plus the operation's own
+	 * timeout
+	 */
+	public static final RetryPolicy DEFAULT = new RetryPolicy(4, 50l, 2000l, 10000l);
+
+	private final int maxAttempts;
+	private final long initialBackoffInMillis;
+	private final long maxBackoffInMillis;
+	private final long deadlineInMillis;
+
+	/**
+	 * @param maxAttempts
+	 *            How many times to try an operation, including the first
+	 * @param initialBackoffInMillis
+	 *            The most to wait before the first retry. Doubles with every
+	 *            retry after that
+	 * @param maxBackoffInMillis
+	 *            The most to wait before any retry
+	 * @param deadlineInMillis
+	 *            How long, on top of its own timeout, an operation has for all
+	 *            its attempts
+	 */
+	public RetryPolicy(int maxAttempts, long initialBackoffInMillis, long maxBackoffInMillis, long deadlineInMillis) {
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffInMillis = initialBackoffInMillis;
+		this.maxBackoffInMillis = maxBackoffInMillis;
+		this.deadlineInMillis = deadlineInMillis;
+	}
+
+	/**
+	 * Starts counting the attempts at an operation.
+	 * 
+	 * @param timeout
+	 *            How long the operation itself may block for, added to its
+	 *            deadline
+	 */
+	public Attempts begin(long timeout) {
+		long now = System.currentTimeMillis();
+		long deadline = now + deadlineInMillis;
+
+		// Lease.FOREVER and the like mustn't overflow
+		deadline = timeout > Long.MAX_VALUE - deadline ? Long.MAX_VALUE : deadline + Math.max(0l, timeout);
+
+		return new Attempts(deadline);
+	}
+
+	/**
+	 * Gets how long to wait before a retry: a random time between half and all
+	 * of the current exponential backoff.
+	 * 
+	 * @param retry
+	 *            1 for the first retry, 2 for the second and so on
+	 */
+	long backoffFor(int retry) {
+		long backoff = Math.min(maxBackoffInMillis, initialBackoffInMillis << Math.min(retry - 1, 30));
+		long half = backoff / 2;
+
+		return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+	}
+
+	/**
+	 * @return Whether a failed call can't have reached the service, so that
+	 *         retrying it can't make it happen twice
+	 */
+	public static boolean isNeverDelivered(RemoteException e) {
+		return e instanceof ConnectException || e instanceof ConnectIOException || e instanceof UnknownHostException
+				|| e instanceof NoSuchObjectException;
+	}
+
+	/**
+	 * The attempts made so far at one operation
+	 */
+	public class Attempts {
+		private final long deadline;
+		private int attempts = 1;
+
+		private Attempts(long deadline) {
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Waits before retrying a failed attempt, or gives up on the operation.
+		 * 
+		 * @param e
+		 *            Why the attempt failed
+		 * @param retryable
+		 *            Whether the operation is safe to retry after this failure
+		 * 
+		 * @throws RemoteException
+		 *             The failure passed in, if the operation shouldn't be
+		 *             retried: it isn't safe to, it has run out of attempts or
+		 *             time, or the wait was interrupted
+		 */
+		public void retryOrThrow(RemoteException e, boolean retryable) throws RemoteException {
+			if (!retryable || attempts >= maxAttempts) {
+				throw e;
+			}
+
+			long backoff = backoffFor(attempts);
+			if (System.currentTimeMillis() + backoff > deadline) {
+				throw e;
+			}
+
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+
+				throw e;
+			}
+
+			attempts++;
+		}
+
+		/**
+		 * @return How many attempts have been made, including the current one
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+	}
+}
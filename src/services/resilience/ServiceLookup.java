@@ -0,0 +1,18 @@
+package services.resilience;
+
+/**
+ * Finds a fresh proxy for a remote service, for when the one in use has
+ * failed or has never been found.
+ *
+ * @param <T>
+ *            The type of service looked up
+ */
+public interface ServiceLookup<T> {
+	/**
+	 * @return A proxy for the service, or null if none is registered
+	 * 
+	 * @throws Exception
+	 *             If the lookup itself failed
+	 */
+	T lookup() throws Exception;
+}
@@ -0,0 +1,122 @@
+package services.resilience;
+
+import java.rmi.ConnectException;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.transaction.server.TransactionManager;
+import net.jini.lookup.entry.Name;
+import net.jini.space.JavaSpace;
+import net.jini.space.JavaSpace05;
+
+/**
+ * One of the hosts a JavaSpace (and transaction manager) may be found on,
+ * along with how healthy and how quick to respond its space was when last
+ * probed.
+ */
+public class SpaceHost {
+	/**
+	 * How much each probe counts towards the host's average latency
+	 */
+	private static final double LATENCY_WEIGHT = 0.3;
+
+	/**
+	 * Read from the space to time a round trip to it. Never written, so never
+	 * matches anything
+	 */
+	private static final Entry PROBE = new Name("chatroom health check");
+
+	private final String name;
+	private final ServiceLookup<JavaSpace05> spaceLookup;
+	private final ServiceLookup<TransactionManager> managerLookup;
+
+	private volatile boolean healthy = true;
+	private volatile double latencyInMillis = -1;
+
+	/**
+	 * @param name
+	 *            The host's name, for messages
+	 * @param spaceLookup
+	 *            Finds the space on the host
+	 * @param managerLookup
+	 *            Finds the transaction manager on the host
+	 */
+	public SpaceHost(String name, ServiceLookup<JavaSpace05> spaceLookup,
+			ServiceLookup<TransactionManager> managerLookup) {
+		this.name = name;
+		this.spaceLookup = spaceLookup;
+		this.managerLookup = managerLookup;
+	}
+
+	/**
+	 * Looks up the host's space and times a read from it, marking the host as
+	 * unhealthy if either fails.
+	 * 
+	 * @return The host's space
+	 * 
+	 * @throws Exception
+	 *             If the space couldn't be found or didn't respond
+	 */
+	public JavaSpace05 probe() throws Exception {
+		try {
+			JavaSpace05 space = spaceLookup.lookup();
+			if (space == null) {
+				throw new ConnectException("No JavaSpace is registered on " + name);
+			}
+
+			long start = System.nanoTime();
+			space.readIfExists(PROBE, null, JavaSpace.NO_WAIT);
+			recordLatency((System.nanoTime() - start) / 1e6);
+
+			healthy = true;
+
+			return space;
+		} catch (Exception e) {
+			healthy = false;
+
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The host's transaction manager, or null if none is registered
+	 * 
+	 * @throws Exception
+	 *             If the lookup failed
+	 */
+	public TransactionManager findManager() throws Exception {
+		return managerLookup.lookup();
+	}
+
+	private synchronized void recordLatency(double millis) {
+		if (latencyInMillis < 0) {
+			latencyInMillis = millis;
+		} else {
+			latencyInMillis += LATENCY_WEIGHT * (millis - latencyInMillis);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Whether the host's space responded when last probed. True if it
+	 *         hasn't been probed yet
+	 */
+	public boolean isHealthy() {
+		return healthy;
+	}
+
+	/**
+	 * @return The host's average round trip time when probed, or -1 if it
+	 *         hasn't responded to a probe yet
+	 */
+	public double getLatencyInMillis() {
+		return latencyInMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (%s, %.1fms)", name, healthy ? "up" : "down", latencyInMillis);
+	}
+}
@@ -0,0 +1,273 @@
+package services.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import models.JMSTopic;
+
+/**
+ * Finds topics by the start of their name, for type-ahead search.
+ *
+ * Topics are kept in a trie keyed by their base name, so a search walks down
+ * the query's characters and then collects topics below that node, without
+ * looking at any topic that doesn't match. Queries are normalised the same
+ * way as base names, so "gen", "GEN" and "Gen-" all find "General Chat".
+ * Both are upper cased the same way whatever the default locale, which is
+ * why keys are made from topics' names rather than taken from JMSTopic.
+ *
+ * The index is filled once from the space, then kept up to date from topic
+ * added and removed events rather than by reading every topic again.
+ *
+ * Thread-safe, as events arrive on their own threads.
+ */
+public class TopicSearchIndex {
+	// Base names only have upper case letters and digits
+	private static final int ALPHABET_SIZE = 36;
+	private static final Pattern NOT_IN_BASE_NAMES = Pattern.compile("[^A-Za-z0-9]");
+
+	private final Node root = new Node();
+
+	/**
+	 * Replaces everything in the index.
+	 *
+	 * @param topics
+	 *            Every topic in the space
+	 */
+	public synchronized void reset(Collection<JMSTopic> topics) {
+		root.children = null;
+		root.topics = null;
+		root.count = 0;
+
+		for (JMSTopic topic : topics) {
+			add(topic);
+		}
+	}
+
+	/**
+	 * Adds a topic, unless a topic with the same ID is already indexed or its
+	 * base name has characters base names can't.
+	 *
+	 * @return Whether the topic was added
+	 */
+	public synchronized boolean add(JMSTopic topic) {
+		String key = keyOf(topic);
+
+		if (key == null || !isIndexable(key) || indexOf(find(key), topic) >= 0) {
+			return false;
+		}
+
+		Node node = root;
+		node.count++;
+
+		for (int i = 0; i < key.length(); i++) {
+			int child = childIndex(key.charAt(i));
+
+			if (node.children == null) {
+				node.children = new Node[ALPHABET_SIZE];
+			}
+
+			if (node.children[child] == null) {
+				node.children[child] = new Node();
+			}
+
+			node = node.children[child];
+			node.count++;
+		}
+
+		if (node.topics == null) {
+			node.topics = new ArrayList<JMSTopic>(1);
+		}
+
+		node.topics.add(topic);
+
+		return true;
+	}
+
+	/**
+	 * Removes a topic, matched by its ID.
+	 *
+	 * @return Whether the topic was in the index
+	 */
+	public synchronized boolean remove(JMSTopic topic) {
+		String key = keyOf(topic);
+
+		if (key == null) {
+			return false;
+		}
+
+		Node node = find(key);
+		int index = indexOf(node, topic);
+
+		if (index < 0) {
+			return false;
+		}
+
+		node.topics.remove(index);
+
+		// Walk down again, dropping nodes with nothing left below them
+		node = root;
+		node.count--;
+
+		for (int i = 0; i < key.length(); i++) {
+			int child = childIndex(key.charAt(i));
+			Node next = node.children[child];
+
+			if (--next.count == 0) {
+				node.children[child] = null;
+
+				break;
+			}
+
+			node = next;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Finds topics whose names start with a query, in order of base name.
+	 *
+	 * @param query
+	 *            The start of a topic name. Case and any characters other than
+	 *            letters and digits are ignored, so a blank query matches
+	 *            every topic.
+	 * @param limit
+	 *            The most topics to return
+	 * @return Matching topics
+	 */
+	public synchronized List<JMSTopic> search(String query, int limit) {
+		List<JMSTopic> results = new ArrayList<JMSTopic>();
+		Node node = find(normalise(query));
+
+		if (node != null) {
+			collect(node, results, limit);
+		}
+
+		return results;
+	}
+
+	/**
+	 * @return How many topics have names starting with a query
+	 */
+	public synchronized int count(String query) {
+		Node node = find(normalise(query));
+
+		return node == null ? 0 : node.count;
+	}
+
+	/**
+	 * @return Whether a topic's name starts with a query, as search() decides
+	 */
+	public static boolean matches(JMSTopic topic, String query) {
+		String key = keyOf(topic);
+
+		return key != null && key.startsWith(normalise(query));
+	}
+
+	/**
+	 * @return A topic's base name, or <code>null</code> if it has no name
+	 */
+	private static String keyOf(JMSTopic topic) {
+		return topic.getName() == null ? null : normalise(topic.getName());
+	}
+
+	/**
+	 * Turns a query into the start of a base name, as JMSTopic does with names
+	 */
+	private static String normalise(String query) {
+		return query == null ? "" : NOT_IN_BASE_NAMES.matcher(query).replaceAll("").toUpperCase(Locale.ROOT);
+	}
+
+	private static boolean isIndexable(String key) {
+		for (int i = 0; i < key.length(); i++) {
+			if (childIndex(key.charAt(i)) < 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return The node for a key, or <code>null</code> if nothing is indexed
+	 *         under it
+	 */
+	private Node find(String key) {
+		Node node = root;
+
+		for (int i = 0; i < key.length() && node != null; i++) {
+			int child = childIndex(key.charAt(i));
+
+			node = node.children == null || child < 0 ? null : node.children[child];
+		}
+
+		return node;
+	}
+
+	private static void collect(Node node, List<JMSTopic> results, int limit) {
+		if (node.topics != null) {
+			for (JMSTopic topic : node.topics) {
+				if (results.size() == limit) {
+					return;
+				}
+
+				results.add(topic);
+			}
+		}
+
+		if (node.children != null) {
+			for (Node child : node.children) {
+				if (results.size() == limit) {
+					return;
+				}
+
+				if (child != null) {
+					collect(child, results, limit);
+				}
+			}
+		}
+	}
+
+	private static int indexOf(Node node, JMSTopic topic) {
+		if (node == null || node.topics == null) {
+			return -1;
+		}
+
+		for (int i = 0; i < node.topics.size(); i++) {
+			if (node.topics.get(i).getId().equals(topic.getId())) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Digits sort before letters, as they do in ASCII
+	 *
+	 * @return The character's child, or -1 if it isn't an upper case letter
+	 *         or digit
+	 */
+	private static int childIndex(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+
+		if (c >= 'A' && c <= 'Z') {
+			return c - 'A' + 10;
+		}
+
+		return -1;
+	}
+
+	private static final class Node {
+		Node[] children;
+		// Topics whose base name ends here, usually just one
+		List<JMSTopic> topics;
+		// Topics here and below
+		int count;
+	}
+}
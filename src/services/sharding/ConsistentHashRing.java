@@ -0,0 +1,138 @@
+package services.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Assigns keys to named nodes by consistent hashing, so adding or removing a
+ * node only moves the keys that belong on it, about 1/N of them, rather than
+ * reshuffling every key.
+ *
+ * Each node is placed on the ring many times (as virtual nodes) so keys are
+ * spread evenly. Positions depend only on node names, so every client that
+ * uses the same names assigns keys the same way.
+ *
+ * Lookups don't lock: changes replace the ring as a whole.
+ *
+ * @param <T>
+ *            The type of node
+ */
+public class ConsistentHashRing<T> {
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	private final int virtualNodes;
+	private final Map<String, T> nodes = new LinkedHashMap<String, T>();
+	private volatile TreeMap<Long, T> ring = new TreeMap<Long, T>();
+
+	/**
+	 * @param virtualNodes
+	 *            How many times each node is placed on the ring
+	 */
+	public ConsistentHashRing(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+	}
+
+	public ConsistentHashRing() {
+		this(DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * Adds a node, replacing any with the same name.
+	 */
+	public synchronized void add(String name, T node) {
+		nodes.put(name, node);
+		rebuild();
+	}
+
+	/**
+	 * Removes a node. Its keys move to the nodes that follow it on the ring.
+	 */
+	public synchronized void remove(String name) {
+		if (nodes.remove(name) != null) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Gets the node a key belongs on.
+	 * 
+	 * @return The node, or null if the ring is empty
+	 */
+	public T get(UUID key) {
+		TreeMap<Long, T> current = ring;
+		if (current.isEmpty()) {
+			return null;
+		}
+
+		SortedMap<Long, T> following = current.tailMap(hash(key));
+
+		return following.isEmpty() ? current.firstEntry().getValue() : following.get(following.firstKey());
+	}
+
+	/**
+	 * @return Every node, in the order they were added
+	 */
+	public synchronized List<T> getNodes() {
+		return Collections.unmodifiableList(new ArrayList<T>(nodes.values()));
+	}
+
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	private void rebuild() {
+		TreeMap<Long, T> newRing = new TreeMap<Long, T>();
+
+		for (Map.Entry<String, T> node : nodes.entrySet()) {
+			for (int i = 0; i < virtualNodes; i++) {
+				newRing.put(hash(node.getKey() + "#" + i), node.getValue());
+			}
+		}
+
+		ring = newRing;
+	}
+
+	/**
+	 * Places a node name on the ring, using the first 8 bytes of its MD5
+	 */
+	private static long hash(String name) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(name.getBytes(StandardCharsets.UTF_8));
+			long hash = 0;
+
+			for (int i = 0; i < 8; i++) {
+				hash = (hash << 8) | (digest[i] & 0xff);
+			}
+
+			return hash;
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Places a key on the ring. Mixed rather than used as is, so keys that
+	 * aren't random UUIDs are spread out too
+	 */
+	private static long hash(UUID key) {
+		long hash = key.getMostSignificantBits() * 31 + key.getLeastSignificantBits();
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdl;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53l;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+}
@@ -0,0 +1,76 @@
+package services.sharding;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import models.JMSTopic;
+import net.jini.space.JavaSpace05;
+
+/**
+ * Decides which space each topic's traffic goes to.
+ *
+ * Users, name claims, topics and topic deletions live in a single directory
+ * space, so every client sees every topic. A topic's messages and members
+ * (JMSMessage, JMSTopicUser and JMSTopicUserRemoved) live in one of several
+ * shard spaces, chosen by consistent hashing of the topic's ID, so message
+ * traffic is spread across the shards. With no shards, everything is in the
+ * directory.
+ */
+public class TopicSpaceRouter {
+	private final JavaSpace05 directory;
+	private final ConsistentHashRing<JavaSpace05> shards = new ConsistentHashRing<JavaSpace05>();
+
+	/**
+	 * @param directory
+	 *            The space for users, name claims and topics
+	 * @param shards
+	 *            The spaces for topic traffic, by name. Every client must
+	 *            name the same shards the same way to route topics alike
+	 */
+	public TopicSpaceRouter(JavaSpace05 directory, Map<String, JavaSpace05> shards) {
+		this.directory = directory;
+
+		for (Map.Entry<String, JavaSpace05> shard : shards.entrySet()) {
+			this.shards.add(shard.getKey(), shard.getValue());
+		}
+	}
+
+	public JavaSpace05 getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return The space holding a topic's messages and members
+	 */
+	public JavaSpace05 getSpaceFor(JMSTopic topic) {
+		return getSpaceFor(topic.getId());
+	}
+
+	/**
+	 * @return The space holding the messages and members of the topic with a
+	 *         given ID
+	 */
+	public JavaSpace05 getSpaceFor(UUID topicId) {
+		if (topicId == null) {
+			throw new IllegalArgumentException("Topic has no ID to route it by");
+		}
+
+		JavaSpace05 shard = shards.get(topicId);
+
+		return shard == null ? directory : shard;
+	}
+
+	/**
+	 * @return Every space holding topic messages and members, for searches
+	 *         across all topics
+	 */
+	public List<JavaSpace05> getTopicSpaces() {
+		return isSharded() ? shards.getNodes() : Collections.singletonList(directory);
+	}
+
+	public boolean isSharded() {
+		return shards.size() > 0;
+	}
+}
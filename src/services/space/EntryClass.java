@@ -0,0 +1,185 @@
+package services.space;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.rmi.MarshalException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.entry.UnusableEntryException;
+
+/**
+ * Describes the fields of an Entry class that take part in matching, and
+ * converts entries to and from the serialized field values that an in-memory
+ * space stores and matches on.
+ *
+ * As in any JavaSpace, only public, non-static, non-transient, non-final
+ * fields are stored, each field is serialized separately, and two field values
+ * match when their serialized forms are identical.
+ */
+final class EntryClass {
+	private static final Map<Class<?>, EntryClass> entryClasses = new ConcurrentHashMap<Class<?>, EntryClass>();
+
+	private final Class<?> type;
+	private final Field[] fields;
+	private final Map<Field, Integer> positions = new HashMap<Field, Integer>();
+
+	private EntryClass(Class<?> type) {
+		this.type = type;
+
+		List<Field> usableFields = new ArrayList<Field>();
+		for (Field field : type.getFields()) {
+			int modifiers = field.getModifiers();
+
+			if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers)) {
+				continue;
+			}
+
+			if (field.getType().isPrimitive()) {
+				throw new IllegalArgumentException(
+						"Entry field " + type.getName() + "." + field.getName() + " must not be a primitive");
+			}
+
+			usableFields.add(field);
+		}
+
+		// Class.getFields() has no fixed order, so sort for a stable layout
+		fields = usableFields.toArray(new Field[usableFields.size()]);
+		Arrays.sort(fields, new Comparator<Field>() {
+			@Override
+			public int compare(Field a, Field b) {
+				int byName = a.getName().compareTo(b.getName());
+
+				return byName != 0 ? byName : a.getDeclaringClass().getName().compareTo(b.getDeclaringClass().getName());
+			}
+		});
+
+		for (int i = 0; i < fields.length; i++) {
+			positions.put(fields[i], i);
+		}
+
+		try {
+			type.getConstructor();
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("Entry class " + type.getName() + " needs a public no-arg constructor");
+		}
+	}
+
+	/**
+	 * Gets the (cached) description of a given Entry class.
+	 */
+	static EntryClass of(Class<?> type) {
+		EntryClass entryClass = entryClasses.get(type);
+
+		if (entryClass == null) {
+			entryClass = new EntryClass(type);
+			entryClasses.put(type, entryClass);
+		}
+
+		return entryClass;
+	}
+
+	Class<?> getType() {
+		return type;
+	}
+
+	Field[] getFields() {
+		return fields;
+	}
+
+	/**
+	 * Where a given field (usually one of a template's) sits in this class's
+	 * stored values.
+	 *
+	 * @return The position, or -1 if this class does not have the field
+	 */
+	int positionOf(Field field) {
+		Integer position = positions.get(field);
+
+		return position == null ? -1 : position.intValue();
+	}
+
+	/**
+	 * Whether entries of this class can match a template of a given class
+	 */
+	boolean isMatchableBy(EntryClass templateClass) {
+		return templateClass.type.isAssignableFrom(type);
+	}
+
+	/**
+	 * Serializes each of an entry's fields.
+	 *
+	 * @return One serialized value per field, <code>null</code> for null
+	 *         fields
+	 */
+	byte[][] toValues(Entry entry) throws MarshalException {
+		byte[][] values = new byte[fields.length][];
+
+		for (int i = 0; i < fields.length; i++) {
+			try {
+				Object value = fields[i].get(entry);
+
+				if (value != null) {
+					values[i] = serialize(value);
+				}
+			} catch (IllegalAccessException | IOException e) {
+				throw new MarshalException("Failed to serialize field " + fields[i].getName(), e);
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Creates a new entry from serialized field values.
+	 */
+	Entry toEntry(byte[][] values) throws UnusableEntryException {
+		try {
+			Entry entry = (Entry) type.getDeclaredConstructor().newInstance();
+
+			for (int i = 0; i < fields.length; i++) {
+				if (values[i] != null) {
+					fields[i].set(entry, deserialize(values[i]));
+				}
+			}
+
+			return entry;
+		} catch (InvocationTargetException e) {
+			throw new UnusableEntryException(e.getCause());
+		} catch (InstantiationException | IllegalAccessException | NoSuchMethodException | IOException
+				| ClassNotFoundException e) {
+			throw new UnusableEntryException(e);
+		}
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	private Object deserialize(byte[] value) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value));
+
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package services.space;
+
+import java.lang.reflect.Field;
+import java.rmi.MarshalException;
+import java.util.Arrays;
+
+import net.jini.core.entry.Entry;
+
+/**
+ * A template, held as serialized field values where null means "match
+ * anything". A null template matches every entry.
+ */
+final class EntryTemplate {
+	/**
+	 * The null template
+	 */
+	static final EntryTemplate ANY = new EntryTemplate(null, new byte[0][]);
+
+	// null for a null template
+	private final EntryClass entryClass;
+	private final byte[][] values;
+
+	private EntryTemplate(EntryClass entryClass, byte[][] values) {
+		this.entryClass = entryClass;
+		this.values = values;
+	}
+
+	EntryTemplate(Entry tmpl) throws MarshalException {
+		if (tmpl == null) {
+			entryClass = null;
+			values = new byte[0][];
+		} else {
+			entryClass = EntryClass.of(tmpl.getClass());
+			values = entryClass.toValues(tmpl);
+		}
+	}
+
+	/**
+	 * Whether entries of a given class could match this template at all
+	 */
+	boolean couldMatch(EntryClass candidateClass) {
+		return entryClass == null || candidateClass.isMatchableBy(entryClass);
+	}
+
+	/**
+	 * The number of fields the template has, set or not
+	 */
+	int getFieldCount() {
+		return values.length;
+	}
+
+	Field getField(int i) {
+		return entryClass.getFields()[i];
+	}
+
+	/**
+	 * @return The serialized value of a field, or <code>null</code> if it
+	 *         matches anything
+	 */
+	byte[] getValue(int i) {
+		return values[i];
+	}
+
+	/**
+	 * Whether an entry, held as serialized field values, matches this template
+	 */
+	boolean matches(EntryClass candidateClass, byte[][] candidateValues) {
+		if (!couldMatch(candidateClass)) {
+			return false;
+		}
+
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == null) {
+				continue;
+			}
+
+			int position = candidateClass.positionOf(getField(i));
+			if (position < 0 || !Arrays.equals(values[i], candidateValues[position])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,848 @@
+package services.space;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.rmi.MarshalledObject;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.entry.UnusableEntryException;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEvent;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.event.UnknownEventException;
+import net.jini.core.lease.Lease;
+import net.jini.core.transaction.Transaction;
+import net.jini.core.transaction.TransactionException;
+import net.jini.core.transaction.UnknownTransactionException;
+import net.jini.core.transaction.server.ServerTransaction;
+import net.jini.core.transaction.server.TransactionManager;
+import net.jini.core.transaction.server.TransactionParticipant;
+import net.jini.entry.UnusableEntriesException;
+import net.jini.space.AvailabilityEvent;
+import net.jini.space.JavaSpace05;
+import net.jini.space.MatchSet;
+
+/**
+ * A JavaSpace05 that lives entirely in the current JVM, for tests and load
+ * simulation without Reggie, Outrigger or Mahalo running.
+ *
+ * Entries are stored as their serialized field values, so reads return copies
+ * and templates match exactly as they would against Outrigger. Entries are
+ * kept in an IndexedEntryStore, so a template only looks at entries of its
+ * own class (and subclasses), and only at those with the right value when it
+ * sets an indexed field. Leases, transactions (through an
+ * InMemoryTransactionManager) and availability events are supported.
+ *
+ * Some simplifications: reads don't take read locks, event registrations
+ * ignore their transaction, and a single multi-entry take returns at most
+ * TAKE_LIMIT entries, as Outrigger does by default.
+ */
+public class InMemoryJavaSpace implements JavaSpace05, TransactionParticipant, Serializable {
+	private static final long serialVersionUID = -3394016453307787446L;
+
+	/**
+	 * Mirrors Outrigger's default limit on entries returned by one take
+	 */
+	public static final int TAKE_LIMIT = 100;
+
+	private static final AtomicLong nextSpaceId = new AtomicLong();
+	private static final Map<Long, WeakReference<InMemoryJavaSpace>> liveSpaces = new ConcurrentHashMap<Long, WeakReference<InMemoryJavaSpace>>();
+
+	private final long spaceId = nextSpaceId.incrementAndGet();
+	private final long crashCount = System.currentTimeMillis();
+
+	private final transient Object lock = new Object();
+	private final transient IndexedEntryStore<StoredEntry> store = new IndexedEntryStore<StoredEntry>();
+	private final transient Map<ServerTransaction, TransactionState> transactions = new HashMap<ServerTransaction, TransactionState>();
+	private final transient List<Registration> registrations = new ArrayList<Registration>();
+	private final transient InMemoryTransactionManager transactionManager = new InMemoryTransactionManager();
+	private final transient ExecutorService eventDispatcher;
+	private transient long nextId = 1;
+
+	public InMemoryJavaSpace() {
+		liveSpaces.put(spaceId, new WeakReference<InMemoryJavaSpace>(this));
+
+		eventDispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "in-memory-space-events");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return A transaction manager whose transactions this space can join
+	 */
+	public TransactionManager getTransactionManager() {
+		return transactionManager;
+	}
+
+	@Override
+	public Lease write(Entry entry, Transaction txn, long lease) throws TransactionException, RemoteException {
+		List<Entry> entries = Collections.singletonList(entry);
+		List<Long> leaseDurations = Collections.singletonList(Long.valueOf(lease));
+
+		return (Lease) write(entries, txn, leaseDurations).get(0);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List write(List entries, Transaction txn, List leaseDurations) throws TransactionException, RemoteException {
+		if (entries.size() != leaseDurations.size()) {
+			throw new IllegalArgumentException("Need exactly one lease duration per entry");
+		}
+
+		TransactionState state = join(txn);
+
+		// Serialize outside the lock
+		List<StoredEntry> written = new ArrayList<StoredEntry>(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			Entry entry = (Entry) entries.get(i);
+
+			if (entry == null) {
+				throw new IllegalArgumentException("Can't write a null entry");
+			}
+
+			EntryClass entryClass = EntryClass.of(entry.getClass());
+			long expiration = InMemoryLease.expirationFor(((Long) leaseDurations.get(i)).longValue());
+
+			written.add(new StoredEntry(entryClass, entryClass.toValues(entry), expiration));
+		}
+
+		List<Lease> leases = new ArrayList<Lease>(written.size());
+
+		synchronized (lock) {
+			for (StoredEntry entry : written) {
+				entry.id = nextId++;
+
+				if (state != null) {
+					entry.writtenBy = state.transaction;
+					state.written.add(entry);
+				}
+
+				store.add(entry.entryClass, entry.values, entry);
+				leases.add(new InMemoryLease(this, entry, entry.expiration));
+			}
+
+			lock.notifyAll();
+		}
+
+		if (state == null) {
+			fireEvents(written, true);
+		}
+
+		return leases;
+	}
+
+	@Override
+	public Entry read(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		return first(find(Collections.singletonList(tmpl), txn, timeout, 1, false, false));
+	}
+
+	@Override
+	public Entry readIfExists(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		return first(find(Collections.singletonList(tmpl), txn, timeout, 1, true, false));
+	}
+
+	@Override
+	public Entry take(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		return first(find(Collections.singletonList(tmpl), txn, timeout, 1, false, true));
+	}
+
+	@Override
+	public Entry takeIfExists(Entry tmpl, Transaction txn, long timeout)
+			throws UnusableEntryException, TransactionException, InterruptedException, RemoteException {
+		return first(find(Collections.singletonList(tmpl), txn, timeout, 1, true, true));
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public Collection take(Collection tmpls, Transaction txn, long timeout, long maxEntries)
+			throws UnusableEntriesException, TransactionException, RemoteException {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+
+		List<StoredEntry> taken;
+		try {
+			taken = find(new ArrayList<Entry>(tmpls), txn, timeout, (int) Math.min(maxEntries, TAKE_LIMIT), false,
+					true);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			return new ArrayList<Entry>();
+		}
+
+		List<Entry> entries = new ArrayList<Entry>(taken.size());
+		List<UnusableEntryException> failures = new ArrayList<UnusableEntryException>();
+
+		for (StoredEntry entry : taken) {
+			try {
+				entries.add(entry.toEntry());
+			} catch (UnusableEntryException e) {
+				failures.add(e);
+			}
+		}
+
+		if (!failures.isEmpty()) {
+			throw new UnusableEntriesException("Some taken entries could not be deserialized", entries, failures);
+		}
+
+		return entries;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public MatchSet contents(Collection tmpls, Transaction txn, long leaseDuration, long maxEntries)
+			throws TransactionException, RemoteException {
+		List<EntryTemplate> templates = toTemplates(new ArrayList<Entry>(tmpls));
+		TransactionState state = join(txn);
+		ServerTransaction transaction = state == null ? null : state.transaction;
+		List<StoredEntry> matches;
+
+		synchronized (lock) {
+			matches = findVisible(templates, transaction, maxEntries);
+		}
+
+		return new InMemoryMatchSet(matches);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public EventRegistration registerForAvailabilityEvent(Collection tmpls, Transaction txn, boolean visibilityOnly,
+			RemoteEventListener listener, long leaseDuration, MarshalledObject handback)
+			throws TransactionException, RemoteException {
+		return register(toTemplates(new ArrayList<Entry>(tmpls)), listener, leaseDuration, handback, true);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public EventRegistration notify(Entry tmpl, Transaction txn, RemoteEventListener listener, long lease,
+			MarshalledObject handback) throws TransactionException, RemoteException {
+		return register(toTemplates(Collections.singletonList(tmpl)), listener, lease, handback, false);
+	}
+
+	@Override
+	public Entry snapshot(Entry e) throws RemoteException {
+		return e;
+	}
+
+	/**
+	 * @return The number of live entries in the space, for tests
+	 */
+	public int size() {
+		synchronized (lock) {
+			int size = 0;
+			long now = System.currentTimeMillis();
+
+			Iterator<StoredEntry> it = store.matching(EntryTemplate.ANY);
+			while (it.hasNext()) {
+				if (!it.next().isExpired(now)) {
+					size++;
+				}
+			}
+
+			return size;
+		}
+	}
+
+	@Override
+	public int prepare(TransactionManager mgr, long id) throws UnknownTransactionException, RemoteException {
+		synchronized (lock) {
+			return transactions.containsKey(new ServerTransaction(mgr, id)) ? PREPARED : NOTCHANGED;
+		}
+	}
+
+	@Override
+	public void commit(TransactionManager mgr, long id) throws UnknownTransactionException, RemoteException {
+		List<StoredEntry> madeVisible = new ArrayList<StoredEntry>();
+
+		synchronized (lock) {
+			TransactionState state = transactions.remove(new ServerTransaction(mgr, id));
+
+			if (state == null) {
+				throw new UnknownTransactionException("Space has no record of transaction " + id);
+			}
+
+			for (StoredEntry entry : state.written) {
+				if (!entry.removed) {
+					entry.writtenBy = null;
+					madeVisible.add(entry);
+				}
+			}
+
+			for (StoredEntry entry : state.taken) {
+				remove(entry);
+			}
+
+			lock.notifyAll();
+		}
+
+		fireEvents(madeVisible, true);
+	}
+
+	@Override
+	public void abort(TransactionManager mgr, long id) throws UnknownTransactionException, RemoteException {
+		List<StoredEntry> restored = new ArrayList<StoredEntry>();
+
+		synchronized (lock) {
+			TransactionState state = transactions.remove(new ServerTransaction(mgr, id));
+
+			if (state == null) {
+				throw new UnknownTransactionException("Space has no record of transaction " + id);
+			}
+
+			for (StoredEntry entry : state.written) {
+				remove(entry);
+			}
+
+			for (StoredEntry entry : state.taken) {
+				if (!entry.removed) {
+					entry.takenBy = null;
+					restored.add(entry);
+				}
+			}
+
+			lock.notifyAll();
+		}
+
+		fireEvents(restored, false);
+	}
+
+	@Override
+	public int prepareAndCommit(TransactionManager mgr, long id) throws UnknownTransactionException, RemoteException {
+		int result = prepare(mgr, id);
+
+		if (result == PREPARED) {
+			commit(mgr, id);
+
+			return COMMITTED;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Finds entries matching any of the given templates, waiting up to a given
+	 * timeout for at least one to show up.
+	 *
+	 * @param ifExists
+	 *            If <code>true</code>, only wait while a matching entry exists
+	 *            but is locked by another transaction
+	 * @param take
+	 *            If <code>true</code>, the entries found are taken
+	 */
+	private List<StoredEntry> find(List<Entry> tmpls, Transaction txn, long timeout, int maxEntries, boolean ifExists,
+			boolean take) throws TransactionException, RemoteException, InterruptedException {
+		List<EntryTemplate> templates = toTemplates(tmpls);
+		TransactionState state = join(txn);
+		ServerTransaction transaction = state == null ? null : state.transaction;
+
+		long deadline = System.currentTimeMillis() + timeout;
+		if (deadline < 0 || timeout == Long.MAX_VALUE) {
+			deadline = Long.MAX_VALUE;
+		}
+
+		synchronized (lock) {
+			while (true) {
+				List<StoredEntry> found = findVisible(templates, transaction, maxEntries);
+
+				if (!found.isEmpty()) {
+					if (take) {
+						for (StoredEntry entry : found) {
+							take(entry, state);
+						}
+					}
+
+					return found;
+				}
+
+				if (ifExists && !hasLockedMatch(templates, transaction)) {
+					return found;
+				}
+
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return found;
+				}
+
+				lock.wait(remaining);
+			}
+		}
+	}
+
+	/**
+	 * Finds entries visible to a transaction that match any of the given
+	 * templates. Expired entries found along the way are removed. Must hold the
+	 * lock.
+	 */
+	private List<StoredEntry> findVisible(List<EntryTemplate> templates, ServerTransaction transaction,
+			long maxEntries) {
+		Set<StoredEntry> found = new LinkedHashSet<StoredEntry>();
+		List<StoredEntry> expired = new ArrayList<StoredEntry>();
+		long now = System.currentTimeMillis();
+
+		for (EntryTemplate template : templates) {
+			Iterator<StoredEntry> it = store.matching(template);
+
+			while (it.hasNext() && found.size() < maxEntries) {
+				StoredEntry entry = it.next();
+
+				if (entry.isExpired(now)) {
+					expired.add(entry);
+				} else if (entry.isVisibleTo(transaction)) {
+					found.add(entry);
+				}
+			}
+		}
+
+		// Can't remove from the store while iterating over it
+		for (StoredEntry entry : expired) {
+			remove(entry);
+		}
+
+		return new ArrayList<StoredEntry>(found);
+	}
+
+	/**
+	 * Whether any entry matching the templates is locked by another
+	 * transaction. Must hold the lock.
+	 */
+	private boolean hasLockedMatch(List<EntryTemplate> templates, ServerTransaction transaction) {
+		long now = System.currentTimeMillis();
+
+		for (EntryTemplate template : templates) {
+			Iterator<StoredEntry> it = store.matching(template);
+
+			while (it.hasNext()) {
+				StoredEntry entry = it.next();
+
+				if (!entry.isExpired(now) && entry.isLockedAgainst(transaction)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private boolean matchesAny(List<EntryTemplate> templates, StoredEntry entry) {
+		for (EntryTemplate template : templates) {
+			if (template.matches(entry.entryClass, entry.values)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Takes an entry, either outright or under a transaction. Must hold the
+	 * lock.
+	 */
+	private void take(StoredEntry entry, TransactionState state) {
+		if (state == null || state.transaction.equals(entry.writtenBy)) {
+			// Written and taken under the same transaction, so it never
+			// existed as far as anyone else is concerned
+			remove(entry);
+		} else {
+			entry.takenBy = state.transaction;
+			state.taken.add(entry);
+		}
+	}
+
+	/**
+	 * Removes an entry for good. Must hold the lock.
+	 */
+	private void remove(StoredEntry entry) {
+		if (!entry.removed) {
+			entry.removed = true;
+			store.remove(entry);
+		}
+	}
+
+	private List<EntryTemplate> toTemplates(List<? extends Entry> tmpls) throws RemoteException {
+		List<EntryTemplate> templates = new ArrayList<EntryTemplate>(tmpls.size());
+
+		for (Entry tmpl : tmpls) {
+			templates.add(new EntryTemplate(tmpl));
+		}
+
+		return templates;
+	}
+
+	/**
+	 * Joins a transaction, if this space hasn't already.
+	 *
+	 * @return The space's state for the transaction, or <code>null</code> if
+	 *         there is no transaction
+	 */
+	private TransactionState join(Transaction txn) throws TransactionException, RemoteException {
+		if (txn == null) {
+			return null;
+		}
+
+		if (!(txn instanceof ServerTransaction)) {
+			throw new TransactionException("Unsupported transaction type: " + txn.getClass().getName());
+		}
+
+		ServerTransaction transaction = (ServerTransaction) txn;
+
+		synchronized (lock) {
+			TransactionState state = transactions.get(transaction);
+
+			if (state != null) {
+				return state;
+			}
+		}
+
+		// Not holding the lock, as the manager may call back into this space
+		transaction.join(this, crashCount);
+
+		synchronized (lock) {
+			TransactionState state = transactions.get(transaction);
+
+			if (state == null) {
+				state = new TransactionState(transaction);
+				transactions.put(transaction, state);
+			}
+
+			return state;
+		}
+	}
+
+	private EventRegistration register(List<EntryTemplate> templates, RemoteEventListener listener, long leaseDuration,
+			MarshalledObject<?> handback, boolean availability) {
+		Registration registration;
+
+		synchronized (lock) {
+			registration = new Registration(nextId++, templates, listener, handback, availability,
+					InMemoryLease.expirationFor(leaseDuration));
+			registrations.add(registration);
+		}
+
+		Lease lease = new InMemoryLease(this, registration, registration.expiration);
+
+		return new EventRegistration(registration.id, this, lease, 0);
+	}
+
+	/**
+	 * Sends events for entries that have become visible to every registration
+	 * whose templates match them.
+	 *
+	 * @param newlyWritten
+	 *            <code>true</code> if the entries have just been written,
+	 *            <code>false</code> if they have reappeared after a take was
+	 *            aborted. Only availability events are sent for the latter.
+	 */
+	private void fireEvents(List<StoredEntry> entries, boolean newlyWritten) {
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		synchronized (lock) {
+			long now = System.currentTimeMillis();
+			Iterator<Registration> it = registrations.iterator();
+
+			while (it.hasNext()) {
+				final Registration registration = it.next();
+
+				if (registration.isExpired(now)) {
+					it.remove();
+
+					continue;
+				}
+
+				if (!registration.availability && !newlyWritten) {
+					continue;
+				}
+
+				for (final StoredEntry entry : entries) {
+					if (!matchesAny(registration.templates, entry)) {
+						continue;
+					}
+
+					final long sequenceNumber = ++registration.sequenceNumber;
+
+					eventDispatcher.execute(new Runnable() {
+						@Override
+						public void run() {
+							deliver(registration, entry, sequenceNumber);
+						}
+					});
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delivers one event to a registration's listener, on the event thread.
+	 */
+	private void deliver(Registration registration, StoredEntry entry, long sequenceNumber) {
+		if (registration.cancelled || registration.isExpired(System.currentTimeMillis())) {
+			return;
+		}
+
+		try {
+			RemoteEvent event;
+
+			if (registration.availability) {
+				event = new InMemoryAvailabilityEvent(this, registration.id, sequenceNumber, registration.handback,
+						entry.toEntry());
+			} else {
+				event = new RemoteEvent(this, registration.id, sequenceNumber, registration.handback);
+			}
+
+			registration.listener.notify(event);
+		} catch (UnknownEventException e) {
+			// The listener doesn't want any more of these
+			registration.cancel();
+		} catch (Exception e) {
+			System.err.println("Failed to deliver event to listener");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stands in for this space when an event referencing it is serialized
+	 * (e.g. to a listener exported with Jeri). Resolves back to the same space,
+	 * which only works within this JVM.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return new SpaceReference(spaceId);
+	}
+
+	private static final class SpaceReference implements Serializable {
+		private static final long serialVersionUID = 2953466617880421147L;
+
+		private final long spaceId;
+
+		public SpaceReference(long spaceId) {
+			this.spaceId = spaceId;
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			WeakReference<InMemoryJavaSpace> space = liveSpaces.get(spaceId);
+
+			return space == null ? null : space.get();
+		}
+	}
+
+	private static Entry first(List<StoredEntry> entries) throws UnusableEntryException {
+		return entries.isEmpty() ? null : entries.get(0).toEntry();
+	}
+
+	/**
+	 * A stored entry, held as its serialized field values
+	 */
+	private final class StoredEntry implements InMemoryLease.Resource {
+		private final EntryClass entryClass;
+		private final byte[][] values;
+		private long id;
+		private volatile long expiration;
+		private ServerTransaction writtenBy;
+		private ServerTransaction takenBy;
+		private boolean removed;
+
+		public StoredEntry(EntryClass entryClass, byte[][] values, long expiration) {
+			this.entryClass = entryClass;
+			this.values = values;
+			this.expiration = expiration;
+		}
+
+		public boolean isExpired(long now) {
+			return expiration < now;
+		}
+
+		public boolean isVisibleTo(ServerTransaction transaction) {
+			return !removed && takenBy == null && (writtenBy == null || writtenBy.equals(transaction));
+		}
+
+		public boolean isLockedAgainst(ServerTransaction transaction) {
+			return !removed && ((writtenBy != null && !writtenBy.equals(transaction))
+					|| (takenBy != null && !takenBy.equals(transaction)));
+		}
+
+		public Entry toEntry() throws UnusableEntryException {
+			return entryClass.toEntry(values);
+		}
+
+		@Override
+		public boolean renewUntil(long newExpiration) {
+			synchronized (lock) {
+				if (removed || isExpired(System.currentTimeMillis())) {
+					return false;
+				}
+
+				expiration = newExpiration;
+
+				return true;
+			}
+		}
+
+		@Override
+		public boolean cancel() {
+			synchronized (lock) {
+				if (removed || isExpired(System.currentTimeMillis())) {
+					return false;
+				}
+
+				remove(this);
+				lock.notifyAll();
+
+				return true;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return entryClass.getType().getSimpleName() + "#" + id;
+		}
+	}
+
+	/**
+	 * What this space has done under a given transaction
+	 */
+	private static final class TransactionState {
+		private final ServerTransaction transaction;
+		private final List<StoredEntry> written = new ArrayList<StoredEntry>();
+		private final List<StoredEntry> taken = new ArrayList<StoredEntry>();
+
+		public TransactionState(ServerTransaction transaction) {
+			this.transaction = transaction;
+		}
+	}
+
+	/**
+	 * An event registration
+	 */
+	private final class Registration implements InMemoryLease.Resource {
+		private final long id;
+		private final List<EntryTemplate> templates;
+		private final RemoteEventListener listener;
+		private final MarshalledObject<?> handback;
+		private final boolean availability;
+		private volatile long expiration;
+		private volatile boolean cancelled;
+		private long sequenceNumber;
+
+		public Registration(long id, List<EntryTemplate> templates, RemoteEventListener listener,
+				MarshalledObject<?> handback, boolean availability, long expiration) {
+			this.id = id;
+			this.templates = templates;
+			this.listener = listener;
+			this.handback = handback;
+			this.availability = availability;
+			this.expiration = expiration;
+		}
+
+		public boolean isExpired(long now) {
+			return cancelled || expiration < now;
+		}
+
+		@Override
+		public boolean renewUntil(long newExpiration) {
+			synchronized (lock) {
+				if (isExpired(System.currentTimeMillis())) {
+					return false;
+				}
+
+				expiration = newExpiration;
+
+				return true;
+			}
+		}
+
+		@Override
+		public boolean cancel() {
+			synchronized (lock) {
+				if (isExpired(System.currentTimeMillis())) {
+					return false;
+				}
+
+				cancelled = true;
+				registrations.remove(this);
+
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * An availability event carrying a copy of the entry that became visible
+	 */
+	private static final class InMemoryAvailabilityEvent extends AvailabilityEvent {
+		private static final long serialVersionUID = 6400471624474460237L;
+
+		private final Entry entry;
+
+		public InMemoryAvailabilityEvent(InMemoryJavaSpace source, long eventID, long seqNum,
+				MarshalledObject<?> handback, Entry entry) {
+			super(source, eventID, seqNum, handback, true);
+
+			this.entry = entry;
+		}
+
+		@Override
+		public Entry getEntry() throws UnusableEntryException {
+			return entry;
+		}
+
+		@Override
+		public Entry getSnapshot() {
+			return entry;
+		}
+	}
+
+	/**
+	 * The result of a contents() call. Holds every match up front, so it has
+	 * no lease.
+	 */
+	private static final class InMemoryMatchSet implements MatchSet {
+		private final Iterator<StoredEntry> matches;
+		private Entry last;
+
+		public InMemoryMatchSet(List<StoredEntry> matches) {
+			this.matches = matches.iterator();
+		}
+
+		@Override
+		public Entry next() throws RemoteException, UnusableEntryException {
+			last = matches.hasNext() ? matches.next().toEntry() : null;
+
+			return last;
+		}
+
+		@Override
+		public Lease getLease() {
+			return null;
+		}
+
+		@Override
+		public Entry getSnapshot() {
+			return last;
+		}
+	}
+}
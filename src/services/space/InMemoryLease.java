@@ -0,0 +1,135 @@
+package services.space;
+
+import java.rmi.RemoteException;
+
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseDeniedException;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.UnknownLeaseException;
+
+/**
+ * A lease on something held by an in-memory space or transaction manager
+ * (an entry, an event registration or a transaction).
+ */
+public class InMemoryLease implements Lease {
+	/**
+	 * Whatever the lease is on
+	 */
+	interface Resource {
+		/**
+		 * @return <code>false</code> if the resource no longer exists
+		 */
+		boolean renewUntil(long expiration);
+
+		/**
+		 * @return <code>false</code> if the resource no longer exists
+		 */
+		boolean cancel();
+	}
+
+	private final Object owner;
+	private final Resource resource;
+	private volatile long expiration;
+	private int serialFormat = Lease.DURATION;
+
+	/**
+	 * @param owner
+	 *            The space or manager holding the resource. Only leases with
+	 *            the same owner can be batched together.
+	 * @param resource
+	 *            The resource being leased
+	 * @param expiration
+	 *            When the lease expires, in absolute milliseconds
+	 */
+	InMemoryLease(Object owner, Resource resource, long expiration) {
+		this.owner = owner;
+		this.resource = resource;
+		this.expiration = expiration;
+	}
+
+	/**
+	 * Converts a requested lease duration into an absolute expiration time.
+	 * 
+	 * @param duration
+	 *            The requested duration, <code>Lease.FOREVER</code> or
+	 *            <code>Lease.ANY</code>
+	 * @return The absolute time the lease should expire
+	 */
+	static long expirationFor(long duration) {
+		if (duration == Lease.FOREVER || duration == Lease.ANY) {
+			return Long.MAX_VALUE;
+		}
+
+		if (duration < 0) {
+			throw new IllegalArgumentException("Lease duration must be positive, FOREVER or ANY: " + duration);
+		}
+
+		long now = System.currentTimeMillis();
+		long expiration = now + duration;
+
+		// Guard against overflow for very long durations
+		return expiration < now ? Long.MAX_VALUE : expiration;
+	}
+
+	Object getOwner() {
+		return owner;
+	}
+
+	@Override
+	public long getExpiration() {
+		return expiration;
+	}
+
+	@Override
+	public void cancel() throws UnknownLeaseException, RemoteException {
+		if (!resource.cancel()) {
+			throw new UnknownLeaseException("Leased resource no longer exists");
+		}
+	}
+
+	@Override
+	public synchronized void renew(long duration)
+			throws LeaseDeniedException, UnknownLeaseException, RemoteException {
+		long newExpiration = expirationFor(duration);
+
+		// Renewing for the same duration within the same millisecond would
+		// leave the expiration where it was, so move it on by one to show the
+		// renewal took
+		if (newExpiration == expiration && newExpiration != Long.MAX_VALUE) {
+			newExpiration++;
+		}
+
+		if (!resource.renewUntil(newExpiration)) {
+			throw new UnknownLeaseException("Leased resource no longer exists");
+		}
+
+		expiration = newExpiration;
+	}
+
+	@Override
+	public void setSerialFormat(int format) {
+		if (format != Lease.DURATION && format != Lease.ABSOLUTE) {
+			throw new IllegalArgumentException("Unknown serial format: " + format);
+		}
+
+		serialFormat = format;
+	}
+
+	@Override
+	public int getSerialFormat() {
+		return serialFormat;
+	}
+
+	@Override
+	public LeaseMap createLeaseMap(long duration) {
+		InMemoryLeaseMap leaseMap = new InMemoryLeaseMap(owner);
+		leaseMap.put(this, Long.valueOf(duration));
+
+		return leaseMap;
+	}
+
+	@Override
+	public boolean canBatch(Lease lease) {
+		return lease instanceof InMemoryLease && ((InMemoryLease) lease).getOwner() == owner;
+	}
+}
@@ -0,0 +1,91 @@
+package services.space;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.jini.core.lease.LeaseException;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.LeaseMapException;
+
+/**
+ * A LeaseMap of InMemoryLeases from the same space or transaction manager.
+ */
+@SuppressWarnings({ "serial", "rawtypes", "unchecked" })
+public class InMemoryLeaseMap extends HashMap implements LeaseMap {
+	private final Object owner;
+
+	InMemoryLeaseMap(Object owner) {
+		this.owner = owner;
+	}
+
+	@Override
+	public boolean canContainKey(Object key) {
+		return key instanceof InMemoryLease && ((InMemoryLease) key).getOwner() == owner;
+	}
+
+	@Override
+	public Object put(Object key, Object value) {
+		if (!canContainKey(key)) {
+			throw new IllegalArgumentException("Lease can't be batched with the leases in this map");
+		}
+
+		if (!(value instanceof Long)) {
+			throw new IllegalArgumentException("Lease durations must be Longs");
+		}
+
+		return super.put(key, value);
+	}
+
+	@Override
+	public void putAll(Map map) {
+		for (Object entry : map.entrySet()) {
+			Map.Entry mapEntry = (Map.Entry) entry;
+			put(mapEntry.getKey(), mapEntry.getValue());
+		}
+	}
+
+	@Override
+	public void renewAll() throws LeaseMapException, RemoteException {
+		Map failures = new HashMap();
+		Iterator<Map.Entry> it = entrySet().iterator();
+
+		while (it.hasNext()) {
+			Map.Entry entry = it.next();
+
+			try {
+				((InMemoryLease) entry.getKey()).renew(((Long) entry.getValue()).longValue());
+			} catch (LeaseException e) {
+				failures.put(entry.getKey(), e);
+				it.remove();
+			}
+		}
+
+		if (!failures.isEmpty()) {
+			throw new LeaseMapException("Failed to renew one or more leases", failures);
+		}
+	}
+
+	@Override
+	public void cancelAll() throws LeaseMapException, RemoteException {
+		Map failures = new HashMap();
+		Iterator<Map.Entry> it = entrySet().iterator();
+
+		while (it.hasNext()) {
+			Map.Entry entry = it.next();
+
+			try {
+				((InMemoryLease) entry.getKey()).cancel();
+			} catch (LeaseException e) {
+				failures.put(entry.getKey(), e);
+			}
+
+			it.remove();
+		}
+
+		if (!failures.isEmpty()) {
+			throw new LeaseMapException("Failed to cancel one or more leases", failures);
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package services.space;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.jini.core.lease.LeaseDeniedException;
+import net.jini.core.transaction.CannotAbortException;
+import net.jini.core.transaction.CannotCommitException;
+import net.jini.core.transaction.CannotJoinException;
+import net.jini.core.transaction.TimeoutExpiredException;
+import net.jini.core.transaction.UnknownTransactionException;
+import net.jini.core.transaction.server.CrashCountException;
+import net.jini.core.transaction.server.TransactionManager;
+import net.jini.core.transaction.server.TransactionParticipant;
+
+/**
+ * A transaction manager that lives in the same JVM as its participants, for
+ * use alongside an InMemoryJavaSpace.
+ *
+ * Runs a plain two-phase commit over the participants that joined a
+ * transaction. Transactions whose lease runs out are aborted in the
+ * background, so an abandoned transaction doesn't hold its locks forever.
+ */
+public class InMemoryTransactionManager implements TransactionManager {
+	private static final long EXPIRY_SWEEP_INTERVAL_IN_MILLIS = 500l;
+
+	private final Map<Long, TransactionRecord> transactions = new HashMap<Long, TransactionRecord>();
+	private long nextId = 1;
+	private ScheduledExecutorService expirySweeper;
+
+	@Override
+	public synchronized Created create(long leaseDuration) throws LeaseDeniedException, RemoteException {
+		TransactionRecord transaction = new TransactionRecord(nextId++, InMemoryLease.expirationFor(leaseDuration));
+		transactions.put(transaction.id, transaction);
+
+		startExpirySweeper();
+
+		return new Created(transaction.id, new InMemoryLease(this, transaction, transaction.expiration));
+	}
+
+	@Override
+	public void join(long id, TransactionParticipant participant, long crashCount)
+			throws UnknownTransactionException, CannotJoinException, CrashCountException, RemoteException {
+		synchronized (this) {
+			TransactionRecord transaction = getTransaction(id);
+
+			if (transaction.state == ACTIVE && !transaction.isExpired()) {
+				if (!transaction.participants.contains(participant)) {
+					transaction.participants.add(participant);
+				}
+
+				return;
+			}
+		}
+
+		abortExpired();
+
+		throw new CannotJoinException("Transaction " + id + " is no longer active");
+	}
+
+	@Override
+	public synchronized int getState(long id) throws UnknownTransactionException, RemoteException {
+		return getTransaction(id).state;
+	}
+
+	@Override
+	public void commit(long id) throws UnknownTransactionException, CannotCommitException, RemoteException {
+		TransactionRecord transaction;
+		boolean expired;
+
+		synchronized (this) {
+			transaction = getTransaction(id);
+
+			if (transaction.state == COMMITTED) {
+				return;
+			}
+
+			expired = transaction.state != ACTIVE || transaction.isExpired();
+
+			if (expired) {
+				transaction.state = ABORTED;
+				transactions.remove(id);
+			} else {
+				// Stops anyone else joining while participants vote
+				transaction.state = VOTING;
+			}
+		}
+
+		if (expired) {
+			abortParticipants(id, transaction.participants);
+
+			throw new CannotCommitException("Transaction " + id + " has expired or been aborted");
+		}
+
+		// Phase one: every participant votes
+		boolean prepared = true;
+		for (TransactionParticipant participant : transaction.participants) {
+			try {
+				if (participant.prepare(this, id) == ABORTED) {
+					prepared = false;
+
+					break;
+				}
+			} catch (UnknownTransactionException | RemoteException e) {
+				prepared = false;
+
+				break;
+			}
+		}
+
+		synchronized (this) {
+			transaction.state = prepared ? COMMITTED : ABORTED;
+			transactions.remove(id);
+		}
+
+		if (!prepared) {
+			abortParticipants(id, transaction.participants);
+
+			throw new CannotCommitException("A participant refused to prepare transaction " + id);
+		}
+
+		// Phase two: every participant commits
+		for (TransactionParticipant participant : transaction.participants) {
+			try {
+				participant.commit(this, id);
+			} catch (UnknownTransactionException e) {
+				// Nothing left to commit for this participant
+			}
+		}
+	}
+
+	@Override
+	public void commit(long id, long waitFor)
+			throws UnknownTransactionException, CannotCommitException, TimeoutExpiredException, RemoteException {
+		// Commits are always completed before returning
+		commit(id);
+	}
+
+	@Override
+	public void abort(long id) throws UnknownTransactionException, CannotAbortException, RemoteException {
+		List<TransactionParticipant> participants;
+
+		synchronized (this) {
+			TransactionRecord transaction = getTransaction(id);
+
+			if (transaction.state == COMMITTED) {
+				throw new CannotAbortException("Transaction " + id + " has already committed");
+			}
+
+			transaction.state = ABORTED;
+			transactions.remove(id);
+			participants = transaction.participants;
+		}
+
+		abortParticipants(id, participants);
+	}
+
+	@Override
+	public void abort(long id, long waitFor)
+			throws UnknownTransactionException, CannotAbortException, TimeoutExpiredException, RemoteException {
+		// Aborts are always completed before returning
+		abort(id);
+	}
+
+	/**
+	 * Aborts any transaction whose lease has run out.
+	 */
+	void abortExpired() {
+		Map<Long, List<TransactionParticipant>> expired = new HashMap<Long, List<TransactionParticipant>>();
+
+		synchronized (this) {
+			Iterator<TransactionRecord> it = transactions.values().iterator();
+
+			while (it.hasNext()) {
+				TransactionRecord transaction = it.next();
+
+				if (transaction.state == ACTIVE && transaction.isExpired()) {
+					transaction.state = ABORTED;
+					expired.put(transaction.id, transaction.participants);
+					it.remove();
+				}
+			}
+
+			if (transactions.isEmpty()) {
+				stopExpirySweeper();
+			}
+		}
+
+		for (Map.Entry<Long, List<TransactionParticipant>> transaction : expired.entrySet()) {
+			abortParticipants(transaction.getKey(), transaction.getValue());
+		}
+	}
+
+	private TransactionRecord getTransaction(long id) throws UnknownTransactionException {
+		TransactionRecord transaction = transactions.get(id);
+
+		if (transaction == null) {
+			throw new UnknownTransactionException("Unknown transaction: " + id);
+		}
+
+		return transaction;
+	}
+
+	/**
+	 * Tells every participant to abort. Never called while holding this
+	 * manager's lock, as participants take their own locks.
+	 */
+	private void abortParticipants(long id, List<TransactionParticipant> participants) {
+		for (TransactionParticipant participant : participants) {
+			try {
+				participant.abort(this, id);
+			} catch (UnknownTransactionException | RemoteException e) {
+				// Nothing left to abort for this participant
+			}
+		}
+	}
+
+	private void startExpirySweeper() {
+		if (expirySweeper != null) {
+			return;
+		}
+
+		expirySweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "in-memory-transaction-expiry");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		expirySweeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				abortExpired();
+			}
+		}, EXPIRY_SWEEP_INTERVAL_IN_MILLIS, EXPIRY_SWEEP_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void stopExpirySweeper() {
+		if (expirySweeper != null) {
+			expirySweeper.shutdown();
+			expirySweeper = null;
+		}
+	}
+
+	/**
+	 * The state of a single transaction
+	 */
+	private final class TransactionRecord implements InMemoryLease.Resource {
+		private final long id;
+		private final List<TransactionParticipant> participants = new ArrayList<TransactionParticipant>();
+		private volatile long expiration;
+		private int state = ACTIVE;
+
+		public TransactionRecord(long id, long expiration) {
+			this.id = id;
+			this.expiration = expiration;
+		}
+
+		public boolean isExpired() {
+			return expiration < System.currentTimeMillis();
+		}
+
+		@Override
+		public boolean renewUntil(long newExpiration) {
+			synchronized (InMemoryTransactionManager.this) {
+				if (state != ACTIVE || isExpired()) {
+					return false;
+				}
+
+				expiration = newExpiration;
+
+				return true;
+			}
+		}
+
+		@Override
+		public boolean cancel() {
+			try {
+				abort(id);
+
+				return true;
+			} catch (UnknownTransactionException | CannotAbortException | RemoteException e) {
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,378 @@
+package services.space;
+
+import java.rmi.MarshalException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import net.jini.core.entry.Entry;
+
+/**
+ * A local store of entries that can be looked up by JavaSpace-style
+ * templates, without scanning every entry.
+ *
+ * Entries are grouped by class, and each class keeps a hash index on each of
+ * its fields named in the store's indexed fields (by default the id,
+ * baseName, topic and user fields that nearly every lookup in the chatroom is
+ * by). A template with any indexed field set only looks at the entries with
+ * that exact value; a template with none falls back to every entry of its
+ * class.
+ *
+ * Each entry is stored against a value, which is what lookups return. The
+ * InMemoryJavaSpace stores its own bookkeeping as the value, while a
+ * near-cache can simply store the entry itself.
+ *
+ * Not thread-safe. Callers must synchronize access themselves.
+ *
+ * @param <V>
+ *            The type of value stored against each entry
+ */
+public class IndexedEntryStore<V> {
+	/**
+	 * The fields indexed when none are given
+	 */
+	public static final List<String> DEFAULT_INDEXED_FIELDS = Collections
+			.unmodifiableList(Arrays.asList("id", "baseName", "topic", "user"));
+
+	private final Set<String> indexedFields;
+	private final Map<Class<?>, ClassIndex> classIndexes = new HashMap<Class<?>, ClassIndex>();
+	private final Map<V, Record<V>> records = new IdentityHashMap<V, Record<V>>();
+
+	/**
+	 * Creates a store that indexes the default fields.
+	 */
+	public IndexedEntryStore() {
+		this(DEFAULT_INDEXED_FIELDS);
+	}
+
+	/**
+	 * @param indexedFields
+	 *            The names of the fields to index, in any entry class that has
+	 *            them
+	 */
+	public IndexedEntryStore(Collection<String> indexedFields) {
+		this.indexedFields = new HashSet<String>(indexedFields);
+	}
+
+	/**
+	 * Adds an entry to the store.
+	 *
+	 * @param entry
+	 *            The entry, whose fields are what templates match against
+	 * @param value
+	 *            What lookups matching the entry return. Values are told apart
+	 *            by identity, so the same value can't be added twice.
+	 * @throws MarshalException
+	 *             If one of the entry's fields can't be serialized
+	 */
+	public void add(Entry entry, V value) throws MarshalException {
+		EntryClass entryClass = EntryClass.of(entry.getClass());
+
+		add(entryClass, entryClass.toValues(entry), value);
+	}
+
+	/**
+	 * Adds an entry that has already been serialized.
+	 */
+	void add(EntryClass entryClass, byte[][] values, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Can't store a null value");
+		}
+
+		if (records.containsKey(value)) {
+			throw new IllegalArgumentException("Value is already in the store");
+		}
+
+		Record<V> record = new Record<V>(entryClass, values, value);
+		records.put(value, record);
+		classIndexFor(entryClass).add(record);
+	}
+
+	/**
+	 * Removes an entry from the store.
+	 *
+	 * @param value
+	 *            The value the entry was added with
+	 * @return <code>true</code> if the entry was in the store
+	 */
+	public boolean remove(V value) {
+		Record<V> record = records.remove(value);
+
+		if (record == null) {
+			return false;
+		}
+
+		classIndexFor(record.entryClass).remove(record);
+
+		return true;
+	}
+
+	/**
+	 * Finds one entry matching a template.
+	 *
+	 * @return The value of a matching entry, or <code>null</code> if there are
+	 *         none
+	 * @throws MarshalException
+	 *             If one of the template's fields can't be serialized
+	 */
+	public V readIfExists(Entry template) throws MarshalException {
+		Iterator<V> it = matching(new EntryTemplate(template));
+
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Finds every entry matching a template, up to a limit.
+	 *
+	 * @return The values of the matching entries
+	 * @throws MarshalException
+	 *             If one of the template's fields can't be serialized
+	 */
+	public List<V> contents(Entry template, long maxEntries) throws MarshalException {
+		List<V> found = new ArrayList<V>();
+		Iterator<V> it = matching(new EntryTemplate(template));
+
+		while (it.hasNext() && found.size() < maxEntries) {
+			found.add(it.next());
+		}
+
+		return found;
+	}
+
+	/**
+	 * @return The number of entries in the store
+	 */
+	public int size() {
+		return records.size();
+	}
+
+	/**
+	 * Lazily finds every entry matching a template. The store must not be
+	 * changed while the iterator is in use.
+	 */
+	Iterator<V> matching(EntryTemplate template) {
+		List<Collection<Record<V>>> candidates = new ArrayList<Collection<Record<V>>>();
+
+		for (ClassIndex classIndex : classIndexes.values()) {
+			if (template.couldMatch(classIndex.entryClass)) {
+				Collection<Record<V>> classCandidates = classIndex.candidatesFor(template);
+
+				if (!classCandidates.isEmpty()) {
+					candidates.add(classCandidates);
+				}
+			}
+		}
+
+		return new MatchIterator(template, candidates.iterator());
+	}
+
+	private ClassIndex classIndexFor(EntryClass entryClass) {
+		ClassIndex classIndex = classIndexes.get(entryClass.getType());
+
+		if (classIndex == null) {
+			classIndex = new ClassIndex(entryClass);
+			classIndexes.put(entryClass.getType(), classIndex);
+		}
+
+		return classIndex;
+	}
+
+	/**
+	 * An entry in the store
+	 */
+	private static final class Record<V> {
+		private final EntryClass entryClass;
+		private final byte[][] values;
+		private final V value;
+
+		public Record(EntryClass entryClass, byte[][] values, V value) {
+			this.entryClass = entryClass;
+			this.values = values;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A serialized field value, usable as a hash key
+	 */
+	private static final class FieldValue {
+		private final byte[] bytes;
+		private final int hashCode;
+
+		public FieldValue(byte[] bytes) {
+			this.bytes = bytes;
+			this.hashCode = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof FieldValue && Arrays.equals(bytes, ((FieldValue) o).bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 * Every entry of one class, plus hash indexes on its indexed fields
+	 */
+	private final class ClassIndex {
+		private final EntryClass entryClass;
+		private final Set<Record<V>> all = new LinkedHashSet<Record<V>>();
+
+		// Field position -> field value -> entries with that value
+		private final Map<Integer, Map<FieldValue, Set<Record<V>>>> indexes = new HashMap<Integer, Map<FieldValue, Set<Record<V>>>>();
+
+		public ClassIndex(EntryClass entryClass) {
+			this.entryClass = entryClass;
+
+			for (int i = 0; i < entryClass.getFields().length; i++) {
+				if (indexedFields.contains(entryClass.getFields()[i].getName())) {
+					indexes.put(i, new HashMap<FieldValue, Set<Record<V>>>());
+				}
+			}
+		}
+
+		public void add(Record<V> record) {
+			all.add(record);
+
+			for (Map.Entry<Integer, Map<FieldValue, Set<Record<V>>>> index : indexes.entrySet()) {
+				byte[] value = record.values[index.getKey()];
+
+				if (value == null) {
+					continue;
+				}
+
+				FieldValue key = new FieldValue(value);
+				Set<Record<V>> withValue = index.getValue().get(key);
+
+				if (withValue == null) {
+					withValue = new LinkedHashSet<Record<V>>();
+					index.getValue().put(key, withValue);
+				}
+
+				withValue.add(record);
+			}
+		}
+
+		public void remove(Record<V> record) {
+			all.remove(record);
+
+			for (Map.Entry<Integer, Map<FieldValue, Set<Record<V>>>> index : indexes.entrySet()) {
+				byte[] value = record.values[index.getKey()];
+
+				if (value == null) {
+					continue;
+				}
+
+				FieldValue key = new FieldValue(value);
+				Set<Record<V>> withValue = index.getValue().get(key);
+
+				if (withValue != null) {
+					withValue.remove(record);
+
+					if (withValue.isEmpty()) {
+						index.getValue().remove(key);
+					}
+				}
+			}
+		}
+
+		/**
+		 * The smallest set of this class's entries that could match a
+		 * template: the entries with the value of the template's most
+		 * selective indexed field, or every entry if it has none set.
+		 */
+		public Collection<Record<V>> candidatesFor(EntryTemplate template) {
+			Collection<Record<V>> candidates = all;
+
+			for (int i = 0; i < template.getFieldCount(); i++) {
+				byte[] value = template.getValue(i);
+
+				if (value == null) {
+					continue;
+				}
+
+				Map<FieldValue, Set<Record<V>>> index = indexes.get(entryClass.positionOf(template.getField(i)));
+				if (index == null) {
+					continue;
+				}
+
+				Set<Record<V>> withValue = index.get(new FieldValue(value));
+				if (withValue == null) {
+					return Collections.emptySet();
+				}
+
+				if (withValue.size() < candidates.size()) {
+					candidates = withValue;
+				}
+			}
+
+			return candidates;
+		}
+	}
+
+	/**
+	 * Walks candidate entries, returning the values of those that match
+	 */
+	private final class MatchIterator implements Iterator<V> {
+		private final EntryTemplate template;
+		private final Iterator<Collection<Record<V>>> candidateSets;
+		private Iterator<Record<V>> candidates = Collections.<Record<V>> emptySet().iterator();
+		private V next;
+
+		public MatchIterator(EntryTemplate template, Iterator<Collection<Record<V>>> candidateSets) {
+			this.template = template;
+			this.candidateSets = candidateSets;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				while (!candidates.hasNext()) {
+					if (!candidateSets.hasNext()) {
+						return false;
+					}
+
+					candidates = candidateSets.next().iterator();
+				}
+
+				Record<V> record = candidates.next();
+				if (template.matches(record.entryClass, record.values)) {
+					next = record.value;
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public V next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			V value = next;
+			next = null;
+
+			return value;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
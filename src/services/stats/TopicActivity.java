@@ -0,0 +1,40 @@
+package services.stats;
+
+import java.io.Serializable;
+
+import models.JMSTopic;
+
+/**
+ * How busy a topic is at a moment: how many users are in it, and how many
+ * messages have been sent in it recently. Sent from the topic relay to
+ * clients that ask for it.
+ */
+public class TopicActivity implements Serializable {
+	private static final long serialVersionUID = 3852713380241958142L;
+
+	private final JMSTopic topic;
+	private final int memberCount;
+	private final int recentMessageCount;
+
+	public TopicActivity(JMSTopic topic, int memberCount, int recentMessageCount) {
+		this.topic = topic;
+		this.memberCount = memberCount;
+		this.recentMessageCount = recentMessageCount;
+	}
+
+	public JMSTopic getTopic() {
+		return topic;
+	}
+
+	public int getMemberCount() {
+		return memberCount;
+	}
+
+	/**
+	 * @return The number of messages sent in the topic within the tracker's
+	 *         window
+	 */
+	public int getRecentMessageCount() {
+		return recentMessageCount;
+	}
+}
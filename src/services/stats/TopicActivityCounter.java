@@ -0,0 +1,259 @@
+package services.stats;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import listeners.TopicActivityRemoteEventListener;
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSTopicDeleted;
+import models.JMSTopicUser;
+import models.JMSTopicUserRemoved;
+import net.jini.core.entry.Entry;
+import net.jini.core.entry.UnusableEntryException;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.Lease;
+import net.jini.core.transaction.TransactionException;
+import net.jini.export.Exporter;
+import net.jini.space.JavaSpace05;
+import net.jini.space.MatchSet;
+import services.helper.EntryLookupHelper;
+import services.sharding.TopicSpaceRouter;
+
+/**
+ * Counts the users in every topic and the messages recently sent in it, by
+ * listening for topics, users and messages being written to the spaces, in a
+ * TopicActivityTracker.
+ *
+ * The topic relay runs one for every client. A client runs its own when
+ * there's no relay to ask.
+ */
+public class TopicActivityCounter {
+	/**
+	 * Set this system property to how many minutes back messages count as
+	 * recent
+	 */
+	public static final String ACTIVITY_WINDOW_PROPERTY = "chatroom.stats.activityMinutes";
+	public static final int DEFAULT_ACTIVITY_WINDOW_MINUTES = 15;
+
+	/**
+	 * How often every topic's users are read again, to stop counting users
+	 * whose presence ran out without them leaving
+	 */
+	private static final long RECOUNT_INTERVAL_IN_MILLIS = 1000l * 60l * 5l;
+
+	private final TopicSpaceRouter router;
+	private final TopicActivityTracker tracker = new TopicActivityTracker(
+			Math.max(1, Integer.getInteger(ACTIVITY_WINDOW_PROPERTY, DEFAULT_ACTIVITY_WINDOW_MINUTES)));
+	private final EntryLookupHelper lookupHelper = new EntryLookupHelper();
+	private final List<EventRegistration> registrations = new ArrayList<EventRegistration>();
+	private ScheduledExecutorService recounter;
+
+	// What the spaces call, which is the listener itself unless it has been
+	// exported
+	private RemoteEventListener listener = new TopicActivityRemoteEventListener(tracker);
+
+	/**
+	 * @param router
+	 *            Finds the topic spaces to count the users and messages in
+	 */
+	public TopicActivityCounter(TopicSpaceRouter router) {
+		this.router = router;
+	}
+
+	/**
+	 * Exports the counter's listener so a remote space can call it. Call
+	 * before start().
+	 */
+	public synchronized void export(Exporter listenerExporter) throws IOException {
+		listener = (RemoteEventListener) listenerExporter.export(new TopicActivityRemoteEventListener(tracker));
+	}
+
+	/**
+	 * Starts counting. Listens for topics, users and messages first, then
+	 * reads what's already in the spaces: the topics, then each topic space's
+	 * users and messages with one read each, rather than one per topic.
+	 * Listening first means nothing written in between is missed. Until this
+	 * is called, there are no topics to report.
+	 *
+	 * @throws RemoteException
+	 *             Thrown if the spaces can't be listened to. Whatever was
+	 *             listened to before the failure is stopped again.
+	 */
+	public synchronized void start() throws RemoteException {
+		if (recounter != null) {
+			return;
+		}
+
+		List<Entry> topicTemplates = new ArrayList<Entry>(2);
+		topicTemplates.add(new JMSTopic());
+		topicTemplates.add(new JMSTopicDeleted());
+
+		List<Entry> activityTemplates = new ArrayList<Entry>(3);
+		activityTemplates.add(new JMSTopicUser());
+		activityTemplates.add(new JMSTopicUserRemoved());
+		activityTemplates.add(new JMSMessage());
+
+		try {
+			listenForActivity(router.getDirectory(), topicTemplates);
+
+			for (JavaSpace05 topicSpace : router.getTopicSpaces()) {
+				listenForActivity(topicSpace, activityTemplates);
+			}
+		} catch (RemoteException e) {
+			cancelRegistrations();
+
+			throw e;
+		}
+
+		// Messages sent from now on are counted as their events arrive
+		long listeningSince = System.currentTimeMillis();
+
+		for (JMSTopic topic : lookupHelper.findAllMatchingTemplate(router.getDirectory(), new JMSTopic())) {
+			tracker.topicAdded(topic);
+		}
+
+		recount();
+
+		for (JavaSpace05 topicSpace : router.getTopicSpaces()) {
+			countRecentMessages(topicSpace, listeningSince);
+		}
+
+		recounter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "topic-activity-recount");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+		recounter.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				recount();
+			}
+		}, RECOUNT_INTERVAL_IN_MILLIS, RECOUNT_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops counting, cancelling the counter's registrations on the spaces.
+	 */
+	public synchronized void stop() {
+		if (recounter != null) {
+			recounter.shutdownNow();
+			recounter = null;
+		}
+
+		cancelRegistrations();
+	}
+
+	public int getMemberCount(UUID topicId) {
+		return tracker.getMemberCount(topicId);
+	}
+
+	/**
+	 * @param limit
+	 *            The most topics to return
+	 * @return The busiest topics, by recent messages then users, busiest first
+	 */
+	public List<TopicActivity> getHotTopics(int limit) {
+		return tracker.getHotTopics(System.currentTimeMillis(), limit);
+	}
+
+	/**
+	 * @return How many minutes back messages count as recent
+	 */
+	public int getWindowMinutes() {
+		return tracker.getWindowMinutes();
+	}
+
+	/**
+	 * Reads every topic's users again, one read per topic space.
+	 */
+	private void recount() {
+		tracker.beginMemberRecount();
+
+		Map<UUID, Set<UUID>> members = new HashMap<UUID, Set<UUID>>();
+
+		for (JavaSpace05 topicSpace : router.getTopicSpaces()) {
+			for (JMSTopicUser topicUser : lookupHelper.findAllMatchingTemplate(topicSpace, new JMSTopicUser())) {
+				UUID topicId = topicUser.getTopic().getId();
+				Set<UUID> users = members.get(topicId);
+
+				if (users == null) {
+					users = new HashSet<UUID>();
+					members.put(topicId, users);
+				}
+
+				users.add(topicUser.getUser().getId());
+			}
+		}
+
+		tracker.finishMemberRecount(members);
+	}
+
+	/**
+	 * Counts the messages already in a topic space that were sent recently
+	 * enough to count, and before the counter started listening for them.
+	 * Messages are read one at a time rather than all held at once, as a
+	 * space keeps every message ever sent.
+	 */
+	private void countRecentMessages(JavaSpace05 topicSpace, long listeningSince) {
+		long windowStart = listeningSince - tracker.getWindowMinutes() * 60l * 1000l;
+		Collection<JMSMessage> templates = Collections.singletonList(new JMSMessage());
+
+		try {
+			MatchSet matchSet = topicSpace.contents(templates, null, Lease.ANY, Long.MAX_VALUE);
+			JMSMessage message = (JMSMessage) matchSet.next();
+
+			while (message != null) {
+				Long sentTime = message.getSentTime();
+
+				if (sentTime != null && sentTime >= windowStart && sentTime < listeningSince) {
+					tracker.messageSent(message.getTopic(), sentTime);
+				}
+
+				message = (JMSMessage) matchSet.next();
+			}
+		} catch (UnusableEntryException | TransactionException | RemoteException e) {
+			System.err.println("Failed to count recent messages.  Counting new ones only.");
+			e.printStackTrace();
+		}
+	}
+
+	private void listenForActivity(JavaSpace05 space, List<Entry> templates) throws RemoteException {
+		try {
+			registrations.add(
+					space.registerForAvailabilityEvent(templates, null, true, listener, Lease.FOREVER, null));
+		} catch (TransactionException | IOException e) {
+			throw new RemoteException("Failed to listen for topic activity", e);
+		}
+	}
+
+	private void cancelRegistrations() {
+		for (EventRegistration registration : registrations) {
+			try {
+				registration.getLease().cancel();
+			} catch (Exception e) {
+				System.err.println("Failed to cancel topic activity registration.");
+			}
+		}
+
+		registrations.clear();
+	}
+}
@@ -0,0 +1,279 @@
+package services.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import models.JMSTopic;
+import models.JMSUser;
+
+/**
+ * Counts, for every topic, the users in it and the messages sent in it over
+ * the last few minutes.
+ *
+ * The counts are kept up to date as users join and leave and messages are
+ * sent, so reading them never goes back to the space. Each topic's messages
+ * are counted in one bucket per minute, in a ring as long as the window, so a
+ * topic costs the same however busy it is.
+ *
+ * Only topics that have been added, and not since removed, are counted.
+ * Anything else about a topic is ignored, so an event arriving after its topic
+ * was deleted can't bring it back.
+ *
+ * A user whose client dies drops out of their topics when their presence
+ * lease runs out, which the space sends no event for. So every topic's users
+ * should be read again now and then (see beginMemberRecount()).
+ *
+ * Thread-safe.
+ */
+public class TopicActivityTracker {
+	private static final long MINUTE_IN_MILLIS = 60l * 1000l;
+
+	/**
+	 * Busiest first: most recent messages, then most members
+	 */
+	private static final Comparator<TopicActivity> HOTTEST_FIRST = new Comparator<TopicActivity>() {
+		@Override
+		public int compare(TopicActivity a, TopicActivity b) {
+			if (a.getRecentMessageCount() != b.getRecentMessageCount()) {
+				return Integer.compare(b.getRecentMessageCount(), a.getRecentMessageCount());
+			}
+
+			return Integer.compare(b.getMemberCount(), a.getMemberCount());
+		}
+	};
+
+	private final int windowMinutes;
+	private final Map<UUID, TopicCounters> counters = new HashMap<UUID, TopicCounters>();
+	// Joins and leaves since a member recount started, or null if none is
+	// running
+	private List<MemberChange> changesDuringRecount;
+
+	/**
+	 * @param windowMinutes
+	 *            How many minutes back messages count as recent. The current,
+	 *            partly gone minute counts as one of them.
+	 */
+	public TopicActivityTracker(int windowMinutes) {
+		if (windowMinutes < 1) {
+			throw new IllegalArgumentException("Window must be at least a minute, not " + windowMinutes);
+		}
+
+		this.windowMinutes = windowMinutes;
+	}
+
+	public int getWindowMinutes() {
+		return windowMinutes;
+	}
+
+	/**
+	 * Starts tracking a topic, so it's reported even while nothing happens in
+	 * it. Adding it again does nothing.
+	 */
+	public synchronized void topicAdded(JMSTopic topic) {
+		if (!counters.containsKey(topic.getId())) {
+			counters.put(topic.getId(), new TopicCounters(topic));
+		}
+	}
+
+	/**
+	 * Stops tracking a deleted topic.
+	 */
+	public synchronized void topicRemoved(JMSTopic topic) {
+		counters.remove(topic.getId());
+	}
+
+	/**
+	 * Counts a user as in a topic. Counting them again does nothing.
+	 */
+	public synchronized void userJoined(JMSTopic topic, JMSUser user) {
+		apply(new MemberChange(topic.getId(), user.getId(), true));
+	}
+
+	/**
+	 * Stops counting a user as in a topic.
+	 */
+	public synchronized void userLeft(JMSTopic topic, JMSUser user) {
+		apply(new MemberChange(topic.getId(), user.getId(), false));
+	}
+
+	/**
+	 * Counts a message sent in a topic.
+	 *
+	 * @param time
+	 *            When the message was sent, in epoch milliseconds
+	 */
+	public synchronized void messageSent(JMSTopic topic, long time) {
+		TopicCounters topicCounters = counters.get(topic.getId());
+
+		if (topicCounters != null) {
+			topicCounters.messageSent(time / MINUTE_IN_MILLIS);
+		}
+	}
+
+	/**
+	 * @return How many users are in a topic, or 0 if it isn't tracked
+	 */
+	public synchronized int getMemberCount(UUID topicId) {
+		TopicCounters topicCounters = counters.get(topicId);
+
+		return topicCounters == null ? 0 : topicCounters.members.size();
+	}
+
+	/**
+	 * Starts noting joins and leaves, to be played again on top of what a
+	 * fresh read of every topic's users finds, as the read may or may not
+	 * have seen them. Follow with finishMemberRecount().
+	 */
+	public synchronized void beginMemberRecount() {
+		changesDuringRecount = new ArrayList<MemberChange>();
+	}
+
+	/**
+	 * Replaces every tracked topic's users with those read from the space,
+	 * plus any joins and leaves since beginMemberRecount().
+	 *
+	 * @param members
+	 *            User IDs by topic ID, as read from the space
+	 */
+	public synchronized void finishMemberRecount(Map<UUID, Set<UUID>> members) {
+		List<MemberChange> changes = changesDuringRecount;
+		changesDuringRecount = null;
+
+		for (TopicCounters topicCounters : counters.values()) {
+			Set<UUID> users = members.get(topicCounters.topic.getId());
+
+			topicCounters.members.clear();
+
+			if (users != null) {
+				topicCounters.members.addAll(users);
+			}
+		}
+
+		if (changes != null) {
+			for (MemberChange change : changes) {
+				change.applyTo(counters);
+			}
+		}
+	}
+
+	/**
+	 * @param now
+	 *            The current time, in epoch milliseconds
+	 * @return How busy every tracked topic is, in no particular order
+	 */
+	public synchronized List<TopicActivity> getActivity(long now) {
+		long minute = now / MINUTE_IN_MILLIS;
+		List<TopicActivity> activity = new ArrayList<TopicActivity>(counters.size());
+
+		for (TopicCounters topicCounters : counters.values()) {
+			activity.add(topicCounters.snapshot(minute));
+		}
+
+		return activity;
+	}
+
+	/**
+	 * @param now
+	 *            The current time, in epoch milliseconds
+	 * @param limit
+	 *            The most topics to return
+	 * @return The busiest topics, busiest first
+	 */
+	public List<TopicActivity> getHotTopics(long now, int limit) {
+		List<TopicActivity> activity = getActivity(now);
+		Collections.sort(activity, HOTTEST_FIRST);
+
+		return activity.size() > limit ? new ArrayList<TopicActivity>(activity.subList(0, limit)) : activity;
+	}
+
+	private void apply(MemberChange change) {
+		change.applyTo(counters);
+
+		if (changesDuringRecount != null) {
+			changesDuringRecount.add(change);
+		}
+	}
+
+	/**
+	 * One topic's counts
+	 */
+	private final class TopicCounters {
+		private final JMSTopic topic;
+		private final Set<UUID> members = new HashSet<UUID>();
+		// Messages sent in each minute, at minute % windowMinutes
+		private final int[] messageCounts = new int[windowMinutes];
+		// The minute each bucket is counting
+		private final long[] bucketMinutes = new long[windowMinutes];
+
+		TopicCounters(JMSTopic topic) {
+			this.topic = topic;
+			Arrays.fill(bucketMinutes, Long.MIN_VALUE);
+		}
+
+		void messageSent(long minute) {
+			int bucket = (int) (minute % windowMinutes);
+
+			if (bucketMinutes[bucket] != minute) {
+				// The bucket has moved on to a later minute, so the message is
+				// too old to count
+				if (bucketMinutes[bucket] > minute) {
+					return;
+				}
+
+				bucketMinutes[bucket] = minute;
+				messageCounts[bucket] = 0;
+			}
+
+			messageCounts[bucket]++;
+		}
+
+		TopicActivity snapshot(long minute) {
+			int recentMessages = 0;
+
+			for (int bucket = 0; bucket < windowMinutes; bucket++) {
+				if (bucketMinutes[bucket] > minute - windowMinutes && bucketMinutes[bucket] <= minute) {
+					recentMessages += messageCounts[bucket];
+				}
+			}
+
+			return new TopicActivity(topic, members.size(), recentMessages);
+		}
+	}
+
+	/**
+	 * A user joining or leaving a topic
+	 */
+	private static final class MemberChange {
+		private final UUID topicId;
+		private final UUID userId;
+		private final boolean joined;
+
+		MemberChange(UUID topicId, UUID userId, boolean joined) {
+			this.topicId = topicId;
+			this.userId = userId;
+			this.joined = joined;
+		}
+
+		void applyTo(Map<UUID, TopicCounters> counters) {
+			TopicCounters topicCounters = counters.get(topicId);
+
+			if (topicCounters == null) {
+				return;
+			}
+
+			if (joined) {
+				topicCounters.members.add(userId);
+			} else {
+				topicCounters.members.remove(userId);
+			}
+		}
+	}
+}
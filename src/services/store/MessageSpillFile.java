@@ -0,0 +1,195 @@
+package services.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * A temporary file holding the oldest messages of a RoomMessageStore, once
+ * there are more than it keeps in memory.
+ *
+ * Messages are appended in order and read back a page at a time. Only the
+ * offset of each page is kept in memory, so a spilled message costs a few
+ * bits of heap. The file is deleted when closed, or when the JVM exits.
+ */
+class MessageSpillFile {
+	/**
+	 * How many messages are read from the file at a time
+	 */
+	static final int PAGE_SIZE = 64;
+
+	private final File file;
+	private final RandomAccessFile data;
+
+	// Messages appended since the last flush
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(buffer);
+
+	private long[] pageOffsets = new long[16];
+	private long flushedLength;
+	private int flushedSize;
+	private int size;
+
+	public MessageSpillFile() throws IOException {
+		file = File.createTempFile("chatroom-scrollback", ".tmp");
+		file.deleteOnExit();
+		data = new RandomAccessFile(file, "rw");
+	}
+
+	/**
+	 * Appends a message. It can't be read back until the next flush.
+	 */
+	public void append(SpilledMessage message) throws IOException {
+		if (size % PAGE_SIZE == 0) {
+			int page = size / PAGE_SIZE;
+
+			if (page == pageOffsets.length) {
+				pageOffsets = Arrays.copyOf(pageOffsets, page * 2);
+			}
+
+			pageOffsets[page] = flushedLength + buffer.size();
+		}
+
+		out.writeLong(message.sequence);
+		out.writeLong(message.sentTime);
+		out.writeLong(message.idMostSignificantBits);
+		out.writeLong(message.idLeastSignificantBits);
+		out.writeByte(message.flags);
+		writeString(message.sender);
+		writeString(message.recipient);
+		writeString(message.text);
+		size++;
+	}
+
+	/**
+	 * Writes everything appended since the last flush to the file.
+	 */
+	public void flush() throws IOException {
+		data.seek(flushedLength);
+		data.write(buffer.toByteArray());
+		flushedLength += buffer.size();
+		flushedSize = size;
+		buffer.reset();
+	}
+
+	/**
+	 * Forgets everything appended since the last flush, e.g. after a batch
+	 * fails partway through. Anything a failed flush wrote past the last
+	 * flushed message is written over by the next one.
+	 */
+	public void discardUnflushed() {
+		buffer.reset();
+		size = flushedSize;
+	}
+
+	/**
+	 * @return The number of messages appended, and not discarded
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Reads a page of flushed messages.
+	 *
+	 * @param page
+	 *            The page, where page n holds messages n * PAGE_SIZE onwards
+	 */
+	public SpilledMessage[] readPage(int page) throws IOException {
+		int first = page * PAGE_SIZE;
+		int count = Math.min(PAGE_SIZE, size - first);
+		long start = pageOffsets[page];
+		long end = first + PAGE_SIZE < size ? pageOffsets[page + 1] : flushedLength;
+
+		byte[] bytes = new byte[(int) (end - start)];
+		data.seek(start);
+		data.readFully(bytes);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		SpilledMessage[] messages = new SpilledMessage[count];
+
+		for (int i = 0; i < count; i++) {
+			messages[i] = new SpilledMessage(in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+					in.readUnsignedByte(), readString(in), readString(in), readString(in));
+		}
+
+		return messages;
+	}
+
+	/**
+	 * Closes and deletes the file.
+	 */
+	public void close() {
+		try {
+			data.close();
+		} catch (IOException e) {
+			System.err.println("Failed to close scrollback file " + file);
+			e.printStackTrace();
+		}
+
+		if (!file.delete()) {
+			System.err.println("Failed to delete scrollback file " + file);
+		}
+	}
+
+	/**
+	 * Writes a string as its length (-1 for null) then its chars. Unlike
+	 * writeUTF, any length of string can be written.
+	 */
+	private void writeString(String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+
+			return;
+		}
+
+		out.writeInt(value.length());
+		out.writeChars(value);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+
+		if (length < 0) {
+			return null;
+		}
+
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = in.readChar();
+		}
+
+		return new String(chars);
+	}
+
+	/**
+	 * A message read from, or to be written to, the file
+	 */
+	static final class SpilledMessage {
+		final long sequence;
+		final long sentTime;
+		final long idMostSignificantBits;
+		final long idLeastSignificantBits;
+		final int flags;
+		final String sender;
+		final String recipient;
+		final String text;
+
+		SpilledMessage(long sequence, long sentTime, long idMostSignificantBits, long idLeastSignificantBits,
+				int flags, String sender, String recipient, String text) {
+			this.sequence = sequence;
+			this.sentTime = sentTime;
+			this.idMostSignificantBits = idMostSignificantBits;
+			this.idLeastSignificantBits = idLeastSignificantBits;
+			this.flags = flags;
+			this.sender = sender;
+			this.recipient = recipient;
+			this.text = text;
+		}
+	}
+}
@@ -0,0 +1,502 @@
+package services.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import models.JMSMessage;
+import models.JMSUser;
+import services.helper.KeywordMatcher;
+import services.store.MessageSpillFile.SpilledMessage;
+
+/**
+ * The messages of one open chatroom, held compactly for as long as the room is
+ * open.
+ *
+ * Each message is a row across a set of primitive column arrays: its sequence
+ * number in the room, when it was sent, its ID as two longs, indexes of its
+ * sender and recipient into a table of the room's users (each stored once,
+ * however many messages they send), and flag bits. Message text is appended to
+ * a single char arena, and each row records where its text ends. Strings are
+ * only created when a row is read.
+ *
+ * A message costs about 45 bytes plus two per character, where a JMSMessage
+ * with its embedded topic and users, plus a table row, costs well over a
+ * kilobyte.
+ *
+ * Only the newest messages (see SCROLLBACK_PROPERTY) are kept in memory. Older
+ * ones are spilled to a temporary file, and read back a page at a time if the
+ * user scrolls up to them. Rows keep their numbers when spilled. Call close()
+ * when the room is closed to delete the file.
+ *
+ * If the file can't be written, the messages that would have been spilled are
+ * dropped instead, and show as unavailable, so memory stays bounded. The file
+ * is tried again at the next spill.
+ *
+ * Not thread-safe. Callers must synchronize access themselves.
+ */
+public class RoomMessageStore {
+	/**
+	 * Flag set on messages sent privately
+	 */
+	public static final int PRIVATE = 1;
+
+	/**
+	 * Flag set on messages sent by the user viewing the room
+	 */
+	public static final int FROM_VIEWER = 1 << 1;
+
+	/**
+	 * Flag set on messages from other users that mention the viewer, as
+	 * decided by the store's mention matcher
+	 */
+	public static final int MENTION = 1 << 2;
+
+	/**
+	 * Set this system property to how many messages each open room keeps in
+	 * memory. 0 keeps every message in memory
+	 */
+	public static final String SCROLLBACK_PROPERTY = "chatroom.scrollback.rows";
+	public static final int DEFAULT_SCROLLBACK_ROWS = 5000;
+
+	// How many pages of spilled messages to keep read in
+	private static final int CACHED_PAGES = 8;
+
+	private static final int NO_USER = -1;
+	private static final SpilledMessage UNAVAILABLE = new SpilledMessage(-1l, 0l, 0l, 0l, 0, null, null,
+			"(Message unavailable)");
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int INITIAL_ARENA_CAPACITY = 4096;
+
+	private final UUID viewerId;
+	private final int scrollback;
+	private KeywordMatcher mentionMatcher = KeywordMatcher.NONE;
+
+	// The room's users, by index
+	private final List<String> userNames = new ArrayList<String>();
+	private final Map<UUID, Integer> userIndexes = new HashMap<UUID, Integer>();
+
+	// Rows are numbered from the oldest spilled message. The first
+	// spilledCount are in the spill file, the rest in the arrays below
+	private int spilledCount;
+	private int size;
+	private long nextSequence;
+
+	private MessageSpillFile spillFile;
+	// Rows dropped rather than spilled, as [first, last + 1) in row order,
+	// which are in neither the file nor memory
+	private final List<int[]> droppedRanges = new ArrayList<int[]>();
+	private int droppedCount;
+	private boolean closed;
+	private final Map<Integer, SpilledMessage[]> cachedPages = new LinkedHashMap<Integer, SpilledMessage[]>(
+			CACHED_PAGES, 0.75f, true) {
+		private static final long serialVersionUID = -3530383402542302286L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, SpilledMessage[]> eldest) {
+			return size() > CACHED_PAGES;
+		}
+	};
+
+	private long[] sequences = new long[INITIAL_CAPACITY];
+	private long[] sentTimes = new long[INITIAL_CAPACITY];
+	private long[] idMostSignificantBits = new long[INITIAL_CAPACITY];
+	private long[] idLeastSignificantBits = new long[INITIAL_CAPACITY];
+	private int[] senders = new int[INITIAL_CAPACITY];
+	private int[] recipients = new int[INITIAL_CAPACITY];
+	private byte[] flags = new byte[INITIAL_CAPACITY];
+
+	// In-memory row i's text runs from textEnds[i - 1] (or 0) to textEnds[i]
+	private int[] textEnds = new int[INITIAL_CAPACITY];
+	private char[] textArena = new char[INITIAL_ARENA_CAPACITY];
+
+	/**
+	 * Creates a store keeping as many messages in memory as SCROLLBACK_PROPERTY
+	 * says.
+	 *
+	 * @param viewer
+	 *            The user viewing the room
+	 */
+	public RoomMessageStore(JMSUser viewer) {
+		this(viewer, Integer.getInteger(SCROLLBACK_PROPERTY, DEFAULT_SCROLLBACK_ROWS));
+	}
+
+	/**
+	 * @param viewer
+	 *            The user viewing the room
+	 * @param scrollback
+	 *            How many messages to keep in memory, or 0 to keep them all
+	 */
+	public RoomMessageStore(JMSUser viewer, int scrollback) {
+		this.viewerId = viewer.getId();
+		this.scrollback = scrollback;
+	}
+
+	/**
+	 * Adds a message after every other in the store.
+	 *
+	 * @return The message's sequence number in the room
+	 */
+	public long add(JMSMessage message) {
+		int row = size - spilledCount;
+
+		if (row == sequences.length) {
+			grow();
+		}
+
+		int sender = userIndexOf(message.getFrom());
+		int recipient = userIndexOf(message.getTo());
+		int messageFlags = 0;
+
+		if (recipient != NO_USER) {
+			messageFlags |= PRIVATE;
+		}
+
+		if (message.getFrom() != null && viewerId.equals(message.getFrom().getId())) {
+			messageFlags |= FROM_VIEWER;
+		} else if (mentionMatcher.matches(message.getMessage())) {
+			messageFlags |= MENTION;
+		}
+
+		UUID id = message.getId();
+
+		sequences[row] = nextSequence;
+		sentTimes[row] = message.getSentTime() == null ? 0l : message.getSentTime();
+		idMostSignificantBits[row] = id == null ? 0l : id.getMostSignificantBits();
+		idLeastSignificantBits[row] = id == null ? 0l : id.getLeastSignificantBits();
+		senders[row] = sender;
+		recipients[row] = recipient;
+		flags[row] = (byte) messageFlags;
+		textEnds[row] = appendText(row, message.getMessage());
+		size++;
+
+		if (scrollback > 0 && size - spilledCount > scrollback) {
+			// Spill a quarter at a time, so spilling isn't done for every add
+			spill(size - spilledCount - (scrollback - scrollback / 4));
+		}
+
+		return nextSequence++;
+	}
+
+	/**
+	 * Sets what counts as mentioning the viewer, for messages added from now
+	 * on.
+	 */
+	public void setMentionMatcher(KeywordMatcher mentionMatcher) {
+		this.mentionMatcher = mentionMatcher;
+	}
+
+	/**
+	 * Deletes the spill file, if there is one. The store can't be used
+	 * afterwards.
+	 */
+	public void close() {
+		closed = true;
+
+		if (spillFile != null) {
+			spillFile.close();
+			spillFile = null;
+		}
+
+		cachedPages.clear();
+	}
+
+	/**
+	 * @return The number of messages in the store, including spilled ones
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of messages kept in memory
+	 */
+	public int getInMemoryCount() {
+		return size - spilledCount;
+	}
+
+	/**
+	 * @return The number of different users who have sent or received the
+	 *         messages in the store
+	 */
+	public int getUserCount() {
+		return userNames.size();
+	}
+
+	public long getSequence(int row) {
+		checkRow(row);
+
+		return row < spilledCount ? spilled(row).sequence : sequences[row - spilledCount];
+	}
+
+	/**
+	 * @return When a row's message was sent, in epoch milliseconds
+	 */
+	public long getSentTime(int row) {
+		checkRow(row);
+
+		return row < spilledCount ? spilled(row).sentTime : sentTimes[row - spilledCount];
+	}
+
+	public UUID getId(int row) {
+		checkRow(row);
+
+		if (row < spilledCount) {
+			SpilledMessage message = spilled(row);
+
+			return new UUID(message.idMostSignificantBits, message.idLeastSignificantBits);
+		}
+
+		return new UUID(idMostSignificantBits[row - spilledCount], idLeastSignificantBits[row - spilledCount]);
+	}
+
+	/**
+	 * @return The name of the user who sent a row's message
+	 */
+	public String getSender(int row) {
+		checkRow(row);
+
+		return row < spilledCount ? spilled(row).sender : userName(senders[row - spilledCount]);
+	}
+
+	/**
+	 * @return The name of the user a row's message was sent to, or
+	 *         <code>null</code> if it was public
+	 */
+	public String getRecipient(int row) {
+		checkRow(row);
+
+		return row < spilledCount ? spilled(row).recipient : userName(recipients[row - spilledCount]);
+	}
+
+	/**
+	 * @return A row's flags, see PRIVATE, FROM_VIEWER and MENTION
+	 */
+	public int getFlags(int row) {
+		checkRow(row);
+
+		return row < spilledCount ? spilled(row).flags : flags[row - spilledCount] & 0xff;
+	}
+
+	/**
+	 * @return Whether a row has every one of the given flags
+	 */
+	public boolean hasFlags(int row, int flagsWanted) {
+		return (getFlags(row) & flagsWanted) == flagsWanted;
+	}
+
+	public String getText(int row) {
+		checkRow(row);
+
+		if (row < spilledCount) {
+			return spilled(row).text;
+		}
+
+		row -= spilledCount;
+		int start = row == 0 ? 0 : textEnds[row - 1];
+
+		return new String(textArena, start, textEnds[row] - start);
+	}
+
+	/**
+	 * Moves the oldest in-memory messages to the spill file, or drops them if
+	 * they can't be written to it.
+	 *
+	 * @param count
+	 *            How many messages to move
+	 */
+	private void spill(int count) {
+		// A message arriving after the room closed would otherwise start a
+		// spill file nothing deletes
+		if (closed) {
+			return;
+		}
+
+		try {
+			if (spillFile == null) {
+				spillFile = new MessageSpillFile();
+			}
+
+			for (int row = 0; row < count; row++) {
+				int textStart = row == 0 ? 0 : textEnds[row - 1];
+
+				spillFile.append(new SpilledMessage(sequences[row], sentTimes[row], idMostSignificantBits[row],
+						idLeastSignificantBits[row], flags[row] & 0xff, userName(senders[row]),
+						userName(recipients[row]), new String(textArena, textStart, textEnds[row] - textStart)));
+			}
+
+			spillFile.flush();
+
+			// The last page read may have been partly in memory
+			cachedPages.remove((spilledCount - droppedCount - 1) / MessageSpillFile.PAGE_SIZE);
+		} catch (IOException e) {
+			System.err.println("Failed to spill old messages to disk.  Dropping them instead.");
+			e.printStackTrace();
+
+			// Messages spilled before now can still be read back, so the file
+			// must forget its part of this batch
+			if (spillFile != null) {
+				spillFile.discardUnflushed();
+			}
+
+			drop(count);
+		}
+
+		removeOldest(count);
+	}
+
+	/**
+	 * Notes that the oldest in-memory messages are about to be removed
+	 * without being spilled.
+	 */
+	private void drop(int count) {
+		int[] last = droppedRanges.isEmpty() ? null : droppedRanges.get(droppedRanges.size() - 1);
+
+		if (last != null && last[1] == spilledCount) {
+			last[1] += count;
+		} else {
+			droppedRanges.add(new int[] { spilledCount, spilledCount + count });
+		}
+
+		droppedCount += count;
+	}
+
+	/**
+	 * Removes the oldest in-memory messages, once they've been spilled or
+	 * dropped.
+	 */
+	private void removeOldest(int count) {
+		int remaining = size - spilledCount - count;
+		int textStart = textEnds[count - 1];
+		int textEnd = textEnds[count + remaining - 1];
+
+		System.arraycopy(sequences, count, sequences, 0, remaining);
+		System.arraycopy(sentTimes, count, sentTimes, 0, remaining);
+		System.arraycopy(idMostSignificantBits, count, idMostSignificantBits, 0, remaining);
+		System.arraycopy(idLeastSignificantBits, count, idLeastSignificantBits, 0, remaining);
+		System.arraycopy(senders, count, senders, 0, remaining);
+		System.arraycopy(recipients, count, recipients, 0, remaining);
+		System.arraycopy(flags, count, flags, 0, remaining);
+		System.arraycopy(textArena, textStart, textArena, 0, textEnd - textStart);
+
+		for (int row = 0; row < remaining; row++) {
+			textEnds[row] = textEnds[row + count] - textStart;
+		}
+
+		spilledCount += count;
+	}
+
+	/**
+	 * Reads a spilled message, with the rest of its page.
+	 */
+	private SpilledMessage spilled(int row) {
+		// Where the row is in the file, skipping rows dropped before it
+		int fileRow = row;
+
+		for (int[] range : droppedRanges) {
+			if (row < range[0]) {
+				break;
+			}
+
+			if (row < range[1]) {
+				return UNAVAILABLE;
+			}
+
+			fileRow -= range[1] - range[0];
+		}
+
+		int page = fileRow / MessageSpillFile.PAGE_SIZE;
+		SpilledMessage[] messages = cachedPages.get(page);
+
+		if (messages == null) {
+			// Closed while still being shown
+			if (spillFile == null) {
+				return UNAVAILABLE;
+			}
+
+			try {
+				messages = spillFile.readPage(page);
+			} catch (IOException e) {
+				System.err.println("Failed to read old messages back from disk.");
+				e.printStackTrace();
+
+				return UNAVAILABLE;
+			}
+
+			cachedPages.put(page, messages);
+		}
+
+		return messages[fileRow % MessageSpillFile.PAGE_SIZE];
+	}
+
+	/**
+	 * Finds a user's index in the user table, adding them if they aren't
+	 * there yet.
+	 */
+	private int userIndexOf(JMSUser user) {
+		if (user == null) {
+			return NO_USER;
+		}
+
+		Integer index = userIndexes.get(user.getId());
+
+		if (index == null) {
+			index = userNames.size();
+			userNames.add(user.getName());
+			userIndexes.put(user.getId(), index);
+		}
+
+		return index;
+	}
+
+	private String userName(int index) {
+		return index == NO_USER ? null : userNames.get(index);
+	}
+
+	/**
+	 * Appends text to the arena.
+	 *
+	 * @return Where the text ends in the arena
+	 */
+	private int appendText(int row, String text) {
+		int start = row == 0 ? 0 : textEnds[row - 1];
+
+		if (text == null) {
+			return start;
+		}
+
+		int end = start + text.length();
+
+		if (end > textArena.length) {
+			textArena = Arrays.copyOf(textArena, Math.max(end, textArena.length * 2));
+		}
+
+		text.getChars(0, text.length(), textArena, start);
+
+		return end;
+	}
+
+	private void grow() {
+		int capacity = sequences.length * 2;
+
+		sequences = Arrays.copyOf(sequences, capacity);
+		sentTimes = Arrays.copyOf(sentTimes, capacity);
+		idMostSignificantBits = Arrays.copyOf(idMostSignificantBits, capacity);
+		idLeastSignificantBits = Arrays.copyOf(idLeastSignificantBits, capacity);
+		senders = Arrays.copyOf(senders, capacity);
+		recipients = Arrays.copyOf(recipients, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		textEnds = Arrays.copyOf(textEnds, capacity);
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("No row " + row);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package views;
 
+import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
@@ -23,6 +24,7 @@ import javax.swing.table.DefaultTableModel;
 import controllers.ChatroomController;
 import models.JMSTopic;
 import models.JMSUser;
+import services.store.RoomMessageStore;
 
 /**
  * A chatroom window.
@@ -34,13 +36,15 @@ public class ChatroomFrame extends JFrame {
 	private static final long serialVersionUID = -6904280288906125276L;
 
 	// Contains the messages of the chatroom
-	private DefaultTableModel messagesTableModel;
+	private MessagesTableModel messagesTableModel;
 	// Contains an up-to-date list of all users in the chatroom
 	private DefaultTableModel usersTableModel;
 	private ChatroomController controller;
 	private JTextField tfMessageInput;
 	// The table that contains the messages
 	private ColoredTable messagesTable;
+	// Shows incoming messages a frame at a time
+	private ThrottledMessageRenderer messageRenderer;
 	// The table that contains the users
 	private JTable usersTable;
 	// The currently highlighted name in the users table, if any
@@ -57,7 +61,7 @@ public class ChatroomFrame extends JFrame {
 
 		messagesTableModel = controller.generateMessagesTableModel();
 		messagesTable = new ColoredTable(messagesTableModel);
-		messagesTable.removeColumn(messagesTable.getColumnModel().getColumn(3));
+		messagesTable.removeColumn(messagesTable.getColumnModel().getColumn(MessagesTableModel.ID_COLUMN));
 		messagesTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		// Makes message table cells non editable.
 		for (int i = 0; i < messagesTable.getColumnCount(); i++) {
@@ -68,15 +72,27 @@ public class ChatroomFrame extends JFrame {
 		messagesTable.getColumnModel().getColumn(0).setPreferredWidth(100);
 		messagesTable.getColumnModel().getColumn(1).setPreferredWidth(100);
 		messagesTable.getColumnModel().getColumn(2).setPreferredWidth(800);
-		// Highlight all private messages (this is called here instead of from
-		// the controller because the table needed to be set up first)
-		controller.highlightAllPMsInInitialTableModel();
+		// Highlight all private messages, including ones yet to arrive
+		messagesTable.setFlagColor(RoomMessageStore.PRIVATE, Color.LIGHT_GRAY);
+		// And messages mentioning the user or their watch-words
+		messagesTable.setFlagColor(RoomMessageStore.MENTION, new Color(255, 230, 150));
+
+		// Shown over the bottom of the messages when new ones arrive while the
+		// user is scrolled up. Added first so it's drawn on top.
+		JButton btnNewMessages = new JButton();
+		btnNewMessages.setFont(new Font("Tahoma", Font.PLAIN, 10));
+		btnNewMessages.setBounds(240, 415, 160, 25);
+		basePanel.add(btnNewMessages);
 
 		// The scrollpane that contains the messages table
 		JScrollPane spMessages = new JScrollPane(messagesTable);
 		spMessages.setBounds(10, 0, 620, 450);
 		basePanel.add(spMessages);
 
+		messageRenderer = new ThrottledMessageRenderer(controller.getPendingMessages(), messagesTableModel,
+				messagesTable, spMessages, btnNewMessages);
+		messageRenderer.start();
+
 		// The panel that will contain the users list and private messages
 		// button
 		JPanel usersPanel = new JPanel();
@@ -86,7 +102,7 @@ public class ChatroomFrame extends JFrame {
 
 		// The scrollpane that will contain the users table
 		JScrollPane spUsers = new JScrollPane((Component) null);
-		spUsers.setBounds(10, 13, 156, 387);
+		spUsers.setBounds(10, 13, 156, 351);
 		usersPanel.add(spUsers);
 
 		// The users table and tablemodel
@@ -105,6 +121,18 @@ public class ChatroomFrame extends JFrame {
 		// Add the users table to the users scrollpane
 		spUsers.setColumnHeaderView(usersTable);
 
+		// A button for choosing which words highlight a message
+		JButton btnWatchWords = new JButton("Watch Words");
+		btnWatchWords.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent arg0) {
+				controller.handleWatchWordsPressed();
+			}
+		});
+		btnWatchWords.setFont(new Font("Tahoma", Font.PLAIN, 10));
+		btnWatchWords.setBounds(10, 377, 156, 25);
+		usersPanel.add(btnWatchWords);
+
 		// A button for sending private messages to users in the chatroom
 		JButton btnSendPrivateMessage = new JButton("Send Private Message");
 		btnSendPrivateMessage.addMouseListener(new MouseAdapter() {
@@ -155,6 +183,10 @@ public class ChatroomFrame extends JFrame {
 		return messagesTable;
 	}
 
+	public ThrottledMessageRenderer getMessageRenderer() {
+		return messageRenderer;
+	}
+
 	public JTextField getTfMessageInput() {
 		return tfMessageInput;
 	}
@@ -172,6 +204,7 @@ public class ChatroomFrame extends JFrame {
 	 * Allows external classes to access this class's parent's dispose() method
 	 */
 	public void superDispose() {
+		messageRenderer.stop();
 		super.dispose();
 	}
 
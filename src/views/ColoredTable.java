@@ -2,8 +2,6 @@ package views;
 
 import java.awt.Color;
 import java.awt.Component;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.swing.JTable;
 import javax.swing.table.TableCellRenderer;
@@ -12,13 +10,19 @@ import javax.swing.table.TableModel;
 /**
  * A JTable extension for easily colouring table rows
  * 
+ * Rows are coloured by the flags their FlaggedTableModel gives them, so a
+ * row's colour follows it when rows are added, removed or sorted. Each flag
+ * can be given a colour; a row with several coloured flags takes the colour
+ * of its lowest.
+ * 
  * @author Jonathan Stering
  *
  */
 public class ColoredTable extends JTable {
 	private static final long serialVersionUID = -1118415077892936053L;
 
-	private Map<Integer, Color> rowColors = new HashMap<Integer, Color>();
+	// The colour of each flag, by bit position
+	private final Color[] flagColors = new Color[Integer.SIZE];
 
 	public ColoredTable(TableModel model) {
 		super(model);
@@ -29,14 +33,48 @@ public class ColoredTable extends JTable {
 		Component c = super.prepareRenderer(renderer, row, column);
 
 		if (!isRowSelected(row)) {
-			Color color = rowColors.get(row);
+			Color color = rowColor(row);
 			c.setBackground(color == null ? getBackground() : color);
 		}
 
 		return c;
 	}
 
-	public void setRowColor(int row, Color color) {
-		rowColors.put(row, color);
+	/**
+	 * Colours every row with a given flag.
+	 * 
+	 * @param flag
+	 *            A single flag bit
+	 * @param color
+	 *            The colour, or <code>null</code> to stop colouring rows with
+	 *            the flag
+	 */
+	public void setFlagColor(int flag, Color color) {
+		if (Integer.bitCount(flag) != 1) {
+			throw new IllegalArgumentException("Not a single flag: " + flag);
+		}
+
+		flagColors[Integer.numberOfTrailingZeros(flag)] = color;
+		repaint();
+	}
+
+	private Color rowColor(int row) {
+		if (!(getModel() instanceof FlaggedTableModel)) {
+			return null;
+		}
+
+		int flags = ((FlaggedTableModel) getModel()).getRowFlags(convertRowIndexToModel(row));
+
+		while (flags != 0) {
+			int bit = Integer.numberOfTrailingZeros(flags);
+
+			if (flagColors[bit] != null) {
+				return flagColors[bit];
+			}
+
+			flags &= flags - 1;
+		}
+
+		return null;
 	}
-}
\ No newline at end of file
+}
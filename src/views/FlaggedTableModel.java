@@ -0,0 +1,16 @@
+package views;
+
+import javax.swing.table.TableModel;
+
+/**
+ * A table model whose rows each have a set of flag bits, for a ColoredTable
+ * to colour them by.
+ */
+public interface FlaggedTableModel extends TableModel {
+	/**
+	 * @param row
+	 *            The row, in model order
+	 * @return The row's flags, one per bit
+	 */
+	int getRowFlags(int row);
+}
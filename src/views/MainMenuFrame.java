@@ -19,9 +19,12 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.LayoutStyle.ComponentPlacement;
 import javax.swing.ListSelectionModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.DefaultTableModel;
@@ -97,9 +100,32 @@ public class MainMenuFrame extends JFrame {
 		// Create a scrollpane, put the topics table in it, and add it to the
 		// base panel
 		JScrollPane scrollPane = new JScrollPane(topicsTable);
-		scrollPane.setBounds(0, 0, 630, 503);
+		scrollPane.setBounds(0, 33, 630, 470);
 		basePanel.add(scrollPane);
 
+		// A search box above the topics. The list is filtered to topics
+		// starting with what's typed as it's typed
+		JTextField tfSearch = new JTextField();
+		tfSearch.setToolTipText("Search topics");
+		tfSearch.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				controller.handleSearchChanged(tfSearch.getText());
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				controller.handleSearchChanged(tfSearch.getText());
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				// Attribute changes don't change the text
+			}
+		});
+		tfSearch.setBounds(0, 0, 630, 28);
+		basePanel.add(tfSearch);
+
 		// Create a panel for the menu buttons and add it to the base panel
 		JPanel menuButtonsPanel = new JPanel();
 		menuButtonsPanel.setBounds(640, 0, 192, 503);
@@ -172,6 +198,14 @@ public class MainMenuFrame extends JFrame {
 			}
 		});
 
+		// Lists the topics with the most going on
+		JButton btnHotTopics = new JButton("Hot Topics");
+		btnHotTopics.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				controller.handleHotTopicsPressed();
+			}
+		});
+
 		// Some monstrosity that WindowBuilder generated
 		// Makes the right menu bar layout look pretty
 		GroupLayout rightMenuPanelGroupLayout = new GroupLayout(menuButtonsPanel);
@@ -185,14 +219,16 @@ public class MainMenuFrame extends JFrame {
 										.addComponent(btnLogout, GroupLayout.DEFAULT_SIZE, 168, Short.MAX_VALUE)
 										.addComponent(btnCreateTopic, GroupLayout.DEFAULT_SIZE, 168, Short.MAX_VALUE)
 										.addComponent(btnJoinTopic, GroupLayout.DEFAULT_SIZE, 168, Short.MAX_VALUE)
-										.addComponent(btnRefreshList, GroupLayout.DEFAULT_SIZE, 168, Short.MAX_VALUE))
+										.addComponent(btnRefreshList, GroupLayout.DEFAULT_SIZE, 168, Short.MAX_VALUE)
+										.addComponent(btnHotTopics, GroupLayout.DEFAULT_SIZE, 168, Short.MAX_VALUE))
 						.addContainerGap()));
 		rightMenuPanelGroupLayout.setVerticalGroup(
 				rightMenuPanelGroupLayout.createParallelGroup(Alignment.LEADING).addGroup(Alignment.TRAILING,
 						rightMenuPanelGroupLayout.createSequentialGroup().addContainerGap().addComponent(btnRefreshList)
 								.addPreferredGap(ComponentPlacement.RELATED).addComponent(btnCreateTopic)
 								.addPreferredGap(ComponentPlacement.RELATED).addComponent(btnJoinTopic)
-								.addPreferredGap(ComponentPlacement.RELATED, 331, Short.MAX_VALUE)
+								.addPreferredGap(ComponentPlacement.RELATED).addComponent(btnHotTopics)
+								.addPreferredGap(ComponentPlacement.RELATED, 300, Short.MAX_VALUE)
 								.addComponent(btnDeleteTopic).addPreferredGap(ComponentPlacement.RELATED)
 								.addComponent(btnLogout).addContainerGap()));
 		menuButtonsPanel.setLayout(rightMenuPanelGroupLayout);
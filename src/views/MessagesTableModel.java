@@ -0,0 +1,131 @@
+package views;
+
+import java.util.List;
+import java.util.UUID;
+
+import javax.swing.table.AbstractTableModel;
+
+import models.JMSMessage;
+import models.JMSUser;
+import services.helper.TimeFormatHelper;
+import services.store.RoomMessageStore;
+
+/**
+ * The messages shown in a chatroom, one row per message.
+ *
+ * Messages are kept in the room's compact RoomMessageStore rather than as
+ * JMSMessages (with their embedded topic and users) or a Vector per row. Cell
+ * values such as the formatted time are worked out when the table asks for
+ * them, which is only for the rows it renders.
+ *
+ * Must only be used from the event dispatch thread.
+ */
+public class MessagesTableModel extends AbstractTableModel implements FlaggedTableModel {
+	private static final long serialVersionUID = 2740815503624468306L;
+
+	public static final int TIME_COLUMN = 0;
+	public static final int USER_COLUMN = 1;
+	public static final int MESSAGE_COLUMN = 2;
+	public static final int ID_COLUMN = 3;
+
+	private static final String[] COLUMN_NAMES = { "Time Sent", "User", "Message", "Message ID" };
+
+	private final RoomMessageStore store;
+
+	/**
+	 * @param viewer
+	 *            The user the messages are shown to
+	 */
+	public MessagesTableModel(JMSUser viewer) {
+		this.store = new RoomMessageStore(viewer);
+	}
+
+	/**
+	 * Adds messages to the bottom of the table.
+	 */
+	public void addMessages(List<JMSMessage> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+
+		int firstRow = store.size();
+
+		for (JMSMessage message : messages) {
+			store.add(message);
+		}
+
+		fireTableRowsInserted(firstRow, store.size() - 1);
+	}
+
+	/**
+	 * Adds a message to the bottom of the table.
+	 */
+	public void addMessage(JMSMessage message) {
+		store.add(message);
+
+		fireTableRowsInserted(store.size() - 1, store.size() - 1);
+	}
+
+	/**
+	 * @return A row's flags, see RoomMessageStore
+	 */
+	@Override
+	public int getRowFlags(int row) {
+		return store.getFlags(row);
+	}
+
+	/**
+	 * Frees the table's messages once it is no longer shown.
+	 */
+	public void close() {
+		store.close();
+	}
+
+	/**
+	 * @return The store holding the table's messages
+	 */
+	public RoomMessageStore getStore() {
+		return store;
+	}
+
+	@Override
+	public int getRowCount() {
+		return store.size();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return COLUMN_NAMES.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return COLUMN_NAMES[column];
+	}
+
+	@Override
+	public Class<?> getColumnClass(int column) {
+		return column == ID_COLUMN ? UUID.class : String.class;
+	}
+
+	@Override
+	public Object getValueAt(int row, int column) {
+		switch (column) {
+		case TIME_COLUMN:
+			return TimeFormatHelper.format(store.getSentTime(row));
+		case USER_COLUMN:
+			return store.getSender(row);
+		case MESSAGE_COLUMN:
+			// Make who the viewer's own private messages went to explicit
+			if (store.hasFlags(row, RoomMessageStore.FROM_VIEWER | RoomMessageStore.PRIVATE)) {
+				return "PM TO '" + store.getRecipient(row) + "': " + store.getText(row);
+			}
+
+			return store.getText(row);
+		case ID_COLUMN:
+			return store.getId(row);
+		default:
+			throw new IndexOutOfBoundsException("No column " + column);
+		}
+	}
+}
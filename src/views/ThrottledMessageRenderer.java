@@ -0,0 +1,164 @@
+package views;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import javax.swing.JButton;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+
+import models.JMSMessage;
+
+/**
+ * Shows incoming messages in a chatroom's table a frame at a time, rather
+ * than one by one as they arrive.
+ *
+ * Messages are queued from any thread. A Swing timer takes everything queued
+ * at most FPS_PROPERTY times a second, adds it to the table as one change and
+ * scrolls down once, so a busy room can't flood the event dispatch thread
+ * with repaints.
+ *
+ * If the user has scrolled up to read older messages, the table is left
+ * where it is and a button counts the new messages below. Clicking it, or
+ * scrolling to the bottom, clears it.
+ */
+public class ThrottledMessageRenderer {
+	/**
+	 * Set this system property to the most times a second to show new
+	 * messages
+	 */
+	public static final String FPS_PROPERTY = "chatroom.render.fps";
+	public static final int DEFAULT_FPS = 20;
+
+	private final Queue<JMSMessage> pendingMessages;
+	private final MessagesTableModel model;
+	private final JTable table;
+	private final JScrollBar scrollBar;
+	private final JButton newMessagesButton;
+	private final Timer timer;
+
+	// Messages added since the user scrolled up
+	private int unseenMessages;
+
+	/**
+	 * @param pendingMessages
+	 *            Where incoming messages are queued
+	 * @param model
+	 *            The table model to add them to
+	 * @param table
+	 *            The table showing the model
+	 * @param scrollPane
+	 *            The scroll pane holding the table
+	 * @param newMessagesButton
+	 *            A button to count unseen messages on, hidden when there are
+	 *            none
+	 */
+	public ThrottledMessageRenderer(Queue<JMSMessage> pendingMessages, MessagesTableModel model, JTable table,
+			JScrollPane scrollPane, JButton newMessagesButton) {
+		this.pendingMessages = pendingMessages;
+		this.model = model;
+		this.table = table;
+		this.scrollBar = scrollPane.getVerticalScrollBar();
+		this.newMessagesButton = newMessagesButton;
+
+		int framesPerSecond = Math.max(1, Integer.getInteger(FPS_PROPERTY, DEFAULT_FPS));
+		timer = new Timer(1000 / framesPerSecond, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				renderFrame();
+			}
+		});
+		timer.setCoalesce(true);
+
+		newMessagesButton.setVisible(false);
+		newMessagesButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				scrollToBottom();
+			}
+		});
+
+		scrollBar.addAdjustmentListener(new AdjustmentListener() {
+			@Override
+			public void adjustmentValueChanged(AdjustmentEvent e) {
+				if (unseenMessages > 0 && isAtBottom()) {
+					clearUnseenMessages();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Starts showing queued messages.
+	 */
+	public void start() {
+		timer.start();
+	}
+
+	/**
+	 * Stops showing queued messages, once the chatroom is closed.
+	 */
+	public void stop() {
+		timer.stop();
+	}
+
+	/**
+	 * Scrolls to the newest message.
+	 */
+	public void scrollToBottom() {
+		int lastRow = table.getRowCount() - 1;
+
+		if (lastRow >= 0) {
+			table.scrollRectToVisible(table.getCellRect(lastRow, 0, true));
+		}
+
+		clearUnseenMessages();
+	}
+
+	/**
+	 * Adds everything queued since the last frame to the table.
+	 */
+	private void renderFrame() {
+		// A tick already queued when the timer was stopped mustn't touch the
+		// closed model
+		if (!timer.isRunning() || pendingMessages.isEmpty()) {
+			return;
+		}
+
+		// Checked before the rows are added, which moves the bottom
+		boolean wasAtBottom = isAtBottom();
+
+		List<JMSMessage> messages = new ArrayList<JMSMessage>();
+		JMSMessage message;
+		while ((message = pendingMessages.poll()) != null) {
+			messages.add(message);
+		}
+
+		model.addMessages(messages);
+
+		if (wasAtBottom) {
+			scrollToBottom();
+		} else {
+			unseenMessages += messages.size();
+			newMessagesButton.setText(unseenMessages + (unseenMessages == 1 ? " new message" : " new messages"));
+			newMessagesButton.setVisible(true);
+		}
+	}
+
+	private boolean isAtBottom() {
+		// Within a row of the bottom counts
+		return scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum() - table.getRowHeight();
+	}
+
+	private void clearUnseenMessages() {
+		unseenMessages = 0;
+		newMessagesButton.setVisible(false);
+	}
+}
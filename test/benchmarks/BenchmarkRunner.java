@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * A small benchmark harness. Runs an operation a number of times to warm up,
+ * then times each of a number of measured runs and reports throughput and
+ * latency percentiles.
+ */
+public class BenchmarkRunner {
+	private final int warmupIterations;
+	private final int measuredIterations;
+
+	/**
+	 * A single benchmarked operation.
+	 */
+	public interface Operation {
+		/**
+		 * @param iteration
+		 *            Which run this is, counting warmup runs
+		 */
+		void run(int iteration) throws Exception;
+	}
+
+	public BenchmarkRunner(int warmupIterations, int measuredIterations) {
+		this.warmupIterations = warmupIterations;
+		this.measuredIterations = measuredIterations;
+	}
+
+	/**
+	 * Prints the header row for the results printed by run()
+	 */
+	public static void printHeader() {
+		System.out.println(String.format("%-44s %8s %10s %10s %10s %10s %10s %10s", "benchmark", "ops", "ops/s",
+				"p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+	}
+
+	/**
+	 * Warms up, then measures, a given operation and prints a row of results.
+	 * 
+	 * @param name
+	 *            The name to print the results under
+	 * @param operation
+	 *            The operation to benchmark
+	 * @return The latency of every measured run in nanoseconds, sorted
+	 */
+	public long[] run(String name, Operation operation) throws Exception {
+		for (int i = 0; i < warmupIterations; i++) {
+			operation.run(i);
+		}
+
+		long[] latencies = new long[measuredIterations];
+		long start = System.nanoTime();
+
+		for (int i = 0; i < measuredIterations; i++) {
+			long operationStart = System.nanoTime();
+			operation.run(warmupIterations + i);
+			latencies[i] = System.nanoTime() - operationStart;
+		}
+
+		long elapsed = System.nanoTime() - start;
+		Arrays.sort(latencies);
+
+		System.out.println(String.format("%-44s %8d %10.1f %10d %10d %10d %10d %10d", name, measuredIterations,
+				measuredIterations / (elapsed / 1e9), percentile(latencies, 50), percentile(latencies, 90),
+				percentile(latencies, 99), percentile(latencies, 99.9), latencies[latencies.length - 1] / 1000l));
+
+		return latencies;
+	}
+
+	/**
+	 * Gets a given percentile of a sorted array of nanosecond latencies, in
+	 * microseconds.
+	 */
+	private static long percentile(long[] sortedLatencies, double percentile) {
+		int index = (int) Math.ceil(percentile / 100d * sortedLatencies.length) - 1;
+
+		return sortedLatencies[Math.max(0, index)] / 1000l;
+	}
+}
@@ -0,0 +1,173 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.UUID;
+
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSTopicUser;
+import models.JMSUser;
+
+/**
+ * Compares the size and speed of the models' compact serialized form against
+ * default Java serialization of the same fields, which is what the models
+ * used before. Measures the values a space actually serializes: each field of
+ * a message (which includes its nested topic and users), and whole entries as
+ * sent in events.
+ *
+ * The default form is measured with copies of the models that keep their
+ * default serialization, so their longer class names add a few bytes.
+ *
+ * Needs no space.
+ */
+public class SerializationBenchmark {
+	private static final int WARMUP_ITERATIONS = 20000;
+	private static final int MEASURED_ITERATIONS = 100000;
+
+	public static void main(String[] args) throws Exception {
+		JMSUser owner = new JMSUser("Owner", "5f4dcc3b5aa765d61d8327deb882cf99");
+		JMSUser from = new JMSUser("Sender", "5f4dcc3b5aa765d61d8327deb882cf99");
+		JMSTopic topic = new JMSTopic("General chat", owner);
+		JMSMessage message = new JMSMessage(topic, System.currentTimeMillis(), from, null, UUID.randomUUID(),
+				"A fairly ordinary chat message of about sixty characters.");
+		JMSTopicUser topicUser = new JMSTopicUser(topic, from);
+
+		LegacyMessage legacyMessage = new LegacyMessage(message);
+		LegacyTopicUser legacyTopicUser = new LegacyTopicUser(topicUser);
+
+		System.out.println(String.format("%-28s %12s %12s %8s", "value", "default B", "compact B", "saved"));
+		printSizes("message, as fields", fieldsSize(legacyMessage.topic, legacyMessage.sentDate, legacyMessage.from,
+				legacyMessage.id, legacyMessage.message), fieldsSize(message.topic, message.sentTime, message.from,
+						message.id, message.message));
+		printSizes("message topic field", serialize(legacyMessage.topic).length, serialize(message.topic).length);
+		printSizes("message, whole", serialize(legacyMessage).length, serialize(message).length);
+		printSizes("topic user, whole", serialize(legacyTopicUser).length, serialize(topicUser).length);
+		System.out.println();
+
+		BenchmarkRunner runner = new BenchmarkRunner(WARMUP_ITERATIONS, MEASURED_ITERATIONS);
+		BenchmarkRunner.printHeader();
+		runner.run("message round trip, default", roundTrip(legacyMessage));
+		runner.run("message round trip, compact", roundTrip(message));
+		runner.run("topic field round trip, default", roundTrip(legacyMessage.topic));
+		runner.run("topic field round trip, compact", roundTrip(message.topic));
+		runner.run("topic user round trip, default", roundTrip(legacyTopicUser));
+		runner.run("topic user round trip, compact", roundTrip(topicUser));
+	}
+
+	private static void printSizes(String name, int defaultSize, int compactSize) {
+		System.out.println(String.format("%-28s %12d %12d %7.0f%%", name, defaultSize, compactSize,
+				100d * (defaultSize - compactSize) / defaultSize));
+	}
+
+	/**
+	 * The total size of some field values, each serialized separately as the
+	 * space does. Null fields take no space.
+	 */
+	private static int fieldsSize(Object... values) throws IOException {
+		int size = 0;
+
+		for (Object value : values) {
+			if (value != null) {
+				size += serialize(value).length;
+			}
+		}
+
+		return size;
+	}
+
+	private static BenchmarkRunner.Operation roundTrip(final Object value) {
+		return new BenchmarkRunner.Operation() {
+			@Override
+			public void run(int iteration) throws Exception {
+				ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(value)));
+				in.readObject();
+			}
+		};
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * JMSUser, serialized by default
+	 */
+	@SuppressWarnings("serial")
+	private static class LegacyUser implements Serializable {
+		public String name;
+		public String baseName;
+		public String password;
+		public UUID id;
+
+		public LegacyUser(JMSUser user) {
+			name = user.name;
+			baseName = user.baseName;
+			password = user.password;
+			id = user.id;
+		}
+	}
+
+	/**
+	 * JMSTopic, serialized by default
+	 */
+	@SuppressWarnings("serial")
+	private static class LegacyTopic implements Serializable {
+		public UUID id;
+		public String name;
+		public String baseName;
+		public LegacyUser owner;
+
+		public LegacyTopic(JMSTopic topic) {
+			id = topic.id;
+			name = topic.name;
+			baseName = topic.baseName;
+			owner = new LegacyUser(topic.owner);
+		}
+	}
+
+	/**
+	 * JMSMessage, serialized by default, as it was when it held a Date
+	 */
+	@SuppressWarnings("serial")
+	private static class LegacyMessage implements Serializable {
+		public LegacyTopic topic;
+		public Date sentDate;
+		public LegacyUser from;
+		public LegacyUser to;
+		public UUID id;
+		public String message;
+
+		public LegacyMessage(JMSMessage message) {
+			topic = new LegacyTopic(message.topic);
+			sentDate = new Date(message.sentTime);
+			from = new LegacyUser(message.from);
+			id = message.id;
+			this.message = message.message;
+		}
+	}
+
+	/**
+	 * JMSTopicUser, serialized by default
+	 */
+	@SuppressWarnings("serial")
+	private static class LegacyTopicUser implements Serializable {
+		public LegacyTopic topic;
+		public LegacyUser user;
+
+		public LegacyTopicUser(JMSTopicUser topicUser) {
+			topic = new LegacyTopic(topicUser.topic);
+			user = new LegacyUser(topicUser.user);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.lang3.RandomStringUtils;
+
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSUser;
+import net.jini.core.entry.Entry;
+import net.jini.core.lease.Lease;
+import net.jini.space.JavaSpace05;
+import services.MessageService;
+import services.SpaceService;
+import services.TopicService;
+import services.UserService;
+import services.helper.EntryLookupHelper;
+
+/**
+ * Benchmarks the service layer against whichever space SpaceService finds,
+ * for topics holding different numbers of messages.
+ * 
+ * Usage: ServiceLayerBenchmark [iterations] [topic size...]
+ */
+public class ServiceLayerBenchmark {
+	private static final int DEFAULT_ITERATIONS = 200;
+	private static final int[] DEFAULT_TOPIC_SIZES = { 10, 100, 1000 };
+
+	private static final long ONE_MINUTE_IN_MILLIS = 1000l * 60l;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+		int[] topicSizes = DEFAULT_TOPIC_SIZES;
+
+		if (args.length > 1) {
+			topicSizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				topicSizes[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		final MessageService messageService = MessageService.getMessageService();
+		final TopicService topicService = TopicService.getTopicService();
+		final UserService userService = UserService.getUserService();
+		final EntryLookupHelper lookupHelper = new EntryLookupHelper();
+
+		BenchmarkRunner runner = new BenchmarkRunner(iterations / 10, iterations);
+		BenchmarkRunner.printHeader();
+
+		// Users and topics don't depend on topic size, so only run once
+		final List<Lease> userLeases = new ArrayList<Lease>();
+		runner.run("UserService.createUser", new BenchmarkRunner.Operation() {
+			@Override
+			public void run(int iteration) throws Exception {
+				userLeases.add(userService.createUser(new JMSUser(RandomStringUtils.randomAlphabetic(20), "bench")));
+			}
+		});
+
+		final JMSUser owner = new JMSUser(RandomStringUtils.randomAlphabetic(20), "bench");
+		userLeases.add(userService.createDebugUser(owner));
+
+		final List<JMSTopic> topics = new ArrayList<JMSTopic>();
+		runner.run("TopicService.createTopic", new BenchmarkRunner.Operation() {
+			@Override
+			public void run(int iteration) throws Exception {
+				JMSTopic topic = new JMSTopic(RandomStringUtils.randomAlphabetic(20), owner);
+				topicService.createTopic(topic);
+				topics.add(topic);
+			}
+		});
+
+		runner.run("TopicService.deleteTopic", new BenchmarkRunner.Operation() {
+			@Override
+			public void run(int iteration) throws Exception {
+				topicService.deleteTopic(topics.get(iteration), owner);
+			}
+		});
+
+		for (int topicSize : topicSizes) {
+			final JMSTopic topic = new JMSTopic(RandomStringUtils.randomAlphabetic(20), owner);
+			topicService.createTopic(topic);
+			final JavaSpace05 topicSpace = SpaceService.getTopicSpace(topic);
+			seedMessages(topicSpace, topic, owner, topicSize);
+
+			runner.run("MessageService.sendMessage [" + topicSize + "]", new BenchmarkRunner.Operation() {
+				@Override
+				public void run(int iteration) throws Exception {
+					messageService.sendMessage(
+							new JMSMessage(topic, System.currentTimeMillis(), owner, null,
+									UUID.randomUUID(), "benchmark message"));
+				}
+			});
+
+			runner.run("MessageService.getAllMessagesForUser [" + topicSize + "]", new BenchmarkRunner.Operation() {
+				@Override
+				public void run(int iteration) throws Exception {
+					messageService.getAllMessagesForUserInTopic(topic, owner);
+				}
+			});
+
+			runner.run("EntryLookupHelper.findAllMatching [" + topicSize + "]", new BenchmarkRunner.Operation() {
+				@Override
+				public void run(int iteration) throws Exception {
+					lookupHelper.findAllMatchingTemplate(topicSpace, new JMSMessage(topic), null);
+				}
+			});
+
+			// Also removes every message sent above
+			topicService.deleteTopic(topic, owner);
+		}
+
+		for (Lease lease : userLeases) {
+			try {
+				lease.cancel();
+			} catch (Exception e) {
+				// Already gone
+			}
+		}
+	}
+
+	/**
+	 * Writes a given number of messages to a topic in one call. They're given
+	 * a short lease so they don't clutter the space if the benchmark dies.
+	 */
+	private static void seedMessages(JavaSpace05 space, JMSTopic topic, JMSUser from, int count) throws Exception {
+		List<Entry> messages = new ArrayList<Entry>(count);
+		List<Long> leaseDurations = new ArrayList<Long>(count);
+
+		for (int i = 0; i < count; i++) {
+			messages.add(new JMSMessage(topic, System.currentTimeMillis(), from, null,
+					UUID.randomUUID(), "seeded message " + i));
+			leaseDurations.add(ONE_MINUTE_IN_MILLIS * 10l);
+		}
+
+		space.write(messages, null, leaseDurations);
+	}
+}
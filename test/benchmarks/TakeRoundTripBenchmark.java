@@ -0,0 +1,128 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import models.JMSTopic;
+import models.JMSTopicUser;
+import models.JMSUser;
+import net.jini.core.entry.Entry;
+import net.jini.core.transaction.Transaction;
+import net.jini.space.JavaSpace05;
+import services.SpaceService;
+import services.helper.EntryLookupHelper;
+import services.helper.TransactionHelper;
+
+/**
+ * Compares the number of space round-trips needed to clear out a topic's
+ * JMSTopicUsers using the old read-then-take loop against the batched
+ * JavaSpace05 take used by TopicService.
+ *
+ * Needs a running space, in the same way as the tests do.
+ */
+public class TakeRoundTripBenchmark {
+	private static final int[] ENTRY_COUNTS = { 1, 10, 100, 500 };
+	private static final long SEED_LEASE_IN_MILLIS = 1000l * 60l;
+
+	public static void main(String[] args) throws Exception {
+		JavaSpace05 space = SpaceService.getSpace();
+		CallCounter counter = new CallCounter(space);
+		JavaSpace05 countingSpace = counter.getProxy();
+		EntryLookupHelper lookupHelper = new EntryLookupHelper();
+
+		System.out.println(String.format("%8s | %12s %10s %10s | %12s %10s %10s", "entries", "loop calls",
+				"calls/ent", "loop ms", "batch calls", "calls/ent", "batch ms"));
+
+		for (int entryCount : ENTRY_COUNTS) {
+			JMSUser user = new JMSUser("$$$", "$$$");
+			JMSTopic topic = new JMSTopic("$$$", user);
+			JMSTopicUser template = new JMSTopicUser(topic);
+
+			// The old TopicService.deleteAllTopicUsers loop
+			seed(space, template, user, entryCount);
+			counter.reset();
+			long start = System.nanoTime();
+			Transaction transaction = TransactionHelper.getTransaction(60000l);
+			while (countingSpace.readIfExists(template, transaction, 1000) != null) {
+				countingSpace.takeIfExists(template, transaction, 1000);
+			}
+			transaction.commit();
+			long loopMillis = (System.nanoTime() - start) / 1000000l;
+			long loopCalls = counter.getCalls();
+
+			// The batched take now used by TopicService
+			seed(space, template, user, entryCount);
+			counter.reset();
+			start = System.nanoTime();
+			transaction = TransactionHelper.getTransaction(60000l);
+			int taken = lookupHelper.takeAllMatchingTemplate(countingSpace, template, transaction).size();
+			transaction.commit();
+			long batchMillis = (System.nanoTime() - start) / 1000000l;
+			long batchCalls = counter.getCalls();
+
+			if (taken != entryCount) {
+				System.err.println("Expected to take " + entryCount + " entries but took " + taken);
+			}
+
+			System.out.println(String.format("%8d | %12d %10.3f %10d | %12d %10.3f %10d", entryCount, loopCalls,
+					(double) loopCalls / entryCount, loopMillis, batchCalls, (double) batchCalls / entryCount,
+					batchMillis));
+		}
+	}
+
+	/**
+	 * Writes a given number of copies of a JMSTopicUser to the space in one
+	 * call.
+	 */
+	private static void seed(JavaSpace05 space, JMSTopicUser template, JMSUser user, int count) throws Exception {
+		List<Entry> entries = new ArrayList<Entry>(count);
+		List<Long> leases = new ArrayList<Long>(count);
+
+		for (int i = 0; i < count; i++) {
+			entries.add(new JMSTopicUser(template.getTopic(), user));
+			leases.add(SEED_LEASE_IN_MILLIS);
+		}
+
+		space.write(entries, null, leases);
+	}
+
+	/**
+	 * Wraps a JavaSpace05 proxy and counts every call made through it.
+	 */
+	private static class CallCounter implements InvocationHandler {
+		private final JavaSpace05 space;
+		private long calls;
+
+		public CallCounter(JavaSpace05 space) {
+			this.space = space;
+		}
+
+		public JavaSpace05 getProxy() {
+			return (JavaSpace05) Proxy.newProxyInstance(JavaSpace05.class.getClassLoader(),
+					new Class<?>[] { JavaSpace05.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			calls++;
+
+			try {
+				return method.invoke(space, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		public long getCalls() {
+			return calls;
+		}
+
+		public void reset() {
+			calls = 0;
+		}
+	}
+}
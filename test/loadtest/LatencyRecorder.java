@@ -0,0 +1,70 @@
+package loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latencies from many threads and summarises them as percentiles.
+ */
+public class LatencyRecorder {
+	private final String name;
+	private long[] latencies = new long[1024];
+	private int count;
+
+	public LatencyRecorder(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param nanos
+	 *            A latency in nanoseconds
+	 */
+	public synchronized void record(long nanos) {
+		if (count == latencies.length) {
+			latencies = Arrays.copyOf(latencies, count * 2);
+		}
+
+		latencies[count++] = nanos;
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Prints the header row for the results printed by summary()
+	 */
+	public static String header() {
+		return String.format("%-24s %8s %10s %10s %10s %10s %10s", "latency", "count", "p50 ms", "p90 ms", "p99 ms",
+				"p99.9 ms", "max ms");
+	}
+
+	/**
+	 * @return A row of percentiles for every latency recorded so far
+	 */
+	public String summary() {
+		long[] sorted;
+
+		synchronized (this) {
+			sorted = Arrays.copyOf(latencies, count);
+		}
+
+		if (sorted.length == 0) {
+			return String.format("%-24s %8d", name, 0);
+		}
+
+		Arrays.sort(sorted);
+
+		return String.format("%-24s %8d %10.2f %10.2f %10.2f %10.2f %10.2f", name, sorted.length,
+				percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+				sorted[sorted.length - 1] / 1e6);
+	}
+
+	/**
+	 * Gets a given percentile of sorted nanosecond latencies, in milliseconds.
+	 */
+	private static double percentile(long[] sortedLatencies, double percentile) {
+		int index = (int) Math.ceil(percentile / 100d * sortedLatencies.length) - 1;
+
+		return sortedLatencies[Math.max(0, index)] / 1e6;
+	}
+}
@@ -0,0 +1,240 @@
+package loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.RandomStringUtils;
+
+import listeners.MessageDeliveryObserver;
+import listeners.MessageRemoteEventListener;
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSUser;
+import net.jini.core.lease.Lease;
+import net.jini.space.JavaSpace05;
+import services.MessageService;
+import services.SpaceService;
+import services.TopicService;
+import services.UserService;
+import services.relay.TopicRelay;
+
+/**
+ * A headless load generator. Runs many simulated users against whichever
+ * space SpaceService finds (pass -Dchatroom.space=memory for the in-memory
+ * space, plus -Dchatroom.space.shards=N to spread topics across N in-memory
+ * shards), and reports how long sending takes and how long messages take to
+ * reach each recipient's MessageRemoteEventListener.
+ *
+ * Usage: LoadGenerator [key=value...], see LoadProfile for the settings.
+ */
+public class LoadGenerator implements MessageDeliveryObserver {
+	/**
+	 * How long to wait for in-flight messages to arrive after the run ends
+	 */
+	private static final long DRAIN_TIME_IN_MILLIS = 2000l;
+
+	private final LoadProfile profile;
+	private final List<JMSTopic> topics = new ArrayList<JMSTopic>();
+	private final String runId = RandomStringUtils.randomAlphabetic(6);
+	private volatile long endTime;
+
+	// When each message sent in this run started sending, by message ID
+	private final Map<UUID, Long> sendStartTimes = new ConcurrentHashMap<UUID, Long>();
+
+	private final LatencyRecorder sendLatency = new LatencyRecorder("sendMessage");
+	private final LatencyRecorder deliveryLatency = new LatencyRecorder("send to notify");
+	private final AtomicInteger messagesSent = new AtomicInteger();
+	private final AtomicInteger messagesFailed = new AtomicInteger();
+	private final AtomicInteger topicsJoined = new AtomicInteger();
+	private final AtomicInteger usersFailed = new AtomicInteger();
+
+	public LoadGenerator(LoadProfile profile) {
+		this.profile = profile;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new LoadGenerator(LoadProfile.fromArgs(args)).run();
+
+		// Jini leaves non-daemon threads running
+		System.exit(0);
+	}
+
+	/**
+	 * Sets up the topics, runs every simulated user to completion and prints
+	 * the results.
+	 */
+	public void run() throws Exception {
+		System.out.println("Load profile: " + profile);
+
+		JavaSpace05 space = SpaceService.getSpace();
+		if (space == null) {
+			System.err.println("No space available.  Start one, or run with -Dchatroom.space=memory");
+
+			return;
+		}
+
+		// Create the service singletons up front, rather than racing to
+		UserService userService = UserService.getUserService();
+		TopicService topicService = TopicService.getTopicService();
+		MessageService.getMessageService();
+
+		if (profile.relay && SpaceService.getTopicRelay() == null) {
+			TopicRelay relay = new TopicRelay(SpaceService.getRouter());
+			relay.start();
+			SpaceService.useTopicRelay(relay);
+		}
+
+		JMSUser owner = new JMSUser("LoadOwner" + runId, "password");
+		Lease ownerLease = userService.createUser(owner);
+
+		for (int i = 0; i < profile.topics; i++) {
+			JMSTopic topic = new JMSTopic("LoadTopic" + runId + i, owner);
+			topicService.createTopic(topic);
+			topics.add(topic);
+		}
+
+		MessageRemoteEventListener.setDeliveryObserver(this);
+
+		endTime = System.currentTimeMillis() + (profile.rampUp + profile.duration) * 1000l;
+		ExecutorService users = Executors.newFixedThreadPool(profile.users, namedThreads("simulated-user"));
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(namedThreads("load-report"));
+
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				printProgress();
+			}
+		}, profile.reportInterval, profile.reportInterval, TimeUnit.SECONDS);
+
+		long started = System.currentTimeMillis();
+		long rampUpDelay = profile.rampUp * 1000l / Math.max(1, profile.users);
+
+		for (int i = 0; i < profile.users; i++) {
+			users.execute(new SimulatedUser(this, runId, i));
+			Thread.sleep(rampUpDelay);
+		}
+
+		users.shutdown();
+		users.awaitTermination(endTime - System.currentTimeMillis() + 60000l, TimeUnit.MILLISECONDS);
+		long elapsed = System.currentTimeMillis() - started;
+
+		Thread.sleep(DRAIN_TIME_IN_MILLIS);
+		reporter.shutdown();
+		MessageRemoteEventListener.setDeliveryObserver(null);
+
+		printResults(elapsed);
+
+		for (JMSTopic topic : topics) {
+			topicService.deleteTopic(topic, owner);
+		}
+
+		ownerLease.cancel();
+	}
+
+	public LoadProfile getProfile() {
+		return profile;
+	}
+
+	public List<JMSTopic> getTopics() {
+		return Collections.unmodifiableList(topics);
+	}
+
+	/**
+	 * @return When simulated users should stop, in absolute milliseconds
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * Called by a simulated user just before it sends a message.
+	 */
+	public void messageSending(JMSMessage message) {
+		sendStartTimes.put(message.getId(), System.nanoTime());
+	}
+
+	/**
+	 * Called by a simulated user once sendMessage has returned.
+	 */
+	public void messageSent(JMSMessage message, long sendNanos) {
+		messagesSent.incrementAndGet();
+		sendLatency.record(sendNanos);
+	}
+
+	/**
+	 * Called by a simulated user if sendMessage failed.
+	 */
+	public void messageFailed(JMSMessage message) {
+		messagesFailed.incrementAndGet();
+		sendStartTimes.remove(message.getId());
+	}
+
+	public void userJoined() {
+		topicsJoined.incrementAndGet();
+	}
+
+	/**
+	 * Called if a simulated user stops early because of an error.
+	 */
+	public void userFailed(JMSUser user, Exception e) {
+		usersFailed.incrementAndGet();
+
+		System.err.println("Simulated user " + user.getName() + " failed");
+		e.printStackTrace();
+	}
+
+	@Override
+	public void messageDelivered(JMSMessage message, JMSUser recipient) {
+		Long start = sendStartTimes.get(message.getId());
+
+		// Ignore messages from outside this run
+		if (start != null) {
+			deliveryLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	private void printProgress() {
+		System.out.println(String.format("sent=%d failed=%d delivered=%d joins=%d", messagesSent.get(),
+				messagesFailed.get(), deliveryLatency.getCount(), topicsJoined.get()));
+	}
+
+	private void printResults(long elapsedInMillis) {
+		System.out.println();
+		System.out.println(String.format("Ran %d users for %.1fs", profile.users, elapsedInMillis / 1000d));
+		System.out.println(String.format("Messages sent: %d (%.1f/s), failed: %d, deliveries: %d, topic joins: %d",
+				messagesSent.get(), messagesSent.get() * 1000d / elapsedInMillis, messagesFailed.get(),
+				deliveryLatency.getCount(), topicsJoined.get()));
+
+		if (usersFailed.get() > 0) {
+			System.out.println("Simulated users that failed: " + usersFailed.get());
+		}
+
+		System.out.println(LatencyRecorder.header());
+		System.out.println(sendLatency.summary());
+		System.out.println(deliveryLatency.summary());
+	}
+
+	private static ThreadFactory namedThreads(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,109 @@
+package loadtest;
+
+/**
+ * Describes the traffic the load generator simulates. Every setting can be
+ * overridden on the command line as key=value, e.g. users=500 duration=120.
+ */
+public class LoadProfile {
+	/**
+	 * How many simulated users to run at once
+	 */
+	public int users = 50;
+
+	/**
+	 * How many topics the users are spread across
+	 */
+	public int topics = 10;
+
+	/**
+	 * How long to generate load for, in seconds, once every user has started
+	 */
+	public int duration = 60;
+
+	/**
+	 * How long to take starting all users, in seconds
+	 */
+	public int rampUp = 10;
+
+	/**
+	 * How many messages each user sends per minute, on average
+	 */
+	public double messagesPerMinute = 6;
+
+	/**
+	 * The fraction of messages that are private messages
+	 */
+	public double privateMessageRatio = 0.1;
+
+	/**
+	 * The fraction of actions where the user leaves their topic and joins
+	 * another instead of sending a message
+	 */
+	public double topicSwitchRatio = 0.05;
+
+	/**
+	 * Whether to listen to busy topics through a topic relay. Uses one run in
+	 * this process if none is registered with the lookup service. See
+	 * MessageService.HOT_TOPIC_PROPERTY for what counts as busy
+	 */
+	public boolean relay = false;
+
+	/**
+	 * How often to print progress, in seconds
+	 */
+	public int reportInterval = 10;
+
+	/**
+	 * Builds a profile from key=value arguments, using the defaults for
+	 * anything not given.
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @return The profile
+	 */
+	public static LoadProfile fromArgs(String[] args) {
+		LoadProfile profile = new LoadProfile();
+
+		for (String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+
+			if (keyValue.length != 2) {
+				throw new IllegalArgumentException("Expected key=value, got: " + arg);
+			}
+
+			String key = keyValue[0];
+			String value = keyValue[1];
+
+			if (key.equals("users")) {
+				profile.users = Integer.parseInt(value);
+			} else if (key.equals("topics")) {
+				profile.topics = Integer.parseInt(value);
+			} else if (key.equals("duration")) {
+				profile.duration = Integer.parseInt(value);
+			} else if (key.equals("rampUp")) {
+				profile.rampUp = Integer.parseInt(value);
+			} else if (key.equals("messagesPerMinute")) {
+				profile.messagesPerMinute = Double.parseDouble(value);
+			} else if (key.equals("privateMessageRatio")) {
+				profile.privateMessageRatio = Double.parseDouble(value);
+			} else if (key.equals("topicSwitchRatio")) {
+				profile.topicSwitchRatio = Double.parseDouble(value);
+			} else if (key.equals("relay")) {
+				profile.relay = Boolean.parseBoolean(value);
+			} else if (key.equals("reportInterval")) {
+				profile.reportInterval = Integer.parseInt(value);
+			} else {
+				throw new IllegalArgumentException("Unknown setting: " + key);
+			}
+		}
+
+		return profile;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"users=%d topics=%d duration=%ds rampUp=%ds messagesPerMinute=%.1f privateMessageRatio=%.2f topicSwitchRatio=%.2f relay=%b",
+				users, topics, duration, rampUp, messagesPerMinute, privateMessageRatio, topicSwitchRatio, relay);
+	}
+}
@@ -0,0 +1,214 @@
+package loadtest;
+
+import java.rmi.RemoteException;
+import java.rmi.server.ExportException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.commons.lang3.RandomStringUtils;
+
+import listeners.MessageRemoteEventListener;
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSTopicUser;
+import models.JMSUser;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.UnknownLeaseException;
+import net.jini.core.transaction.TransactionException;
+import net.jini.export.Exporter;
+import net.jini.jeri.BasicILFactory;
+import net.jini.jeri.BasicJeriExporter;
+import net.jini.jeri.tcp.TcpServerEndpoint;
+import net.jini.space.JavaSpace05;
+import services.MessageService;
+import services.SpaceService;
+import services.TopicService;
+import services.UserService;
+import services.metrics.MeteredJavaSpace;
+import services.space.InMemoryJavaSpace;
+
+/**
+ * A single simulated chat user. Signs up, joins a topic and listens for its
+ * messages the same way a ChatroomController does, then sends public and
+ * private messages (and occasionally moves to another topic) until the load
+ * generator's run ends.
+ */
+public class SimulatedUser implements Runnable {
+	private static final String PASSWORD = "password";
+
+	private final LoadGenerator generator;
+	private final LoadProfile profile;
+	private final Random random;
+	private final JMSUser user;
+
+	private final UserService userService = UserService.getUserService();
+	private final TopicService topicService = TopicService.getTopicService();
+	private final MessageService messageService = MessageService.getMessageService();
+
+	private JMSTopic topic;
+	private EventRegistration registration;
+	private Exporter exporter;
+	private int messagesSent;
+
+	public SimulatedUser(LoadGenerator generator, String runId, int index) {
+		this.generator = generator;
+		this.profile = generator.getProfile();
+		this.random = new Random(index);
+		this.user = new JMSUser("LoadUser" + runId + index, PASSWORD);
+	}
+
+	@Override
+	public void run() {
+		Lease userLease = null;
+
+		try {
+			userLease = userService.createUser(user);
+			join(randomTopic());
+
+			while (System.currentTimeMillis() < generator.getEndTime()) {
+				Thread.sleep(thinkTime());
+
+				double action = random.nextDouble();
+
+				if (action < profile.topicSwitchRatio) {
+					leave();
+					join(randomTopic());
+				} else {
+					sendMessage(action < profile.topicSwitchRatio + profile.privateMessageRatio);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			generator.userFailed(user, e);
+		} finally {
+			leave();
+
+			if (userLease != null) {
+				try {
+					userLease.cancel();
+				} catch (UnknownLeaseException | RemoteException e) {
+					// Already gone
+				}
+			}
+		}
+	}
+
+	/**
+	 * Joins a topic and starts listening for its messages.
+	 */
+	private void join(JMSTopic newTopic) throws ExportException, TransactionException, RemoteException {
+		topic = newTopic;
+		topicService.addTopicUser(topic, user);
+
+		JavaSpace05 topicSpace = SpaceService.getTopicSpace(topic);
+		RemoteEventListener listener = export(new MessageRemoteEventListener(null, topic, user), topicSpace);
+		registration = messageService.registerMessageListener(topic, listener);
+
+		generator.userJoined();
+	}
+
+	/**
+	 * Stops listening to and leaves the current topic, if in one.
+	 */
+	private void leave() {
+		if (topic == null) {
+			return;
+		}
+
+		if (registration != null) {
+			try {
+				registration.getLease().cancel();
+			} catch (UnknownLeaseException | RemoteException e) {
+				// Already gone
+			}
+
+			registration = null;
+		}
+
+		if (exporter != null) {
+			exporter.unexport(true);
+			exporter = null;
+		}
+
+		topicService.removeTopicUser(topic, user);
+		topic = null;
+	}
+
+	/**
+	 * Sends a message to the current topic.
+	 *
+	 * @param isPrivate
+	 *            Whether to send it privately to another user in the topic.
+	 *            Sent publicly if there's nobody else in the topic.
+	 */
+	private void sendMessage(boolean isPrivate) {
+		JMSUser to = isPrivate ? randomOtherUser() : null;
+		JMSMessage message = new JMSMessage(topic, System.currentTimeMillis(), user, to, UUID.randomUUID(),
+				RandomStringUtils.randomAlphanumeric(40) + " " + messagesSent++);
+
+		generator.messageSending(message);
+		long start = System.nanoTime();
+
+		try {
+			messageService.sendMessage(message);
+			generator.messageSent(message, System.nanoTime() - start);
+		} catch (Exception e) {
+			generator.messageFailed(message);
+		}
+	}
+
+	private JMSUser randomOtherUser() {
+		List<JMSTopicUser> topicUsers = new ArrayList<JMSTopicUser>(topicService.getAllTopicUsers(topic));
+		Collections.shuffle(topicUsers, random);
+
+		for (JMSTopicUser topicUser : topicUsers) {
+			if (!topicUser.getUser().getId().equals(user.getId())) {
+				return topicUser.getUser();
+			}
+		}
+
+		return null;
+	}
+
+	private JMSTopic randomTopic() {
+		List<JMSTopic> topics = generator.getTopics();
+
+		return topics.get(random.nextInt(topics.size()));
+	}
+
+	/**
+	 * How long to wait before the next action. Exponentially distributed, so
+	 * users act independently of each other, like real ones.
+	 */
+	private long thinkTime() {
+		double meanInMillis = 60000d / profile.messagesPerMinute;
+		long thinkTime = (long) (-Math.log(1d - random.nextDouble()) * meanInMillis);
+
+		return Math.max(0l, Math.min(thinkTime, generator.getEndTime() - System.currentTimeMillis()));
+	}
+
+	/**
+	 * Makes a listener callable by the space. An in-memory space calls it
+	 * directly; a real one needs it exported, as ChatroomController does.
+	 */
+	private RemoteEventListener export(RemoteEventListener listener, JavaSpace05 topicSpace) throws ExportException {
+		JavaSpace05 unmeteredSpace = topicSpace;
+		if (topicSpace instanceof MeteredJavaSpace) {
+			unmeteredSpace = ((MeteredJavaSpace) topicSpace).getSpace();
+		}
+
+		if (unmeteredSpace instanceof InMemoryJavaSpace) {
+			return listener;
+		}
+
+		exporter = new BasicJeriExporter(TcpServerEndpoint.getInstance(0), new BasicILFactory(), false, true);
+
+		return (RemoteEventListener) exporter.export(listener);
+	}
+}
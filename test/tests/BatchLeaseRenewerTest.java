@@ -0,0 +1,182 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.LeaseMapException;
+import net.jini.core.lease.UnknownLeaseException;
+import services.helper.BatchLeaseRenewer;
+
+public class BatchLeaseRenewerTest {
+	@Test
+	public void testTrackingIsNotHeldUpByASlowRenewal() throws Exception {
+		final BatchLeaseRenewer<String> renewer = new BatchLeaseRenewer<String>("test-renewer", 1000l, 60000l);
+		FakeSpace space = new FakeSpace();
+		space.renewing = new CountDownLatch(1);
+		space.release = new CountDownLatch(1);
+		renewer.track("first", new FakeLease(space));
+
+		Thread renewal = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				renewer.renewAll();
+			}
+		});
+		renewal.start();
+		assertTrue(space.renewing.await(5, TimeUnit.SECONDS));
+
+		// The space is still answering the renewal
+		final Lease second = new FakeLease(space);
+		Thread tracking = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				renewer.track("second", second);
+				renewer.untrack("first");
+			}
+		});
+		tracking.start();
+		tracking.join(1000l);
+		assertFalse("Tracking waited for the renewal", tracking.isAlive());
+		assertSame(second, renewer.get("second"));
+		assertNull(renewer.get("first"));
+
+		space.release.countDown();
+		renewal.join(5000l);
+		assertEquals(Collections.singleton("second"), renewer.keys());
+	}
+
+	@Test
+	public void testLeasesThatFailToRenewAreDropped() throws Exception {
+		BatchLeaseRenewer<String> renewer = new BatchLeaseRenewer<String>("test-renewer", 1000l, 60000l);
+		FakeSpace space = new FakeSpace();
+		FakeLease kept = new FakeLease(space);
+		FakeLease lost = new FakeLease(space);
+		renewer.track("kept", kept);
+		renewer.track("lost", lost);
+
+		space.failing = lost;
+		renewer.renewAll();
+
+		assertSame(kept, renewer.get("kept"));
+		assertNull(renewer.get("lost"));
+		assertEquals(1, kept.renewals);
+	}
+
+	/**
+	 * Stands in for a space, which renews all of its leases in one call
+	 */
+	private static class FakeSpace {
+		private CountDownLatch renewing;
+		private CountDownLatch release;
+		private Lease failing;
+	}
+
+	private static class FakeLease implements Lease {
+		private final FakeSpace space;
+		private int renewals;
+
+		public FakeLease(FakeSpace space) {
+			this.space = space;
+		}
+
+		@Override
+		public long getExpiration() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@Override
+		public void renew(long duration) {
+			renewals++;
+		}
+
+		@Override
+		public void setSerialFormat(int format) {
+		}
+
+		@Override
+		public int getSerialFormat() {
+			return Lease.DURATION;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public LeaseMap createLeaseMap(long duration) {
+			FakeLeaseMap leaseMap = new FakeLeaseMap(space);
+			leaseMap.put(this, Long.valueOf(duration));
+
+			return leaseMap;
+		}
+
+		@Override
+		public boolean canBatch(Lease lease) {
+			return lease instanceof FakeLease && ((FakeLease) lease).space == space;
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "serial" })
+	private static class FakeLeaseMap extends HashMap implements LeaseMap {
+		private final FakeSpace space;
+
+		public FakeLeaseMap(FakeSpace space) {
+			this.space = space;
+		}
+
+		@Override
+		public boolean canContainKey(Object key) {
+			return key instanceof FakeLease && ((FakeLease) key).space == space;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void renewAll() throws LeaseMapException, RemoteException {
+			if (space.renewing != null) {
+				space.renewing.countDown();
+
+				try {
+					space.release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			Map<Lease, Exception> failures = new HashMap<Lease, Exception>();
+
+			for (Object lease : keySet()) {
+				if (lease == space.failing) {
+					failures.put((Lease) lease, new UnknownLeaseException());
+				} else {
+					((FakeLease) lease).renew(((Long) get(lease)).longValue());
+				}
+			}
+
+			if (!failures.isEmpty()) {
+				keySet().removeAll(failures.keySet());
+
+				throw new LeaseMapException("Leases failed to renew", failures);
+			}
+		}
+
+		@Override
+		public void cancelAll() {
+			clear();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import services.sharding.ConsistentHashRing;
+
+public class ConsistentHashRingTest {
+	@Test
+	public void testSpreadsAndKeepsKeys() {
+		ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+		for (int i = 0; i < 4; i++) {
+			ring.add("shard-" + i, "shard-" + i);
+		}
+
+		List<UUID> keys = new ArrayList<UUID>();
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < 10000; i++) {
+			UUID key = UUID.randomUUID();
+			keys.add(key);
+
+			String shard = ring.get(key);
+			counts.put(shard, counts.containsKey(shard) ? counts.get(shard) + 1 : 1);
+		}
+
+		for (int count : counts.values()) {
+			assertTrue("Uneven shard: " + counts, count > 1500 && count < 3500);
+		}
+
+		// Adding a shard only moves keys onto it
+		Map<UUID, String> before = new HashMap<UUID, String>();
+		for (UUID key : keys) {
+			before.put(key, ring.get(key));
+		}
+
+		ring.add("shard-4", "shard-4");
+		int moved = 0;
+		for (UUID key : keys) {
+			String shard = ring.get(key);
+
+			if (!shard.equals(before.get(key))) {
+				assertEquals("shard-4", shard);
+				moved++;
+			}
+		}
+
+		assertTrue("Moved " + moved, moved > 1000 && moved < 3000);
+	}
+}
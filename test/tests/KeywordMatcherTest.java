@@ -0,0 +1,26 @@
+package tests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import services.helper.KeywordMatcher;
+
+public class KeywordMatcherTest {
+	@Test
+	public void testMatchesWholeWordKeywords() {
+		KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("Ann", "release", "he", "she", "hers", " "));
+
+		assertTrue(matcher.matches("thanks, ANN!"));
+		assertTrue(matcher.matches("Is the release out?"));
+		assertTrue(matcher.matches("ushers said hers"));
+		assertFalse(matcher.matches("planning the releases"));
+		assertFalse(matcher.matches("ushers"));
+		assertFalse(matcher.matches(""));
+		assertFalse(matcher.matches(null));
+		assertFalse(KeywordMatcher.NONE.matches("Ann"));
+	}
+}
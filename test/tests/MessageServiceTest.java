@@ -1,16 +1,23 @@
 package tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.rmi.RemoteException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
+import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -20,9 +27,15 @@ import models.JMSTopic;
 import models.JMSUser;
 import net.jini.core.lease.Lease;
 import net.jini.core.lease.UnknownLeaseException;
+import net.jini.space.JavaSpace;
+import net.jini.space.JavaSpace05;
 import services.MessageService;
+import services.SpaceService;
 import services.TopicService;
 import services.UserService;
+import services.helper.TimeFormatHelper;
+import services.metrics.MessagingMetrics;
+import services.space.InMemoryJavaSpace;
 
 public class MessageServiceTest {
 	private JMSUser user;
@@ -39,7 +52,7 @@ public class MessageServiceTest {
 		// nothing will be duplicated. Same with topic names.
 		user = new JMSUser("$$$", "$$$");
 		topic = new JMSTopic("$$$", user);
-		message = new JMSMessage(topic, new Date(), user, null, UUID.randomUUID(), "sfsdf");
+		message = new JMSMessage(topic, System.currentTimeMillis(), user, null, UUID.randomUUID(), "sfsdf");
 
 		messageService = MessageService.getMessageService();
 		topicService = TopicService.getTopicService();
@@ -102,7 +115,7 @@ public class MessageServiceTest {
 			leases.add(topicService.createDebugTopic(topic));
 
 			for (int i = 0; i < 10; i++) {
-				message = new JMSMessage(topic, new Date(), user, null, UUID.randomUUID(), "sfsdf");
+				message = new JMSMessage(topic, System.currentTimeMillis(), user, null, UUID.randomUUID(), "sfsdf");
 				messagesToPutInSpace.add(message);
 
 				leases.add(messageService.sendMessage(message));
@@ -146,7 +159,8 @@ public class MessageServiceTest {
 			leases.add(topicService.addDebugTopicUser(topic, userRandom));
 
 			for (int i = 0; i < numPrivateMessagesToSend; i++) {
-				message = new JMSMessage(topic, new Date(), userFrom, userTo, UUID.randomUUID(), "test message");
+				message = new JMSMessage(topic, System.currentTimeMillis(), userFrom, userTo,
+						UUID.randomUUID(), "test message");
 				messagesToPutInSpace.add(message);
 
 				messageService.sendMessage(message);
@@ -181,7 +195,8 @@ public class MessageServiceTest {
 
 			leases.add(topicService.addDebugTopicUser(topic, userFrom));
 
-			message = new JMSMessage(topic, new Date(), userFrom, userTo, UUID.randomUUID(), "test message");
+			message = new JMSMessage(topic, System.currentTimeMillis(), userFrom, userTo,
+					UUID.randomUUID(), "test message");
 		} catch (Exception e) {
 			fail("Failed to put Entries in space for test.");
 			
@@ -199,4 +214,80 @@ public class MessageServiceTest {
 		
 		assertTrue(expectedExceptionThrown);
 	}
+
+	@Test
+	public void testSendingRecordsMetrics() {
+		MessagingMetrics metrics = MessagingMetrics.getMessagingMetrics();
+		long sentBefore = metrics.getMessagesSent();
+		long failedBefore = metrics.getSendFailures();
+
+		try {
+			leases.add(userService.createDebugUser(user));
+			leases.add(topicService.createDebugTopic(topic));
+			leases.add(messageService.sendMessage(message));
+		} catch (Exception e) {
+			fail("Failed to put Entries in space for test.");
+
+			return;
+		}
+
+		try {
+			message.setTopic(null);
+			messageService.sendMessage(message);
+		} catch (RemoteException | ResourceNotFoundException e) {
+			// Expected
+		}
+
+		assertEquals(sentBefore + 1, metrics.getMessagesSent());
+		assertEquals(failedBefore + 1, metrics.getSendFailures());
+		assertTrue(metrics.getSendLatencyMaxMillis() > 0);
+	}
+
+	@Test
+	public void testTopicTrafficGoesToItsShard() {
+		// Shards are in-memory, so can only join the in-memory space's
+		// transactions
+		Assume.assumeTrue(StringUtils.equals("memory", System.getProperty(SpaceService.SPACE_PROPERTY)));
+
+		List<InMemoryJavaSpace> shards = Arrays.asList(new InMemoryJavaSpace(), new InMemoryJavaSpace());
+		SpaceService.useShards(shards);
+
+		try {
+			JMSUser userTo = new JMSUser("@@@", "@@@");
+			leases.add(userService.createDebugUser(user));
+			leases.add(topicService.createDebugTopic(topic));
+			leases.add(topicService.addDebugTopicUser(topic, userTo));
+
+			message = new JMSMessage(topic, System.currentTimeMillis(), user, userTo,
+					UUID.randomUUID(), "sharded message");
+			leases.add(messageService.sendMessage(message));
+
+			int shardIndex = SpaceService.getTopicSpaces().indexOf(SpaceService.getTopicSpace(topic));
+			assertEquals(2, shards.get(shardIndex).size());
+			assertEquals(0, shards.get(1 - shardIndex).size());
+			assertNull(SpaceService.getSpace().readIfExists(new JMSMessage(topic), null, JavaSpace.NO_WAIT));
+
+			assertEquals(1, messageService.getAllMessagesForUserInTopic(topic, userTo).size());
+			assertEquals(1, topicService.getAllTopicUsers(topic).size());
+		} catch (Exception e) {
+			fail("Failed to put Entries in space for test.");
+		} finally {
+			SpaceService.useShards(Collections.<JavaSpace05> emptyList());
+		}
+	}
+
+	@Test
+	public void testSentTimesFormatAsLocalHoursAndMinutes() throws Exception {
+		SimpleDateFormat expectedFormat = new SimpleDateFormat("H:mm");
+		long time = expectedFormat.parse("1:03").getTime();
+
+		// Spans a day, to cover every hour and the cache wrapping around
+		for (int i = 0; i < 24 * 60; i += 7) {
+			long sentTime = time + i * 60000l + 59999l;
+			assertEquals(expectedFormat.format(new Date(sentTime)), TimeFormatHelper.format(sentTime));
+		}
+
+		assertEquals("1:03", TimeFormatHelper.format(time));
+		assertSame(TimeFormatHelper.format(time), TimeFormatHelper.format(time + 30000l));
+	}
 }
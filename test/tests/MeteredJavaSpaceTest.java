@@ -0,0 +1,53 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.JMSTopic;
+import models.JMSUser;
+import net.jini.core.lease.Lease;
+import net.jini.space.JavaSpace05;
+import services.metrics.MeteredJavaSpace;
+import services.metrics.SpaceMetrics;
+import services.metrics.SpaceOperation;
+import services.metrics.SpaceOperationMetrics;
+import services.space.InMemoryJavaSpace;
+
+public class MeteredJavaSpaceTest {
+	private InMemoryJavaSpace space;
+
+	@Before
+	public void setup() {
+		space = new InMemoryJavaSpace();
+	}
+
+	@Test
+	public void testRecordsCalls() throws Exception {
+		JavaSpace05 meteredSpace = new MeteredJavaSpace(space);
+		SpaceOperationMetrics writes = SpaceMetrics.getSpaceMetrics().get(SpaceOperation.WRITE, JMSTopic.class);
+		SpaceOperationMetrics takes = SpaceMetrics.getSpaceMetrics().get(SpaceOperation.TAKE, JMSTopic.class);
+		long writesBefore = writes.getCalls();
+		long takesBefore = takes.getCalls();
+		long takenBefore = takes.getEntries();
+		long timeoutsBefore = takes.getTimeouts();
+
+		JMSTopic topic = new JMSTopic("Topic", new JMSUser("Owner", "password"));
+		meteredSpace.write(topic, null, Lease.FOREVER);
+
+		assertNotNull(meteredSpace.take(new JMSTopic(), null, 100));
+		assertNull(meteredSpace.take(new JMSTopic(), null, 10));
+
+		assertEquals(writesBefore + 1, writes.getCalls());
+		assertEquals(takesBefore + 2, takes.getCalls());
+		assertEquals(takenBefore + 1, takes.getEntries());
+		assertEquals(timeoutsBefore + 1, takes.getTimeouts());
+		// The space times out on the millisecond clock, so may wait just
+		// under the full 10ms
+		assertTrue(takes.getLatencyMaxMillis() >= 9);
+	}
+}
@@ -0,0 +1,274 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.JMSTopic;
+import models.JMSUser;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEvent;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.Lease;
+import net.jini.space.JavaSpace;
+import net.jini.space.JavaSpace05;
+import services.resilience.CircuitBreaker;
+import services.resilience.CircuitOpenException;
+import services.resilience.FailoverSpaceLookup;
+import services.resilience.ResilientJavaSpace;
+import services.resilience.RetryPolicy;
+import services.resilience.ServiceLookup;
+import services.resilience.SpaceHost;
+import services.space.InMemoryJavaSpace;
+
+public class ResilientJavaSpaceTest {
+	private InMemoryJavaSpace space;
+
+	@Before
+	public void setup() {
+		space = new InMemoryJavaSpace();
+	}
+
+	@Test
+	public void testRetriesLookupAndReads() throws Exception {
+		final AtomicInteger lookups = new AtomicInteger();
+		final FlakySpace flakySpace = new FlakySpace(space);
+
+		JavaSpace05 resilientSpace = new ResilientJavaSpace("test space", new ServiceLookup<JavaSpace05>() {
+			@Override
+			public JavaSpace05 lookup() throws Exception {
+				if (lookups.incrementAndGet() == 1) {
+					throw new java.net.ConnectException("Connection refused");
+				}
+
+				return flakySpace.proxy();
+			}
+		}, new RetryPolicy(3, 1l, 5l, 1000l), new CircuitBreaker("test space", 10, 1000l));
+
+		JMSTopic topic = new JMSTopic("Topic", new JMSUser("Owner", "password"));
+		resilientSpace.write(topic, null, Lease.FOREVER);
+		assertEquals(2, lookups.get());
+
+		// A read whose reply was lost is retried on the same proxy
+		flakySpace.failNext(new RemoteException("Reply lost"));
+		JMSTopic read = (JMSTopic) resilientSpace.readIfExists(new JMSTopic(), null, JavaSpace.NO_WAIT);
+		assertEquals(topic.getId(), read.getId());
+		assertEquals(2, lookups.get());
+
+		// A take whose reply was lost has happened, so isn't retried
+		flakySpace.failNext(new RemoteException("Reply lost"));
+		int callsBefore = flakySpace.getCalls();
+		try {
+			resilientSpace.take(new JMSTopic(), null, JavaSpace.NO_WAIT);
+			fail("Take should not have been retried");
+		} catch (RemoteException e) {
+			assertEquals(callsBefore + 1, flakySpace.getCalls());
+			assertEquals(0, space.size());
+		}
+
+		// One that never reached the space is, after looking the space up
+		// again
+		resilientSpace.write(topic, null, Lease.FOREVER);
+		flakySpace.failNext(new ConnectException("Connection refused"));
+		JMSTopic taken = (JMSTopic) resilientSpace.take(new JMSTopic(), null, JavaSpace.NO_WAIT);
+		assertEquals(topic.getId(), taken.getId());
+		assertEquals(3, lookups.get());
+		assertEquals(0, space.size());
+	}
+
+	@Test
+	public void testCircuitBreakerFailsFastUntilTrialSucceeds() throws Exception {
+		final AtomicInteger lookups = new AtomicInteger();
+		final AtomicBoolean spaceUp = new AtomicBoolean();
+		CircuitBreaker breaker = new CircuitBreaker("test space", 3, 100l);
+
+		JavaSpace05 resilientSpace = new ResilientJavaSpace("test space", new ServiceLookup<JavaSpace05>() {
+			@Override
+			public JavaSpace05 lookup() throws Exception {
+				lookups.incrementAndGet();
+
+				return spaceUp.get() ? space : null;
+			}
+		}, new RetryPolicy(2, 1l, 5l, 1000l), breaker);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				resilientSpace.readIfExists(new JMSTopic(), null, JavaSpace.NO_WAIT);
+				fail("No space should have been found");
+			} catch (CircuitOpenException e) {
+				fail("Breaker opened too soon");
+			} catch (RemoteException e) {
+				// Expected
+			}
+		}
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(3, lookups.get());
+
+		spaceUp.set(true);
+		try {
+			resilientSpace.readIfExists(new JMSTopic(), null, JavaSpace.NO_WAIT);
+			fail("Open breaker should fail fast");
+		} catch (CircuitOpenException e) {
+			assertEquals(3, lookups.get());
+		}
+
+		Thread.sleep(150);
+		assertNull(resilientSpace.readIfExists(new JMSTopic(), null, JavaSpace.NO_WAIT));
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(4, lookups.get());
+	}
+
+	@Test
+	public void testFailsOverAndReRegistersListeners() throws Exception {
+		InMemoryJavaSpace otherSpace = new InMemoryJavaSpace();
+		FlakySpace first = new FlakySpace(space);
+		FlakySpace second = new FlakySpace(otherSpace);
+
+		// Slower, so the first host is chosen
+		second.setDelay(20);
+
+		FailoverSpaceLookup lookup = new FailoverSpaceLookup(Arrays.asList(host("first", first),
+				host("second", second)));
+		JavaSpace05 resilientSpace = new ResilientJavaSpace("test space", lookup, new RetryPolicy(3, 1l, 5l, 1000l),
+				new CircuitBreaker("test space", 10, 1000l));
+
+		final BlockingQueue<RemoteEvent> events = new ArrayBlockingQueue<RemoteEvent>(10);
+		EventRegistration registration = resilientSpace.registerForAvailabilityEvent(
+				Collections.singletonList(new JMSTopic()), null, true, new RemoteEventListener() {
+					@Override
+					public void notify(RemoteEvent event) throws RemoteException {
+						events.add(event);
+					}
+				}, Lease.FOREVER, null);
+		assertEquals("first", lookup.getCurrentHost().getName());
+
+		JMSUser owner = new JMSUser("Owner", "password");
+		resilientSpace.write(new JMSTopic("Topic", owner), null, Lease.FOREVER);
+		assertNotNull(events.poll(5, TimeUnit.SECONDS));
+		assertEquals(1, space.size());
+
+		first.setDown(true);
+		resilientSpace.write(new JMSTopic("Other topic", owner), null, Lease.FOREVER);
+		assertEquals("second", lookup.getCurrentHost().getName());
+		assertFalse(lookup.getHosts().get(0).isHealthy());
+		assertEquals(1, otherSpace.size());
+		assertNotNull(events.poll(5, TimeUnit.SECONDS));
+
+		// Cancelling the registration cancels it on the space it moved to
+		registration.getLease().cancel();
+		resilientSpace.write(new JMSTopic("Third topic", owner), null, Lease.FOREVER);
+		assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	private static SpaceHost host(String name, final FlakySpace flakySpace) {
+		return new SpaceHost(name, new ServiceLookup<JavaSpace05>() {
+			@Override
+			public JavaSpace05 lookup() throws Exception {
+				if (flakySpace.isDown()) {
+					throw new java.net.ConnectException("Connection refused");
+				}
+
+				return flakySpace.proxy();
+			}
+		}, null);
+	}
+
+	/**
+	 * Delegates to a real space, but can be told to fail the next call
+	 */
+	private static class FlakySpace implements InvocationHandler {
+		private final JavaSpace05 space;
+		private final JavaSpace05 proxy;
+		private RemoteException nextFailure;
+		private int calls;
+		private long delay;
+		private volatile boolean down;
+
+		public FlakySpace(JavaSpace05 space) {
+			this.space = space;
+			this.proxy = (JavaSpace05) Proxy.newProxyInstance(JavaSpace05.class.getClassLoader(),
+					new Class<?>[] { JavaSpace05.class }, this);
+		}
+
+		public JavaSpace05 proxy() {
+			return proxy;
+		}
+
+		public void failNext(RemoteException failure) {
+			nextFailure = failure;
+		}
+
+		public void setDelay(long delay) {
+			this.delay = delay;
+		}
+
+		/**
+		 * Fails every call from now on, as if the host has died
+		 */
+		public void setDown(boolean down) {
+			this.down = down;
+		}
+
+		public boolean isDown() {
+			return down;
+		}
+
+		public int getCalls() {
+			return calls;
+		}
+
+		/**
+		 * Connection failures happen before the call reaches the space,
+		 * anything else after
+		 */
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			} else if (method.getDeclaringClass() == Object.class) {
+				return method.invoke(this, args);
+			}
+
+			RemoteException failure = down ? new ConnectException("Connection refused") : nextFailure;
+			nextFailure = null;
+
+			if (failure instanceof ConnectException) {
+				throw failure;
+			}
+
+			Thread.sleep(delay);
+
+			try {
+				calls++;
+				Object result = method.invoke(space, args);
+				if (failure != null) {
+					throw failure;
+				}
+
+				return result;
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSUser;
+import services.helper.KeywordMatcher;
+import services.store.RoomMessageStore;
+
+public class RoomMessageStoreTest {
+	private JMSUser user;
+	private JMSTopic topic;
+
+	@Before
+	public void setup() {
+		user = new JMSUser("Viewer", "password");
+		topic = new JMSTopic("Room", user);
+	}
+
+	@Test
+	public void testKeepsMessagesInColumns() {
+		JMSUser other = new JMSUser("Other", "password");
+		JMSUser third = new JMSUser("Third", "password");
+		RoomMessageStore store = new RoomMessageStore(user);
+		List<JMSMessage> sent = new ArrayList<JMSMessage>();
+
+		for (int i = 0; i < 1000; i++) {
+			JMSUser from = i % 3 == 0 ? user : i % 3 == 1 ? other : third;
+			JMSUser to = i % 7 == 0 ? other : null;
+			String text = i % 100 == 0 ? "" : "Message " + i;
+
+			JMSMessage message = new JMSMessage(topic, 1000l * i, from, to, UUID.randomUUID(), text);
+			assertEquals(i, store.add(message));
+			sent.add(message);
+		}
+
+		assertEquals(1000, store.size());
+		assertEquals(3, store.getUserCount());
+
+		for (int i = 0; i < sent.size(); i++) {
+			JMSMessage message = sent.get(i);
+
+			assertEquals(i, store.getSequence(i));
+			assertEquals(message.getSentTime().longValue(), store.getSentTime(i));
+			assertEquals(message.getId(), store.getId(i));
+			assertEquals(message.getFrom().getName(), store.getSender(i));
+			assertEquals(message.getMessage(), store.getText(i));
+			assertEquals(message.getTo() != null, store.hasFlags(i, RoomMessageStore.PRIVATE));
+			assertEquals(message.getFrom() == user, store.hasFlags(i, RoomMessageStore.FROM_VIEWER));
+
+			if (message.getTo() == null) {
+				assertNull(store.getRecipient(i));
+			} else {
+				assertEquals("Other", store.getRecipient(i));
+			}
+		}
+	}
+
+	@Test
+	public void testSpillsOldMessagesToDisk() {
+		JMSUser other = new JMSUser("Other", "password");
+		RoomMessageStore store = new RoomMessageStore(user, 100);
+		List<JMSMessage> sent = new ArrayList<JMSMessage>();
+
+		try {
+			for (int i = 0; i < 1000; i++) {
+				JMSMessage message = new JMSMessage(topic, 1000l * i, i % 2 == 0 ? user : other,
+						i % 5 == 0 ? other : null, UUID.randomUUID(), StringUtils.repeat("x", i));
+				store.add(message);
+				sent.add(message);
+
+				assertTrue(store.getInMemoryCount() <= 100);
+			}
+
+			assertEquals(1000, store.size());
+
+			// Scroll up from the bottom, as a user would
+			for (int i = sent.size() - 1; i >= 0; i--) {
+				JMSMessage message = sent.get(i);
+
+				assertEquals(i, store.getSequence(i));
+				assertEquals(message.getSentTime().longValue(), store.getSentTime(i));
+				assertEquals(message.getId(), store.getId(i));
+				assertEquals(message.getFrom().getName(), store.getSender(i));
+				assertEquals(message.getTo() == null ? null : "Other", store.getRecipient(i));
+				assertEquals(message.getMessage(), store.getText(i));
+				assertEquals(message.getTo() != null, store.hasFlags(i, RoomMessageStore.PRIVATE));
+			}
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testClosedStoreStartsNoSpillFile() {
+		File tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+		FilenameFilter spillFiles = new FilenameFilter() {
+			@Override
+			public boolean accept(File directory, String name) {
+				return name.startsWith("chatroom-scrollback");
+			}
+		};
+		int spillFilesBefore = tempDirectory.list(spillFiles).length;
+
+		RoomMessageStore store = new RoomMessageStore(user, 10);
+		store.close();
+
+		// Messages arriving late, after the room has closed
+		for (int i = 0; i < 100; i++) {
+			store.add(new JMSMessage(topic, 1000l * i, user, null, UUID.randomUUID(), "Late"));
+		}
+
+		assertEquals(spillFilesBefore, tempDirectory.list(spillFiles).length);
+	}
+
+	@Test
+	public void testFlagsMessagesMentioningTheViewer() {
+		JMSUser other = new JMSUser("Other", "password");
+		RoomMessageStore store = new RoomMessageStore(user);
+		store.setMentionMatcher(new KeywordMatcher(Arrays.asList(user.getName(), "deploy")));
+
+		store.add(new JMSMessage(topic, 0l, other, null, UUID.randomUUID(), "Hi " + user.getName()));
+		store.add(new JMSMessage(topic, 0l, other, null, UUID.randomUUID(), "Time to Deploy."));
+		store.add(new JMSMessage(topic, 0l, other, null, UUID.randomUUID(), "Nothing to see"));
+		store.add(new JMSMessage(topic, 0l, user, null, UUID.randomUUID(), "I said deploy"));
+
+		assertTrue(store.hasFlags(0, RoomMessageStore.MENTION));
+		assertTrue(store.hasFlags(1, RoomMessageStore.MENTION));
+		assertFalse(store.hasFlags(2, RoomMessageStore.MENTION));
+		// Users don't mention themselves
+		assertFalse(store.hasFlags(3, RoomMessageStore.MENTION));
+		store.close();
+	}
+}
@@ -1,5 +1,331 @@
 package tests;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSTopicUser;
+import models.JMSUser;
+import net.jini.core.entry.Entry;
+import net.jini.core.event.RemoteEvent;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.UnknownLeaseException;
+import net.jini.core.transaction.Transaction;
+import net.jini.core.transaction.TransactionFactory;
+import net.jini.space.AvailabilityEvent;
+import net.jini.space.JavaSpace;
+import net.jini.space.MatchSet;
+import services.space.IndexedEntryStore;
+import services.space.InMemoryJavaSpace;
+
 public class SpaceServiceTest {
+	private InMemoryJavaSpace space;
+
+	@Before
+	public void setup() {
+		space = new InMemoryJavaSpace();
+	}
+
+	@Test
+	public void testTemplateMatchesOnNonNullFields() throws Exception {
+		JMSUser alice = new JMSUser("Alice", "password");
+		JMSUser bob = new JMSUser("Bob", "password");
+		space.write(alice, null, Lease.FOREVER);
+		space.write(bob, null, Lease.FOREVER);
+
+		JMSUser template = new JMSUser();
+		template.setId(bob.getId());
+
+		JMSUser read = (JMSUser) space.readIfExists(template, null, JavaSpace.NO_WAIT);
+		assertEquals(bob, read);
+		assertEquals("Bob", read.getName());
+
+		// Reads return copies, not the written object
+		assertTrue(read != bob);
+		assertEquals(2, space.size());
+	}
+
+	@Test
+	public void testTemplateMatchesOnNestedEntries() throws Exception {
+		JMSUser owner = new JMSUser("Owner", "password");
+		JMSTopic topic = new JMSTopic("Topic", owner);
+		JMSTopic otherTopic = new JMSTopic("Other topic", owner);
+		JMSUser user = new JMSUser("User", "password");
+
+		space.write(new JMSTopicUser(topic, user), null, Lease.FOREVER);
+		space.write(new JMSTopicUser(otherTopic, user), null, Lease.FOREVER);
+
+		JMSTopicUser read = (JMSTopicUser) space.readIfExists(new JMSTopicUser(topic), null, JavaSpace.NO_WAIT);
+		assertNotNull(read);
+		assertEquals(topic.getId(), read.getTopic().getId());
+
+		assertNull(space.readIfExists(new JMSTopicUser(new JMSTopic("Missing", owner)), null, JavaSpace.NO_WAIT));
+	}
+
+	@Test
+	public void testTakeRemovesEntry() throws Exception {
+		JMSUser user = new JMSUser("User", "password");
+		space.write(user, null, Lease.FOREVER);
+
+		assertEquals(user, space.takeIfExists(new JMSUser(), null, JavaSpace.NO_WAIT));
+		assertNull(space.takeIfExists(new JMSUser(), null, JavaSpace.NO_WAIT));
+		assertEquals(0, space.size());
+	}
+
+	@Test
+	public void testBlockingTakeWaitsForWrite() throws Exception {
+		final JMSUser user = new JMSUser("User", "password");
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					space.write(user, null, Lease.FOREVER);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}).start();
+
+		assertEquals(user, space.take(new JMSUser(), null, 5000));
+	}
+
+	@Test
+	public void testEntriesExpireAndCancel() throws Exception {
+		space.write(new JMSUser("Expiring", "password"), null, 50);
+		Lease lease = space.write(new JMSUser("Cancelled", "password"), null, Lease.FOREVER);
+
+		lease.cancel();
+		Thread.sleep(100);
+
+		assertNull(space.readIfExists(new JMSUser(), null, JavaSpace.NO_WAIT));
+
+		try {
+			lease.cancel();
+			fail("Cancelling a cancelled lease should fail");
+		} catch (UnknownLeaseException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testTransactionIsolationAndCommit() throws Exception {
+		Transaction txn = TransactionFactory.create(space.getTransactionManager(), 5000).transaction;
+		JMSUser user = new JMSUser("User", "password");
+
+		space.write(user, txn, Lease.FOREVER);
+
+		assertNull(space.readIfExists(new JMSUser(), null, JavaSpace.NO_WAIT));
+		assertEquals(user, space.readIfExists(new JMSUser(), txn, JavaSpace.NO_WAIT));
+
+		txn.commit();
+
+		assertEquals(user, space.readIfExists(new JMSUser(), null, JavaSpace.NO_WAIT));
+	}
+
+	@Test
+	public void testAbortRestoresTakenEntries() throws Exception {
+		JMSUser user = new JMSUser("User", "password");
+		space.write(user, null, Lease.FOREVER);
+
+		Transaction txn = TransactionFactory.create(space.getTransactionManager(), 5000).transaction;
+		space.write(new JMSUser("Written", "password"), txn, Lease.FOREVER);
+		assertEquals(user, space.takeIfExists(byName("User"), txn, JavaSpace.NO_WAIT));
+
+		txn.abort();
+
+		assertEquals(user, space.readIfExists(byName("User"), null, JavaSpace.NO_WAIT));
+		assertEquals(1, space.size());
+	}
+
+	@Test
+	public void testBatchedTakeIsLimited() throws Exception {
+		List<Entry> users = new ArrayList<Entry>();
+		List<Long> leases = new ArrayList<Long>();
+		for (int i = 0; i < InMemoryJavaSpace.TAKE_LIMIT + 20; i++) {
+			users.add(new JMSUser("User " + i, "password"));
+			leases.add(Lease.FOREVER);
+		}
+
+		space.write(users, null, leases);
+
+		Collection<?> taken = space.take(Collections.singletonList(new JMSUser()), null, JavaSpace.NO_WAIT,
+				Long.MAX_VALUE);
+		assertEquals(InMemoryJavaSpace.TAKE_LIMIT, taken.size());
+		assertEquals(20, space.size());
+	}
+
+	@Test
+	public void testContents() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			space.write(new JMSUser("User " + i, "password"), null, Lease.FOREVER);
+		}
+
+		MatchSet matches = space.contents(Collections.singletonList(new JMSUser()), null, Lease.ANY, Long.MAX_VALUE);
+
+		int count = 0;
+		while (matches.next() != null) {
+			count++;
+		}
+
+		assertEquals(5, count);
+		assertEquals(5, space.size());
+	}
+
+	@Test
+	public void testAvailabilityEvents() throws Exception {
+		final BlockingQueue<RemoteEvent> events = new ArrayBlockingQueue<RemoteEvent>(10);
+		JMSTopic topic = new JMSTopic("Topic", new JMSUser("Owner", "password"));
+
+		space.registerForAvailabilityEvent(Collections.singletonList(new JMSTopicUser(topic)), null, true,
+				new RemoteEventListener() {
+					@Override
+					public void notify(RemoteEvent event) throws RemoteException {
+						events.add(event);
+					}
+				}, Lease.FOREVER, null);
+
+		JMSUser user = new JMSUser("User", "password");
+		space.write(new JMSTopicUser(new JMSTopic("Other", user), user), null, Lease.FOREVER);
+		space.write(new JMSTopicUser(topic, user), null, Lease.FOREVER);
+
+		AvailabilityEvent event = (AvailabilityEvent) events.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals(user, ((JMSTopicUser) event.getEntry()).getUser());
+		assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testLeaseMapRenewsInBulk() throws Exception {
+		Lease first = space.write(new JMSUser("First", "password"), null, 1000);
+		Lease second = space.write(new JMSUser("Second", "password"), null, 1000);
+
+		assertTrue(first.canBatch(second));
+
+		LeaseMap leaseMap = first.createLeaseMap(Lease.FOREVER);
+		// LeaseMap is a raw Map, but only ever maps leases to durations
+		@SuppressWarnings("unchecked")
+		Map<Lease, Long> durations = leaseMap;
+		durations.put(second, Long.valueOf(Lease.FOREVER));
+		leaseMap.renewAll();
+
+		assertEquals(Long.MAX_VALUE, first.getExpiration());
+		assertEquals(Long.MAX_VALUE, second.getExpiration());
+	}
+
+	@Test
+	public void testIndexedStoreLooksUpByIndexedFields() throws Exception {
+		IndexedEntryStore<JMSUser> store = new IndexedEntryStore<JMSUser>();
+		List<JMSUser> users = new ArrayList<JMSUser>();
+		for (int i = 0; i < 100; i++) {
+			JMSUser user = new JMSUser("User " + i, "password");
+			users.add(user);
+			store.add(user, user);
+		}
+
+		JMSUser template = new JMSUser();
+		template.setId(users.get(42).getId());
+		assertEquals(users.get(42), store.readIfExists(template));
+
+		// Indexed and unindexed fields together
+		template.setPassword("wrong");
+		assertNull(store.readIfExists(template));
+
+		assertTrue(store.remove(users.get(42)));
+		template.setPassword(null);
+		assertNull(store.readIfExists(template));
+		assertEquals(99, store.contents(new JMSUser(), Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void testIndexedStoreLooksUpByEmbeddedTopic() throws Exception {
+		IndexedEntryStore<Entry> store = new IndexedEntryStore<Entry>();
+		JMSUser user = new JMSUser("User", "password");
+		JMSTopic topic = new JMSTopic("Topic", user);
+		JMSTopic otherTopic = new JMSTopic("Other topic", user);
+
+		for (int i = 0; i < 10; i++) {
+			JMSMessage message = new JMSMessage(i % 2 == 0 ? topic : otherTopic, System.currentTimeMillis(), user, null,
+					UUID.randomUUID(), "Message " + i);
+			store.add(message, message);
+		}
+
+		JMSMessage template = new JMSMessage(topic);
+		assertEquals(5, store.contents(template, Long.MAX_VALUE).size());
+
+		// A null template matches every class
+		store.add(new JMSTopicUser(topic, user), topic);
+		assertEquals(11, store.contents(null, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void testModelsRoundTripThroughCompactForm() throws Exception {
+		JMSUser owner = new JMSUser("Owner", "password");
+		StringBuilder longText = new StringBuilder("Caf\u00e9 \u263a ");
+		while (longText.length() < 70000) {
+			longText.append("and on ");
+		}
+
+		JMSMessage message = new JMSMessage(new JMSTopic("Topic", owner), System.currentTimeMillis(), owner, null,
+				UUID.randomUUID(), longText.toString());
+		JMSMessage copy = (JMSMessage) roundTrip(message);
+
+		assertEquals(message.getTopic().getId(), copy.getTopic().getId());
+		assertEquals("TOPIC", copy.getTopic().getBaseName());
+		assertEquals(owner, copy.getTopic().getOwner());
+		assertEquals(message.getSentTime(), copy.getSentTime());
+		assertEquals(owner, copy.getFrom());
+		assertEquals("password", copy.getFrom().getPassword());
+		assertNull(copy.getTo());
+		assertEquals(message.getId(), copy.getId());
+		assertEquals(message.getMessage(), copy.getMessage());
+
+		// Templates' null fields survive too
+		JMSTopicUser template = (JMSTopicUser) roundTrip(new JMSTopicUser(new JMSTopic()));
+		assertNotNull(template.getTopic());
+		assertNull(template.getTopic().getId());
+		assertNull(template.getTopic().getName());
+		assertNull(template.getUser());
+	}
+
+	private static Object roundTrip(Object value) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+
+		return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+
+	private JMSUser byName(String name) {
+		JMSUser template = new JMSUser();
+		template.setName(name);
 
+		return template;
+	}
 }
@@ -0,0 +1,95 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.JMSTopic;
+import models.JMSUser;
+import services.stats.TopicActivity;
+import services.stats.TopicActivityTracker;
+
+public class TopicActivityTrackerTest {
+	private JMSUser aUser;
+
+	@Before
+	public void setup() {
+		aUser = new JMSUser("Owner", "password");
+	}
+
+	@Test
+	public void testCountsMembersAndRecentMessages() {
+		long minute = 60l * 1000l;
+		long now = 1000l * minute;
+		TopicActivityTracker tracker = new TopicActivityTracker(5);
+		JMSUser anotherUser = new JMSUser("Another", "password");
+		JMSTopic quiet = new JMSTopic("Quiet", aUser);
+		JMSTopic busy = new JMSTopic("Busy", aUser);
+		JMSTopic crowded = new JMSTopic("Crowded", aUser);
+
+		tracker.topicAdded(quiet);
+		tracker.topicAdded(busy);
+		tracker.topicAdded(crowded);
+		tracker.userJoined(crowded, aUser);
+		tracker.userJoined(crowded, anotherUser);
+		// Joining twice, as when an event races the initial read
+		tracker.userJoined(crowded, anotherUser);
+		tracker.userJoined(busy, aUser);
+
+		// Counted: the current minute and the four before it
+		tracker.messageSent(busy, now);
+		tracker.messageSent(busy, now - 4l * minute);
+		tracker.messageSent(crowded, now - 2l * minute);
+		// Too old
+		tracker.messageSent(busy, now - 5l * minute);
+		tracker.messageSent(busy, now - 30l * minute);
+
+		List<TopicActivity> hot = tracker.getHotTopics(now, 10);
+		assertEquals(3, hot.size());
+		assertEquals(busy.getId(), hot.get(0).getTopic().getId());
+		assertEquals(2, hot.get(0).getRecentMessageCount());
+		assertEquals(1, hot.get(0).getMemberCount());
+		assertEquals(crowded.getId(), hot.get(1).getTopic().getId());
+		assertEquals(2, hot.get(1).getMemberCount());
+		assertEquals(quiet.getId(), hot.get(2).getTopic().getId());
+		assertEquals(0, hot.get(2).getRecentMessageCount());
+
+		// Messages age out of the window as time passes
+		hot = tracker.getHotTopics(now + 3l * minute, 1);
+		assertEquals(1, hot.size());
+		assertEquals(busy.getId(), hot.get(0).getTopic().getId());
+		assertEquals(1, hot.get(0).getRecentMessageCount());
+
+		tracker.userLeft(crowded, anotherUser);
+		tracker.topicRemoved(quiet);
+		assertEquals(2, tracker.getActivity(now).size());
+
+		for (TopicActivity activity : tracker.getActivity(now)) {
+			assertEquals(1, activity.getMemberCount());
+		}
+
+		// Events arriving after a topic was deleted don't bring it back
+		tracker.userJoined(quiet, aUser);
+		tracker.messageSent(quiet, now);
+		assertEquals(2, tracker.getActivity(now).size());
+		assertEquals(0, tracker.getMemberCount(quiet.getId()));
+
+		// A recount replaces members, keeping joins and leaves made during it
+		tracker.beginMemberRecount();
+		tracker.userJoined(busy, anotherUser);
+		tracker.userLeft(crowded, aUser);
+		Map<UUID, Set<UUID>> members = new HashMap<UUID, Set<UUID>>();
+		members.put(crowded.getId(), new HashSet<UUID>(Arrays.asList(aUser.getId(), anotherUser.getId())));
+		tracker.finishMemberRecount(members);
+		assertEquals(1, tracker.getMemberCount(busy.getId()));
+		assertEquals(1, tracker.getMemberCount(crowded.getId()));
+	}}
@@ -0,0 +1,232 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.JMSMessage;
+import models.JMSTopic;
+import models.JMSTopicUser;
+import models.JMSTopicUserRemoved;
+import models.JMSUser;
+import net.jini.core.event.EventRegistration;
+import net.jini.core.event.RemoteEvent;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.Lease;
+import net.jini.core.lease.LeaseMap;
+import net.jini.core.lease.LeaseMapException;
+import net.jini.core.lease.UnknownLeaseException;
+import net.jini.space.AvailabilityEvent;
+import net.jini.space.JavaSpace05;
+import services.relay.TopicRelay;
+import services.sharding.TopicSpaceRouter;
+import services.space.InMemoryJavaSpace;
+import services.stats.TopicActivity;
+
+public class TopicRelayTest {
+	private InMemoryJavaSpace space;
+
+	@Before
+	public void setup() {
+		space = new InMemoryJavaSpace();
+	}
+
+	@Test
+	public void testFansOutOneRegistration() throws Exception {
+		TopicRelay relay = new TopicRelay(
+				new TopicSpaceRouter(space, Collections.<String, JavaSpace05> emptyMap()));
+		JMSUser owner = new JMSUser("Owner", "password");
+		JMSTopic topic = new JMSTopic("Topic", owner);
+
+		final BlockingQueue<RemoteEvent> firstEvents = new ArrayBlockingQueue<RemoteEvent>(10);
+		final BlockingQueue<RemoteEvent> secondEvents = new ArrayBlockingQueue<RemoteEvent>(10);
+		EventRegistration first = relay.subscribe(topic, new RemoteEventListener() {
+			@Override
+			public void notify(RemoteEvent event) throws RemoteException {
+				firstEvents.add(event);
+			}
+		});
+		EventRegistration second = relay.subscribe(topic, new RemoteEventListener() {
+			@Override
+			public void notify(RemoteEvent event) throws RemoteException {
+				secondEvents.add(event);
+			}
+		});
+		EventRegistration failing = relay.subscribe(topic, new RemoteEventListener() {
+			@Override
+			public void notify(RemoteEvent event) throws RemoteException {
+				throw new ConnectException("Subscriber has gone");
+			}
+		});
+
+		assertEquals(1, relay.getChannelCount());
+		assertEquals(3, relay.getSubscriberCount(topic.getId()));
+
+		space.write(new JMSMessage(topic, System.currentTimeMillis(), owner, null, UUID.randomUUID(), "Hello"), null,
+				Lease.FOREVER);
+		AvailabilityEvent event = (AvailabilityEvent) firstEvents.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals("Hello", ((JMSMessage) event.getEntry()).getMessage());
+		assertNotNull(secondEvents.poll(5, TimeUnit.SECONDS));
+
+		// The failing subscriber is dropped, the others kept
+		for (int i = 0; i < 50 && relay.getSubscriberCount(topic.getId()) > 2; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, relay.getSubscriberCount(topic.getId()));
+
+		// The dropped subscriber finds out when it next renews
+		first.getLease().renew(Lease.FOREVER);
+		try {
+			failing.getLease().renew(Lease.FOREVER);
+			fail("Dropped subscription should not renew");
+		} catch (UnknownLeaseException e) {
+			// Expected
+		}
+
+		// Including when renewed through a LeaseMap
+		first.getLease().createLeaseMap(Lease.FOREVER).renewAll();
+		LeaseMap failingMap = failing.getLease().createLeaseMap(Lease.FOREVER);
+		try {
+			failingMap.renewAll();
+			fail("Dropped subscription should not renew");
+		} catch (LeaseMapException e) {
+			assertTrue(e.exceptionMap.get(failing.getLease()) instanceof UnknownLeaseException);
+			assertTrue(failingMap.isEmpty());
+		}
+
+		first.getLease().cancel();
+		space.write(new JMSMessage(topic, System.currentTimeMillis(), owner, null, UUID.randomUUID(), "Again"), null,
+				Lease.FOREVER);
+		assertNotNull(secondEvents.poll(5, TimeUnit.SECONDS));
+		assertNull(firstEvents.poll(100, TimeUnit.MILLISECONDS));
+
+		// Nobody left, so the relay stops listening to the topic
+		second.getLease().cancel();
+		assertEquals(0, relay.getChannelCount());
+	}
+
+	@Test
+	public void testSlowRegistrationHoldsUpOnlyItsTopic() throws Exception {
+		final CountDownLatch registering = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean blockRegistrations = new AtomicBoolean();
+
+		// Registrations hang, as on a partitioned space, once told to
+		JavaSpace05 slowSpace = (JavaSpace05) Proxy.newProxyInstance(JavaSpace05.class.getClassLoader(),
+				new Class<?>[] { JavaSpace05.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("registerForAvailabilityEvent") && blockRegistrations.get()) {
+							registering.countDown();
+							release.await(5, TimeUnit.SECONDS);
+						}
+
+						try {
+							return method.invoke(space, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+		final TopicRelay relay = new TopicRelay(
+				new TopicSpaceRouter(slowSpace, Collections.<String, JavaSpace05> emptyMap()));
+		JMSUser owner = new JMSUser("Owner", "password");
+		final RemoteEventListener listener = new RemoteEventListener() {
+			@Override
+			public void notify(RemoteEvent event) {
+			}
+		};
+
+		EventRegistration quick = relay.subscribe(new JMSTopic("Quick", owner), listener);
+
+		blockRegistrations.set(true);
+		final JMSTopic slow = new JMSTopic("Slow", owner);
+		Thread subscribing = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					relay.subscribe(slow, listener);
+				} catch (RemoteException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		subscribing.start();
+		assertTrue(registering.await(5, TimeUnit.SECONDS));
+
+		// The other topic's subscription can still be renewed and cancelled
+		long start = System.currentTimeMillis();
+		quick.getLease().renew(Lease.FOREVER);
+		quick.getLease().cancel();
+		assertTrue(System.currentTimeMillis() - start < 1000l);
+		assertEquals(1, relay.getChannelCount());
+
+		release.countDown();
+		subscribing.join(5000l);
+		assertEquals(1, relay.getSubscriberCount(slow.getId()));
+	}
+
+	@Test
+	public void testCountsTopicActivity() throws Exception {
+		TopicRelay relay = new TopicRelay(
+				new TopicSpaceRouter(space, Collections.<String, JavaSpace05> emptyMap()));
+		JMSUser owner = new JMSUser("Owner", "password");
+		JMSUser early = new JMSUser("Early", "password");
+		JMSUser late = new JMSUser("Late", "password");
+		JMSTopic topic = new JMSTopic("Topic", owner);
+		JMSTopic quiet = new JMSTopic("Quiet", owner);
+		long now = System.currentTimeMillis();
+
+		// Already in the space when the relay starts
+		space.write(topic, null, Lease.FOREVER);
+		space.write(quiet, null, Lease.FOREVER);
+		space.write(new JMSTopicUser(topic, early), null, Lease.FOREVER);
+		space.write(new JMSMessage(topic, now - 1000l, early, null, UUID.randomUUID(), "Recent"), null,
+				Lease.FOREVER);
+		space.write(new JMSMessage(topic, now - 1000l * 60l * 60l, early, null, UUID.randomUUID(), "Old"), null,
+				Lease.FOREVER);
+		relay.start();
+		assertEquals(1, relay.getMemberCount(topic.getId()));
+
+		space.write(new JMSTopicUser(topic, late), null, Lease.FOREVER);
+		space.write(new JMSMessage(topic, now, late, null, UUID.randomUUID(), "New"), null, Lease.FOREVER);
+		for (int i = 0; i < 50 && relay.getHotTopics(1).get(0).getRecentMessageCount() < 2; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, relay.getMemberCount(topic.getId()));
+
+		List<TopicActivity> hot = relay.getHotTopics(10);
+		assertEquals(2, hot.size());
+		assertEquals(topic.getId(), hot.get(0).getTopic().getId());
+		assertEquals(2, hot.get(0).getRecentMessageCount());
+		assertEquals(quiet.getId(), hot.get(1).getTopic().getId());
+
+		space.write(new JMSTopicUserRemoved(topic, early), null, 1000l * 60l);
+		for (int i = 0; i < 50 && relay.getMemberCount(topic.getId()) > 1; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, relay.getMemberCount(topic.getId()));
+		assertEquals(0, relay.getMemberCount(UUID.randomUUID()));
+	}
+}
@@ -0,0 +1,78 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.JMSTopic;
+import models.JMSUser;
+import services.search.TopicSearchIndex;
+
+public class TopicSearchIndexTest {
+	private JMSUser aUser;
+
+	@Before
+	public void setup() {
+		aUser = new JMSUser("Owner", "password");
+	}
+
+	@Test
+	public void testFindsTopicsByNamePrefix() {
+		TopicSearchIndex index = new TopicSearchIndex();
+		JMSTopic general = new JMSTopic("General Chat", aUser);
+		JMSTopic games = new JMSTopic("games", aUser);
+		JMSTopic gen2 = new JMSTopic("Gen 2", aUser);
+		JMSTopic music = new JMSTopic("Music", aUser);
+
+		List<JMSTopic> topics = new ArrayList<JMSTopic>();
+		topics.add(general);
+		topics.add(games);
+		index.reset(topics);
+		assertTrue(index.add(gen2));
+		assertTrue(index.add(music));
+		// The same topic again, from an event racing the initial read
+		assertFalse(index.add(general));
+
+		List<JMSTopic> found = index.search("ge", 10);
+		assertEquals(2, found.size());
+		assertEquals(gen2.getId(), found.get(0).getId());
+		assertEquals(general.getId(), found.get(1).getId());
+
+		assertEquals(general.getId(), index.search("general-ch", 10).get(0).getId());
+		assertEquals(3, index.search("G", 10).size());
+		assertEquals(1, index.search("G", 1).size());
+		assertEquals(4, index.count(" "));
+		assertTrue(index.search("gz", 10).isEmpty());
+		assertTrue(TopicSearchIndex.matches(games, "GAM"));
+		assertFalse(TopicSearchIndex.matches(games, "ames"));
+
+		assertTrue(index.remove(gen2));
+		assertFalse(index.remove(gen2));
+		assertEquals(1, index.search("ge", 10).size());
+		assertEquals(3, index.count(""));
+
+		assertTrue(index.remove(general));
+		assertTrue(index.search("ge", 10).isEmpty());
+		assertEquals(1, index.count("ga"));
+
+		// Nothing outside A-Z and 0-9 reaches the trie, whatever the locale
+		assertEquals(index.count(""), index.search("\u00e9", 10).size());
+		Locale defaultLocale = Locale.getDefault();
+		try {
+			Locale.setDefault(new Locale("tr", "TR"));
+			JMSTopic gizmos = new JMSTopic("gizmos", aUser);
+
+			assertTrue(index.add(gizmos));
+			assertEquals(gizmos.getId(), index.search("gi", 10).get(0).getId());
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+}
@@ -5,7 +5,6 @@ import static org.junit.Assert.*;
 import java.nio.file.AccessDeniedException;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
@@ -17,10 +16,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import exceptions.DuplicateEntryException;
+import exceptions.NameContendedException;
 import exceptions.ResourceNotFoundException;
 import models.JMSMessage;
 import models.JMSTopic;
 import models.JMSTopicUser;
+import models.JMSTopicUserRemoved;
 import models.JMSUser;
 import net.jini.core.entry.UnusableEntryException;
 import net.jini.core.lease.Lease;
@@ -28,6 +29,7 @@ import net.jini.core.lease.UnknownLeaseException;
 import net.jini.core.transaction.TransactionException;
 import net.jini.space.JavaSpace05;
 import services.MessageService;
+import services.PresenceService;
 import services.SpaceService;
 import services.TopicService;
 import services.UserService;
@@ -78,7 +80,7 @@ public class TopicServiceTest {
 		try {
 			leases.add(userService.createDebugUser(aUser));
 			leases.add(topicService.createTopic(topic));
-		} catch (RemoteException | DuplicateEntryException | TransactionException e) {
+		} catch (RemoteException | DuplicateEntryException | TransactionException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		} catch (InvalidAttributeValueException e) {
 			expectedExceptionThrown = true;
@@ -96,7 +98,7 @@ public class TopicServiceTest {
 		try {
 			leases.add(userService.createDebugUser(aUser));
 			leases.add(topicService.createTopic(topic));
-		} catch (RemoteException | DuplicateEntryException | TransactionException e) {
+		} catch (RemoteException | DuplicateEntryException | TransactionException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		} catch (InvalidAttributeValueException e) {
 			expectedExceptionThrown = true;
@@ -120,7 +122,7 @@ public class TopicServiceTest {
 			leases.add(userService.createDebugUser(aUser));
 			leases.add(topicService.createTopic(topic));
 			leases.add(topicService.createTopic(topicDupe));
-		} catch (RemoteException | InvalidAttributeValueException | TransactionException e) {
+		} catch (RemoteException | InvalidAttributeValueException | TransactionException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		} catch (DuplicateEntryException e) {
 			expectedExceptionThrown = true;
@@ -145,7 +147,7 @@ public class TopicServiceTest {
 			leases.add(userService.createDebugUser(aUser));
 			leases.add(topicService.createTopic(topic));
 			leases.add(topicService.createTopic(topicDupe));
-		} catch (RemoteException | InvalidAttributeValueException | TransactionException e) {
+		} catch (RemoteException | InvalidAttributeValueException | TransactionException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		} catch (DuplicateEntryException e) {
 			expectedExceptionThrown = true;
@@ -169,7 +171,7 @@ public class TopicServiceTest {
 			leases.add(userService.createDebugUser(aUser));
 			leases.add(topicService.createTopic(topic));
 			leases.add(topicService.createTopic(topicDupe));
-		} catch (RemoteException | InvalidAttributeValueException | TransactionException e) {
+		} catch (RemoteException | InvalidAttributeValueException | TransactionException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		} catch (DuplicateEntryException e) {
 			expectedExceptionThrown = true;
@@ -192,7 +194,7 @@ public class TopicServiceTest {
 
 			topicService.deleteTopic(topic, new JMSUser(randomName, randomName));
 
-		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException e) {
+		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException | NameContendedException e) {
 			fail("Unexpected exception thrown.");
 		} catch (AccessDeniedException e) {
 			expectedExceptionThrown = true;
@@ -218,7 +220,7 @@ public class TopicServiceTest {
 			assertTrue("Topic was not successfully deleted", topicService.getTopicByBaseName(topic.baseName) == null);
 
 		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException
-				| AccessDeniedException e) {
+				| AccessDeniedException | NameContendedException e) {
 			fail("Unexpected exception thrown.");
 		}
 	}
@@ -235,7 +237,7 @@ public class TopicServiceTest {
 		message.setTo(aUser);
 		message.setId(UUID.randomUUID());
 		message.setMessage("Test message");
-		message.setSentDate(new Date());
+		message.setSentTime(System.currentTimeMillis());
 
 		try {
 			leases.add(userService.createDebugUser(aUser));
@@ -258,7 +260,7 @@ public class TopicServiceTest {
 					lookupHelper.findAllMatchingTemplate(space, message).size());
 
 		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException
-				| AccessDeniedException | ResourceNotFoundException e) {
+				| AccessDeniedException | ResourceNotFoundException | NameContendedException e) {
 			fail("Unexpected exception thrown.");
 		}
 	}
@@ -290,7 +292,7 @@ public class TopicServiceTest {
 					lookupHelper.findAllMatchingTemplate(space, new JMSTopicUser(topic, aUser)).size());
 
 		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException
-				| AccessDeniedException e) {
+				| AccessDeniedException | NameContendedException e) {
 			fail("Unexpected exception thrown.");
 		}
 	}
@@ -323,7 +325,7 @@ public class TopicServiceTest {
 
 			assertEquals("Failed to get all 3 topic users", 3, topicService.getAllTopicUsers(topic).size());
 
-		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException e) {
+		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException | NameContendedException e) {
 			fail("Unexpected exception thrown.");
 		}
 	}
@@ -363,7 +365,106 @@ public class TopicServiceTest {
 				assertFalse(topicUsersFound.get(i).getUser().getId().equals(user2.getId()));
 			}
 
-		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException e) {
+		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException | NameContendedException e) {
+			fail("Unexpected exception thrown.");
+		}
+	}
+
+	// Test manual TopicUser removal also removes duplicate TopicUsers
+	@Test
+	public void testTopicUserRemovalRemovesDuplicates() {
+		String randomName = RandomStringUtils.randomAlphabetic(50);
+
+		JMSTopic topic = new JMSTopic(randomName, aUser);
+		JMSUser user1 = new JMSUser(randomName + "1", randomName + "1");
+
+		try {
+			leases.add(userService.createDebugUser(user1));
+			leases.add(topicService.createTopic(topic));
+
+			int numDuplicates = 20;
+			for (int i = 0; i < numDuplicates; i++) {
+				leases.add(topicService.addDebugTopicUser(topic, user1));
+			}
+
+			JavaSpace05 space = SpaceService.getSpace();
+
+			assertEquals("Users not successfully added", numDuplicates,
+					lookupHelper.findAllMatchingTemplate(space, new JMSTopicUser(topic, user1)).size());
+
+			topicService.removeTopicUser(topic, user1);
+
+			assertEquals("Duplicate topic users were not all removed", 0, topicService.getAllTopicUsers(topic).size());
+		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException | NameContendedException e) {
+			fail("Unexpected exception thrown.");
+		}
+	}
+
+	// Test TopicUsers are added with a short presence lease that is kept alive
+	@Test
+	public void testTopicUserHasRenewedPresenceLease() {
+		String randomName = RandomStringUtils.randomAlphabetic(50);
+
+		JMSTopic topic = new JMSTopic(randomName, aUser);
+		JMSUser user1 = new JMSUser(randomName + "1", randomName + "1");
+		PresenceService presenceService = PresenceService.getPresenceService();
+
+		try {
+			leases.add(userService.createDebugUser(user1));
+			leases.add(topicService.createTopic(topic));
+
+			long latestExpiration = System.currentTimeMillis() + PresenceService.PRESENCE_LEASE_IN_MILLIS;
+			Lease lease = topicService.addTopicUser(topic, user1);
+			leases.add(lease);
+
+			assertTrue("TopicUser lease should not be forever", lease.getExpiration() <= latestExpiration + 1000l);
+			assertTrue("TopicUser presence is not being renewed", presenceService.isTracked(topic, user1));
+
+			topicService.removeTopicUser(topic, user1);
+
+			assertFalse("TopicUser presence still renewed after leaving", presenceService.isTracked(topic, user1));
+		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException | NameContendedException e) {
+			fail("Unexpected exception thrown.");
+		}
+	}
+
+	// Test removing a user from all of their topics at once
+	@Test
+	public void testRemoveUserFromAllTopics() {
+		String randomName = RandomStringUtils.randomAlphabetic(50);
+
+		JMSUser user1 = new JMSUser(randomName + "1", randomName + "1");
+		JMSUser user2 = new JMSUser(randomName + "2", randomName + "2");
+
+		try {
+			leases.add(userService.createDebugUser(user1));
+			leases.add(userService.createDebugUser(user2));
+
+			int numTopics = 5;
+			List<JMSTopic> topics = new ArrayList<JMSTopic>();
+			for (int i = 0; i < numTopics; i++) {
+				JMSTopic topic = new JMSTopic(randomName + i, aUser);
+				topics.add(topic);
+
+				leases.add(topicService.createTopic(topic));
+				leases.add(topicService.addDebugTopicUser(topic, user1));
+				leases.add(topicService.addDebugTopicUser(topic, user2));
+			}
+
+			assertEquals("User not removed from every topic", numTopics, topicService.removeUserFromAllTopics(user1));
+
+			JavaSpace05 space = SpaceService.getSpace();
+			JMSTopicUser user1Template = new JMSTopicUser();
+			user1Template.setUser(user1);
+
+			assertEquals("User still in topics", 0, lookupHelper.findAllMatchingTemplate(space, user1Template).size());
+
+			for (JMSTopic topic : topics) {
+				assertEquals("Other users should stay in the topic", 1, topicService.getAllTopicUsers(topic).size());
+				assertEquals("Removal notice not written", 1,
+						lookupHelper.findAllMatchingTemplate(space, new JMSTopicUserRemoved(topic, user1)).size());
+			}
+		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException | NameContendedException e) {
 			fail("Unexpected exception thrown.");
 		}
 	}
@@ -381,7 +482,7 @@ public class TopicServiceTest {
 			JMSTopic topicFound = topicService.getTopicById(topic.getId());
 			
 			assertEquals(topic.getId(), topicFound.getId());
-		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException e) {
+		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException | NameContendedException e) {
 			fail("Unexpected exception thrown.");
 		}
 	}
@@ -399,7 +500,7 @@ public class TopicServiceTest {
 			JMSTopic topicFound = topicService.getTopicByBaseName(topic.getBaseName());
 			
 			assertEquals(topic.getId(), topicFound.getId());
-		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException e) {
+		} catch (RemoteException | TransactionException | InvalidAttributeValueException | DuplicateEntryException | NameContendedException e) {
 			fail("Unexpected exception thrown.");
 		}
 	}
@@ -7,6 +7,7 @@ import static org.junit.Assert.fail;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.directory.InvalidAttributeValueException;
 
@@ -16,6 +17,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import exceptions.DuplicateEntryException;
+import exceptions.NameContendedException;
 import exceptions.ResourceNotFoundException;
 import models.JMSUser;
 import net.jini.core.lease.Lease;
@@ -60,7 +62,7 @@ public class UserServiceTest {
 		try {
 			leases.add(userService.createUser(user));
 			leases.add(userService.createUser(userDupe));
-		} catch (RemoteException | TransactionException e) {
+		} catch (RemoteException | TransactionException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		} catch (DuplicateEntryException e) {
 			expectedExceptionThrown = true;
@@ -80,7 +82,7 @@ public class UserServiceTest {
 		try {
 			leases.add(userService.createUser(user));
 			leases.add(userService.createUser(userDupe));
-		} catch (RemoteException | TransactionException e) {
+		} catch (RemoteException | TransactionException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		} catch (DuplicateEntryException e) {
 			expectedExceptionThrown = true;
@@ -103,7 +105,7 @@ public class UserServiceTest {
 		try {
 			leases.add(userService.createUser(user));
 			leases.add(userService.createUser(userDupe));
-		} catch (RemoteException | TransactionException e) {
+		} catch (RemoteException | TransactionException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		} catch (DuplicateEntryException e) {
 			expectedExceptionThrown = true;
@@ -112,6 +114,54 @@ public class UserServiceTest {
 		assertTrue(expectedExceptionThrown);
 	}
 	
+	// Concurrent signups with the same name only create one user
+	@Test
+	public void testConcurrentIdenticalNamesOnlyCreateOneUser() throws InterruptedException {
+		final String randomName = RandomStringUtils.randomAlphabetic(50);
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicInteger rejected = new AtomicInteger();
+
+		int numSignups = 8;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < numSignups; i++) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// Losing a contended claim means trying again, as the
+					// signup form asks the user to
+					while (true) {
+						try {
+							Lease lease = userService.createUser(new JMSUser(randomName, randomName));
+
+							synchronized (leases) {
+								leases.add(lease);
+							}
+							created.incrementAndGet();
+						} catch (NameContendedException e) {
+							continue;
+						} catch (DuplicateEntryException e) {
+							rejected.incrementAndGet();
+						} catch (RemoteException | TransactionException e) {
+							// Counted as neither
+						}
+
+						return;
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals("Exactly one signup should succeed", 1, created.get());
+		assertEquals("Every other signup should be rejected", numSignups - 1, rejected.get());
+	}
+
 	// Get user by basename transactionally
 	@Test
 	public void testGettingUserByBaseNameTransactionally() {
@@ -126,7 +176,7 @@ public class UserServiceTest {
 			transaction.commit();
 			
 			assertEquals(expectedUser.getId(), actualUser.getId());
-		} catch (RemoteException | TransactionException | DuplicateEntryException e) {
+		} catch (RemoteException | TransactionException | DuplicateEntryException | NameContendedException e) {
 			fail("Unexpected error thrown");
 		}
 	}
@@ -140,12 +190,15 @@ public class UserServiceTest {
 		try {
 			Lease leaseInitial = userService.createUser(user);
 			leases.add(leaseInitial);
+			// Renewal may extend the same lease in place, so note its
+			// expiration now
+			long initialExpiration = leaseInitial.getExpiration();
 			
 			Lease leaseExtended = userService.renewUserLease(user);
 			leases.add(leaseExtended);
 			
-			assertTrue(leaseInitial.getExpiration() < leaseExtended.getExpiration());
-		} catch (RemoteException | TransactionException | DuplicateEntryException | InvalidAttributeValueException | ResourceNotFoundException e) {
+			assertTrue(initialExpiration < leaseExtended.getExpiration());
+		} catch (RemoteException | TransactionException | DuplicateEntryException | NameContendedException | InvalidAttributeValueException | ResourceNotFoundException e) {
 			fail("Unexpected error thrown");
 		}
 	}